@@ -30,8 +30,6 @@ import org.asteroidos.sync.fragments.DeviceDetailFragment;
 import org.asteroidos.sync.services.NLService;
 import org.asteroidos.sync.services.SynchronizationService;
 
-import static com.idevicesinc.sweetblue.BleManager.get;
-
 public class MainActivity extends AppCompatActivity implements DeviceListFragment.OnDefaultDeviceSelectedListener,
         DeviceListFragment.OnScanRequestedListener, DeviceDetailFragment.OnDefaultDeviceUnselectedListener,
         DeviceDetailFragment.OnConnectRequestedListener, ManagerStateListener, BleManager.DiscoveryListener, BleManager.UhOhListener {
@@ -60,7 +58,7 @@ public class MainActivity extends AppCompatActivity implements DeviceListFragmen
         startService(mSyncServiceIntent);
 
         BluetoothEnabler.start(this);
-        mBleMngr = get(getApplication());
+        mBleMngr = SynchronizationService.getBleManager(getApplication());
         mBleMngr.setListener_State(this);
         mBleMngr.setListener_Discovery(this);
         mBleMngr.setListener_UhOh(this);
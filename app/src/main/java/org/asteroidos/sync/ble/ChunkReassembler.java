@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembles a bulk download that the watch sends as a size header followed by a run of
+ * notifications, like the screenshot characteristic does. Chunks are streamed into a single
+ * buffer that is reused from one transfer to the next and written out to a ".part" file each
+ * time it fills up, so the whole payload is never held in memory. The file is only renamed to
+ * its final name once every byte has arrived.
+ */
+public class ChunkReassembler {
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String PART_SUFFIX = ".part";
+
+    public interface Listener {
+        /** Called at most once per progress interval, and not for the final chunk. */
+        void onProgress(int received, int size);
+
+        void onComplete(File file, int size);
+
+        void onFailure(File file, IOException e);
+    }
+
+    private final Listener mListener;
+    private final long mProgressIntervalNs;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    private File mFile;
+    private File mPartFile;
+    private FileOutputStream mOut;
+    private int mBuffered;
+    private int mSize;
+    private int mReceived;
+    private long mLastProgressNs;
+
+    public ChunkReassembler(long progressIntervalMs, Listener listener) {
+        mListener = listener;
+        mProgressIntervalNs = TimeUnit.MILLISECONDS.toNanos(progressIntervalMs);
+    }
+
+    public boolean isActive() {
+        return mOut != null;
+    }
+
+    /**
+     * Starts a new transfer of the given size into the given file, dropping any transfer that
+     * was still in progress.
+     */
+    public void begin(File file, int size) {
+        abort();
+
+        mFile = file;
+        mPartFile = new File(file.getPath() + PART_SUFFIX);
+        mSize = size;
+        mReceived = 0;
+        mBuffered = 0;
+        mLastProgressNs = System.nanoTime();
+
+        if (size <= 0) {
+            fail(new IOException("Invalid transfer size " + size));
+            return;
+        }
+
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists())
+            directory.mkdirs();
+
+        try {
+            mOut = new FileOutputStream(mPartFile);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public void onChunk(byte[] data) {
+        if (mOut == null || data == null)
+            return;
+
+        // Anything past the announced size can't be part of this transfer.
+        int length = Math.min(data.length, mSize - mReceived);
+
+        try {
+            int offset = 0;
+            while (offset < length) {
+                if (mBuffered == mBuffer.length)
+                    flush();
+
+                int count = Math.min(length - offset, mBuffer.length - mBuffered);
+                System.arraycopy(data, offset, mBuffer, mBuffered, count);
+                mBuffered += count;
+                offset += count;
+            }
+            mReceived += length;
+
+            if (mReceived == mSize) {
+                finish();
+            } else {
+                long now = System.nanoTime();
+                if (now - mLastProgressNs >= mProgressIntervalNs) {
+                    mLastProgressNs = now;
+                    mListener.onProgress(mReceived, mSize);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Drops the transfer in progress, if any, along with its partial file.
+     */
+    public void abort() {
+        if (mOut == null)
+            return;
+
+        closeQuietly();
+        mPartFile.delete();
+    }
+
+    private void flush() throws IOException {
+        mOut.write(mBuffer, 0, mBuffered);
+        mBuffered = 0;
+    }
+
+    private void finish() throws IOException {
+        flush();
+        mOut.close();
+        mOut = null;
+
+        if (!mPartFile.renameTo(mFile))
+            throw new IOException("Couldn't rename " + mPartFile + " to " + mFile);
+
+        mListener.onComplete(mFile, mSize);
+    }
+
+    private void fail(IOException e) {
+        closeQuietly();
+        if (mPartFile != null)
+            mPartFile.delete();
+
+        mListener.onFailure(mFile, e);
+    }
+
+    private void closeQuietly() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException ignored) {}
+            mOut = null;
+        }
+        mBuffered = 0;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import com.idevicesinc.sweetblue.BleDevice;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Sits on top of {@link OutboundScheduler#write} for characteristics that only ever need to
+ * hold their latest value. Each characteristic has at most one write in flight; anything
+ * written meanwhile replaces the pending value, which goes out once the in-flight write
+ * completes. Values equal to what the watch last acknowledged are dropped. A failed write is
+ * retried once, unless something newer is pending by then. If the scheduler drops
+ * the write in flight, the characteristic is free again and its next value goes out.
+ *
+ * Like the rest of the services, this expects to be called from the main thread, which is where
+ * SweetBlue delivers its callbacks.
+ */
+public class CoalescingWriter {
+    private OutboundScheduler mScheduler;
+    private OutboundScheduler.TrafficClass mTrafficClass;
+    private BleDevice.ReadWriteListener mListener;
+    private HashMap<UUID, Slot> mSlots = new HashMap<>();
+
+    /**
+     * @param listener receives the result of every write that actually goes out, may be null
+     */
+    public CoalescingWriter(OutboundScheduler scheduler, OutboundScheduler.TrafficClass trafficClass, BleDevice.ReadWriteListener listener) {
+        mScheduler = scheduler;
+        mTrafficClass = trafficClass;
+        mListener = listener;
+    }
+
+    public void write(UUID charUuid, byte[] data) {
+        Slot slot = mSlots.get(charUuid);
+        if (slot == null) {
+            slot = new Slot(charUuid);
+            mSlots.put(charUuid, slot);
+        }
+
+        if (slot.inFlight != null && Arrays.equals(slot.inFlight, data)) {
+            slot.pending = null;
+            return;
+        }
+
+        slot.pending = data;
+        slot.retried = false;
+        if (slot.inFlight == null)
+            slot.flush();
+    }
+
+    /* Split out of Slot.onEvent() so tests can settle writes without a ReadWriteEvent. */
+    void onWritten(UUID charUuid) {
+        Slot slot = mSlots.get(charUuid);
+        slot.settle(true);
+        slot.flush();
+    }
+
+    void onWriteFailed(UUID charUuid) {
+        Slot slot = mSlots.get(charUuid);
+        slot.settle(false);
+        slot.flush();
+    }
+
+    /**
+     * Forgets what the watch was last known to hold and anything not yet written, for example
+     * after a reconnect, so the next value written to each characteristic is sent even if it
+     * didn't change.
+     */
+    public void reset() {
+        for (Slot slot : mSlots.values()) {
+            slot.acked = null;
+            slot.inFlight = null;
+            slot.pending = null;
+            slot.retried = false;
+        }
+    }
+
+    private class Slot implements BleDevice.ReadWriteListener, OutboundScheduler.DropListener {
+        private final UUID charUuid;
+        private byte[] acked;
+        private byte[] inFlight;
+        private byte[] pending;
+        private boolean retried;
+
+        Slot(UUID charUuid) {
+            this.charUuid = charUuid;
+        }
+
+        void flush() {
+            byte[] data = pending;
+            pending = null;
+
+            if (data == null || Arrays.equals(data, acked))
+                return;
+
+            inFlight = data;
+            mScheduler.write(mTrafficClass, charUuid, data, OutboundScheduler.NO_DEADLINE, this, this);
+        }
+
+        @Override
+        public void onDropped(UUID charUuid, byte[] data) {
+            // Only dropped when the link went away, so there's no point sending what's pending now.
+            if (inFlight == data)
+                inFlight = null;
+        }
+
+        /* A value equal to the one in flight was dropped in write(), so a failed one has to go out again. */
+        void settle(boolean success) {
+            if (success) {
+                acked = inFlight;
+            } else if (pending == null && !retried) {
+                pending = inFlight;
+                retried = true;
+            }
+            inFlight = null;
+        }
+
+        @Override
+        public void onEvent(ReadWriteEvent e) {
+            settle(e.wasSuccess());
+
+            if (mListener != null)
+                mListener.onEvent(e);
+
+            flush();
+        }
+    }
+}
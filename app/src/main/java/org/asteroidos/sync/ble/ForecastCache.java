@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+import github.vatsal.easyweather.Helper.ForecastCallback;
+import github.vatsal.easyweather.WeatherMap;
+import github.vatsal.easyweather.retrofit.models.ForecastResponseModel;
+import github.vatsal.easyweather.retrofit.models.List;
+
+/**
+ * The last forecast fetched, shared by the {@link WeatherService} of every watch. A forecast is
+ * reused while it's fresh, and one fetch serves everyone asking for the same city meanwhile.
+ *
+ * Like the rest of the services, this expects to be called from the main thread.
+ */
+public class ForecastCache {
+    /**
+     * Where forecasts come from, OpenWeatherMap unless another one is given, e.g. a local stand-in
+     * for benchmarks. Callbacks are expected on the main thread.
+     */
+    public interface Provider {
+        interface Callback {
+            void success(WeatherCodec.Forecast forecast);
+            void failure(String message);
+        }
+
+        void getForecast(String cityName, Callback callback);
+    }
+
+    public interface Listener {
+        void onForecast(WeatherCodec.Forecast forecast);
+    }
+
+    /* OWM only publishes a new forecast every few hours, fetching more often than this is wasted. */
+    private static final long FORECAST_TTL_MS = 30 * 60 * 1000;
+
+    private Provider mProvider;
+
+    private WeatherCodec.Forecast mForecast;
+    private String mForecastCity;
+    private long mForecastTime;
+
+    private String mFetchingCity;
+    private ArrayList<Listener> mWaiting = new ArrayList<>();
+
+    public ForecastCache(Context ctx) {
+        this(new OwmProvider(ctx));
+    }
+
+    public ForecastCache(Provider provider) {
+        mProvider = provider;
+    }
+
+    /**
+     * Hands the forecast for the given city to the listener, right away if a fresh one is cached,
+     * otherwise once it's fetched. If another city is asked for meanwhile, everyone waiting gets
+     * that one instead. Nothing is handed out if the fetch fails.
+     */
+    public void get(final String cityName, Listener listener) {
+        if (mForecast != null && cityName.equals(mForecastCity)
+                && now() - mForecastTime < FORECAST_TTL_MS) {
+            listener.onForecast(mForecast);
+            return;
+        }
+
+        if (!mWaiting.contains(listener))
+            mWaiting.add(listener);
+
+        if (cityName.equals(mFetchingCity))
+            return;
+        mFetchingCity = cityName;
+
+        mProvider.getForecast(cityName, new Provider.Callback() {
+            @Override
+            public void success(WeatherCodec.Forecast forecast) {
+                // Superseded by a fetch for another city.
+                if (!cityName.equals(mFetchingCity))
+                    return;
+                mFetchingCity = null;
+
+                mForecast = forecast;
+                mForecastCity = cityName;
+                mForecastTime = now();
+
+                ArrayList<Listener> waiting = mWaiting;
+                mWaiting = new ArrayList<>();
+                for (Listener listener : waiting)
+                    listener.onForecast(forecast);
+            }
+
+            @Override
+            public void failure(String message) {
+                if (!cityName.equals(mFetchingCity))
+                    return;
+                mFetchingCity = null;
+                mWaiting.clear();
+                Log.e("ForecastCache", "Could not get weather from owm");
+            }
+        });
+    }
+
+    /** Stops handing a pending forecast to the listener. */
+    public void cancel(Listener listener) {
+        mWaiting.remove(listener);
+    }
+
+    /* Overridden by tests, which have no real clock. */
+    protected long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    private static class OwmProvider implements Provider {
+        private WeatherMap mWeatherMap;
+
+        OwmProvider(Context ctx) {
+            mWeatherMap = new WeatherMap(ctx, WeatherService.owmApiKey);
+        }
+
+        @Override
+        public void getForecast(String cityName, final Callback callback) {
+            mWeatherMap.getCityForecast(cityName, new ForecastCallback() {
+                @Override
+                public void success(ForecastResponseModel response) {
+                    List[] l = response.getList();
+                    long[] timestamps = new long[l.length];
+                    float[] temps = new float[l.length];
+                    int[] ids = new int[l.length];
+
+                    for (int i = 0; i < l.length; i++) {
+                        timestamps[i] = Long.parseLong(l[i].getDt());
+                        temps[i] = Float.parseFloat(l[i].getMain().getTemp());
+                        ids[i] = Short.parseShort(l[i].getWeather()[0].getId());
+                    }
+
+                    callback.success(WeatherCodec.encode(response.getCity().getName(), timestamps, temps, ids,
+                            l.length, TimeZone.getDefault()));
+                }
+
+                @Override
+                public void failure(String message) {
+                    callback.failure(message);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.media.MediaMetadata;
+import android.media.session.MediaController;
+import android.media.session.MediaSession;
+import android.media.session.MediaSessionManager;
+import android.media.session.PlaybackState;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.asteroidos.sync.services.NLService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Follows the active media session once for all watches and hands what they display, keyed by
+ * {@link MediaService} characteristic, to every subscribed listener. A listener that subscribes
+ * late first gets the current values. The session is only followed while someone is subscribed.
+ *
+ * Like the rest of the services, this expects to be called from the main thread.
+ */
+public class MediaSource implements MediaSessionManager.OnActiveSessionsChangedListener {
+    public interface Listener {
+        void onMediaChanged(UUID charUuid, byte[] data);
+    }
+
+    private Context mCtx;
+    private ArrayList<Listener> mListeners = new ArrayList<>();
+    private LinkedHashMap<UUID, byte[]> mValues = new LinkedHashMap<>();
+
+    private MediaController mMediaController = null;
+    private MediaSessionManager mMediaSessionManager;
+
+    public MediaSource(Context ctx) {
+        mCtx = ctx;
+    }
+
+    public void addListener(Listener listener) {
+        if (mListeners.contains(listener))
+            return;
+        mListeners.add(listener);
+
+        if (mListeners.size() == 1) {
+            start();
+        } else {
+            for (Map.Entry<UUID, byte[]> value : mValues.entrySet())
+                listener.onMediaChanged(value.getKey(), value.getValue());
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        if (mListeners.remove(listener) && mListeners.isEmpty())
+            stop();
+    }
+
+    /** The controller of the active media session, or null if there's none. */
+    public MediaController getController() {
+        return mMediaController;
+    }
+
+    private void start() {
+        try {
+            mMediaSessionManager = (MediaSessionManager) mCtx.getSystemService(Context.MEDIA_SESSION_SERVICE);
+            List<MediaController> controllers = mMediaSessionManager.getActiveSessions(new ComponentName(mCtx, NLService.class));
+            onActiveSessionsChanged(controllers);
+            mMediaSessionManager.addOnActiveSessionsChangedListener(this, new ComponentName(mCtx, NLService.class));
+        } catch (SecurityException e) {
+            Log.w("MediaSource", "No Notification Access");
+        }
+    }
+
+    private void stop() {
+        if(mMediaSessionManager != null)
+            mMediaSessionManager.removeOnActiveSessionsChangedListener(this);
+        if (mMediaController != null) {
+            try {
+                mMediaController.unregisterCallback(mMediaCallback);
+            } catch(IllegalArgumentException ignored) {}
+            Log.d("MediaSource", "MediaController removed");
+            mMediaController = null;
+        }
+        mValues.clear();
+    }
+
+    private void publish(UUID charUuid, byte[] data) {
+        mValues.put(charUuid, data);
+        for (Listener listener : new ArrayList<>(mListeners))
+            listener.onMediaChanged(charUuid, data);
+    }
+
+    /**
+     * Callback for the MediaController.
+     */
+    private MediaController.Callback mMediaCallback = new MediaController.Callback() {
+
+        @Override
+        public void onAudioInfoChanged(MediaController.PlaybackInfo playbackInfo) {
+            super.onAudioInfoChanged(playbackInfo);
+        }
+
+        /**
+         * Helper method to safely get a text value from a {@link MediaMetadata} as a byte array
+         * (UTF-8 encoded).
+         *
+         * <p>If the field is null, a zero length byte array will be returned.</p>
+         *
+         * @param metadata the MediaMetadata (assumed to be non-null)
+         * @param fieldName the field name
+         * @return the field value as a byte array
+         */
+        private byte[] getTextAsBytes(MediaMetadata metadata, String fieldName) {
+            byte [] result;
+
+            CharSequence text = metadata.getText(fieldName);
+
+            if (text != null) {
+                result = text.toString().getBytes(StandardCharsets.UTF_8);
+            } else {
+                result = new byte[]{0};
+            }
+
+            return result;
+        }
+
+        @Override
+        public void onMetadataChanged(MediaMetadata metadata) {
+            super.onMetadataChanged(metadata);
+
+            if (metadata != null) {
+                publish(MediaService.mediaArtistCharac,
+                        getTextAsBytes(metadata, MediaMetadata.METADATA_KEY_ARTIST));
+
+                publish(MediaService.mediaAlbumCharac,
+                        getTextAsBytes(metadata, MediaMetadata.METADATA_KEY_ALBUM));
+
+                publish(MediaService.mediaTitleCharac,
+                        getTextAsBytes(metadata, MediaMetadata.METADATA_KEY_TITLE));
+            }
+        }
+
+        @Override
+        public void onPlaybackStateChanged(@NonNull PlaybackState state) {
+            super.onPlaybackStateChanged(state);
+            byte[] data = new byte[1];
+            data[0] = (byte)(state.getState() == PlaybackState.STATE_PLAYING ?  1 : 0);
+            publish(MediaService.mediaPlayingCharac, data);
+        }
+
+        @Override
+        public void onQueueChanged(List<MediaSession.QueueItem> queue) {
+            super.onQueueChanged(queue);
+        }
+
+        @Override
+        public void onQueueTitleChanged(CharSequence title) {
+            super.onQueueTitleChanged(title);
+        }
+    };
+
+    @Override
+    public void onActiveSessionsChanged(List<MediaController> controllers) {
+        if (controllers.size() > 0) {
+            if (mMediaController != null) {
+                if (!controllers.get(0).getSessionToken().equals(mMediaController.getSessionToken())) {
+                    // Detach current controller
+                    mMediaController.unregisterCallback(mMediaCallback);
+                    Log.d("MediaSource", "MediaController removed");
+                    mMediaController = null;
+
+                    // Attach new controller
+                    mMediaController = controllers.get(0);
+                    mMediaController.registerCallback(mMediaCallback);
+                    mMediaCallback.onMetadataChanged(mMediaController.getMetadata());
+                    if(mMediaController.getPlaybackState() != null)
+                        mMediaCallback.onPlaybackStateChanged(mMediaController.getPlaybackState());
+                    Log.d("MediaSource", "MediaController set: " + mMediaController.getPackageName());
+                }
+            } else {
+                // Attach new controller
+                mMediaController = controllers.get(0);
+                mMediaController.registerCallback(mMediaCallback);
+                mMediaCallback.onMetadataChanged(mMediaController.getMetadata());
+                if(mMediaController.getPlaybackState() != null)
+                    mMediaCallback.onPlaybackStateChanged(mMediaController.getPlaybackState());
+                Log.d("MediaSource", "MediaController set: " + mMediaController.getPackageName());
+            }
+        } else {
+            byte[] data = new byte[]{0};
+            publish(MediaService.mediaArtistCharac, data);
+            publish(MediaService.mediaAlbumCharac, data);
+            publish(MediaService.mediaTitleCharac, data);
+        }
+    }
+}
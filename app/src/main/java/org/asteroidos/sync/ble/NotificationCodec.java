@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Encodes notification updates for the watch, either as the original XML messages or as the
+ * binary TLV format understood by watches that expose
+ * {@link NotificationService#notificationBinaryUpdateCharac}.
+ *
+ * A binary message is a message type byte, the notification id as a little endian int32, then
+ * one entry per field: a tag byte, the value's length as a little endian uint16, and the value
+ * in UTF-8. An update only carries the fields that changed since what the watch already holds.
+ */
+public final class NotificationCodec {
+    public static final int MAX_FIELD_LENGTH = 512;
+
+    public static final byte MSG_INSERT = 0x01;
+    public static final byte MSG_UPDATE = 0x02;
+    public static final byte MSG_REMOVE = 0x03;
+
+    public static final byte TAG_PACKAGE_NAME = 0x01;
+    public static final byte TAG_APP_NAME = 0x02;
+    public static final byte TAG_APP_ICON = 0x03;
+    public static final byte TAG_SUMMARY = 0x04;
+    public static final byte TAG_BODY = 0x05;
+
+    private static final int HEADER_SIZE = 5;
+    private static final int FIELD_HEADER_SIZE = 3;
+
+    private NotificationCodec() {}
+
+    public static final class Fields {
+        final String packageName;
+        final String appName;
+        final String appIcon;
+        final String summary;
+        final String body;
+
+        public Fields(String packageName, String appName, String appIcon, String summary, String body) {
+            this.packageName = bound(packageName);
+            this.appName = bound(appName);
+            this.appIcon = bound(appIcon);
+            this.summary = bound(summary);
+            this.body = bound(body);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Fields))
+                return false;
+            Fields other = (Fields) o;
+            return packageName.equals(other.packageName) && appName.equals(other.appName)
+                    && appIcon.equals(other.appIcon) && summary.equals(other.summary) && body.equals(other.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(packageName, appName, appIcon, summary, body);
+        }
+    }
+
+    public static byte[] insertXml(int id, Fields f) {
+        StringBuilder xmlRequest = new StringBuilder(64 + f.packageName.length() + f.appName.length()
+                + f.appIcon.length() + f.summary.length() + f.body.length());
+        xmlRequest.append("<insert>");
+        appendXml(xmlRequest.append("<pn>"), f.packageName).append("</pn>");
+        xmlRequest.append("<id>").append(id).append("</id>");
+        appendXml(xmlRequest.append("<an>"), f.appName).append("</an>");
+        appendXml(xmlRequest.append("<ai>"), f.appIcon).append("</ai>");
+        appendXml(xmlRequest.append("<su>"), f.summary).append("</su>");
+        appendXml(xmlRequest.append("<bo>"), f.body).append("</bo>");
+        xmlRequest.append("</insert>");
+
+        return xmlRequest.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static byte[] removeXml(int id) {
+        return ("<removed><id>" + id + "</id></removed>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a full insert if the watch doesn't hold this id yet, otherwise an update with only
+     * the fields that differ from <code>held</code>, or <code>null</code> if nothing changed.
+     */
+    public static byte[] insertTlv(int id, Fields f, Fields held) {
+        byte[] packageName = changed(f.packageName, held == null ? null : held.packageName);
+        byte[] appName = changed(f.appName, held == null ? null : held.appName);
+        byte[] appIcon = changed(f.appIcon, held == null ? null : held.appIcon);
+        byte[] summary = changed(f.summary, held == null ? null : held.summary);
+        byte[] body = changed(f.body, held == null ? null : held.body);
+
+        int size = HEADER_SIZE + fieldSize(packageName) + fieldSize(appName) + fieldSize(appIcon)
+                + fieldSize(summary) + fieldSize(body);
+        if (held != null && size == HEADER_SIZE)
+            return null;
+
+        byte[] data = new byte[size];
+        int offset = putHeader(data, held == null ? MSG_INSERT : MSG_UPDATE, id);
+        offset = putField(data, offset, TAG_PACKAGE_NAME, packageName);
+        offset = putField(data, offset, TAG_APP_NAME, appName);
+        offset = putField(data, offset, TAG_APP_ICON, appIcon);
+        offset = putField(data, offset, TAG_SUMMARY, summary);
+        putField(data, offset, TAG_BODY, body);
+
+        return data;
+    }
+
+    public static byte[] removeTlv(int id) {
+        byte[] data = new byte[HEADER_SIZE];
+        putHeader(data, MSG_REMOVE, id);
+        return data;
+    }
+
+    private static String bound(String value) {
+        if (value == null)
+            return "";
+        if (value.length() <= MAX_FIELD_LENGTH)
+            return value;
+
+        int end = MAX_FIELD_LENGTH;
+        if (Character.isHighSurrogate(value.charAt(end - 1)))
+            end--;
+        return value.substring(0, end);
+    }
+
+    private static StringBuilder appendXml(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': builder.append("&lt;"); break;
+                case '>': builder.append("&gt;"); break;
+                case '&': builder.append("&amp;"); break;
+                case '"': builder.append("&quot;"); break;
+                case '\'': builder.append("&apos;"); break;
+                default: builder.append(c);
+            }
+        }
+        return builder;
+    }
+
+    private static byte[] changed(String value, String held) {
+        if (held != null && held.equals(value))
+            return null;
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int fieldSize(byte[] value) {
+        return value == null ? 0 : FIELD_HEADER_SIZE + value.length;
+    }
+
+    private static int putHeader(byte[] data, byte type, int id) {
+        data[0] = type;
+        data[1] = (byte) id;
+        data[2] = (byte) (id >> 8);
+        data[3] = (byte) (id >> 16);
+        data[4] = (byte) (id >> 24);
+        return HEADER_SIZE;
+    }
+
+    private static int putField(byte[] data, int offset, byte tag, byte[] value) {
+        if (value == null)
+            return offset;
+
+        data[offset] = tag;
+        data[offset + 1] = (byte) value.length;
+        data[offset + 2] = (byte) (value.length >> 8);
+        System.arraycopy(value, 0, data, offset + FIELD_HEADER_SIZE, value.length);
+        return offset + FIELD_HEADER_SIZE + value.length;
+    }
+}
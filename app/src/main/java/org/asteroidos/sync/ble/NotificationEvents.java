@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-process channel from the notification listener to the BLE services, replacing the
+ * broadcast round trip. Producers on any thread put events into a bounded lock-free ring; they
+ * are drained on the main thread, which is where the services expect to be called, and handed to
+ * every subscribed listener in order. When the ring is full new events are dropped and counted.
+ * Nothing is queued while there are no listeners, i.e. while no watch is synced.
+ */
+public final class NotificationEvents {
+    public interface Listener {
+        void onNotificationPosted(int id, NotificationCodec.Fields fields);
+        void onNotificationRemoved(int id);
+    }
+
+    private static final int CAPACITY = 256;
+
+    private static final NotificationEvents sInstance = new NotificationEvents();
+
+    /* Multi-producer ring after Vyukov: each cell's sequence says whether it's free for the
+     * producer at that position or holds an event for the consumer at that position. */
+    private final AtomicLongArray mSequences = new AtomicLongArray(CAPACITY);
+    private final AtomicReferenceArray<Event> mEvents = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong mHead = new AtomicLong();
+    private long mTail;
+
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean mDrainPosted = new AtomicBoolean();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private NotificationEvents() {
+        for (int i = 0; i < CAPACITY; i++)
+            mSequences.set(i, i);
+    }
+
+    public static NotificationEvents get() {
+        return sInstance;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public void posted(int id, NotificationCodec.Fields fields) {
+        offer(new Event(id, fields));
+    }
+
+    public void removed(int id) {
+        offer(new Event(id, null));
+    }
+
+    /** Number of events dropped so far because the ring was full. */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    private void offer(Event event) {
+        if (mListeners.isEmpty())
+            return;
+
+        long position = mHead.get();
+        while (true) {
+            int index = (int) (position & (CAPACITY - 1));
+            long diff = mSequences.get(index) - position;
+
+            if (diff == 0) {
+                if (mHead.compareAndSet(position, position + 1)) {
+                    mEvents.set(index, event);
+                    mSequences.set(index, position + 1);
+                    break;
+                }
+                position = mHead.get();
+            } else if (diff < 0) {
+                mDropped.incrementAndGet();
+                return;
+            } else {
+                position = mHead.get();
+            }
+        }
+
+        if (mDrainPosted.compareAndSet(false, true))
+            mHandler.post(mDrainRunnable);
+    }
+
+    /* Only ever runs on the main thread, so the consumer side needs no atomics of its own. */
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mDrainPosted.set(false);
+
+            while (true) {
+                int index = (int) (mTail & (CAPACITY - 1));
+                if (mSequences.get(index) != mTail + 1)
+                    break;
+
+                Event event = mEvents.get(index);
+                mEvents.set(index, null);
+                mSequences.set(index, mTail + CAPACITY);
+                mTail++;
+
+                for (Listener listener : mListeners) {
+                    if (event.fields != null)
+                        listener.onNotificationPosted(event.id, event.fields);
+                    else
+                        listener.onNotificationRemoved(event.id);
+                }
+            }
+        }
+    };
+
+    private static final class Event {
+        final int id;
+        /* null for a removal */
+        final NotificationCodec.Fields fields;
+
+        Event(int id, NotificationCodec.Fields fields) {
+            this.id = id;
+            this.fields = fields;
+        }
+    }
+}
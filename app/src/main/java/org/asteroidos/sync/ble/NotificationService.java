@@ -17,90 +17,121 @@
 
 package org.asteroidos.sync.ble;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.idevicesinc.sweetblue.BleDevice;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Objects;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
 
-public class NotificationService implements BleDevice.ReadWriteListener {
+public class NotificationService implements NotificationEvents.Listener {
     public static final UUID notificationUpdateCharac   = UUID.fromString("00009001-0000-0000-0000-00a57e401d05");
     public static final UUID notificationFeedbackCharac = UUID.fromString("00009002-0000-0000-0000-00a57e401d05");
+    public static final UUID notificationBinaryUpdateCharac = UUID.fromString("00009003-0000-0000-0000-00a57e401d05");
+
+    private static final long COALESCE_WINDOW_MS = 250;
+    private static final NotificationCodec.Fields REMOVED = new NotificationCodec.Fields(null, null, null, null, null);
 
     private Context mCtx;
     private BleDevice mDevice;
+    private OutboundScheduler mScheduler;
 
-    private NotificationReceiver mNReceiver;
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mUseBinary;
+    /* What the watch currently holds for each id, so unchanged notifications aren't sent again. */
+    private HashMap<Integer, NotificationCodec.Fields> mHeld = new HashMap<>();
+    private LinkedHashMap<Integer, NotificationCodec.Fields> mPending = new LinkedHashMap<>();
 
-    public NotificationService(Context ctx, BleDevice device)
+    public NotificationService(Context ctx, BleDevice device, OutboundScheduler scheduler)
     {
         mDevice = device;
+        mScheduler = scheduler;
         mCtx = ctx;
     }
 
+    public void addToProfile(SessionProfile profile) {
+        profile.setNotify(notificationFeedbackCharac, null);
+    }
+
     public void sync() {
-        mDevice.enableNotify(notificationFeedbackCharac);
+        // Older watches only understand the XML messages.
+        mUseBinary = mDevice.getNativeCharacteristic(notificationBinaryUpdateCharac) != null;
+        mHeld.clear();
 
-        mNReceiver = new NotificationReceiver();
-        IntentFilter filter = new IntentFilter();
-        filter.addAction("org.asteroidos.sync.NOTIFICATION_LISTENER");
-        mCtx.registerReceiver(mNReceiver, filter);
+        NotificationEvents.get().addListener(this);
     }
 
     public void unsync() {
-        mDevice.disableNotify(notificationFeedbackCharac);
-        try {
-            mCtx.unregisterReceiver(mNReceiver);
-        } catch (IllegalArgumentException ignored) {}
+        mHandler.removeCallbacks(mFlushRunnable);
+        mPending.clear();
+        NotificationEvents.get().removeListener(this);
     }
 
-    @Override
-    public void onEvent(ReadWriteEvent e) {
-        if(!e.wasSuccess())
-            Log.e("NotificationService", e.status().toString());
+    /* Knows which notification its write was for, so only that one is sent in full next time if it didn't make it. */
+    private class WriteListener implements BleDevice.ReadWriteListener {
+        private final int mId;
+
+        WriteListener(int id) {
+            mId = id;
+        }
+
+        @Override
+        public void onEvent(ReadWriteEvent e) {
+            if(!e.wasSuccess()) {
+                Log.e("NotificationService", e.status().toString());
+                mHeld.remove(mId);
+            }
+        }
     }
 
-    class NotificationReceiver extends BroadcastReceiver {
+    /* Sends out whatever is still pending once the coalescing window is over, latest update for each id only. */
+    private Runnable mFlushRunnable = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String event = intent.getStringExtra("event");
-            if (Objects.equals(event, "posted")) {
-                String packageName = intent.getStringExtra("packageName");
-                int id = intent.getIntExtra("id", 0);
-                String appName = intent.getStringExtra("appName");
-                String appIcon = intent.getStringExtra("appIcon");
-                String summary = intent.getStringExtra("summary");
-                String body = intent.getStringExtra("body");
-
-                StringBuilder xmlRequest = new StringBuilder();
-                xmlRequest.append("<insert>");
-                xmlRequest.append("<pn>").append(packageName).append("</pn>");
-                xmlRequest.append("<id>").append(id).append("</id>");
-                xmlRequest.append("<an>").append(appName).append("</an>");
-                xmlRequest.append("<ai>").append(appIcon).append("</ai>");
-                xmlRequest.append("<su>").append(summary).append("</su>");
-                xmlRequest.append("<bo>").append(body).append("</bo>");
-                xmlRequest.append("</insert>");
-
-                byte[] data = xmlRequest.toString().getBytes(StandardCharsets.UTF_8);
-                mDevice.write(notificationUpdateCharac, data, NotificationService.this);
-            } else if (Objects.equals(event, "removed")) {
-                int id = intent.getIntExtra("id", 0);
-
-                StringBuilder xmlRequest = new StringBuilder();
-                xmlRequest.append("<removed>");
-                xmlRequest.append("<id>").append(id).append("</id>");
-                xmlRequest.append("</removed>");
-
-                byte[] data = xmlRequest.toString().getBytes(StandardCharsets.UTF_8);
-                mDevice.write(notificationUpdateCharac, data, NotificationService.this);
+        public void run() {
+            for (Map.Entry<Integer, NotificationCodec.Fields> entry : mPending.entrySet()) {
+                int id = entry.getKey();
+                NotificationCodec.Fields fields = entry.getValue();
+                byte[] data;
+
+                if (fields == REMOVED) {
+                    mHeld.remove(id);
+                    data = mUseBinary ? NotificationCodec.removeTlv(id) : NotificationCodec.removeXml(id);
+                } else {
+                    NotificationCodec.Fields held = mHeld.get(id);
+                    if (mUseBinary)
+                        data = NotificationCodec.insertTlv(id, fields, held);
+                    else
+                        data = fields.equals(held) ? null : NotificationCodec.insertXml(id, fields);
+                    mHeld.put(id, fields);
+                }
+
+                if (data != null)
+                    mScheduler.write(OutboundScheduler.TrafficClass.INTERACTIVE, mUseBinary ? notificationBinaryUpdateCharac : notificationUpdateCharac,
+                            data, OutboundScheduler.NO_DEADLINE, new WriteListener(id));
             }
+            mPending.clear();
         }
+    };
+
+    private void enqueue(int id, NotificationCodec.Fields fields) {
+        if (mPending.isEmpty())
+            mHandler.postDelayed(mFlushRunnable, COALESCE_WINDOW_MS);
+        mPending.remove(id);
+        mPending.put(id, fields);
+    }
+
+    @Override
+    public void onNotificationPosted(int id, NotificationCodec.Fields fields) {
+        enqueue(id, fields);
+    }
+
+    @Override
+    public void onNotificationRemoved(int id) {
+        enqueue(id, REMOVED);
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import android.os.SystemClock;
+
+import com.idevicesinc.sweetblue.BleDevice;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Orders all writes to one watch by traffic class before they reach SweetBlue's task queue, so a
+ * weather push can't hold up a notification. Only one write is handed to {@link BleDevice} at a
+ * time and the next one is picked when it completes: interactive traffic always goes first,
+ * background and bulk traffic share what's left in a {@value #BACKGROUND_WEIGHT} to 1 ratio.
+ * A message can carry a deadline; if it's still queued by then it's dropped instead of sent.
+ * Every message gets exactly one outcome: either its write result, or {@link DropListener#onDropped}
+ * if it's dropped or cleared first.
+ *
+ * Like the rest of the services, this expects to be called from the main thread, which is where
+ * SweetBlue delivers its callbacks.
+ */
+public class OutboundScheduler {
+    public enum TrafficClass {
+        /** Notifications and media, always sent first. */
+        INTERACTIVE,
+        /** Weather and time. */
+        BACKGROUND,
+        /** Screenshots. */
+        BULK
+    }
+
+    public static final long NO_DEADLINE = 0;
+
+    /** Told about a message that was thrown away instead of written, so it'll never get a result. */
+    public interface DropListener {
+        void onDropped(UUID charUuid, byte[] data);
+    }
+
+    /* How many background messages go out for each bulk one while both are waiting. */
+    private static final int BACKGROUND_WEIGHT = 3;
+
+    private BleDevice mDevice;
+    private ArrayDeque<Message>[] mQueues;
+    private Stats[] mStats;
+    private Message mInFlight;
+    private int mBackgroundInARow;
+
+    @SuppressWarnings("unchecked")
+    public OutboundScheduler(BleDevice device) {
+        mDevice = device;
+
+        TrafficClass[] classes = TrafficClass.values();
+        mQueues = new ArrayDeque[classes.length];
+        mStats = new Stats[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            mQueues[i] = new ArrayDeque<>();
+            mStats[i] = new Stats();
+        }
+    }
+
+    /**
+     * Queues a write.
+     *
+     * @param deadlineMs how long the message may wait before it's dropped, or {@link #NO_DEADLINE}
+     * @param listener receives the result if the write goes out, may be null
+     */
+    public void write(TrafficClass trafficClass, UUID charUuid, byte[] data, long deadlineMs, BleDevice.ReadWriteListener listener) {
+        write(trafficClass, charUuid, data, deadlineMs, listener, null);
+    }
+
+    /**
+     * Same as {@link #write(TrafficClass, UUID, byte[], long, BleDevice.ReadWriteListener)}, but
+     * also tells <code>dropListener</code> if the message never gets a result.
+     */
+    public void write(TrafficClass trafficClass, UUID charUuid, byte[] data, long deadlineMs, BleDevice.ReadWriteListener listener, DropListener dropListener) {
+        long now = now();
+        long deadline = deadlineMs == NO_DEADLINE ? NO_DEADLINE : now + deadlineMs;
+
+        mQueues[trafficClass.ordinal()].addLast(new Message(trafficClass, charUuid, data, now, deadline, listener, dropListener));
+        pump();
+    }
+
+    /**
+     * Drops everything queued and forgets the write in flight, for example once the watch
+     * disconnected. Each of them is reported as dropped, and a late result for the write in
+     * flight is ignored. Counters are kept.
+     */
+    public void clear() {
+        Message inFlight = mInFlight;
+        mInFlight = null;
+        mBackgroundInARow = 0;
+
+        if (inFlight != null)
+            inFlight.drop();
+
+        for (ArrayDeque<Message> queue : mQueues) {
+            Message message;
+            while ((message = queue.pollFirst()) != null) {
+                mStats[message.trafficClass.ordinal()].dropped++;
+                message.drop();
+            }
+        }
+    }
+
+    public Stats getStats(TrafficClass trafficClass) {
+        return mStats[trafficClass.ordinal()];
+    }
+
+    private void pump() {
+        while (mInFlight == null) {
+            Message message = next();
+            if (message == null)
+                return;
+
+            long now = now();
+            Stats stats = mStats[message.trafficClass.ordinal()];
+
+            if (message.deadline != NO_DEADLINE && now > message.deadline) {
+                stats.dropped++;
+                message.drop();
+                continue;
+            }
+
+            stats.onSent(now - message.enqueuedAt);
+            mInFlight = message;
+            send(message.charUuid, message.data, message);
+        }
+    }
+
+    /* Overridden by tests, which have neither a watch nor a real clock. */
+    protected void send(UUID charUuid, byte[] data, BleDevice.ReadWriteListener listener) {
+        mDevice.write(charUuid, data, listener);
+    }
+
+    protected long now() {
+        return SystemClock.uptimeMillis();
+    }
+
+    private Message next() {
+        ArrayDeque<Message> interactive = mQueues[TrafficClass.INTERACTIVE.ordinal()];
+        ArrayDeque<Message> background = mQueues[TrafficClass.BACKGROUND.ordinal()];
+        ArrayDeque<Message> bulk = mQueues[TrafficClass.BULK.ordinal()];
+
+        if (!interactive.isEmpty())
+            return interactive.pollFirst();
+
+        if (!background.isEmpty() && (bulk.isEmpty() || mBackgroundInARow < BACKGROUND_WEIGHT)) {
+            mBackgroundInARow++;
+            return background.pollFirst();
+        }
+
+        mBackgroundInARow = 0;
+        return bulk.pollFirst();
+    }
+
+    /** Queueing delay and drop counters for one traffic class. */
+    public static final class Stats {
+        private long sent;
+        private long dropped;
+        private long totalDelayMs;
+        private long maxDelayMs;
+
+        void onSent(long delayMs) {
+            sent++;
+            totalDelayMs += delayMs;
+            if (delayMs > maxDelayMs)
+                maxDelayMs = delayMs;
+        }
+
+        public long getSentCount() {
+            return sent;
+        }
+
+        /** Messages dropped because they were still queued past their deadline or when cleared. */
+        public long getDroppedCount() {
+            return dropped;
+        }
+
+        /** Average time between a message being queued and handed to SweetBlue. */
+        public double getAverageDelayMs() {
+            return sent == 0 ? 0 : (double) totalDelayMs / sent;
+        }
+
+        public long getMaxDelayMs() {
+            return maxDelayMs;
+        }
+    }
+
+    private class Message implements BleDevice.ReadWriteListener {
+        final TrafficClass trafficClass;
+        final UUID charUuid;
+        final byte[] data;
+        final long enqueuedAt;
+        final long deadline;
+        final BleDevice.ReadWriteListener listener;
+        final DropListener dropListener;
+        boolean dropped;
+
+        Message(TrafficClass trafficClass, UUID charUuid, byte[] data, long enqueuedAt, long deadline, BleDevice.ReadWriteListener listener, DropListener dropListener) {
+            this.trafficClass = trafficClass;
+            this.charUuid = charUuid;
+            this.data = data;
+            this.enqueuedAt = enqueuedAt;
+            this.deadline = deadline;
+            this.listener = listener;
+            this.dropListener = dropListener;
+        }
+
+        void drop() {
+            dropped = true;
+            if (dropListener != null)
+                dropListener.onDropped(charUuid, data);
+        }
+
+        @Override
+        public void onEvent(ReadWriteEvent e) {
+            // Already reported as dropped by clear(), and mustn't release whatever is in flight now.
+            if (dropped)
+                return;
+
+            if (listener != null)
+                listener.onEvent(e);
+
+            if (mInFlight == this) {
+                mInFlight = null;
+                pump();
+            }
+        }
+    }
+}
@@ -34,38 +34,51 @@ import android.util.Log;
 import com.idevicesinc.sweetblue.BleDevice;
 
 import org.asteroidos.sync.R;
+import org.asteroidos.sync.services.SynchronizationService;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.UUID;
 
 public class ScreenshotService implements BleDevice.ReadWriteListener {
+    /* Tagged with the watch's MAC address, so each watch gets its own progress notification. */
     private int NOTIFICATION = 2726;
 
     public static final UUID screenshotRequestCharac = UUID.fromString("00006001-0000-0000-0000-00a57e401d05");
     public static final UUID screenshotContentCharac = UUID.fromString("00006002-0000-0000-0000-00a57e401d05");
 
     private Context mCtx;
+    /* Nobody is waiting on a screenshot that was asked for this long ago. */
+    private static final long REQUEST_DEADLINE_MS = 10000;
+
     private BleDevice mDevice;
+    private OutboundScheduler mScheduler;
 
     private ScreenshotReqReceiver mSReceiver;
 
     private boolean mFirstNotify = true;
 
     private NotificationManager mNM;
+    private Notification.Builder mNotificationBuilder;
+
+    private static final long PROGRESS_INTERVAL_MS = 250;
+    private ChunkReassembler mReassembler;
 
-    public ScreenshotService(Context ctx, BleDevice device)
+    public ScreenshotService(Context ctx, BleDevice device, OutboundScheduler scheduler)
     {
         mDevice = device;
+        mScheduler = scheduler;
         mCtx = ctx;
         mNM = (NotificationManager) mCtx.getSystemService(Context.NOTIFICATION_SERVICE);
+        mReassembler = new ChunkReassembler(PROGRESS_INTERVAL_MS, reassemblerListener);
     }
 
-    public void sync() {
-        mDevice.enableNotify(screenshotContentCharac, contentListener);
+    public void addToProfile(SessionProfile profile) {
+        profile.setNotify(screenshotContentCharac, contentListener);
+    }
 
+    public void sync() {
         mSReceiver = new ScreenshotReqReceiver();
         IntentFilter filter = new IntentFilter();
         filter.addAction("org.asteroidos.sync.SCREENSHOT_REQUEST_LISTENER");
@@ -73,7 +86,10 @@ public class ScreenshotService implements BleDevice.ReadWriteListener {
     }
 
     public void unsync() {
-        mDevice.disableNotify(screenshotContentCharac);
+        if(mReassembler.isActive()) {
+            mReassembler.abort();
+            mNM.cancel(mDevice.getMacAddress(), NOTIFICATION);
+        }
         try {
             mCtx.unregisterReceiver(mSReceiver);
         } catch (IllegalArgumentException ignored) {}
@@ -89,74 +105,88 @@ public class ScreenshotService implements BleDevice.ReadWriteListener {
     }
 
     private BleDevice.ReadWriteListener contentListener = new BleDevice.ReadWriteListener() {
-        private int progress = 0;
-        private int previousNotifiedProgress = -500;
-        private int size = 0;
-        private byte[] totalData;
-
         @Override
         public void onEvent(ReadWriteEvent e) {
             if(e.isNotification() && e.charUuid().equals(screenshotContentCharac)) {
                 byte data[] = e.data();
                 if(mFirstNotify) {
-                    size = bytesToInt(data);
-                    totalData = new byte[size];
+                    if(data == null || data.length < 4)
+                        return;
                     mFirstNotify = false;
-                    progress = 0;
+                    startDownload(bytesToInt(data));
                 } else {
-                    System.arraycopy(data, 0, totalData, progress, data.length);
-                    progress += data.length;
-
-
-                     Notification.Builder notificationBuilder = new Notification.Builder(mCtx)
-                            .setContentTitle(mCtx.getText(R.string.screenshot));
-
-                    if(size == progress) {
-                        String dirStr = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES) + "/AsteroidOSSync";
-                        File directory = new File(dirStr);
-                        if(!directory.exists())
-                            directory.mkdirs();
-                        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(System.currentTimeMillis());
-                        File fileName = new File(dirStr + "/Screenshot_" + timeStamp + ".jpg");
-
-                        try {
-                            FileOutputStream out = new FileOutputStream(fileName);
-                            out.write(totalData);
-                            out.close();
-                        } catch(IOException ignored) {}
-
-                        Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-                        Uri contentUri = Uri.fromFile(fileName);
-                        mediaScanIntent.setData(contentUri);
-
-                        mCtx.sendBroadcast(mediaScanIntent);
-
-                        notificationBuilder.setContentText(mCtx.getText(R.string.downloaded));
-                        notificationBuilder.setLargeIcon(BitmapFactory.decodeByteArray(totalData, 0, size));
-                        notificationBuilder.setSmallIcon(R.mipmap.android_image);
-
-                        Intent notificationIntent = new Intent();
-                        notificationIntent.setAction(Intent.ACTION_VIEW);
-                        notificationIntent.setDataAndType(Uri.parse(fileName.getAbsolutePath()), "image/*");
-                        PendingIntent contentIntent = PendingIntent.getActivity(mCtx, 0, notificationIntent, 0);
-                        notificationBuilder.setContentIntent(contentIntent);
-
-                    } else {
-                        notificationBuilder.setContentText(mCtx.getText(R.string.downloading));
-                        notificationBuilder.setSmallIcon(R.mipmap.android_image);
-                        notificationBuilder.setProgress(size, progress, false);
-                    }
-
-                    if(progress >= previousNotifiedProgress + 500 || progress == size) {
-                        Notification notification = notificationBuilder.build();
-                        mNM.notify(NOTIFICATION, notification);
-                        previousNotifiedProgress = progress;
-                    }
+                    mReassembler.onChunk(data);
                 }
             }
         }
     };
 
+    private void startDownload(int size) {
+        String dirStr = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES) + "/AsteroidOSSync";
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(System.currentTimeMillis());
+
+        mNotificationBuilder = new Notification.Builder(mCtx)
+                .setContentTitle(mCtx.getText(R.string.screenshot))
+                .setContentText(mCtx.getText(R.string.downloading))
+                .setSmallIcon(R.mipmap.android_image)
+                .setProgress(size, 0, false);
+        mNM.notify(mDevice.getMacAddress(), NOTIFICATION, mNotificationBuilder.build());
+
+        String watch = mDevice.getMacAddress().replace(":", "");
+        mReassembler.begin(new File(dirStr + "/Screenshot_" + timeStamp + "_" + watch + ".jpg"), size);
+    }
+
+    private ChunkReassembler.Listener reassemblerListener = new ChunkReassembler.Listener() {
+        @Override
+        public void onProgress(int received, int size) {
+            mNotificationBuilder.setProgress(size, received, false);
+            mNM.notify(mDevice.getMacAddress(), NOTIFICATION, mNotificationBuilder.build());
+        }
+
+        @Override
+        public void onComplete(File fileName, int size) {
+            Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
+            Uri contentUri = Uri.fromFile(fileName);
+            mediaScanIntent.setData(contentUri);
+
+            mCtx.sendBroadcast(mediaScanIntent);
+
+            mNotificationBuilder.setContentText(mCtx.getText(R.string.downloaded));
+            mNotificationBuilder.setProgress(0, 0, false);
+            mNotificationBuilder.setLargeIcon(decodeThumbnail(fileName));
+
+            Intent notificationIntent = new Intent();
+            notificationIntent.setAction(Intent.ACTION_VIEW);
+            notificationIntent.setDataAndType(Uri.parse(fileName.getAbsolutePath()), "image/*");
+            PendingIntent contentIntent = PendingIntent.getActivity(mCtx, 0, notificationIntent, 0);
+            mNotificationBuilder.setContentIntent(contentIntent);
+
+            mNM.notify(mDevice.getMacAddress(), NOTIFICATION, mNotificationBuilder.build());
+        }
+
+        @Override
+        public void onFailure(File fileName, IOException e) {
+            Log.e("ScreenshotService", "Couldn't save " + fileName, e);
+            mNM.cancel(mDevice.getMacAddress(), NOTIFICATION);
+        }
+    };
+
+    /* Only decodes as many pixels as the notification's large icon can show. */
+    private Bitmap decodeThumbnail(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        int iconSize = mCtx.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= iconSize && options.outHeight / (sampleSize * 2) >= iconSize)
+            sampleSize *= 2;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
     @Override
     public void onEvent(ReadWriteEvent e) {
         if(!e.wasSuccess())
@@ -166,10 +196,12 @@ public class ScreenshotService implements BleDevice.ReadWriteListener {
     class ScreenshotReqReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
+            if(!mDevice.getMacAddress().equals(intent.getStringExtra(SynchronizationService.EXTRA_MAC_ADDRESS)))
+                return;
             mFirstNotify = true;
             byte[] data = new byte[1];
             data[0] = 0x0;
-            mDevice.write(screenshotRequestCharac, data, ScreenshotService.this);
+            mScheduler.write(OutboundScheduler.TrafficClass.BULK, screenshotRequestCharac, data, REQUEST_DEADLINE_MS, ScreenshotService.this);
         }
     }
 }
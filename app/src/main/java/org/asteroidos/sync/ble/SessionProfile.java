@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.idevicesinc.sweetblue.BleConnectionPriority;
+import com.idevicesinc.sweetblue.BleDevice;
+import com.idevicesinc.sweetblue.BleDeviceConfig;
+import com.idevicesinc.sweetblue.BleDeviceState;
+import com.idevicesinc.sweetblue.BleTransaction;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * What a watch link needs before the services can start: the MTU, the connection priority and the
+ * characteristics to get notifications from. It runs as the device's init transaction, so it's
+ * applied in one go on every connect and reconnect, and the device only counts as initialized
+ * once all of it went through.
+ *
+ * A bonded watch keeps its notification descriptors across connections. The ones written while
+ * bonded are remembered per watch, and on the next bonded connect notifications for them are only
+ * turned on locally instead of being written again.
+ */
+public class SessionProfile extends BleTransaction.Init {
+    private static final String PREFS_NAME = "SessionProfile";
+
+    private int mMtu;
+    private BleConnectionPriority mConnectionPriority;
+    private SharedPreferences mPrefs;
+
+    /* One forwarder per characteristic for the profile's whole life, so SweetBlue never holds a stale listener. */
+    private LinkedHashMap<UUID, Forwarder> mNotifies = new LinkedHashMap<>();
+
+    private int mPending;
+    private boolean mBonded;
+    private Set<String> mWrittenDescriptors;
+    private int mSkippedWrites;
+
+    private long mLinkUpTime;
+    private long mLastSetupTimeMs = -1;
+
+    public SessionProfile(Context ctx, int mtu, BleConnectionPriority connectionPriority) {
+        mMtu = mtu;
+        mConnectionPriority = connectionPriority;
+        mPrefs = ctx.getSharedPreferences(PREFS_NAME, 0);
+    }
+
+    /**
+     * Makes this the only thing setting up the link, must be called before connecting.
+     */
+    public void attach(BleDevice device) {
+        // Nulled so everything else still comes from the manager's config.
+        BleDeviceConfig config = BleDeviceConfig.newNulled();
+        config.autoEnableNotifiesOnReconnect = false;
+        config.autoNegotiateMtuOnReconnect = false;
+        device.setConfig(config);
+    }
+
+    /**
+     * Undoes {@link #attach(BleDevice)} and stops handing notifications to anyone, for when the
+     * device is dropped. SweetBlue keeps the listeners registered as long as it knows the device.
+     */
+    public void detach(BleDevice device) {
+        for (Forwarder forwarder : mNotifies.values())
+            forwarder.target = null;
+        device.setConfig(null);
+    }
+
+    /**
+     * Adds a characteristic to get notifications from, or hands the notifications of one that's
+     * already there to another listener.
+     */
+    public void setNotify(UUID charUuid, BleDevice.ReadWriteListener listener) {
+        Forwarder forwarder = mNotifies.get(charUuid);
+        if (forwarder == null) {
+            forwarder = new Forwarder(charUuid);
+            mNotifies.put(charUuid, forwarder);
+        }
+        forwarder.target = listener;
+    }
+
+    /** Marks the link as up, the set up time reported once the profile is applied is counted from here. */
+    public void onLinkUp() {
+        mLinkUpTime = SystemClock.elapsedRealtime();
+    }
+
+    /** Time from link-up to the profile being applied on the last connect, or -1 if it never was. */
+    public long getLastSetupTimeMs() {
+        return mLastSetupTimeMs;
+    }
+
+    @Override
+    protected void start(BleDevice device) {
+        if (mLinkUpTime == 0)
+            mLinkUpTime = SystemClock.elapsedRealtime();
+
+        mBonded = device.is(BleDeviceState.BONDED);
+        String key = device.getMacAddress();
+        if (mBonded) {
+            mWrittenDescriptors = new HashSet<>(mPrefs.getStringSet(key, Collections.<String>emptySet()));
+        } else {
+            // Without a bond the watch forgets its descriptors on disconnect.
+            mWrittenDescriptors = new HashSet<>();
+            mPrefs.edit().remove(key).apply();
+        }
+        mSkippedWrites = 0;
+
+        // Count everything up front, results can come back before the next request is even made.
+        boolean setPriority = mConnectionPriority != BleConnectionPriority.MEDIUM;
+        mPending = 1 + (setPriority ? 1 : 0) + mNotifies.size();
+
+        device.setMtu(mMtu, mSetupListener);
+        // Every new link starts out at medium priority, so that one costs nothing to ask for.
+        if (setPriority)
+            device.setConnectionPriority(mConnectionPriority, mSetupListener);
+
+        for (Forwarder forwarder : mNotifies.values()) {
+            forwarder.awaitingEnable = true;
+            if (mWrittenDescriptors.contains(forwarder.charUuid.toString())) {
+                mSkippedWrites++;
+                device.enableNotify_localOnly(forwarder.charUuid, forwarder);
+            } else {
+                device.enableNotify(forwarder.charUuid, forwarder);
+            }
+        }
+    }
+
+    @Override
+    protected void onEnd(BleDevice device, EndReason reason) {
+        for (Forwarder forwarder : mNotifies.values())
+            forwarder.awaitingEnable = false;
+
+        if (reason == EndReason.SUCCEEDED) {
+            if (mBonded)
+                mPrefs.edit().putStringSet(device.getMacAddress(), mWrittenDescriptors).apply();
+
+            mLastSetupTimeMs = SystemClock.elapsedRealtime() - mLinkUpTime;
+            Log.i("SessionProfile", "Set up " + mLastSetupTimeMs + " ms after link-up, "
+                    + mSkippedWrites + " of " + mNotifies.size() + " descriptor writes skipped");
+        }
+        mLinkUpTime = 0;
+    }
+
+    private void onSetupStepDone() {
+        if (--mPending == 0 && isRunning())
+            succeed();
+    }
+
+    private BleDevice.ReadWriteListener mSetupListener = new BleDevice.ReadWriteListener() {
+        @Override
+        public void onEvent(ReadWriteEvent e) {
+            // The watch works with the defaults too, just slower.
+            if (!e.wasSuccess())
+                Log.w("SessionProfile", e.target() + " request failed: " + e.status());
+            onSetupStepDone();
+        }
+    };
+
+    private class Forwarder implements BleDevice.ReadWriteListener {
+        final UUID charUuid;
+        BleDevice.ReadWriteListener target;
+        boolean awaitingEnable;
+
+        Forwarder(UUID charUuid) {
+            this.charUuid = charUuid;
+        }
+
+        @Override
+        public void onEvent(ReadWriteEvent e) {
+            if (awaitingEnable && e.type() == Type.ENABLING_NOTIFICATION) {
+                awaitingEnable = false;
+                if (e.wasSuccess()) {
+                    mWrittenDescriptors.add(charUuid.toString());
+                } else {
+                    mWrittenDescriptors.remove(charUuid.toString());
+                    Log.e("SessionProfile", "Could not enable notifications on " + charUuid + ": " + e.status());
+                }
+                onSetupStepDone();
+            }
+
+            if (target != null)
+                target.onEvent(e);
+        }
+    }
+}
@@ -25,21 +25,28 @@ import android.util.Log;
 
 import com.idevicesinc.sweetblue.BleDevice;
 
+import org.asteroidos.sync.services.SynchronizationService;
+
 import java.util.Date;
 import java.util.UUID;
 
 public class TimeService implements BleDevice.ReadWriteListener {
     public static final UUID timeSetCharac = UUID.fromString("00005001-0000-0000-0000-00a57e401d05");
 
+    /* A time that sat in the queue longer than this is wrong by then, the next sync will fix it. */
+    private static final long TIME_DEADLINE_MS = 2000;
+
     private Context mCtx;
     private BleDevice mDevice;
+    private OutboundScheduler mScheduler;
 
     private TimeSyncReceiver mTReceiver;
 
-    public TimeService(Context ctx, BleDevice device)
+    public TimeService(Context ctx, BleDevice device, OutboundScheduler scheduler)
     {
         mDevice = device;
         mCtx = ctx;
+        mScheduler = scheduler;
     }
 
     public void sync() {
@@ -64,6 +71,8 @@ public class TimeService implements BleDevice.ReadWriteListener {
     class TimeSyncReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
+            if(!mDevice.getMacAddress().equals(intent.getStringExtra(SynchronizationService.EXTRA_MAC_ADDRESS)))
+                return;
             Date dt = new Date();
             byte[] data = new byte[6];
             data[0] = (byte)dt.getYear();
@@ -72,7 +81,7 @@ public class TimeService implements BleDevice.ReadWriteListener {
             data[3] = (byte)dt.getHours();
             data[4] = (byte)dt.getMinutes();
             data[5] = (byte)dt.getSeconds();
-            mDevice.write(timeSetCharac, data, TimeService.this);
+            mScheduler.write(OutboundScheduler.TrafficClass.BACKGROUND, timeSetCharac, data, TIME_DEADLINE_MS, TimeService.this);
         }
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 - Florent Revest <revestflo@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.asteroidos.sync.ble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+
+/**
+ * Reduces a forecast to what {@link WeatherService} writes to the watch: the city name in UTF-8
+ * and, for each of {@value #DAYS} days, the condition id and the min and max temperatures as big
+ * endian int16. The condition id of a day is the first one from noon on, or 0 if there is none.
+ *
+ * Data points are given as plain arrays in time order so this doesn't depend on the forecast
+ * provider. Days are split in the given time zone without going through {@link java.util.Calendar}.
+ */
+public final class WeatherCodec {
+    public static final int DAYS = 5;
+
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private WeatherCodec() {}
+
+    public static final class Forecast {
+        public final byte[] city;
+        public final byte[] ids;
+        public final byte[] minTemps;
+        public final byte[] maxTemps;
+
+        Forecast(byte[] city, byte[] ids, byte[] minTemps, byte[] maxTemps) {
+            this.city = city;
+            this.ids = ids;
+            this.minTemps = minTemps;
+            this.maxTemps = maxTemps;
+        }
+    }
+
+    /**
+     * @param timestamps data point times in seconds since the epoch
+     * @param temps temperatures of the data points, rounded to the nearest degree
+     * @param ids weather condition ids of the data points
+     * @param count number of data points to use from the arrays
+     * @param zone time zone the days are split in
+     */
+    public static Forecast encode(String city, long[] timestamps, float[] temps, int[] ids, int count, TimeZone zone) {
+        byte[] idBytes = new byte[2 * DAYS];
+        byte[] minBytes = new byte[2 * DAYS];
+        byte[] maxBytes = new byte[2 * DAYS];
+
+        int i = 0;
+        for (int day = 0; day < DAYS && i < count; day++) {
+            long currentDay = localDay(timestamps[i], zone);
+            short min = Short.MAX_VALUE;
+            short max = Short.MIN_VALUE;
+            int id = 0;
+
+            for (; i < count; i++) {
+                long localMillis = localMillis(timestamps[i], zone);
+                long localDay = floorDiv(localMillis, MILLIS_PER_DAY);
+                if (localDay != currentDay)
+                    break;
+
+                // TODO is there a better way to select the most significant ID than the first of the afternoon ?
+                if (id == 0 && localMillis - localDay * MILLIS_PER_DAY >= 12 * MILLIS_PER_HOUR)
+                    id = ids[i];
+
+                short temp = (short) Math.round(temps[i]);
+                if (temp > max) max = temp;
+                if (temp < min) min = temp;
+            }
+
+            putShort(idBytes, day, id);
+            putShort(minBytes, day, min);
+            putShort(maxBytes, day, max);
+        }
+
+        return new Forecast(city.getBytes(StandardCharsets.UTF_8), idBytes, minBytes, maxBytes);
+    }
+
+    private static long localMillis(long timestamp, TimeZone zone) {
+        long millis = timestamp * 1000;
+        return millis + zone.getOffset(millis);
+    }
+
+    private static long localDay(long timestamp, TimeZone zone) {
+        return floorDiv(localMillis(timestamp, zone), MILLIS_PER_DAY);
+    }
+
+    /* Math.floorDiv needs API 24. */
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0))
+            q--;
+        return q;
+    }
+
+    private static void putShort(byte[] data, int index, int value) {
+        data[2 * index] = (byte) (value >> 8);
+        data[2 * index + 1] = (byte) value;
+    }
+}
@@ -23,15 +23,10 @@ import android.util.Log;
 
 import com.idevicesinc.sweetblue.BleDevice;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Calendar;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.UUID;
 
-import github.vatsal.easyweather.Helper.ForecastCallback;
-import github.vatsal.easyweather.WeatherMap;
-import github.vatsal.easyweather.retrofit.models.ForecastResponseModel;
-import github.vatsal.easyweather.retrofit.models.List;
-
 public class WeatherService implements BleDevice.ReadWriteListener {
     public static final UUID weatherCityCharac     = UUID.fromString("00008001-0000-0000-0000-00a57e401d05");
     public static final UUID weatherIdsCharac      = UUID.fromString("00008002-0000-0000-0000-00a57e401d05");
@@ -44,97 +39,98 @@ public class WeatherService implements BleDevice.ReadWriteListener {
     public static final String PREFS_CITY_NAME_DEFAULT = "NewYork";
     // TODO: Should we fallback to a better default value?
 
+    /* Forecasts are only refreshed every so often, so an old one is still better than none. */
+    private static final long WEATHER_DEADLINE_MS = 5 * 60 * 1000;
+
     private BleDevice mDevice;
-    private Context mCtx;
+    private OutboundScheduler mScheduler;
+    private ForecastCache mCache;
     SharedPreferences mSettings;
 
-    public WeatherService(Context ctx, BleDevice device) {
-        mDevice = device;
-        mCtx = ctx;
+    private boolean mSynced;
+
+    /* What the watch holds, as of the last successful write to each characteristic. */
+    private HashMap<UUID, byte[]> mWritten = new HashMap<>();
 
-        mSettings = mCtx.getSharedPreferences(PREFS_NAME, 0);
-        mSettings.registerOnSharedPreferenceChangeListener(new SharedPreferences.OnSharedPreferenceChangeListener() {
-            @Override
-            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+    /* SharedPreferences only keeps a weak reference to its listeners. */
+    private SharedPreferences.OnSharedPreferenceChangeListener mPrefsListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (mSynced && PREFS_CITY_NAME.equals(key))
                 updateWeather();
-            }});
+        }
+    };
+
+    private ForecastCache.Listener mForecastListener = new ForecastCache.Listener() {
+        @Override
+        public void onForecast(WeatherCodec.Forecast forecast) {
+            if (mSynced)
+                writeForecast(forecast);
+        }
+    };
+
+    public WeatherService(Context ctx, BleDevice device, OutboundScheduler scheduler, ForecastCache cache) {
+        this(ctx.getSharedPreferences(PREFS_NAME, 0), device, scheduler, cache);
+    }
+
+    WeatherService(SharedPreferences settings, BleDevice device, OutboundScheduler scheduler, ForecastCache cache) {
+        mDevice = device;
+        mScheduler = scheduler;
+        mCache = cache;
+
+        mSettings = settings;
+        mSettings.registerOnSharedPreferenceChangeListener(mPrefsListener);
     }
 
     public void sync() {
+        mSynced = true;
         updateWeather();
     }
 
-    public void unsync() {}
+    public void unsync() {
+        mSynced = false;
+        mCache.cancel(mForecastListener);
+    }
 
+    /**
+     * Brings the watch up to date with the forecast for the configured city. Only the
+     * characteristics whose value changed get written.
+     */
     public void updateWeather() {
         String cityName = mSettings.getString(PREFS_CITY_NAME, PREFS_CITY_NAME_DEFAULT);
-        WeatherMap weatherMap = new WeatherMap(mCtx, owmApiKey);
-        weatherMap.getCityForecast (cityName, new ForecastCallback() {
-            @Override
-            public void success(ForecastResponseModel response) {
-                List[] l = response.getList();
-                final byte[] city = response.getCity().getName().getBytes(StandardCharsets.UTF_8);
-                final byte[] ids = new byte[10];
-                final byte[] maxTemps = new byte[10];
-                final byte[] minTemps = new byte[10];
-
-                int currentDay, i=0;
-
-                try {
-                    for (int j = 0; j < 5; j++) { // For each day of forecast
-                        currentDay = dayOfTimestamp(Long.parseLong(l[i].getDt()));
-                        short min = Short.MAX_VALUE;
-                        short max = Short.MIN_VALUE;
-                        int id = 0;
-                        while (i < l.length && dayOfTimestamp(Long.parseLong(l[i].getDt())) == currentDay) { // For each data point of the day
-                            // TODO is there a better way to select the most significant ID than the first of the afternoon ?
-                            if (hourOfTimestamp(Long.parseLong(l[i].getDt())) >= 12 && id == 0)
-                                id = Short.parseShort(l[i].getWeather()[0].getId());
-
-                            short currentTemp = (short) Math.round(Float.parseFloat(l[i].getMain().getTemp()));
-                            if (currentTemp > max) max = currentTemp;
-                            if (currentTemp < min) min = currentTemp;
-
-                            currentDay = dayOfTimestamp(Long.parseLong(l[i].getDt()));
-                            i = i + 1;
-                        }
-
-                        ids[2 * j] = (byte) (id >> 8);
-                        ids[2 * j + 1] = (byte) id;
-                        maxTemps[2 * j] = (byte) (max >> 8);
-                        maxTemps[2 * j + 1] = (byte) max;
-                        minTemps[2 * j] = (byte) (min >> 8);
-                        minTemps[2 * j + 1] = (byte) min;
-                    }
-                } catch(java.lang.ArrayIndexOutOfBoundsException ignored) {}
-
-                mDevice.write(weatherCityCharac, city, WeatherService.this);
-                mDevice.write(weatherIdsCharac, ids, WeatherService.this);
-                mDevice.write(weatherMaxTempsCharac, maxTemps, WeatherService.this);
-                mDevice.write(weatherMinTempsCharac, minTemps, WeatherService.this);
-            }
-
-            @Override public void failure(String message) {
-                Log.e("WeatherService", "Could not get weather from owm");
-            }
-        });
+        mCache.get(cityName, mForecastListener);
     }
 
-    private int dayOfTimestamp(long timestamp) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTimeInMillis(timestamp*1000);
-        return cal.get(Calendar.DAY_OF_WEEK);
+    private void writeForecast(WeatherCodec.Forecast forecast) {
+        write(weatherCityCharac, forecast.city);
+        write(weatherIdsCharac, forecast.ids);
+        write(weatherMaxTempsCharac, forecast.maxTemps);
+        write(weatherMinTempsCharac, forecast.minTemps);
     }
 
-    private int hourOfTimestamp(long timestamp) {
-        Calendar cal = Calendar.getInstance();
-        cal.setTimeInMillis(timestamp*1000);
-        return cal.get(Calendar.HOUR_OF_DAY);
+    private void write(UUID charUuid, byte[] data) {
+        if (Arrays.equals(mWritten.get(charUuid), data))
+            return;
+
+        mScheduler.write(OutboundScheduler.TrafficClass.BACKGROUND, charUuid, data, WEATHER_DEADLINE_MS, this);
     }
 
     @Override
     public void onEvent(ReadWriteEvent e) {
-        if(!e.wasSuccess())
+        if(e.wasSuccess()) {
+            onWritten(e.charUuid(), e.data());
+        } else {
+            onWriteFailed(e.charUuid());
             Log.e("WeatherService", e.status().toString());
+        }
+    }
+
+    /* Split out of onEvent() so tests can acknowledge writes without a ReadWriteEvent. */
+    void onWritten(UUID charUuid, byte[] data) {
+        mWritten.put(charUuid, data);
+    }
+
+    void onWriteFailed(UUID charUuid) {
+        mWritten.remove(charUuid);
     }
 }
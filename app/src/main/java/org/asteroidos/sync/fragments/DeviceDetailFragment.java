@@ -36,7 +36,10 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import org.asteroidos.sync.MainActivity;
 import org.asteroidos.sync.R;
+import org.asteroidos.sync.ble.NotificationCodec;
+import org.asteroidos.sync.ble.NotificationEvents;
 import org.asteroidos.sync.ble.WeatherService;
 import org.asteroidos.sync.services.SynchronizationService;
 
@@ -109,15 +112,8 @@ public class DeviceDetailFragment extends Fragment {
         findCard.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                Intent i = new  Intent("org.asteroidos.sync.NOTIFICATION_LISTENER");
-                i.putExtra("event", "posted");
-                i.putExtra("packageName", "org.asteroidos.sync");
-                i.putExtra("id", 0xa57e401d);
-                i.putExtra("appName", getString(R.string.app_name));
-                i.putExtra("appIcon", "");
-                i.putExtra("summary", getString(R.string.watch_finder));
-                i.putExtra("body", getString(R.string.phone_is_searching));
-                getActivity().sendBroadcast(i);
+                NotificationEvents.get().posted(0xa57e401d, new NotificationCodec.Fields("org.asteroidos.sync",
+                        getString(R.string.app_name), "", getString(R.string.watch_finder), getString(R.string.phone_is_searching)));
             }
         });
 
@@ -125,7 +121,7 @@ public class DeviceDetailFragment extends Fragment {
         screenshotCard.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                getActivity().sendBroadcast(new  Intent("org.asteroidos.sync.SCREENSHOT_REQUEST_LISTENER"));
+                getActivity().sendBroadcast(forSelectedWatch(new Intent("org.asteroidos.sync.SCREENSHOT_REQUEST_LISTENER")));
             }
         });
 
@@ -141,7 +137,7 @@ public class DeviceDetailFragment extends Fragment {
         timeSyncCard.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                getActivity().sendBroadcast(new  Intent("org.asteroidos.sync.TIME_SYNC_LISTENER"));
+                getActivity().sendBroadcast(forSelectedWatch(new Intent("org.asteroidos.sync.TIME_SYNC_LISTENER")));
             }
         });
 
@@ -154,6 +150,12 @@ public class DeviceDetailFragment extends Fragment {
         });
     }
 
+    /* Every connected watch's session listens for these, only the one shown here should answer. */
+    private Intent forSelectedWatch(Intent intent) {
+        SharedPreferences prefs = getActivity().getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE);
+        return intent.putExtra(SynchronizationService.EXTRA_MAC_ADDRESS, prefs.getString(MainActivity.PREFS_DEFAULT_MAC_ADDR, ""));
+    }
+
     public void setLocalName(String name) {
         getActivity().setTitle(name);
     }
@@ -27,12 +27,26 @@ import android.content.pm.PackageManager;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
 
-import java.util.Hashtable;
+import org.asteroidos.sync.ble.NotificationCodec;
+import org.asteroidos.sync.ble.NotificationEvents;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class NLService extends NotificationListenerService {
+    private static final int APP_CACHE_SIZE = 64;
+
     private NLServiceReceiver nlServiceReceiver;
     private Map<String, String> iconFromPackage;
+    /* Label and icon per package, most recently posting packages kept, so posting doesn't go
+     * through PackageManager every time. Only touched from the main thread. */
+    private final LinkedHashMap<String, AppInfo> appCache = new LinkedHashMap<String, AppInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AppInfo> eldest) {
+            return size() > APP_CACHE_SIZE;
+        }
+    };
 
     @Override
     public void onCreate() {
@@ -42,7 +56,7 @@ public class NLService extends NotificationListenerService {
         filter.addAction("org.asteroidos.sync.NOTIFICATION_LISTENER_SERVICE");
         registerReceiver(nlServiceReceiver, filter);
 
-        iconFromPackage = new Hashtable<>();
+        iconFromPackage = new HashMap<>();
         iconFromPackage.put("org.buffer.android", "logo-buffer");
         iconFromPackage.put("com.android.chrome", "logo-chrome");
         iconFromPackage.put("com.chrome.beta", "logo-chrome");
@@ -127,6 +141,7 @@ public class NLService extends NotificationListenerService {
         super.onDestroy();
         unregisterReceiver(nlServiceReceiver);
         iconFromPackage.clear();
+        appCache.clear();
     }
 
     @Override
@@ -142,39 +157,49 @@ public class NLService extends NotificationListenerService {
         if(body == null)
             body = n.extras.getString("android.summaryText");
 
-        final PackageManager pm = getApplicationContext().getPackageManager();
-        ApplicationInfo ai;
-        try {
-            ai = pm.getApplicationInfo(packageName, 0);
-        } catch (PackageManager.NameNotFoundException e) {
-            ai = null;
-        }
-        String appName = pm.getApplicationLabel(ai).toString();
-        String appIcon = iconFromPackage.get(packageName);
-
         if(summary == null) summary = "";
         if(body == null) body = "";
         if(packageName == null) packageName = "";
-        if(appIcon == null) appIcon = "";
 
-        Intent i = new  Intent("org.asteroidos.sync.NOTIFICATION_LISTENER");
-        i.putExtra("event", "posted");
-        i.putExtra("packageName", packageName);
-        i.putExtra("id", id);
-        i.putExtra("appName", appName);
-        i.putExtra("appIcon", appIcon);
-        i.putExtra("summary", summary);
-        i.putExtra("body", body);
+        AppInfo app = getAppInfo(packageName);
 
-        sendBroadcast(i);
+        NotificationEvents.get().posted(id, new NotificationCodec.Fields(packageName, app.name, app.icon, summary, body));
     }
 
     @Override
     public void onNotificationRemoved(StatusBarNotification sbn) {
-        Intent i = new  Intent("org.asteroidos.sync.NOTIFICATION_LISTENER");
-        i.putExtra("event", "removed");
-        i.putExtra("id", sbn.getId());
-        sendBroadcast(i);
+        NotificationEvents.get().removed(sbn.getId());
+    }
+
+    private AppInfo getAppInfo(String packageName) {
+        AppInfo app = appCache.get(packageName);
+        if(app != null)
+            return app;
+
+        final PackageManager pm = getApplicationContext().getPackageManager();
+        String appName;
+        try {
+            ApplicationInfo ai = pm.getApplicationInfo(packageName, 0);
+            appName = pm.getApplicationLabel(ai).toString();
+        } catch (PackageManager.NameNotFoundException e) {
+            appName = packageName;
+        }
+        String appIcon = iconFromPackage.get(packageName);
+        if(appIcon == null) appIcon = "";
+
+        app = new AppInfo(appName, appIcon);
+        appCache.put(packageName, app);
+        return app;
+    }
+
+    private static class AppInfo {
+        final String name;
+        final String icon;
+
+        AppInfo(String name, String icon) {
+            this.name = name;
+            this.icon = icon;
+        }
     }
 
     class NLServiceReceiver extends BroadcastReceiver{
@@ -14,13 +14,13 @@
  * You should have received a copy of the GNU General Public License
  * along with this program. If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.asteroidos.sync.services;
 
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Handler;
 import android.os.IBinder;
@@ -29,34 +29,57 @@ import android.os.Messenger;
 import android.os.RemoteException;
 import android.widget.Toast;
 
+import com.idevicesinc.sweetblue.BleConnectionPriority;
 import com.idevicesinc.sweetblue.BleDevice;
 import com.idevicesinc.sweetblue.BleDeviceState;
 import com.idevicesinc.sweetblue.BleManager;
 import com.idevicesinc.sweetblue.BleNode;
+import com.idevicesinc.sweetblue.backend.Backend_Modules;
+import com.idevicesinc.sweetblue.backend.historical.Backend_HistoricalDataList_Persistent;
+import com.idevicesinc.sweetblue.backend.historical.Backend_HistoricalDatabase_Persistent;
 
 import org.asteroidos.sync.MainActivity;
 import org.asteroidos.sync.R;
+import org.asteroidos.sync.ble.ForecastCache;
 import org.asteroidos.sync.ble.MediaService;
+import org.asteroidos.sync.ble.MediaSource;
 import org.asteroidos.sync.ble.NotificationService;
+import org.asteroidos.sync.ble.OutboundScheduler;
 import org.asteroidos.sync.ble.ScreenshotService;
+import org.asteroidos.sync.ble.SessionProfile;
 import org.asteroidos.sync.ble.TimeService;
 import org.asteroidos.sync.ble.WeatherService;
 
+import java.util.HashMap;
 import java.util.UUID;
 
 import static com.idevicesinc.sweetblue.BleManager.get;
 
-public class SynchronizationService extends Service implements BleDevice.StateListener {
+/**
+ * Keeps one session per watch, each with its own link, state and services, so several watches can
+ * be synced at once. Messages from the UI can name the watch they're about by MAC address in
+ * <code>obj</code>, otherwise they apply to the one last picked with {@link #MSG_SET_DEVICE},
+ * which is also the only one whose status is reported back.
+ */
+public class SynchronizationService extends Service {
     private NotificationManager mNM;
     private int NOTIFICATION = 2725;
     private BleManager mBleMngr;
-    private BleDevice mDevice;
-    private int mState = STATUS_DISCONNECTED;
+
+    /* Every watch the service knows of, connected or not, by MAC address. */
+    private HashMap<String, WatchSession> mSessions = new HashMap<>();
+    private WatchSession mSelected;
+
+    /* Inputs that are the same for every watch, worked out once and handed to each session. */
+    private MediaSource mMediaSource;
+    private ForecastCache mForecastCache;
 
     private Messenger replyTo;
 
     public static final UUID batteryLevelCharac = UUID.fromString("0000180F-0000-1000-8000-00805f9b34fb");
 
+    private static final int MTU = 256;
+
     public static final int MSG_CONNECT = 1;
     public static final int MSG_DISCONNECT = 2;
 
@@ -65,98 +88,61 @@ public class SynchronizationService extends Service implements BleDevice.StateLi
     public static final int MSG_SET_BATTERY_PERCENTAGE = 5;
     public static final int MSG_REQUEST_BATTERY_LIFE = 6;
     public static final int MSG_SET_DEVICE = 7;
+    public static final int MSG_REMOVE_DEVICE = 8;
+
+    /* Names the watch a UI broadcast, like a screenshot or time sync request, is meant for. */
+    public static final String EXTRA_MAC_ADDRESS = "org.asteroidos.sync.MAC_ADDRESS";
 
     public static final int STATUS_CONNECTED = 1;
     public static final int STATUS_DISCONNECTED = 2;
     public static final int STATUS_CONNECTING = 3;
 
-    private ScreenshotService mScreenshotService;
-    private WeatherService mWeatherService;
-    private NotificationService mNotificationService;
-    private MediaService mMediaService;
-    private TimeService mTimeService;
-
     class SynchronizationHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
+            WatchSession session;
             switch (msg.what) {
                 case MSG_CONNECT:
-                    if(mDevice == null) return;
-                    if(mState == STATUS_CONNECTED || mState == STATUS_CONNECTING) return;
+                    session = sessionFor(msg);
+                    if(session == null) return;
                     replyTo = msg.replyTo;
-                    mDevice.setListener_State(SynchronizationService.this);
-                    mDevice.setListener_ConnectionFail(new BleDevice.DefaultConnectionFailListener() {
-                        @Override public BleNode.ConnectionFailListener.Please onEvent(BleDevice.ConnectionFailListener.ConnectionFailEvent event)
-                        {
-                            BleNode.ConnectionFailListener.Please please = super.onEvent(event);
-
-                            if(!please.isRetry())
-                            {
-                                final String toast = event.device().getName_debug() + " connection failed with " + event.failureCountSoFar() + " retries - " + event.status();
-                                if(getApplicationContext() != null)
-                                    Toast.makeText(getApplicationContext(), toast, Toast.LENGTH_LONG).show();
-                            }
-
-                            return please;
-                        }
-                    });
-
-                    mWeatherService = new WeatherService(getApplicationContext(), mDevice);
-                    mNotificationService = new NotificationService(getApplicationContext(), mDevice);
-                    mMediaService = new MediaService(getApplicationContext(), mDevice);
-                    mScreenshotService = new ScreenshotService(getApplicationContext(), mDevice);
-                    mTimeService = new TimeService(getApplicationContext(), mDevice);
-
-                    mDevice.connect();
+                    session.connect();
                     break;
                 case MSG_DISCONNECT:
-                    if(mDevice == null) return;
-                    if(mState == STATUS_DISCONNECTED) return;
-                    mScreenshotService.unsync();
-                    mWeatherService.unsync();
-                    mNotificationService.unsync();
-                    mMediaService.unsync();
-                    mTimeService.unsync();
-                    mDevice.disconnect();
+                    session = sessionFor(msg);
+                    if(session == null) return;
+                    session.disconnect();
                     break;
                 case MSG_REQUEST_BATTERY_LIFE:
-                    if(mDevice == null) return;
-                    if(mState == STATUS_DISCONNECTED) return;
+                    session = sessionFor(msg);
+                    if(session == null) return;
                     replyTo = msg.replyTo;
-                    mDevice.read(batteryLevelCharac, new BleDevice.ReadWriteListener()
-                    {
-                        @Override public void onEvent(ReadWriteEvent result)
-                        {
-                            if(result.wasSuccess()) try {
-                                replyTo.send(Message.obtain(null, MSG_SET_BATTERY_PERCENTAGE, result.data()[0], 0));
-                            } catch (RemoteException ignored) {}
-                        }
-                    });
+                    session.requestBatteryLife();
                     break;
                 case MSG_SET_DEVICE:
                     String macAddress = (String)msg.obj;
                     if(macAddress.isEmpty()) {
-                        if(mState != STATUS_DISCONNECTED) {
-                            mScreenshotService.unsync();
-                            mWeatherService.unsync();
-                            mNotificationService.unsync();
-                            mMediaService.unsync();
-                            mTimeService.unsync();
-                            mDevice.disconnect();
-                        }
-                        mDevice = null;
+                        if(mSelected != null)
+                            removeSession(mSelected);
                     } else {
-                        mDevice = mBleMngr.getDevice(macAddress);
+                        mSelected = getSession(macAddress);
                         replyTo = msg.replyTo;
 
                         try {
                             Message answer = Message.obtain(null, MSG_SET_LOCAL_NAME);
-                            answer.obj = mDevice.getName_normalized();
+                            answer.obj = mSelected.mDevice.getName_normalized();
                             replyTo.send(answer);
 
-                            replyTo.send(Message.obtain(null, MSG_SET_STATUS, mState, 0));
+                            replyTo.send(Message.obtain(null, MSG_SET_STATUS, mSelected.mState, 0));
                         } catch (RemoteException ignored) {}
                     }
+                    updateNotification();
+                    break;
+                case MSG_REMOVE_DEVICE:
+                    session = sessionFor(msg);
+                    if(session == null) return;
+                    removeSession(session);
+                    updateNotification();
                     break;
                 default:
                     super.handleMessage(msg);
@@ -165,10 +151,51 @@ public class SynchronizationService extends Service implements BleDevice.StateLi
     }
     final Messenger mMessenger = new Messenger(new SynchronizationHandler());
 
+    private WatchSession sessionFor(Message msg) {
+        if(msg.obj instanceof String && !((String)msg.obj).isEmpty())
+            return getSession((String)msg.obj);
+        return mSelected;
+    }
+
+    private WatchSession getSession(String macAddress) {
+        BleDevice device = mBleMngr.getDevice(macAddress);
+        WatchSession session = mSessions.get(device.getMacAddress());
+        if(session == null) {
+            session = new WatchSession(device);
+            mSessions.put(device.getMacAddress(), session);
+        }
+        return session;
+    }
+
+    /* A connected session lets go of the device once its DISCONNECTED state comes in, see WatchSession.onEvent(). */
+    private void removeSession(WatchSession session) {
+        mSessions.remove(session.mDevice.getMacAddress());
+        if(session == mSelected)
+            mSelected = null;
+        session.mProfile.detach(session.mDevice);
+        if(session.mState == STATUS_DISCONNECTED)
+            session.release();
+        else
+            session.disconnect();
+    }
+
+    /**
+     * Returns the shared {@link BleManager}, keeping the watches' historical data on disk rather
+     * than only in memory. The backends are picked when the manager is first created, so both
+     * the activity and the service go through here.
+     */
+    public static BleManager getBleManager(Context context) {
+        Backend_Modules.HISTORICAL_DATA_LIST = Backend_HistoricalDataList_Persistent.class;
+        Backend_Modules.HISTORICAL_DATABASE = Backend_HistoricalDatabase_Persistent.class;
+        return get(context);
+    }
+
     @Override
     public void onCreate() {
         mNM = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        mBleMngr = get(getApplication());
+        mBleMngr = getBleManager(getApplication());
+        mMediaSource = new MediaSource(getApplicationContext());
+        mForecastCache = new ForecastCache(getApplicationContext());
         updateNotification();
     }
 
@@ -179,14 +206,22 @@ public class SynchronizationService extends Service implements BleDevice.StateLi
 
     private void updateNotification() {
         String status = getString(R.string.disconnected);
-        if(mDevice != null) {
-            if (mState == STATUS_CONNECTING)
-                status = getString(R.string.connecting_formatted, mDevice.getName_normalized());
-            else if (mState == STATUS_CONNECTED)
-                status = getString(R.string.connected_formatted, mDevice.getName_normalized());
+        if(mSelected != null) {
+            if (mSelected.mState == STATUS_CONNECTING)
+                status = getString(R.string.connecting_formatted, mSelected.mDevice.getName_normalized());
+            else if (mSelected.mState == STATUS_CONNECTED)
+                status = getString(R.string.connected_formatted, mSelected.mDevice.getName_normalized());
+        }
+
+        int othersConnected = 0;
+        for (WatchSession session : mSessions.values()) {
+            if (session != mSelected && session.mState == STATUS_CONNECTED)
+                othersConnected++;
         }
+        if (othersConnected > 0)
+            status = getString(R.string.status_and_others_connected_formatted, status, othersConnected);
 
-        if(mDevice != null) {
+        if(!mSessions.isEmpty()) {
             Intent intent = new Intent(this, MainActivity.class);
             PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
                 intent, PendingIntent.FLAG_UPDATE_CURRENT);
@@ -207,8 +242,8 @@ public class SynchronizationService extends Service implements BleDevice.StateLi
 
     @Override
     public void onDestroy() {
-        if(mDevice != null)
-            mDevice.disconnect();
+        for (WatchSession session : mSessions.values())
+            session.mDevice.disconnect();
         mNM.cancel(NOTIFICATION);
     }
 
@@ -217,63 +252,144 @@ public class SynchronizationService extends Service implements BleDevice.StateLi
         return mMessenger.getBinder();
     }
 
-    /* Bluetooth events handling */
-    @Override
-    public void onEvent(StateEvent event) {
-        if (event.didEnter(BleDeviceState.INITIALIZED)) {
-            mState = STATUS_CONNECTED;
-            updateNotification();
-            try {
-                replyTo.send(Message.obtain(null, MSG_SET_STATUS, STATUS_CONNECTED, 0));
-            } catch (RemoteException ignored) {}
-            mDevice.setMtu(256);
-
-            event.device().enableNotify(batteryLevelCharac, new BleDevice.ReadWriteListener() {
-                @Override
-                public void onEvent(ReadWriteEvent e) {
-                    try {
-                        if (e.isNotification() && e.charUuid().equals(batteryLevelCharac)) {
-                            byte data[] = e.data();
-                            if (replyTo != null)
-                                replyTo.send(Message.obtain(null, MSG_SET_BATTERY_PERCENTAGE, data[0], 0));
-                        }
-                    } catch(RemoteException ignored) {}
+    /* Only the selected watch is shown, so only its updates go back to the UI. */
+    private void reply(WatchSession session, Message msg) {
+        if(session != mSelected || replyTo == null)
+            return;
+        try {
+            replyTo.send(msg);
+        } catch (RemoteException ignored) {}
+    }
+
+    /**
+     * Everything tied to one watch: its link, its connection state and the services syncing it.
+     */
+    class WatchSession implements BleDevice.StateListener {
+        private BleDevice mDevice;
+        private int mState = STATUS_DISCONNECTED;
+        private SessionProfile mProfile;
+
+        private ScreenshotService mScreenshotService;
+        private WeatherService mWeatherService;
+        private NotificationService mNotificationService;
+        private MediaService mMediaService;
+        private TimeService mTimeService;
+        private OutboundScheduler mScheduler;
+
+        WatchSession(BleDevice device) {
+            mDevice = device;
+            mProfile = new SessionProfile(getApplicationContext(), MTU, BleConnectionPriority.MEDIUM);
+            mProfile.setNotify(batteryLevelCharac, mBatteryListener);
+
+            /* Created once per session, so the link behaves the same however it came back. */
+            mScheduler = new OutboundScheduler(mDevice);
+            mWeatherService = new WeatherService(getApplicationContext(), mDevice, mScheduler, mForecastCache);
+            mNotificationService = new NotificationService(getApplicationContext(), mDevice, mScheduler);
+            mMediaService = new MediaService(getApplicationContext(), mDevice, mScheduler, mMediaSource);
+            mScreenshotService = new ScreenshotService(getApplicationContext(), mDevice, mScheduler);
+            mTimeService = new TimeService(getApplicationContext(), mDevice, mScheduler);
+
+            mNotificationService.addToProfile(mProfile);
+            mMediaService.addToProfile(mProfile);
+            mScreenshotService.addToProfile(mProfile);
+
+            mProfile.attach(device);
+        }
+
+        void connect() {
+            if(mState == STATUS_CONNECTED || mState == STATUS_CONNECTING) return;
+            mDevice.setListener_State(this);
+            mDevice.setListener_ConnectionFail(new BleDevice.DefaultConnectionFailListener() {
+                @Override public BleNode.ConnectionFailListener.Please onEvent(BleDevice.ConnectionFailListener.ConnectionFailEvent event)
+                {
+                    BleNode.ConnectionFailListener.Please please = super.onEvent(event);
+
+                    if(!please.isRetry())
+                    {
+                        final String toast = event.device().getName_debug() + " connection failed with " + event.failureCountSoFar() + " retries - " + event.status();
+                        if(getApplicationContext() != null)
+                            Toast.makeText(getApplicationContext(), toast, Toast.LENGTH_LONG).show();
+                    }
+
+                    return please;
                 }
             });
 
-            if(mScreenshotService != null)
+            mDevice.connect(mProfile);
+        }
+
+        /* The services are unsynced once the DISCONNECTED state comes in, like for any other disconnect. */
+        void disconnect() {
+            if(mState == STATUS_DISCONNECTED) return;
+            mDevice.disconnect();
+        }
+
+        void requestBatteryLife() {
+            if(mState == STATUS_DISCONNECTED) return;
+            mDevice.read(batteryLevelCharac, new BleDevice.ReadWriteListener()
+            {
+                @Override public void onEvent(ReadWriteEvent result)
+                {
+                    if(result.wasSuccess())
+                        reply(WatchSession.this, Message.obtain(null, MSG_SET_BATTERY_PERCENTAGE, result.data()[0], 0));
+                }
+            });
+        }
+
+        /* Stops listening to the device, once it's been removed and nothing is left to unsync. */
+        void release() {
+            mDevice.setListener_State((BleDevice.StateListener) null);
+            mDevice.setListener_ConnectionFail(null);
+        }
+
+        private void unsyncServices() {
+            mScreenshotService.unsync();
+            mWeatherService.unsync();
+            mNotificationService.unsync();
+            mMediaService.unsync();
+            mTimeService.unsync();
+        }
+
+        private BleDevice.ReadWriteListener mBatteryListener = new BleDevice.ReadWriteListener() {
+            @Override
+            public void onEvent(ReadWriteEvent e) {
+                if (e.isNotification() && e.charUuid().equals(batteryLevelCharac)) {
+                    byte data[] = e.data();
+                    reply(WatchSession.this, Message.obtain(null, MSG_SET_BATTERY_PERCENTAGE, data[0], 0));
+                }
+            }
+        };
+
+        /* Bluetooth events handling */
+        @Override
+        public void onEvent(StateEvent event) {
+            if (event.didEnter(BleDeviceState.CONNECTED))
+                mProfile.onLinkUp();
+
+            if (event.didEnter(BleDeviceState.INITIALIZED)) {
+                mState = STATUS_CONNECTED;
+                updateNotification();
+                reply(this, Message.obtain(null, MSG_SET_STATUS, STATUS_CONNECTED, 0));
+
                 mScreenshotService.sync();
-            if (mWeatherService != null)
                 mWeatherService.sync();
-            if (mNotificationService != null)
                 mNotificationService.sync();
-            if (mMediaService != null)
                 mMediaService.sync();
-            if (mTimeService != null)
                 mTimeService.sync();
-        } else if (event.didEnter(BleDeviceState.DISCONNECTED)) {
-            mState = STATUS_DISCONNECTED;
-            updateNotification();
-            try {
-                replyTo.send(Message.obtain(null, MSG_SET_STATUS, STATUS_DISCONNECTED, 0));
-            } catch (RemoteException ignored) {}
-
-            if(mScreenshotService != null)
-                mScreenshotService.sync();
-            if (mWeatherService != null)
-                mWeatherService.unsync();
-            if (mNotificationService != null)
-                mNotificationService.unsync();
-            if (mMediaService != null)
-                mMediaService.unsync();
-            if (mTimeService != null)
-                mTimeService.unsync();
-        } else if(event.didEnter(BleDeviceState.CONNECTING)) {
-            mState = STATUS_CONNECTING;
-            updateNotification();
-            try {
-                replyTo.send(Message.obtain(null, MSG_SET_STATUS, STATUS_CONNECTING, 0));
-            } catch (RemoteException ignored) {}
+            } else if (event.didEnter(BleDeviceState.DISCONNECTED)) {
+                mState = STATUS_DISCONNECTED;
+                updateNotification();
+                reply(this, Message.obtain(null, MSG_SET_STATUS, STATUS_DISCONNECTED, 0));
+
+                unsyncServices();
+                mScheduler.clear();
+                if(mSessions.get(mDevice.getMacAddress()) != this)
+                    release();
+            } else if(event.didEnter(BleDeviceState.CONNECTING)) {
+                mState = STATUS_CONNECTING;
+                updateNotification();
+                reply(this, Message.obtain(null, MSG_SET_STATUS, STATUS_CONNECTING, 0));
+            }
         }
     }
 }
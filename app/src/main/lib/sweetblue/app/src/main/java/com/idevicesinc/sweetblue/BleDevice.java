@@ -47,7 +47,6 @@ import com.idevicesinc.sweetblue.utils.UsesCustomNull;
 import com.idevicesinc.sweetblue.utils.Utils;
 import com.idevicesinc.sweetblue.utils.Utils_Byte;
 import com.idevicesinc.sweetblue.utils.Utils_Rssi;
-import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
 import com.idevicesinc.sweetblue.utils.Utils_State;
 import com.idevicesinc.sweetblue.utils.Utils_String;
 import com.idevicesinc.sweetblue.utils.Uuids;
@@ -503,7 +502,7 @@ public final class BleDevice extends BleNode
                 return m_type;
             }
 
-            private final Type m_type;
+            private Type m_type;
 
             /**
              * The type of GATT object this {@link ReadWriteEvent} is for, currently characteristic, descriptor, or rssi.
@@ -525,7 +524,7 @@ public final class BleDevice extends BleNode
                 return m_serviceUuid;
             }
 
-            private final UUID m_serviceUuid;
+            private UUID m_serviceUuid;
 
             /**
              * The {@link UUID} of the characteristic associated with this {@link ReadWriteEvent}. This will always be a non-null {@link UUID},
@@ -537,7 +536,7 @@ public final class BleDevice extends BleNode
                 return m_charUuid;
             }
 
-            private final UUID m_charUuid;
+            private UUID m_charUuid;
 
             /**
              * The {@link UUID} of the descriptor associated with this {@link ReadWriteEvent}. If {@link #target} is
@@ -561,7 +560,7 @@ public final class BleDevice extends BleNode
                 return m_data;
             }
 
-            private final byte[] m_data;
+            private byte[] m_data;
 
             /**
              * This value gets updated as a result of a {@link BleDevice#readRssi(ReadWriteListener)} call. It will
@@ -576,7 +575,7 @@ public final class BleDevice extends BleNode
                 return m_rssi;
             }
 
-            private final int m_rssi;
+            private int m_rssi;
 
             /**
              * This value gets set as a result of a {@link BleDevice#setMtu(int, ReadWriteListener)} call. The value returned
@@ -590,7 +589,7 @@ public final class BleDevice extends BleNode
                 return m_mtu;
             }
 
-            private final int m_mtu;
+            private int m_mtu;
 
             /**
              * Indicates either success or the type of failure. Some values of {@link Status} are not used for certain values of {@link Type}.
@@ -677,7 +676,7 @@ public final class BleDevice extends BleNode
                 return m_connectionPriority;
             }
 
-            private final BleConnectionPriority m_connectionPriority;
+            private BleConnectionPriority m_connectionPriority;
 
             ReadWriteEvent(BleDevice device, UUID serviceUuid, UUID charUuid, UUID descUuid, Type type, Target target, byte[] data, Status status, int gattStatus, double totalTime, double transitTime, boolean solicited)
             {
@@ -698,6 +697,23 @@ public final class BleDevice extends BleNode
                 this.m_connectionPriority = device.getConnectionPriority();
             }
 
+            /**
+             * Re-points an event made by P_PollManager as a reusable carrier at the next notification. Only ever called on events
+             * lent to a {@link BorrowingReadWriteListener}, which don't outlive the callback they're passed to.
+             */
+            final ReadWriteEvent borrow(UUID serviceUuid, UUID charUuid, Type type, byte[] data)
+            {
+                this.m_serviceUuid = serviceUuid != null ? serviceUuid : NON_APPLICABLE_UUID;
+                this.m_charUuid = charUuid != null ? charUuid : NON_APPLICABLE_UUID;
+                this.m_type = type;
+                this.m_data = data;
+                this.m_rssi = m_device.getRssi();
+                this.m_mtu = m_device.getMtu();
+                this.m_connectionPriority = m_device.getConnectionPriority();
+
+                return this;
+            }
+
             ReadWriteEvent(BleDevice device, Type type, int rssi, Status status, int gattStatus, double totalTime, double transitTime, boolean solicited)
             {
                 this.m_device = device;
@@ -3078,6 +3094,7 @@ public final class BleDevice extends BleNode
     {
         if (is(CONNECTED))
         {
+            getServiceManager().clearCharacteristicIndex();
             stateTracker().update(E_Intent.INTENTIONAL, BleStatuses.GATT_STATUS_NOT_APPLICABLE, SERVICES_DISCOVERED, false, DISCOVERING_SERVICES, true);
             P_Task_DiscoverServices discTask = new P_Task_DiscoverServices(this, new PA_Task.I_StateListener()
             {
@@ -5166,6 +5183,24 @@ public final class BleDevice extends BleNode
      * Overload of {@link #enableNotify(UUID, Interval, ReadWriteListener)} for when you have characteristics with identical uuids under different services.
      */
     public final ReadWriteListener.ReadWriteEvent enableNotify(final UUID serviceUuid, final UUID characteristicUuid, final Interval forceReadTimeout, final DescriptorFilter descriptorFilter, final ReadWriteListener listener)
+    {
+        return enableNotify_private(serviceUuid, characteristicUuid, forceReadTimeout, descriptorFilter, /*writeDescriptor=*/true, listener);
+    }
+
+    /**
+     * Same as {@link #enableNotify(UUID, ReadWriteListener)} but only enables notifications on the Android side, without writing the
+     * client characteristic configuration descriptor. A bonded peripheral keeps that descriptor across connections, so if it was
+     * already written during an earlier bonded session this saves a round trip on reconnect. If the peripheral did lose it, for example
+     * because it was unbonded on its end, no notifications will come in, so only use this when you know it's still there.
+     *
+     * @return (same as {@link #enableNotify(UUID, ReadWriteListener)}).
+     */
+    public final ReadWriteListener.ReadWriteEvent enableNotify_localOnly(final UUID characteristicUuid, final ReadWriteListener listener)
+    {
+        return enableNotify_private(null, characteristicUuid, Interval.INFINITE, null, /*writeDescriptor=*/false, listener);
+    }
+
+    private ReadWriteListener.ReadWriteEvent enableNotify_private(final UUID serviceUuid, final UUID characteristicUuid, final Interval forceReadTimeout, final DescriptorFilter descriptorFilter, final boolean writeDescriptor, final ReadWriteListener listener)
     {
         final ReadWriteEvent earlyOutResult = serviceMngr_device().getEarlyOutEvent(serviceUuid, characteristicUuid, Uuids.INVALID, EMPTY_FUTURE_DATA, Type.ENABLING_NOTIFICATION, ReadWriteListener.Target.CHARACTERISTIC);
 
@@ -5196,7 +5231,7 @@ public final class BleDevice extends BleNode
 
             if (descriptorFilter == null)
             {
-                task = new P_Task_ToggleNotify(this, characteristic, /*enable=*/true, m_txnMngr.getCurrent(), listener, getOverrideReadWritePriority());
+                task = new P_Task_ToggleNotify(this, characteristic, /*enable=*/true, writeDescriptor, m_txnMngr.getCurrent(), listener, getOverrideReadWritePriority());
             }
             else
             {
@@ -5594,6 +5629,7 @@ public final class BleDevice extends BleNode
     {
         m_lastDiscoveryTime = EpochTime.now();
         m_timeSinceLastDiscovery = 0.0;
+        getManager().onDiscoveryTimerReset(this);
         updateRssi(rssi);
 
         if (scanEvent_nullable != null)
@@ -5604,20 +5640,14 @@ public final class BleDevice extends BleNode
 
             m_advertisingFlags = scanEvent_nullable.advertisingFlags();
 
-            m_scanInfo.clearServiceUUIDs();
-            m_scanInfo.populateServiceUUIDs(scanEvent_nullable.advertisedServices());
-
-            m_scanInfo.setManufacturerId(scanEvent_nullable.manufacturerId());
-            m_scanInfo.setManufacturerData(scanEvent_nullable.manufacturerData());
-
-            m_scanInfo.clearServiceData();
-            m_scanInfo.populateServiceData(scanEvent_nullable.serviceData());
+            //--- Same view instance every time, fields are only decoded if one of the getters asks for them.
+            m_scanInfo.reset(m_scanRecord);
         }
         else if (scanRecord_nullable != null)
         {
             m_scanRecord = scanRecord_nullable;
 
-            m_scanInfo = Utils_ScanRecord.parseScanRecord(scanRecord_nullable);
+            m_scanInfo.reset(scanRecord_nullable);
 
             updateKnownTxPower(m_scanInfo.getTxPower().value);
         }
@@ -5651,6 +5681,20 @@ public final class BleDevice extends BleNode
         updateMtu(0);
     }
 
+    /**
+     * Returns how many seconds the update loop can go before this device needs another {@link #update(double)}, for when the loop is
+     * idle and sleeping until its next deadline. Transactions and reconnects check things every tick, so those ask for the idle rate.
+     */
+    final double getTimeUntilNextUpdate()
+    {
+        if (m_txnMngr.isAnyRunning() || m_reconnectMngr_longTerm.isRunning() || m_reconnectMngr_shortTerm.isRunning())
+        {
+            return 0.0;
+        }
+
+        return Math.min(m_pollMngr.getTimeUntilNextPoll(), m_rssiPollMngr.getTimeUntilNextPoll());
+    }
+
     final void update(double timeStep)
     {
         m_timeSinceLastDiscovery += timeStep;
@@ -6000,6 +6044,7 @@ public final class BleDevice extends BleNode
         //--- DRK > Device probably wasn't advertising while connected so here we reset the timer to keep
         //--- it from being immediately undiscovered after disconnection.
         m_timeSinceLastDiscovery = 0.0;
+        getManager().onDiscoveryTimerReset(this);
 
         m_txnMngr.clearQueueLock();
 
@@ -6198,6 +6243,7 @@ public final class BleDevice extends BleNode
         }
 
         m_pollMngr.resetNotifyStates();
+        getServiceManager().clearCharacteristicIndex();
 
 //		if( attemptShortTermReconnect )
         {
@@ -6515,7 +6561,9 @@ public final class BleDevice extends BleNode
         }
         else
         {
-            P_StripedWriteTransaction stripedTxn = new P_StripedWriteTransaction(data, characteristic, requiresBonding, filter, listener);
+            final int window = BleDeviceConfig.integer(conf_device().stripedWriteWindow, conf_mngr().stripedWriteWindow, 1);
+            final boolean withoutResponse = BleDeviceConfig.bool(conf_device().stripedWritesWithoutResponse, conf_mngr().stripedWritesWithoutResponse);
+            P_StripedWriteTransaction stripedTxn = new P_StripedWriteTransaction(data, characteristic, requiresBonding, filter, window, withoutResponse, listener);
             performTransaction(stripedTxn);
         }
     }
@@ -6579,6 +6627,36 @@ public final class BleDevice extends BleNode
         }
     }
 
+    /**
+     * Whether a notification being processed right now can be lent to a {@link BorrowingReadWriteListener}, i.e. nothing else would see
+     * the event, not even a running transaction, and it can be delivered on this very thread.
+     */
+    final boolean canLendNotifications()
+    {
+        return m_defaultReadWriteListener == null && m_defaultNotificationListener == null &&
+               getManager().m_defaultReadWriteListener == null && getManager().m_defaultNotificationListener == null &&
+               !m_txnMngr.isAnyRunning() && getManager().getPostManager().isOnCallbackThread();
+    }
+
+    /**
+     * Same as {@link #invokeReadWriteCallback(ReadWriteListener, ReadWriteEvent)} for a notification lent to a {@link BorrowingReadWriteListener}.
+     * Only called after {@link #canLendNotifications()}, so the listener is the only one seeing the event and is called right away. Historical
+     * data may be kept, so it gets its own copy.
+     */
+    final void invokeBorrowedReadWriteCallback(final BorrowingReadWriteListener listener, final ReadWriteListener.ReadWriteEvent event)
+    {
+        if (PU_HistoricalData.getFilter(this) != null)
+        {
+            m_historicalDataMngr.add_single(event.charUuid(), event.data().clone(), new EpochTime(), event.type().toHistoricalDataSource());
+        }
+
+        m_txnMngr.onReadWriteResult(event);
+
+        listener.onEvent(event);
+
+        m_txnMngr.onReadWriteResultCallbacksCalled();
+    }
+
     final void invokeReadWriteCallback(final ReadWriteListener listener_nullable, final ReadWriteListener.ReadWriteEvent event)
     {
         if (event.wasSuccess() && event.isRead() && event.target() == ReadWriteListener.Target.CHARACTERISTIC)
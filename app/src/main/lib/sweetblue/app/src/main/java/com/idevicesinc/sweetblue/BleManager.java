@@ -747,6 +747,7 @@ public final class BleManager
 	private P_PostManager m_postManager;
 	private P_ScanManager m_scanManager;
 	private final P_TaskQueue m_taskQueue;
+	private final BleTaskMetrics m_taskMetrics;
 	private 	P_UhOhThrottler m_uhOhThrottler;
 				P_WakeLockManager m_wakeLockMngr;
 
@@ -798,11 +799,11 @@ public final class BleManager
 	{
 		m_context = context.getApplicationContext();
 
-		m_currentTick = System.currentTimeMillis();
-
 		addLifecycleCallbacks();
 
 		m_config = config.clone();
+		m_currentTick = currentTimeMillis();
+		m_taskMetrics = new BleTaskMetrics(this);
 		m_scanManager = new P_ScanManager(this);
 		initLogger(null);
 		m_historicalDatabase = PU_HistoricalData.newDatabase(context, this);
@@ -815,7 +816,7 @@ public final class BleManager
 		BleManagerState nativeState = BleManagerState.get(m_config.nativeManagerLayer.getState());
 
 		if (m_timeTurnedOn == 0 && nativeState.overlaps(BluetoothAdapter.STATE_ON)) {
-			m_timeTurnedOn = System.currentTimeMillis();
+			m_timeTurnedOn = currentTimeMillis();
 		}
 
 		m_stateTracker = new P_BleStateTracker(this);
@@ -829,7 +830,7 @@ public final class BleManager
 		m_deviceMngr_cache = new P_DeviceManager(this);
 		m_listeners = new P_BleManager_Listeners(this);
 
-		m_lastTaskExecution = System.currentTimeMillis();
+		m_lastTaskExecution = currentTimeMillis();
 
 		initConfigDependentMembers();
 
@@ -858,7 +859,12 @@ public final class BleManager
 
 	private void initLogger(BleManager mgr)
 	{
-		m_logger = new P_Logger(mgr, m_config.debugThreadNames, m_config.uuidNameMaps, m_config.loggingEnabled, m_config.logger);
+		if( m_logger != null )
+		{
+			m_logger.stop();
+		}
+
+		m_logger = new P_Logger(mgr, m_config.debugThreadNames, m_config.uuidNameMaps, m_config.loggingEnabled, m_config.loggingLevel, m_config.logger);
 	}
 
 	private void initConfigDependentMembers()
@@ -946,7 +952,12 @@ public final class BleManager
 	{
 		P_SweetHandler update;
 		P_SweetHandler ui;
-		if (m_config.runOnMainThread)
+		if (m_config.updateHandler != null)
+		{
+			update = m_config.updateHandler;
+			ui = update;
+		}
+		else if (m_config.runOnMainThread)
 		{
 			update = new P_SweetUIHandler(this);
 			ui = update;
@@ -1756,7 +1767,7 @@ public final class BleManager
 
 		m_taskQueue.add(new P_Task_TurnBleOn(this, /*implicit=*/false));
 		if (m_timeTurnedOn == 0) {
-			m_timeTurnedOn = System.currentTimeMillis();
+			m_timeTurnedOn = currentTimeMillis();
 		}
 	}
 
@@ -2188,7 +2199,8 @@ public final class BleManager
 	 */
 	public final @Nullable(Prevalence.NEVER) BleDevice getDevice(final String macAddress)
 	{
-		final String macAddress_normalized = normalizeMacAddress(macAddress);
+		//--- Well-formed addresses are looked up directly, in either case, so only odd ones pay for normalizing.
+		final String macAddress_normalized = P_DeviceManager.isKeyable(macAddress) ? macAddress : normalizeMacAddress(macAddress);
 
 		final BleDevice device = m_deviceMngr.get(macAddress_normalized);
 
@@ -2227,17 +2239,7 @@ public final class BleManager
 	 */
 	public final @Nullable(Prevalence.NEVER) BleDevice getDevice(BleDeviceState state)
 	{
-		for( int i = 0; i < m_deviceMngr.getCount(); i++ )
-		{
-			BleDevice device = m_deviceMngr.get(i);
-
-			if( device.is(state) )
-			{
-				return device;
-			}
-		}
-
-		return BleDevice.NULL;
+		return m_deviceMngr.getDevice(state.bit());
 	}
 
 	/**
@@ -2815,6 +2817,16 @@ public final class BleManager
 		m_diskOptionsMngr.clear();
 	}
 
+	/**
+	 * Returns latency histograms and counters for every task that went through SweetBlue's task queue, per {@link BleTask} and per
+	 * {@link BleDevice}, along with how deep the queue has been. Always recorded, use {@link BleTaskMetrics#snapshot()} to read them.
+	 */
+	@Advanced
+	public final @Nullable(Prevalence.NEVER) BleTaskMetrics getTaskMetrics()
+	{
+		return m_taskMetrics;
+	}
+
 	//--- DRK > Smooshing together a bunch of package-private accessors here.
 	final P_BleStateTracker			getStateTracker(){				return m_stateTracker;									}
 	final P_NativeBleStateTracker	getNativeStateTracker(){		return m_nativeStateTracker;							}
@@ -2826,8 +2838,17 @@ public final class BleManager
 	final boolean 					isBluetoothEnabled(){			return managerLayer().isBluetoothEnabled();				}
 	final P_ScanManager 			getScanManager(){				return m_scanManager;									}
 	final long 						getUpdateRate(){				return m_updateRunnable.getUpdateRate();				}
+	final long 						getUpdateTickCount(){			return m_updateRunnable.m_tickCount;					}
 	final P_PostManager 			getPostManager(){				return m_postManager;									}
 
+	/**
+	 * Returns {@link System#currentTimeMillis()}, unless a unit test runs SweetBlue on virtual time.
+	 */
+	final long currentTimeMillis()
+	{
+		return m_config.clock != null ? m_config.clock.currentTimeMillis() : System.currentTimeMillis();
+	}
+
 
 	private void turnOff_private(final boolean removeAllBonds)
 	{
@@ -3138,17 +3159,65 @@ public final class BleManager
 			}
 		}
 
+		if( is(IDLE) && m_updateRunnable != null )
+		{
+			m_updateRunnable.setUpdateRate(getIdleUpdateRate());
+		}
+
 		if( m_config.updateLoopCallback != null )
 		{
 			m_config.updateLoopCallback.onUpdate(timeStep_seconds);
 		}
 
-		if (!is(IDLE) && m_config.autoUpdateRate.millis() < (System.currentTimeMillis() - m_currentTick))
+		if (!is(IDLE) && Interval.isEnabled(m_config.autoUpdateRate) && m_config.autoUpdateRate.millis() < (currentTimeMillis() - m_currentTick))
 		{
 			getLogger().w("BleManager", String.format("Update loop took longer to run than the current interval of %dms", m_config.autoUpdateRate.millis()));
 		}
 	}
 
+	/**
+	 * Returns how long the update loop can sleep while idle, which is until the earliest deadline any subsystem reports, kept between
+	 * {@link BleManagerConfig#idleUpdateRate} and {@link BleManagerConfig#maxIdleUpdateRate}.
+	 */
+	private long getIdleUpdateRate()
+	{
+		final long minRate = m_config.idleUpdateRate.millis();
+
+		if( Interval.isDisabled(m_config.maxIdleUpdateRate) || m_config.updateLoopCallback != null || m_taskQueue.isBusy() )
+		{
+			return minRate;
+		}
+
+		double untilNext = m_config.maxIdleUpdateRate.secs();
+		untilNext = Math.min(untilNext, m_deviceMngr.getTimeUntilNextUpdate());
+		untilNext = Math.min(untilNext, m_scanManager.getTimeUntilNextUpdate());
+
+		return Math.max(minRate, (long) Math.ceil(untilNext * 1000.0));
+	}
+
+	/**
+	 * Makes an idle update loop that might be sleeping until some far off deadline tick right away, so it can account for new work.
+	 * Unlike {@link #checkIdleStatus()} this doesn't leave {@link BleManagerState#IDLE}. Safe to call from any thread.
+	 */
+	final void wakeUpdateLoop()
+	{
+		if( m_updateRunnable == null || m_postManager == null )  return;
+
+		m_postManager.runOrPostToUpdateThread(m_wakeUpdateLoopRunnable);
+	}
+
+	//--- Every poll started goes through wakeUpdateLoop(), so this is made once instead of per call.
+	private final Runnable m_wakeUpdateLoopRunnable = new Runnable()
+	{
+		@Override public void run()
+		{
+			if( !is(IDLE) || m_updateRunnable.m_shutdown )  return;
+
+			getPostManager().removeUpdateCallbacks(m_updateRunnable);
+			getPostManager().postToUpdateThread(m_updateRunnable);
+		}
+	};
+
 	/**
 	 * Returns this manager's knowledge of the app's foreground state, which must be
 	 * controlled manually from appland through {@link #onResume()} and {@link #onPause()}.
@@ -3188,6 +3257,18 @@ public final class BleManager
 		return m_stateTracker.toString();
 	}
 
+	final void onDeviceStateChange(final BleDevice device, final int newStateBits)
+	{
+		//--- Can be called before the managers exist, while the device is still being constructed.
+		if( m_deviceMngr != null )  m_deviceMngr.onDeviceStateChange(device, newStateBits);
+		if( m_deviceMngr_cache != null )  m_deviceMngr_cache.onDeviceStateChange(device, newStateBits);
+	}
+
+	final void onDiscoveryTimerReset(final BleDevice device)
+	{
+		m_deviceMngr.onDiscoveryTimerReset(device);
+	}
+
 	final String normalizeMacAddress(final String macAddress)
 	{
 		final String macAddress_normalized = Utils_String.normalizeMacAddress(macAddress);
@@ -3258,6 +3339,8 @@ public final class BleManager
 		private long m_lastAutoUpdateTime = 0;
 		private long m_autoUpdateRate = -1;
 		private boolean m_shutdown = false;
+		//--- How many times the loop has woken up, for measuring idle power use.
+		private long m_tickCount = 0;
 
 
 		public UpdateRunnable(long updateRate)
@@ -3281,11 +3364,17 @@ public final class BleManager
 
 		@Override public void run()
 		{
-			long currentTime = System.currentTimeMillis();
+			long currentTime = currentTimeMillis();
 			double timeStep = ((double) currentTime - m_lastAutoUpdateTime)/1000.0;
 
+			//--- Cap the step at a second, or at a bit over the current rate when idling for longer than that, so deadlines
+			//--- measured in time steps still add up after a long sleep.
+			final double maxTimeStep = Math.max(1.0, 2.0 * m_autoUpdateRate / 1000.0);
+
 			timeStep = timeStep <= 0.0 ? .00001 : timeStep;
-			timeStep = timeStep > 1.0 ? 1.0 : timeStep;
+			timeStep = timeStep > maxTimeStep ? maxTimeStep : timeStep;
+
+			m_tickCount++;
 
 			update(timeStep, currentTime);
 
@@ -4,13 +4,13 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
+import android.util.Log;
 import android.util.SparseArray;
 import com.idevicesinc.sweetblue.BleManager.DiscoveryListener;
 import com.idevicesinc.sweetblue.annotations.Advanced;
@@ -21,11 +21,9 @@ import com.idevicesinc.sweetblue.annotations.Nullable.Prevalence;
 import com.idevicesinc.sweetblue.utils.BleScanInfo;
 import com.idevicesinc.sweetblue.utils.Event;
 import com.idevicesinc.sweetblue.utils.Interval;
-import com.idevicesinc.sweetblue.utils.Pointer;
 import com.idevicesinc.sweetblue.utils.ReflectionUuidNameMap;
 import com.idevicesinc.sweetblue.utils.State;
 import com.idevicesinc.sweetblue.utils.Utils;
-import com.idevicesinc.sweetblue.utils.Utils_ScanRecord;
 import com.idevicesinc.sweetblue.utils.Utils_String;
 import com.idevicesinc.sweetblue.utils.UuidNameMap;
 import com.idevicesinc.sweetblue.utils.Uuids;
@@ -63,6 +61,11 @@ public class BleManagerConfig extends BleDeviceConfig
 	 */
 	public static final double DEFAULT_DELAY_BEFORE_IDLE				= 20.0;
 
+	/**
+	 * Default value for {@link #maxIdleUpdateRate}.
+	 */
+	public static final double DEFAULT_MAX_IDLE_UPDATE_RATE				= 10.0;
+
 	/**
 	 * Default value for {@link #uhOhCallbackThrottle}.
 	 */
@@ -78,6 +81,11 @@ public class BleManagerConfig extends BleDeviceConfig
 	 */
 	public static final double DEFAULT_SCAN_REPORT_DELAY				= .5;
 
+	/**
+	 * Default value for {@link #scanResultBatchRate}.
+	 */
+	public static final double DEFAULT_SCAN_RESULT_BATCH_RATE			= .1;
+
 	public static final double DEFAULT_MANAGER_STATE_POLL_RATE			= .1;
 	
 	static final BleManagerConfig NULL = new BleManagerConfigNull();
@@ -104,6 +112,13 @@ public class BleManagerConfig extends BleDeviceConfig
 	@com.idevicesinc.sweetblue.annotations.Advanced
 	public boolean loggingEnabled							= false;
 
+	/**
+	 * Default is {@link Log#VERBOSE} - log statements below this level are dropped before their message is built.
+	 * If {@link #loggingEnabled} is not set, then this option will not affect anything.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	public int loggingLevel									= Log.VERBOSE;
+
 
 	/**
 	 * Default is {@link DefaultLogger} - which prints the log statements to Android's logcat. If you want to
@@ -192,6 +207,16 @@ public class BleManagerConfig extends BleDeviceConfig
 	 * internal thread is already the main thread to begin with.
 	 */
 	public boolean postCallbacksToMainThread						= true;
+
+	/**
+	 * Default is <code>false</code> - normally every task for every {@link BleDevice} goes through one queue, so for instance a long
+	 * run of writes to one device holds up a simple read on another. Setting this to <code>true</code> gives each {@link BleDevice} its
+	 * own lane in the task queue with its own current task, so operations on different devices can be in flight at the same time.
+	 * Manager-level tasks (scanning, turning BLE on/off, the crash resolver, and any {@link BleServer} tasks) still run one at a time,
+	 * and act as a barrier for all device lanes.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	public boolean perDeviceTaskLanes								= false;
 	
 	/**
 	 * Default is <code>true</code> - requires the {@link android.Manifest.permission#WAKE_LOCK} permission in your app's manifest file.
@@ -326,6 +351,18 @@ public class BleManagerConfig extends BleDeviceConfig
 	@com.idevicesinc.sweetblue.annotations.Advanced
 	public Interval minTimeToIdle							= Interval.secs(DEFAULT_DELAY_BEFORE_IDLE);
 
+	/**
+	 * Default is {@value #DEFAULT_MAX_IDLE_UPDATE_RATE} seconds - Once idle, instead of ticking at a fixed {@link #idleUpdateRate}, the update
+	 * loop asks the task queue, devices (polls, RSSI polls, reconnects, transactions) and periodic scanning when they next need a tick
+	 * and sleeps until the earliest of those, but never less than {@link #idleUpdateRate} nor more than this. New tasks and new polls
+	 * wake it up early. Native state polling through {@link #defaultStatePollRate} only happens when the loop is awake anyway.
+	 * Set this to {@link Interval#DISABLED} to always tick at {@link #idleUpdateRate} while idle, and note that if you set
+	 * {@link #updateLoopCallback} the loop never sleeps longer than {@link #idleUpdateRate} either.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	@Nullable(Prevalence.RARE)
+	public Interval maxIdleUpdateRate						= Interval.secs(DEFAULT_MAX_IDLE_UPDATE_RATE);
+
 	/**
 	 * Default is <code>false</code><br></br>
 	 * <br></br>
@@ -350,6 +387,17 @@ public class BleManagerConfig extends BleDeviceConfig
 	@Nullable(Prevalence.RARE)
 	public Interval scanReportDelay							= Interval.secs(DEFAULT_SCAN_REPORT_DELAY);
 
+	/**
+	 * Default is {@value #DEFAULT_SCAN_RESULT_BATCH_RATE} seconds - scan results coming from the native stack are merged per device
+	 * and handed to the library's update thread in batches at most this often. Results identical to the last one delivered for the
+	 * same device are dropped whatever their RSSI, though every device is still delivered at least about once a second while it keeps
+	 * advertising.
+	 * Set this to {@link Interval#DISABLED} to have every native result posted on its own.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	@Nullable(Prevalence.RARE)
+	public Interval scanResultBatchRate						= Interval.secs(DEFAULT_SCAN_RESULT_BATCH_RATE);
+
 	/**
 	 * Default is <code>null</code>, meaning no filtering - all discovered devices will
 	 * be piped through your {@link BleManager.DiscoveryListener} instance
@@ -449,6 +497,20 @@ public class BleManagerConfig extends BleDeviceConfig
 
 	P_NativeManagerLayer nativeManagerLayer						= new P_AndroidBluetoothManager();
 
+	/**
+	 * Only for unit tests that run SweetBlue on virtual time. When set, this handler is used for both the main and the update thread,
+	 * so everything SweetBlue posts goes through it.
+	 */
+	@com.idevicesinc.sweetblue.annotations.UnitTest
+	P_SweetHandler updateHandler								= null;
+
+	/**
+	 * Only for unit tests that run SweetBlue on virtual time. When set, the update loop and the task queue read the time from this
+	 * instead of {@link System#currentTimeMillis()}.
+	 */
+	@com.idevicesinc.sweetblue.annotations.UnitTest
+	P_Clock clock												= null;
+
 // TODO - Remove this once we figure out a different solution for unit tests
 //
 //	/**
@@ -528,14 +590,23 @@ public class BleManagerConfig extends BleDeviceConfig
 			 * A list of {@link UUID}s parsed from {@link #scanRecord()} as a convenience. May be empty, notably
 			 * if {@link BleManagerConfig#revertToClassicDiscoveryIfNeeded} is invoked.
 			 */
-			public List<UUID> advertisedServices(){  return m_advertisedServices;  }
-			private final List<UUID> m_advertisedServices;
+			public List<UUID> advertisedServices(){  return scanInfo().getServiceUUIDS();  }
 
 			/**
 			 * The unaltered device name retrieved from the native bluetooth stack.
 			 */
-			public String name_native(){  return m_rawDeviceName;  }
-			private final String m_rawDeviceName;
+			public String name_native()
+			{
+				if( m_rawDeviceName == null )
+				{
+					final String name = scanInfo().getName();
+
+					m_rawDeviceName = name != null && name.length() > 0 ? name : NO_NAME;
+				}
+
+				return m_rawDeviceName;
+			}
+			private String m_rawDeviceName;
 
 			/**
 			 * See {@link BleDevice#getName_normalized()} for an explanation.
@@ -559,8 +630,7 @@ public class BleManagerConfig extends BleDeviceConfig
 			/**
 			 * Returns the transmission power of the device in decibels, or {@link BleNodeConfig#INVALID_TX_POWER} if device is not advertising its transmission power.
 			 */
-			public int txPower(){  return m_txPower;  }
-			private final int m_txPower;
+			public int txPower(){  return scanInfo().getTxPower().value;  }
 
 			/**
 			 * Returns the mac address of the discovered device.
@@ -580,63 +650,70 @@ public class BleManagerConfig extends BleDeviceConfig
 			/**
 			 * Returns the advertising flags, if any, parsed from {@link #scanRecord()}.
 			 */
-			public int advertisingFlags()  {  return m_advertisingFlags;  }
-			private final int m_advertisingFlags;
+			public int advertisingFlags()  {  return scanInfo().getAdvFlags().value;  }
 
 			/**
 			 * Returns the manufacturer-specific data, if any, parsed from {@link #scanRecord()}.
 			 */
-			public SparseArray<byte[]> manufacturerCombinedData(){  return m_manufacturerCombinedData;  }
-			private final SparseArray<byte[]> m_manufacturerCombinedData;
+			public SparseArray<byte[]> manufacturerCombinedData()
+			{
+				if( m_manufacturerCombinedData == null )
+				{
+					final BleScanInfo scanInfo = scanInfo();
+					final int count = scanInfo.getManufacturerDataCount();
+
+					m_manufacturerCombinedData = new SparseArray<byte[]>(count);
 
-			public byte[] manufacturerData(){ return m_manufacturerData;}
-			private byte[] m_manufacturerData;
+					for( int i = 0; i < count; i++ )
+					{
+						m_manufacturerCombinedData.put(scanInfo.getManufacturerId(i), scanInfo.getManufacturerData(i));
+					}
+				}
 
-			public int manufacturerId(){ return m_manufacturerId;}
-			private int m_manufacturerId;
+				return m_manufacturerCombinedData;
+			}
+			private SparseArray<byte[]> m_manufacturerCombinedData;
+
+			public byte[] manufacturerData(){ return scanInfo().getManufacturerData();}
+
+			public int manufacturerId(){ return scanInfo().getManufacturerId();}
 
 			/**
 			 * Returns the service data, if any, parsed from {@link #scanRecord()}.
 			 */
-			public Map<UUID, byte[]> serviceData()  {  return m_serviceData;  }
-			private final Map<UUID, byte[]> m_serviceData;
+			public Map<UUID, byte[]> serviceData()  {  return scanInfo().getServiceData();  }
+
+			//--- Not even the view over the scan record is created until one of the accessors above asks for something parsed from it.
+			private BleScanInfo scanInfo()
+			{
+				if( m_scanInfo == null )
+				{
+					m_scanInfo = new BleScanInfo(m_scanRecord);
+				}
+
+				return m_scanInfo;
+			}
+			private BleScanInfo m_scanInfo;
+
+			//--- What the native name falls back to when the scan record doesn't carry one either.
+			private static final String NO_NAME = "<NO_NAME>";
 
 			ScanEvent(
-					BluetoothDevice nativeInstance, String rawDeviceName,
-					String normalizedDeviceName, byte[] scanRecord, int rssi, State.ChangeIntent lastDisconnectIntent,
-					BleScanInfo scanInfo
+					BluetoothDevice nativeInstance, String rawDeviceName_nullable,
+					String normalizedDeviceName, byte[] scanRecord, int rssi, State.ChangeIntent lastDisconnectIntent
 			)
 			{
 				this.m_nativeInstance = nativeInstance;
-				this.m_advertisedServices = scanInfo != null ? scanInfo.getServiceUUIDS() : new ArrayList<UUID>(0);
-				this.m_rawDeviceName = rawDeviceName != null ? rawDeviceName : "";
+				this.m_rawDeviceName = rawDeviceName_nullable;
 				this.m_normalizedDeviceName = normalizedDeviceName;
 				this.m_scanRecord = scanRecord != null ? scanRecord : BleDevice.EMPTY_BYTE_ARRAY;
 				this.m_rssi = rssi;
 				this.m_lastDisconnectIntent = lastDisconnectIntent;
-				this.m_txPower = scanInfo != null ? scanInfo.getTxPower().value : 0;
-				this.m_advertisingFlags = scanInfo != null ? scanInfo.getAdvFlags().value : 0;
-				this.m_manufacturerData = scanInfo != null ? scanInfo.getManufacturerData() : BleDevice.EMPTY_BYTE_ARRAY;
-				this.m_manufacturerId = scanInfo != null ? scanInfo.getManufacturerId() : 0;
-				this.m_serviceData = scanInfo != null ? scanInfo.getServiceData() : new HashMap<UUID, byte[]>(0);
-
-				this.m_manufacturerCombinedData = new SparseArray<>();
 			}
 
 			/*package*/ static ScanEvent fromScanRecord(final BluetoothDevice device_native, final String rawDeviceName, final String normalizedDeviceName, final int rssi, final State.ChangeIntent lastDisconnectIntent, final byte[] scanRecord)
 			{
-				final Pointer<Integer> advFlags = new Pointer<Integer>();
-				final Pointer<Integer> txPower = new Pointer<Integer>();
-				final List<UUID> serviceUuids = new ArrayList<UUID>();
-				final SparseArray<byte[]> manufacturerData = new SparseArray<byte[]>();
-				final Map<UUID, byte[]> serviceData = new HashMap<UUID, byte[]>();
-				final String name = rawDeviceName != null ? rawDeviceName : Utils_ScanRecord.parseName(scanRecord);
-
-				BleScanInfo scanInfo = Utils_ScanRecord.parseScanRecord(scanRecord);
-
-				final ScanEvent e = new ScanEvent(device_native, name, normalizedDeviceName, scanRecord, rssi, lastDisconnectIntent, scanInfo);
-
-				return e;
+				return new ScanEvent(device_native, rawDeviceName, normalizedDeviceName, scanRecord, rssi, lastDisconnectIntent);
 			}
 
 			@Override public String toString()
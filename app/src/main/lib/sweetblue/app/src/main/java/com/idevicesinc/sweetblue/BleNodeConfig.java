@@ -17,6 +17,10 @@ import com.idevicesinc.sweetblue.utils.Utils_String;
 import com.idevicesinc.sweetblue.utils.Uuids;
 import com.idevicesinc.sweetblue.utils.WrongThreadError;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -114,10 +118,30 @@ public class BleNodeConfig
 	 */
 	public boolean autoStripeWrites											= true;
 
+	/**
+	 * Default is <code>1</code> - the number of chunks of a striped write (see {@link #autoStripeWrites}) that are kept queued up at once.
+	 * With the default, each chunk is only queued once the previous one succeeds. With a larger window, the next chunks are already
+	 * waiting in the queue, so they go out as soon as the previous write comes back. Note that Android still only allows one outstanding
+	 * GATT operation per device, so this doesn't put more than one write on the air at a time.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	@Nullable(Nullable.Prevalence.NORMAL)
+	public Integer stripedWriteWindow										= 1;
+
+	/**
+	 * Default is <code>false</code> - if <code>true</code>, striped writes (see {@link #autoStripeWrites}) to a characteristic that supports
+	 * {@link android.bluetooth.BluetoothGattCharacteristic#PROPERTY_WRITE_NO_RESPONSE} are sent with
+	 * {@link android.bluetooth.BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE}. Each chunk then completes once the stack has accepted it,
+	 * rather than after the remote device acknowledges it, so large payloads move at link speed. Use along with {@link #stripedWriteWindow}.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	@Nullable(Nullable.Prevalence.NORMAL)
+	public Boolean stripedWritesWithoutResponse								= false;
+
 	/**
 	 * Default is an instance of {@link DefaultTaskTimeoutRequestFilter} - set an implementation here to
 	 * have fine control over how long individual {@link BleTask} instances can take before they
-	 * are considered "timed out" and failed.
+	 * are considered "timed out" and failed. Use an {@link AdaptiveTaskTimeoutRequestFilter} to have timeouts follow how long tasks actually take.
 	 * <br><br>
 	 * NOTE: Setting this to <code>null</code> will disable timeouts for all {@link BleTask} instances,
 	 * which would probably be very dangerous to do - a task could just sit there spinning forever.
@@ -666,6 +690,276 @@ public class BleNodeConfig
 		}
 	}
 
+	/**
+	 * A {@link TaskTimeoutRequestFilter} that learns how long each {@link BleTask} takes on each {@link BleDevice} and times tasks out
+	 * accordingly, the way TCP derives its retransmission timeout: a smoothed average of how long the task executed for, the same time
+	 * {@link BleDevice.ReadWriteListener.ReadWriteEvent#time_ota()} reports, plus a multiple of its smoothed deviation. The result is kept
+	 * between a minimum and a maximum, and doubled every time a task times out in a row.
+	 * <br><br>
+	 * Tasks that don't depend on the link, like {@link BleTask#CONNECT} or {@link BleTask#BOND}, and tasks of a device that hasn't been
+	 * seen executing them a few times yet get their timeout from a fallback filter, {@link DefaultTaskTimeoutRequestFilter} by default.
+	 * Use {@link #getEstimates()} to see what has been learned so far.
+	 */
+	@com.idevicesinc.sweetblue.annotations.Advanced
+	public static class AdaptiveTaskTimeoutRequestFilter implements TaskTimeoutRequestFilter
+	{
+		/**
+		 * Default value for the shortest timeout given out.
+		 */
+		public static final double DEFAULT_MIN_TIMEOUT					= 2.0;
+
+		/**
+		 * Default value for the longest timeout given out.
+		 */
+		public static final double DEFAULT_MAX_TIMEOUT					= 30.0;
+
+		/**
+		 * Default number of deviations added to the average, the same as TCP uses.
+		 */
+		public static final double DEFAULT_DEVIATION_FACTOR				= 4.0;
+
+		/**
+		 * Number of times a task has to be seen executing on a device before its timeout is learned rather than taken from the fallback.
+		 */
+		public static final int MIN_SAMPLES								= 8;
+
+		private static final double GAIN_AVERAGE = 1.0 / 8.0;
+		private static final double GAIN_DEVIATION = 1.0 / 4.0;
+
+		private final double m_minTimeout;
+		private final double m_maxTimeout;
+		private final double m_deviationFactor;
+		private final TaskTimeoutRequestFilter m_fallback;
+
+		private final HashMap<String, Estimator[]> m_estimators = new HashMap<>();
+
+		public AdaptiveTaskTimeoutRequestFilter()
+		{
+			this(Interval.secs(DEFAULT_MIN_TIMEOUT), Interval.secs(DEFAULT_MAX_TIMEOUT), DEFAULT_DEVIATION_FACTOR, new DefaultTaskTimeoutRequestFilter());
+		}
+
+		public AdaptiveTaskTimeoutRequestFilter(final Interval minTimeout, final Interval maxTimeout, final double deviationFactor, final TaskTimeoutRequestFilter fallback)
+		{
+			m_minTimeout = minTimeout.secs();
+			m_maxTimeout = Math.max(maxTimeout.secs(), m_minTimeout);
+			m_deviationFactor = deviationFactor;
+			m_fallback = fallback;
+		}
+
+		/**
+		 * Returns <code>true</code> if the timeout of the given task should be learned. Override to change which tasks are.
+		 */
+		protected boolean adapts(final BleTask task)
+		{
+			return task.isDeviceSpecific() && task != BleTask.CONNECT && task != BleTask.BOND && task != BleTask.UNBOND;
+		}
+
+		@Override public Please onEvent(final TaskTimeoutRequestEvent e)
+		{
+			if( !e.device().isNull() && adapts(e.task()) )
+			{
+				synchronized (this)
+				{
+					final Estimator estimator = getEstimator(e.macAddress(), e.task(), /*create=*/false);
+
+					if( estimator != null && estimator.m_samples >= MIN_SAMPLES )
+					{
+						return Please.setTimeoutFor(Interval.secs(estimator.getTimeout()));
+					}
+				}
+			}
+
+			return m_fallback != null ? m_fallback.onEvent(e) : Please.doNotUseTimeout();
+		}
+
+		/**
+		 * Returns a copy of everything learned so far, one entry for each task of each device seen.
+		 */
+		public synchronized List<Estimate> getEstimates()
+		{
+			final ArrayList<Estimate> estimates = new ArrayList<>();
+
+			for( Map.Entry<String, Estimator[]> entry : m_estimators.entrySet() )
+			{
+				for( Estimator estimator : entry.getValue() )
+				{
+					if( estimator != null )
+					{
+						estimates.add(estimator.toEstimate(entry.getKey()));
+					}
+				}
+			}
+
+			return estimates;
+		}
+
+		/**
+		 * Forgets everything learned so far.
+		 */
+		public synchronized void clear()
+		{
+			m_estimators.clear();
+		}
+
+		synchronized void onTaskEnded(final String macAddress, final BleTask task, final boolean timedOut, final double timeExecuting)
+		{
+			if( !adapts(task) )  return;
+
+			final Estimator estimator = getEstimator(macAddress, task, /*create=*/true);
+
+			if( timedOut )
+			{
+				//--- Like TCP, a timed out task says nothing about how long it takes, so it only backs the timeout off.
+				estimator.m_backoff = Math.min(estimator.m_backoff * 2, 64);
+			}
+			else
+			{
+				estimator.onSample(timeExecuting);
+			}
+		}
+
+		private Estimator getEstimator(final String macAddress, final BleTask task, final boolean create)
+		{
+			Estimator[] estimators = m_estimators.get(macAddress);
+
+			if( estimators == null )
+			{
+				if( !create )  return null;
+
+				estimators = new Estimator[BleTask.values().length];
+				m_estimators.put(macAddress, estimators);
+			}
+
+			Estimator estimator = estimators[task.ordinal()];
+
+			if( estimator == null && create )
+			{
+				estimator = new Estimator(task);
+				estimators[task.ordinal()] = estimator;
+			}
+
+			return estimator;
+		}
+
+		private class Estimator
+		{
+			private final BleTask m_task;
+			private double m_average;
+			private double m_deviation;
+			private int m_samples;
+			private int m_backoff = 1;
+
+			Estimator(final BleTask task)
+			{
+				m_task = task;
+			}
+
+			void onSample(final double timeExecuting)
+			{
+				if( m_samples == 0 )
+				{
+					m_average = timeExecuting;
+					m_deviation = timeExecuting / 2.0;
+				}
+				else
+				{
+					m_deviation += GAIN_DEVIATION * (Math.abs(m_average - timeExecuting) - m_deviation);
+					m_average += GAIN_AVERAGE * (timeExecuting - m_average);
+				}
+
+				m_samples++;
+				m_backoff = 1;
+			}
+
+			double getTimeout()
+			{
+				final double timeout = (m_average + m_deviationFactor * m_deviation) * m_backoff;
+
+				return Math.max(m_minTimeout, Math.min(timeout, m_maxTimeout));
+			}
+
+			Estimate toEstimate(final String macAddress)
+			{
+				return new Estimate(macAddress, m_task, m_average, m_deviation, m_samples, m_backoff, m_samples >= MIN_SAMPLES ? getTimeout() : Interval.DISABLED.secs());
+			}
+		}
+
+		/**
+		 * What an {@link AdaptiveTaskTimeoutRequestFilter} has learned about one task of one device, see {@link #getEstimates()}.
+		 */
+		@Immutable
+		public static class Estimate
+		{
+			/**
+			 * The mac address of the device.
+			 */
+			public String macAddress(){  return m_macAddress;  }
+			private final String m_macAddress;
+
+			/**
+			 * The type of task.
+			 */
+			public BleTask task(){  return m_task;  }
+			private final BleTask m_task;
+
+			/**
+			 * The smoothed average time the task took to execute.
+			 */
+			public Interval average(){  return Interval.secs(m_average);  }
+			private final double m_average;
+
+			/**
+			 * The smoothed deviation from {@link #average()}.
+			 */
+			public Interval deviation(){  return Interval.secs(m_deviation);  }
+			private final double m_deviation;
+
+			/**
+			 * How many times the task was seen executing to the end.
+			 */
+			public int sampleCount(){  return m_sampleCount;  }
+			private final int m_sampleCount;
+
+			/**
+			 * What the timeout is currently multiplied by because of timeouts in a row, 1 if the last task didn't time out.
+			 */
+			public int backoff(){  return m_backoff;  }
+			private final int m_backoff;
+
+			/**
+			 * The timeout the next task will get, or {@link Interval#DISABLED} if there aren't enough samples yet and the fallback filter decides.
+			 */
+			public Interval timeout(){  return Interval.secs(m_timeout);  }
+			private final double m_timeout;
+
+			Estimate(final String macAddress, final BleTask task, final double average, final double deviation, final int sampleCount, final int backoff, final double timeout)
+			{
+				m_macAddress = macAddress;
+				m_task = task;
+				m_average = average;
+				m_deviation = deviation;
+				m_sampleCount = sampleCount;
+				m_backoff = backoff;
+				m_timeout = timeout;
+			}
+
+			@Override public String toString()
+			{
+				return Utils_String.toString
+				(
+					this.getClass(),
+					"macAddress",	macAddress(),
+					"task",			task(),
+					"average",		average(),
+					"deviation",	deviation(),
+					"sampleCount",	sampleCount(),
+					"backoff",		backoff(),
+					"timeout",		timeout()
+				);
+			}
+		}
+	}
+
 	/**
 	 * An optional interface you can implement on {@link BleNodeConfig#reconnectFilter} to control reconnection behavior.
 	 *
@@ -1158,6 +1452,33 @@ public class BleNodeConfig
 	}
 
 	static double getTimeout(final TaskTimeoutRequestFilter.TaskTimeoutRequestEvent event)
+	{
+		final TaskTimeoutRequestFilter filter = getTaskTimeoutRequestFilter(event);
+		final TaskTimeoutRequestFilter.Please please = filter != null ? filter.onEvent(event) : null;
+		final Interval timeout = please != null ? please.m_interval : Interval.DISABLED;
+		final double toReturn = timeout != null ? timeout.secs() : Interval.DISABLED.secs();
+
+		event.device().getManager().getLogger().checkPlease(please, TaskTimeoutRequestFilter.Please.class);
+
+		return toReturn;
+	}
+
+	/**
+	 * Lets an {@link AdaptiveTaskTimeoutRequestFilter}, if that's what's in effect for the task, learn from how long it executed for.
+	 */
+	static void onTaskEnded(final TaskTimeoutRequestFilter.TaskTimeoutRequestEvent event, final boolean timedOut, final double timeExecuting)
+	{
+		if( event.device().isNull() )  return;
+
+		final TaskTimeoutRequestFilter filter = getTaskTimeoutRequestFilter(event);
+
+		if( filter instanceof AdaptiveTaskTimeoutRequestFilter )
+		{
+			((AdaptiveTaskTimeoutRequestFilter) filter).onTaskEnded(event.macAddress(), event.task(), timedOut, timeExecuting);
+		}
+	}
+
+	private static TaskTimeoutRequestFilter getTaskTimeoutRequestFilter(final TaskTimeoutRequestFilter.TaskTimeoutRequestEvent event)
 	{
 		final BleManager manager = event.manager();
 		final BleDevice device_nullable = !event.device().isNull() ? event.device() : null;
@@ -1179,14 +1500,8 @@ public class BleNodeConfig
 		}
 
 		final TaskTimeoutRequestFilter filter_mngr = manager.m_config.taskTimeoutRequestFilter;
-		final TaskTimeoutRequestFilter filter = filter_specific != null ? filter_specific : filter_mngr;
-		final TaskTimeoutRequestFilter.Please please = filter != null ? filter.onEvent(event) : null;
-		final Interval timeout = please != null ? please.m_interval : Interval.DISABLED;
-		final double toReturn = timeout != null ? timeout.secs() : Interval.DISABLED.secs();
 
-		event.device().getManager().getLogger().checkPlease(please, TaskTimeoutRequestFilter.Please.class);
-
-		return toReturn;
+		return filter_specific != null ? filter_specific : filter_mngr;
 	}
 
 
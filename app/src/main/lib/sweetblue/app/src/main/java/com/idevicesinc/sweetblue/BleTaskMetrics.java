@@ -0,0 +1,382 @@
+package com.idevicesinc.sweetblue;
+
+import com.idevicesinc.sweetblue.annotations.Advanced;
+import com.idevicesinc.sweetblue.annotations.Immutable;
+import com.idevicesinc.sweetblue.utils.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps latency histograms and outcome counters for every task that goes through SweetBlue's task queue, both per {@link BleTask} and per
+ * {@link BleDevice}, along with a gauge of how many tasks are waiting in the queue. For every task that gets to execute, the time it spent
+ * waiting in the queue is kept apart from the time it spent executing, so a slow queue and a slow remote device can be told apart.
+ * <br><br>
+ * Get the instance with {@link BleManager#getTaskMetrics()}. Recording and {@link #snapshot()} never lock, so a snapshot can be taken
+ * from any thread as often as needed, for example to dump it to a log or a file now and then.
+ */
+@Advanced
+public final class BleTaskMetrics
+{
+	private final BleManager m_manager;
+	private volatile Registry m_registry;
+
+	BleTaskMetrics(final BleManager manager)
+	{
+		m_manager = manager;
+		m_registry = new Registry(m_manager.currentTimeMillis());
+	}
+
+	/**
+	 * Returns a copy of everything recorded since the {@link BleManager} was created or {@link #reset()} was last called.
+	 */
+	public final Snapshot snapshot()
+	{
+		return m_registry.snapshot(m_manager.currentTimeMillis());
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public final void reset()
+	{
+		m_registry = new Registry(m_manager.currentTimeMillis());
+	}
+
+	void onTaskEnded(final BleTask taskType, final BleDevice device_nullable, final PE_TaskState endingState, final long queueWaitMillis, final long executeMillis)
+	{
+		final Registry registry = m_registry;
+
+		registry.getTaskRecorder(taskType).onTaskEnded(endingState, queueWaitMillis, executeMillis);
+
+		if( device_nullable != null && !device_nullable.isNull() )
+		{
+			registry.getDeviceRecorder(device_nullable.getMacAddress()).onTaskEnded(endingState, queueWaitMillis, executeMillis);
+		}
+	}
+
+	void onConnectionRetry(final BleDevice device)
+	{
+		m_registry.getDeviceRecorder(device.getMacAddress()).m_connectionRetries.incrementAndGet();
+	}
+
+	void sampleQueueDepth(final int depth)
+	{
+		final Registry registry = m_registry;
+
+		registry.m_queueDepth.set(depth);
+		registry.m_queueDepthSum.addAndGet(depth);
+		registry.m_queueDepthSamples.incrementAndGet();
+
+		int max = registry.m_maxQueueDepth.get();
+
+		while( depth > max && !registry.m_maxQueueDepth.compareAndSet(max, depth) )
+		{
+			max = registry.m_maxQueueDepth.get();
+		}
+	}
+
+	private static final class Registry
+	{
+		private final long m_timeStarted;
+
+		private final AtomicReferenceArray<Recorder> m_byTask = new AtomicReferenceArray<>(BleTask.values().length);
+		private final ConcurrentHashMap<String, Recorder> m_byDevice = new ConcurrentHashMap<>();
+
+		private final AtomicInteger m_queueDepth = new AtomicInteger();
+		private final AtomicInteger m_maxQueueDepth = new AtomicInteger();
+		private final AtomicLong m_queueDepthSum = new AtomicLong();
+		private final AtomicLong m_queueDepthSamples = new AtomicLong();
+
+		Registry(final long timeStarted)
+		{
+			m_timeStarted = timeStarted;
+		}
+
+		Recorder getTaskRecorder(final BleTask taskType)
+		{
+			final Recorder recorder = m_byTask.get(taskType.ordinal());
+
+			if( recorder != null )  return recorder;
+
+			m_byTask.compareAndSet(taskType.ordinal(), null, new Recorder());
+
+			return m_byTask.get(taskType.ordinal());
+		}
+
+		Recorder getDeviceRecorder(final String macAddress)
+		{
+			final Recorder recorder = m_byDevice.get(macAddress);
+
+			if( recorder != null )  return recorder;
+
+			final Recorder existing = m_byDevice.putIfAbsent(macAddress, new Recorder());
+
+			return existing != null ? existing : m_byDevice.get(macAddress);
+		}
+
+		Snapshot snapshot(final long currentTime)
+		{
+			final EnumMap<BleTask, TaskStats> byTask = new EnumMap<>(BleTask.class);
+
+			for( BleTask taskType : BleTask.values() )
+			{
+				final Recorder recorder = m_byTask.get(taskType.ordinal());
+
+				if( recorder != null )
+				{
+					byTask.put(taskType, recorder.snapshot());
+				}
+			}
+
+			final TreeMap<String, TaskStats> byDevice = new TreeMap<>();
+
+			for( Map.Entry<String, Recorder> entry : m_byDevice.entrySet() )
+			{
+				byDevice.put(entry.getKey(), entry.getValue().snapshot());
+			}
+
+			final long samples = m_queueDepthSamples.get();
+			final double meanQueueDepth = samples == 0 ? 0.0 : (double) m_queueDepthSum.get() / samples;
+
+			return new Snapshot(currentTime - m_timeStarted, byTask, byDevice, m_queueDepth.get(), m_maxQueueDepth.get(), meanQueueDepth);
+		}
+	}
+
+	private static final class Recorder
+	{
+		private final LatencyHistogram m_queueWait = new LatencyHistogram();
+		private final LatencyHistogram m_execution = new LatencyHistogram();
+
+		private final AtomicLong m_succeeded = new AtomicLong();
+		private final AtomicLong m_failed = new AtomicLong();
+		private final AtomicLong m_timedOut = new AtomicLong();
+		private final AtomicLong m_interrupted = new AtomicLong();
+		private final AtomicLong m_cancelled = new AtomicLong();
+		private final AtomicLong m_connectionRetries = new AtomicLong();
+
+		void onTaskEnded(final PE_TaskState endingState, final long queueWaitMillis, final long executeMillis)
+		{
+			if( executeMillis >= 0 )
+			{
+				m_queueWait.record(queueWaitMillis);
+				m_execution.record(executeMillis);
+			}
+
+			switch( endingState )
+			{
+				case SUCCEEDED:
+				case REDUNDANT:				m_succeeded.incrementAndGet();		break;
+				case FAILED:
+				case FAILED_IMMEDIATELY:	m_failed.incrementAndGet();			break;
+				case TIMED_OUT:				m_timedOut.incrementAndGet();		break;
+				case INTERRUPTED:			m_interrupted.incrementAndGet();	break;
+				default:					m_cancelled.incrementAndGet();		break;
+			}
+		}
+
+		TaskStats snapshot()
+		{
+			return new TaskStats(m_queueWait.snapshot(), m_execution.snapshot(), m_succeeded.get(), m_failed.get(), m_timedOut.get(),
+					m_interrupted.get(), m_cancelled.get(), m_connectionRetries.get());
+		}
+	}
+
+	/**
+	 * What was recorded for one {@link BleTask} or one {@link BleDevice}, see {@link Snapshot#byTask()} and {@link Snapshot#byDevice()}.
+	 */
+	@Immutable
+	public static final class TaskStats
+	{
+		private final LatencyHistogram.Snapshot m_queueWait;
+		private final LatencyHistogram.Snapshot m_execution;
+		private final long m_succeeded;
+		private final long m_failed;
+		private final long m_timedOut;
+		private final long m_interrupted;
+		private final long m_cancelled;
+		private final long m_connectionRetries;
+
+		private TaskStats(final LatencyHistogram.Snapshot queueWait, final LatencyHistogram.Snapshot execution, final long succeeded, final long failed,
+						  final long timedOut, final long interrupted, final long cancelled, final long connectionRetries)
+		{
+			m_queueWait = queueWait;
+			m_execution = execution;
+			m_succeeded = succeeded;
+			m_failed = failed;
+			m_timedOut = timedOut;
+			m_interrupted = interrupted;
+			m_cancelled = cancelled;
+			m_connectionRetries = connectionRetries;
+		}
+
+		/**
+		 * Time from being added to the queue to starting to execute, for every task that got to execute.
+		 */
+		public final LatencyHistogram.Snapshot queueWait()
+		{
+			return m_queueWait;
+		}
+
+		/**
+		 * Time from starting to execute to ending, for every task that got to execute, whatever way it ended.
+		 */
+		public final LatencyHistogram.Snapshot execution()
+		{
+			return m_execution;
+		}
+
+		/**
+		 * Number of tasks that succeeded, including ones that turned out to not be needed.
+		 */
+		public final long succeeded()
+		{
+			return m_succeeded;
+		}
+
+		/**
+		 * Number of tasks that failed.
+		 */
+		public final long failed()
+		{
+			return m_failed;
+		}
+
+		/**
+		 * Number of tasks that timed out, see {@link BleNodeConfig#taskTimeoutRequestFilter}.
+		 */
+		public final long timedOut()
+		{
+			return m_timedOut;
+		}
+
+		/**
+		 * Number of times a task was interrupted by a more important one and put back in the queue to be retried.
+		 */
+		public final long interrupted()
+		{
+			return m_interrupted;
+		}
+
+		/**
+		 * Number of tasks that were cancelled or cleared from the queue.
+		 */
+		public final long cancelled()
+		{
+			return m_cancelled;
+		}
+
+		/**
+		 * Number of times a failed connection was retried, see {@link BleDevice.ConnectionFailListener}. Always zero for {@link Snapshot#byTask()}.
+		 */
+		public final long connectionRetries()
+		{
+			return m_connectionRetries;
+		}
+
+		@Override public String toString()
+		{
+			return "succeeded=" + m_succeeded + " failed=" + m_failed + " timedOut=" + m_timedOut + " interrupted=" + m_interrupted +
+					" cancelled=" + m_cancelled + " connectionRetries=" + m_connectionRetries + "\n\twait: " + m_queueWait + "\n\texecution: " + m_execution;
+		}
+	}
+
+	/**
+	 * An unchanging copy of a {@link BleTaskMetrics}, see {@link BleTaskMetrics#snapshot()}.
+	 */
+	@Immutable
+	public static final class Snapshot
+	{
+		private final long m_timeCovered;
+		private final Map<BleTask, TaskStats> m_byTask;
+		private final Map<String, TaskStats> m_byDevice;
+		private final int m_queueDepth;
+		private final int m_maxQueueDepth;
+		private final double m_meanQueueDepth;
+
+		private Snapshot(final long timeCovered, final Map<BleTask, TaskStats> byTask, final Map<String, TaskStats> byDevice, final int queueDepth,
+						 final int maxQueueDepth, final double meanQueueDepth)
+		{
+			m_timeCovered = timeCovered;
+			m_byTask = Collections.unmodifiableMap(byTask);
+			m_byDevice = Collections.unmodifiableMap(byDevice);
+			m_queueDepth = queueDepth;
+			m_maxQueueDepth = maxQueueDepth;
+			m_meanQueueDepth = meanQueueDepth;
+		}
+
+		/**
+		 * Returns how many milliseconds of recording this snapshot covers.
+		 */
+		public final long timeCovered()
+		{
+			return m_timeCovered;
+		}
+
+		/**
+		 * Returns what was recorded for each type of task. Types that never ended a task are left out.
+		 */
+		public final Map<BleTask, TaskStats> byTask()
+		{
+			return m_byTask;
+		}
+
+		/**
+		 * Returns what was recorded for each device, keyed by {@link BleDevice#getMacAddress()}.
+		 */
+		public final Map<String, TaskStats> byDevice()
+		{
+			return m_byDevice;
+		}
+
+		/**
+		 * Returns how many tasks were waiting in the queue when it was last sampled, which happens on every update of the queue.
+		 */
+		public final int queueDepth()
+		{
+			return m_queueDepth;
+		}
+
+		/**
+		 * Returns the most tasks ever seen waiting in the queue at once.
+		 */
+		public final int maxQueueDepth()
+		{
+			return m_maxQueueDepth;
+		}
+
+		/**
+		 * Returns the average number of tasks waiting in the queue over every sample.
+		 */
+		public final double meanQueueDepth()
+		{
+			return m_meanQueueDepth;
+		}
+
+		@Override public String toString()
+		{
+			final StringBuilder builder = new StringBuilder();
+
+			builder.append("BleTaskMetrics over ").append(m_timeCovered).append("ms, queue depth=").append(m_queueDepth)
+					.append(" max=").append(m_maxQueueDepth).append(" mean=").append(String.format("%.2f", m_meanQueueDepth));
+
+			for( Map.Entry<BleTask, TaskStats> entry : m_byTask.entrySet() )
+			{
+				builder.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+			}
+
+			for( Map.Entry<String, TaskStats> entry : m_byDevice.entrySet() )
+			{
+				builder.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+			}
+
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.idevicesinc.sweetblue;
+
+
+/**
+ * A {@link BleDevice.ReadWriteListener} for high-rate notifications that promises not to keep the
+ * {@link BleDevice.ReadWriteListener.ReadWriteEvent} it's given, nor its {@link BleDevice.ReadWriteListener.ReadWriteEvent#data()},
+ * past the return of {@link #onEvent(com.idevicesinc.sweetblue.utils.Event)}. Copy whatever you need to keep.
+ * <br><br>
+ * In return, successful notifications and indications are delivered right away in an event and data buffer that are reused for the
+ * next notification, so a steady stream of them doesn't allocate. This only happens while nothing else would see the event, meaning
+ * no default {@link BleDevice.ReadWriteListener} or {@link NotificationListener} is set on the {@link BleDevice} or {@link BleManager},
+ * and while callbacks are delivered on the thread notifications are processed on, see {@link BleManagerConfig#postCallbacksToMainThread}
+ * and {@link BleManagerConfig#runOnMainThread}. Otherwise, and for every other kind of event, this behaves like any other listener.
+ * <br><br>
+ * If {@link BleNodeConfig#historicalDataLogFilter} is set, as it is by default, notified values are still copied for it. Set it to
+ * <code>null</code> to avoid that as well.
+ */
+@com.idevicesinc.sweetblue.annotations.Advanced
+public interface BorrowingReadWriteListener extends BleDevice.ReadWriteListener
+{
+}
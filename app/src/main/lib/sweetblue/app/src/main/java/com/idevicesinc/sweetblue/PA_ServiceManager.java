@@ -9,9 +9,11 @@ import com.idevicesinc.sweetblue.utils.PresentData;
 import com.idevicesinc.sweetblue.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 abstract class PA_ServiceManager
 {
@@ -30,6 +32,11 @@ abstract class PA_ServiceManager
 
 	private static final List<BluetoothGattDescriptor> EMPTY_DESCRIPTOR_LIST = new ArrayList<BluetoothGattDescriptor>();
 
+	//--- Lookups happen on every read/write/notify, so when the subclass allows it characteristics are indexed by UUID the
+	//---		first time they're asked for after the service list may have changed. Clearing swaps in a new slot with the next
+	//---		generation, so an index that was being built from the old list while that happened fails to publish.
+	private final AtomicReference<IndexSlot> m_charIndex = new AtomicReference<IndexSlot>(new IndexSlot(0, null));
+
 
 	PA_ServiceManager()
 	{
@@ -39,9 +46,70 @@ abstract class PA_ServiceManager
 
 	protected abstract List<BluetoothGattService> getNativeServiceList_original();
 
+	/**
+	 * Whether characteristic lookups may be served from an index, which is only safe if {@link #clearCharacteristicIndex()}
+	 * is called whenever {@link #getNativeServiceList_original()} may start returning something different.
+	 */
+	protected boolean indexesCharacteristics()
+	{
+		return false;
+	}
+
+	final void clearCharacteristicIndex()
+	{
+		while( true )
+		{
+			final IndexSlot slot = m_charIndex.get();
+
+			if( m_charIndex.compareAndSet(slot, new IndexSlot(slot.m_generation + 1, null)) )
+			{
+				return;
+			}
+		}
+	}
+
+	private CharacteristicIndex getCharacteristicIndex()
+	{
+		final IndexSlot slot = m_charIndex.get();
+
+		if( slot.m_index != null || false == indexesCharacteristics() )
+		{
+			return slot.m_index;
+		}
+
+		final List<BluetoothGattService> serviceList_native = getNativeServiceList_original();
+
+		//--- Nothing discovered yet, so nothing worth remembering.
+		if( serviceList_native.isEmpty() )
+		{
+			return null;
+		}
+
+		final CharacteristicIndex newIndex = new CharacteristicIndex();
+
+		for( int i = 0; i < serviceList_native.size(); i++ )
+		{
+			final BluetoothGattService service_ith = serviceList_native.get(i);
+
+			newIndex.add(service_ith, getNativeCharacteristicList_original(service_ith));
+		}
+
+		m_charIndex.compareAndSet(slot, new IndexSlot(slot.m_generation, newIndex));
+
+		return newIndex;
+	}
 
 	public BluetoothGattCharacteristic getCharacteristic(final UUID serviceUuid_nullable, final UUID charUuid)
 	{
+		final CharacteristicIndex index = getCharacteristicIndex();
+
+		if( index != null )
+		{
+			final List<BluetoothGattCharacteristic> candidates = index.get(serviceUuid_nullable, charUuid);
+
+			return candidates.isEmpty() ? null : candidates.get(0);
+		}
+
 		if( serviceUuid_nullable == null )
 		{
 			final List<BluetoothGattService> serviceList_native = getNativeServiceList_original();
@@ -76,6 +144,26 @@ abstract class PA_ServiceManager
 
 	public BluetoothGattCharacteristic getCharacteristic(final UUID serviceUuid_nullable, final UUID charUuid, final DescriptorFilter filter)
 	{
+		final CharacteristicIndex index = getCharacteristicIndex();
+
+		if( index != null )
+		{
+			//--- Only the candidates come from the index, descriptor values can change so the filter always gets asked.
+			final List<BluetoothGattCharacteristic> candidates = index.get(serviceUuid_nullable, charUuid);
+
+			for( int j = 0; j < candidates.size(); j++ )
+			{
+				final BluetoothGattCharacteristic char_jth = candidates.get(j);
+
+				if( accepts(char_jth.getService(), char_jth, filter) )
+				{
+					return char_jth;
+				}
+			}
+
+			return null;
+		}
+
 		if( serviceUuid_nullable == null )
 		{
 			final List<BluetoothGattService> serviceList_native = getNativeServiceList_original();
@@ -133,24 +221,28 @@ abstract class PA_ServiceManager
 		{
 			final BluetoothGattCharacteristic char_jth = charList_native.get(j);
 
-			if( char_jth.getUuid().equals(charUuid) )
+			if( char_jth.getUuid().equals(charUuid) && accepts(service, char_jth, filter) )
 			{
-				final BluetoothGattDescriptor desc = char_jth.getDescriptor(filter.descriptorUuid());
-				if (desc != null)
-				{
-					final DescriptorFilter.DescriptorEvent event = new DescriptorFilter.DescriptorEvent(service, char_jth, desc, new PresentData(desc.getValue()));
-					final DescriptorFilter.Please please = filter.onEvent(event);
-					if (please.isAccepted())
-					{
-						return char_jth;
-					}
-				}
+				return char_jth;
 			}
 		}
 
 		return null;
 	}
 
+	private static boolean accepts(final BluetoothGattService service, final BluetoothGattCharacteristic characteristic, final DescriptorFilter filter)
+	{
+		final BluetoothGattDescriptor desc = characteristic.getDescriptor(filter.descriptorUuid());
+		if (desc != null)
+		{
+			final DescriptorFilter.DescriptorEvent event = new DescriptorFilter.DescriptorEvent(service, characteristic, desc, new PresentData(desc.getValue()));
+			final DescriptorFilter.Please please = filter.onEvent(event);
+			return please.isAccepted();
+		}
+
+		return false;
+	}
+
 	private List<BluetoothGattService> getNativeServiceList_cloned()
 	{
 		final List<BluetoothGattService> list_native = getNativeServiceList_original();
@@ -327,6 +419,12 @@ abstract class PA_ServiceManager
 
 	public BluetoothGattDescriptor getDescriptor(final UUID serviceUuid_nullable, final UUID charUuid_nullable, final UUID descUuid)
 	{
+		//--- Early-outs for characteristic operations ask with no descriptor, which can't match anything.
+		if( descUuid == null )
+		{
+			return null;
+		}
+
 		if( serviceUuid_nullable == null )
 		{
 			final List<BluetoothGattService> serviceList = getNativeServiceList_original();
@@ -385,4 +483,77 @@ abstract class PA_ServiceManager
 			return false;
 		}
 	}
+
+	/**
+	 * The published index, if any, along with the generation it was built for. Swapped as a whole so both always change together.
+	 */
+	private static final class IndexSlot
+	{
+		private final int m_generation;
+		private final CharacteristicIndex m_index;
+
+		IndexSlot(final int generation, final CharacteristicIndex index_nullable)
+		{
+			m_generation = generation;
+			m_index = index_nullable;
+		}
+	}
+
+	/**
+	 * Characteristics by UUID, in service list order, both across all services and within the first service with a given UUID,
+	 * which is the one {@link #getServiceDirectlyFromNativeNode(UUID)} resolves to.
+	 */
+	private static final class CharacteristicIndex
+	{
+		private final HashMap<UUID, List<BluetoothGattCharacteristic>> m_all = new HashMap<UUID, List<BluetoothGattCharacteristic>>();
+		private final HashMap<UUID, HashMap<UUID, List<BluetoothGattCharacteristic>>> m_byService = new HashMap<UUID, HashMap<UUID, List<BluetoothGattCharacteristic>>>();
+
+		void add(final BluetoothGattService service, final List<BluetoothGattCharacteristic> charList_native)
+		{
+			final HashMap<UUID, List<BluetoothGattCharacteristic>> serviceChars;
+
+			if( m_byService.containsKey(service.getUuid()) )
+			{
+				serviceChars = null;
+			}
+			else
+			{
+				serviceChars = new HashMap<UUID, List<BluetoothGattCharacteristic>>();
+				m_byService.put(service.getUuid(), serviceChars);
+			}
+
+			for( int j = 0; j < charList_native.size(); j++ )
+			{
+				final BluetoothGattCharacteristic char_jth = charList_native.get(j);
+
+				add(m_all, char_jth);
+
+				if( serviceChars != null )
+				{
+					add(serviceChars, char_jth);
+				}
+			}
+		}
+
+		List<BluetoothGattCharacteristic> get(final UUID serviceUuid_nullable, final UUID charUuid)
+		{
+			final HashMap<UUID, List<BluetoothGattCharacteristic>> chars = serviceUuid_nullable == null ? m_all : m_byService.get(serviceUuid_nullable);
+			final List<BluetoothGattCharacteristic> candidates = chars != null ? chars.get(charUuid) : null;
+
+			return candidates != null ? candidates : EMPTY_CHARACTERISTIC_LIST;
+		}
+
+		private static void add(final HashMap<UUID, List<BluetoothGattCharacteristic>> chars, final BluetoothGattCharacteristic characteristic)
+		{
+			List<BluetoothGattCharacteristic> list = chars.get(characteristic.getUuid());
+
+			if( list == null )
+			{
+				list = new ArrayList<BluetoothGattCharacteristic>(1);
+				chars.put(characteristic.getUuid(), list);
+			}
+
+			list.add(characteristic);
+		}
+	}
 }
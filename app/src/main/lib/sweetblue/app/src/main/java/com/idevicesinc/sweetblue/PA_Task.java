@@ -2,11 +2,15 @@ package com.idevicesinc.sweetblue;
 
 import java.util.UUID;
 
+import android.util.Log;
+
 import com.idevicesinc.sweetblue.utils.Interval;
 import com.idevicesinc.sweetblue.utils.Uuids;
 
 abstract class PA_Task
 {
+	private static final String TAG = PA_Task.class.getSimpleName();
+
 	static interface I_StateListener
 	{
 		void onStateChange(PA_Task task, PE_TaskState state);
@@ -40,6 +44,8 @@ abstract class PA_Task
 	
 	private long m_timeCreated;
 	private long m_timeExecuted;
+	private long m_timeQueued;
+	private boolean m_executedSinceQueued;
 	
 	private boolean m_softlyCancelled = false;
 	
@@ -65,7 +71,7 @@ abstract class PA_Task
 		m_device = null;
 		m_manager = manager;
 //		m_maxRetries = 0;
-		m_timeCreated = System.currentTimeMillis();
+		m_timeCreated = m_manager.currentTimeMillis();
 		
 		if( listener == null && this instanceof I_StateListener )
 		{
@@ -129,18 +135,24 @@ abstract class PA_Task
 		if( !m_manager.ASSERT(newState != m_state) )  return false;
 		
 		m_state = newState;
+
+		if( m_state.isEndingState() )
+		{
+			onEnded_timing();
+		}
 		
-		if( getLogger().isEnabled() )
+		if( getLogger().isLoggable(Log.INFO) )
 		{
 			if( m_state.isEndingState() )
 			{
-				String logText = this.toString();
 				if( m_queue != null )
 				{
-					logText += " - " + m_queue.getUpdateCount();
+					getLogger().log(Log.INFO, TAG, "{} - {}", this.toString(), m_queue.getUpdateCount());
+				}
+				else
+				{
+					getLogger().log(Log.INFO, TAG, "{}", this.toString());
 				}
-
-				getLogger().i(logText);
 			}
 			else if (m_state == PE_TaskState.EXECUTING )
 			{
@@ -153,6 +165,26 @@ abstract class PA_Task
 		return false;
 	}
 	
+	private void onEnded_timing()
+	{
+		final BleTask taskType = getTaskType();
+
+		//--- Only tasks that made it into the queue are counted, the queue wait wouldn't mean anything otherwise.
+		if( taskType == null || m_timeQueued == 0 )  return;
+
+		final long queueWait = m_executedSinceQueued ? m_timeExecuted - m_timeQueued : -1;
+		final long execution = m_executedSinceQueued ? m_manager.currentTimeMillis() - m_timeExecuted : -1;
+
+		m_manager.getTaskMetrics().onTaskEnded(taskType, getDevice(), m_state, queueWait, execution);
+
+		if( m_executedSinceQueued && getDevice() != null && (m_state == PE_TaskState.SUCCEEDED || m_state == PE_TaskState.TIMED_OUT) )
+		{
+			s_timeoutRequestEvent.init(getManager(), getDevice(), BleServer.NULL, taskType, getCharUuid(), getDescUuid());
+
+			BleNodeConfig.onTaskEnded(s_timeoutRequestEvent, m_state == PE_TaskState.TIMED_OUT, execution / 1000.0);
+		}
+	}
+	
 	PE_TaskState getState()
 	{
 		return m_state;
@@ -171,6 +203,8 @@ abstract class PA_Task
 	void onAddedToQueue(P_TaskQueue queue)
 	{
 		m_queue = queue;
+		m_timeQueued = m_manager.currentTimeMillis();
+		m_executedSinceQueued = false;
 		setState(PE_TaskState.QUEUED);
 //		m_retryCount = 0;
 	}
@@ -180,7 +214,7 @@ abstract class PA_Task
 		//--- DRK > Can be called upstream from different thread than the update loop,
 		//---		so preventing clashes here with this.update method.
 		m_timeout = newTimeout;
-		m_resetableExecuteStartTime = System.currentTimeMillis();
+		m_resetableExecuteStartTime = m_manager.currentTimeMillis();
 	}
 	
 	protected void timeout()
@@ -251,7 +285,7 @@ abstract class PA_Task
 //		m_totalTimeQueuedAndArmedAndExecuting = m_queue.getTime() - m_addedToQueueTime;
 		m_totalTimeArmedAndExecuting = 0.0;
 //		m_totalTimeExecuting = 0.0;
-		m_resetableExecuteStartTime = System.currentTimeMillis();
+		m_resetableExecuteStartTime = m_manager.currentTimeMillis();
 //		m_retryCount = 0;
 		m_timeout = getInitialTimeout();
 	}
@@ -268,8 +302,9 @@ abstract class PA_Task
 	
 	private void execute_wrapper()
 	{
-		m_resetableExecuteStartTime = System.currentTimeMillis();
-		m_timeExecuted = System.currentTimeMillis();
+		m_resetableExecuteStartTime = m_manager.currentTimeMillis();
+		m_timeExecuted = m_manager.currentTimeMillis();
+		m_executedSinceQueued = true;
 		
 		execute();
 	}
@@ -355,7 +390,7 @@ abstract class PA_Task
 			{
 				if( !Interval.isDisabled(m_timeout) && m_timeout != Interval.INFINITE.secs() )
 				{
-					double timeExecuting = (System.currentTimeMillis() - m_resetableExecuteStartTime)/1000.0;
+					double timeExecuting = (m_manager.currentTimeMillis() - m_resetableExecuteStartTime)/1000.0;
 
 					if( timeExecuting >= m_timeout )
 					{
@@ -379,7 +414,7 @@ abstract class PA_Task
 	
 	public double getTotalTimeExecuting()
 	{
-		return (System.currentTimeMillis() - m_timeExecuted)/1000.0;
+		return (m_manager.currentTimeMillis() - m_timeExecuted)/1000.0;
 	}
 
 	public double getTotalTimeExecuting(long currentTime)
@@ -389,7 +424,7 @@ abstract class PA_Task
 	
 	public double getTotalTime()
 	{
-		return (System.currentTimeMillis() - m_timeCreated)/1000.0;
+		return (m_manager.currentTimeMillis() - m_timeCreated)/1000.0;
 	}
 
 	public double getTotalTime(long currentTime)
@@ -470,6 +505,16 @@ abstract class PA_Task
 	{
 		return false;
 	}
+
+	/**
+	 * Returns <code>true</code> if this task might be passed to another task's {@link #isSoftlyCancellableBy(PA_Task)} and have it return <code>true</code>.
+	 * Lets {@link P_TaskQueue} skip checking every queued task whenever a task is added. Override this if you add a new case to
+	 * {@link #isSoftlyCancellableBy(PA_Task)}.
+	 */
+	protected boolean canSoftlyCancel()
+	{
+		return false;
+	}
 	
 	protected void attemptToSoftlyCancel(PA_Task task)
 	{
@@ -1,5 +1,6 @@
 package com.idevicesinc.sweetblue;
 
+import java.util.ArrayList;
 import java.util.UUID;
 
 import android.bluetooth.BluetoothDevice;
@@ -19,10 +20,16 @@ import com.idevicesinc.sweetblue.utils.Utils;
 
 final class P_BleDevice_Listeners extends BluetoothGattCallback
 {
+	private static final String TAG = P_BleDevice_Listeners.class.getSimpleName();
+
 	private final BleDevice m_device;
 	private final P_Logger m_logger;
 	private final P_TaskQueue m_queue;
 
+	//--- Notifications waiting for, or done with, the update thread. More than this many in flight just means some get allocated.
+	private static final int NOTIFY_POOL_SIZE = 16;
+	private final ArrayList<NotifyRunnable> m_notifyPool = new ArrayList<NotifyRunnable>(NOTIFY_POOL_SIZE);
+
 	final PA_Task.I_StateListener m_taskStateListener = new PA_Task.I_StateListener()
 	{
 		@Override public void onStateChange(PA_Task task, PE_TaskState state)
@@ -137,7 +144,7 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
 		//--- DRK > NOTE: For some devices disconnecting by turning off the peripheral comes back with a status of 8, which is BluetoothGatt.GATT_SERVER.
 		//---				For that same device disconnecting from the app the status is 0. Just an FYI to future developers in case they want to distinguish
 		//---				between the two as far as user intent or something.
-		m_logger.log_status(gattStatus, m_logger.gattConn(newState));
+		m_logger.log_status(TAG, gattStatus, m_logger.gattConn(newState));
 
 		if (newState == BluetoothProfile.STATE_DISCONNECTED )
 		{
@@ -260,7 +267,9 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
 
 	private void onServicesDiscovered_updateThread(final BluetoothGatt gatt, final int gattStatus)
 	{
-		m_logger.log_status(gattStatus);
+		m_logger.log_status(TAG, gattStatus);
+
+		m_device.getServiceManager().clearCharacteristicIndex();
 
 		if( Utils.isSuccess(gattStatus) )
 		{
@@ -293,8 +302,8 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
 	private void onCharacteristicRead_updateThread(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int gattStatus, final byte[] value)
 	{
 		final UUID uuid = characteristic.getUuid();
-		m_logger.i(m_logger.charName(uuid));
-		m_logger.log_status(gattStatus);
+		m_logger.log(Log.INFO, TAG, "char={}", uuid);
+		m_logger.log_status(TAG, gattStatus);
 
 		final P_Task_Read readTask = m_queue.getCurrent(P_Task_Read.class, m_device);
 
@@ -332,8 +341,8 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
 	private void onCharacteristicWrite_updateThread(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final byte[] data, final int gattStatus)
 	{
 		final UUID uuid = characteristic.getUuid();
-		m_logger.i(m_logger.charName(uuid));
-		m_logger.log_status(gattStatus);
+		m_logger.log(Log.INFO, TAG, "char={}", uuid);
+		m_logger.log_status(TAG, gattStatus);
 
 		final P_Task_Write task = m_queue.getCurrent(P_Task_Write.class, m_device);
 
@@ -404,7 +413,7 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
 
 	private void onReliableWriteCompleted_updateThread(final BluetoothGatt gatt, final int gattStatus)
 	{
-		m_logger.log_status(gattStatus);
+		m_logger.log_status(TAG, gattStatus);
 
 		final P_Task_ExecuteReliableWrite task = m_queue.getCurrent(P_Task_ExecuteReliableWrite.class, m_device);
 
@@ -464,8 +473,8 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
 	private void onDescriptorWrite_updateThread(final BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final byte[] data, final int gattStatus)
 	{
 		final UUID uuid = descriptor.getUuid();
-		m_logger.i(m_logger.descriptorName(uuid));
-		m_logger.log_status(gattStatus);
+		m_logger.log(Log.INFO, TAG, "descriptor={}", uuid);
+		m_logger.log_status(TAG, gattStatus);
 
 		final P_Task_WriteDescriptor task_write = m_queue.getCurrent(P_Task_WriteDescriptor.class, m_device);
 
@@ -536,25 +545,84 @@ final class P_BleDevice_Listeners extends BluetoothGattCallback
 	
 	@Override public void onCharacteristicChanged(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic)
 	{
-		final byte[] value = characteristic.getValue() == null ? null : characteristic.getValue().clone();
+		//--- The native value gets overwritten by the next notification, so it's copied here, into a buffer that's reused
+		//---		along with the runnable once the update thread is done with it. See P_PollManager for who gets their own copy.
+		final NotifyRunnable notify = obtainNotifyRunnable();
 
-		m_device.getManager().getPostManager().runOrPostToUpdateThread(new Runnable()
+		notify.init(gatt, characteristic, characteristic.getValue());
+
+		m_device.getManager().getPostManager().runOrPostToUpdateThread(notify);
+	}
+
+	private void onCharacteristicChanged_updateThread(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final byte[] value_borrowed)
+	{
+		final UUID characteristicUuid = characteristic.getUuid();
+		final UUID serviceUuid = characteristic.getService().getUuid();
+
+		m_logger.log(Log.DEBUG, TAG, "characteristic={}", characteristicUuid);
+
+		m_device.getPollManager().onCharacteristicChangedFromNativeNotify(serviceUuid, characteristicUuid, value_borrowed);
+	}
+
+	private NotifyRunnable obtainNotifyRunnable()
+	{
+		synchronized (m_notifyPool)
 		{
-			@Override public void run()
+			final int size = m_notifyPool.size();
+
+			return size > 0 ? m_notifyPool.remove(size - 1) : new NotifyRunnable();
+		}
+	}
+
+	private void recycle(final NotifyRunnable notify)
+	{
+		synchronized (m_notifyPool)
+		{
+			if( m_notifyPool.size() < NOTIFY_POOL_SIZE )
 			{
-				onCharacteristicChanged_updateThread(gatt, characteristic, value);
+				m_notifyPool.add(notify);
 			}
-		});
+		}
 	}
 
-	private void onCharacteristicChanged_updateThread(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final byte[] value)
+	private final class NotifyRunnable implements Runnable
 	{
-		final UUID characteristicUuid = characteristic.getUuid();
-		final UUID serviceUuid = characteristic.getService().getUuid();
+		private BluetoothGatt m_gatt;
+		private BluetoothGattCharacteristic m_characteristic;
+		private byte[] m_buffer = null;
+		private boolean m_valueIsNull;
 
-		m_logger.d("characteristic=" + characteristicUuid.toString());
+		void init(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final byte[] value_nullable)
+		{
+			m_gatt = gatt;
+			m_characteristic = characteristic;
+			m_valueIsNull = value_nullable == null;
+
+			if( value_nullable != null )
+			{
+				if( m_buffer == null || m_buffer.length != value_nullable.length )
+				{
+					m_buffer = new byte[value_nullable.length];
+				}
 
-		m_device.getPollManager().onCharacteristicChangedFromNativeNotify(serviceUuid, characteristicUuid, value);
+				System.arraycopy(value_nullable, 0, m_buffer, 0, value_nullable.length);
+			}
+		}
+
+		@Override public void run()
+		{
+			try
+			{
+				onCharacteristicChanged_updateThread(m_gatt, m_characteristic, m_valueIsNull ? null : m_buffer);
+			}
+			finally
+			{
+				m_gatt = null;
+				m_characteristic = null;
+
+				recycle(this);
+			}
+		}
 	}
 
 	public void onNativeBondStateChanged_updateThread(int previousState, int newState, int failReason)
@@ -0,0 +1,13 @@
+package com.idevicesinc.sweetblue;
+
+
+/**
+ * Where the update loop, the task queue and a few others get the current time from. Only ever replaced by unit tests that run
+ * SweetBlue on virtual time, see {@link BleManagerConfig#clock}.
+ */
+interface P_Clock
+{
+
+    long currentTimeMillis();
+
+}
@@ -63,7 +63,7 @@ final class P_ConnectionFailManager
 	{
 		resetFailCount();
 
-		m_timeOfFirstConnect = System.currentTimeMillis();
+		m_timeOfFirstConnect = m_device.getManager().currentTimeMillis();
 	}
 	
 	private void resetFailCount()
@@ -91,7 +91,7 @@ final class P_ConnectionFailManager
 	{
 		if( reason_nullable == null )  return ConnectionFailListener.Please.PE_Please_DO_NOT_RETRY;
 		
-		final long currentTime = System.currentTimeMillis();
+		final long currentTime = m_device.getManager().currentTimeMillis();
 		
 		//--- DRK > Can be null if this is a spontaneous connect (can happen with autoConnect sometimes for example).
 		m_timeOfFirstConnect = m_timeOfFirstConnect != null ? m_timeOfFirstConnect : currentTime;
@@ -171,6 +171,8 @@ final class P_ConnectionFailManager
 		
 		if( retryChoice__PE_Please != Please.PE_Please_NULL && Please.isRetry(retryChoice__PE_Please) && !m_device.is(CONNECTED))
 		{
+			m_device.getManager().getTaskMetrics().onConnectionRetry(m_device);
+
 			m_device.attemptReconnect();
 		}
 		else
@@ -1,6 +1,7 @@
 package com.idevicesinc.sweetblue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -18,9 +19,33 @@ import com.idevicesinc.sweetblue.utils.State;
 
 final class P_DeviceManager
 {
-    private final HashMap<String, BleDevice> m_map = new HashMap<String, BleDevice>();
+    private static final int INITIAL_SLOT_CAPACITY = 64;
+    private static final int STATE_COUNT = BleDeviceState.VALUES().length;
+
     private final ArrayList<BleDevice> m_list = new ArrayList<BleDevice>();
 
+    //--- Every registered device gets a slot that stays put until it's removed. Slots are looked up by the MAC packed into a long,
+    //--- and for each BleDeviceState there's a bitset of the slots whose device is in that state, so state queries only touch matches.
+    private final P_MacAddressMap m_slotsByMac = new P_MacAddressMap();
+    private final HashMap<String, Integer> m_slotsByMac_malformed = new HashMap<String, Integer>();
+    private BleDevice[] m_slots = new BleDevice[INITIAL_SLOT_CAPACITY];
+    private int[] m_slotMasks = new int[INITIAL_SLOT_CAPACITY];
+    private int[] m_freeSlots = new int[INITIAL_SLOT_CAPACITY];
+    private int m_freeSlotCount = 0;
+    private int m_slotCount = 0;
+    private final long[][] m_stateIndex = new long[STATE_COUNT][INITIAL_SLOT_CAPACITY / 64];
+
+    //--- Undiscovery schedule. Each slot's due time is when it'll have gone undiscoveryKeepAlive without being seen, measured against
+    //--- m_time, which advances with the same time steps as BleDevice.getTimeSinceLastDiscovery(). Due slots sit in a min-heap; ones
+    //--- that came due while in a state that can't be purged are parked until their state allows it.
+    private double m_time = 0.0;
+    private double[] m_dueTimes = new double[INITIAL_SLOT_CAPACITY];
+    private int[] m_heapIndices = new int[INITIAL_SLOT_CAPACITY];
+    private boolean[] m_parked = new boolean[INITIAL_SLOT_CAPACITY];
+    private int[] m_expiryHeap = new int[INITIAL_SLOT_CAPACITY];
+    private int m_expiryHeapSize = 0;
+    private int[] m_deferred = new int[INITIAL_SLOT_CAPACITY];
+
     private final P_Logger m_logger;
     private final BleManager m_mngr;
 
@@ -54,6 +79,13 @@ final class P_DeviceManager
 
     void forEach(final Object forEach, final Object... query)
     {
+        if (query != null && query.length == 2 && query[0] instanceof BleDeviceState && Boolean.TRUE.equals(query[1]))
+        {
+            forEach_inState(forEach, (BleDeviceState) query[0]);
+
+            return;
+        }
+
         final boolean isQueryValid = query != null && query.length > 0;
 
         for (int i = 0; i < m_mngr.getDeviceCount(); i++)
@@ -80,6 +112,35 @@ final class P_DeviceManager
         }
     }
 
+    /**
+     * Walks the state index directly, so no list is built or copied. The state is checked again right before each device is handed
+     * out, in case an earlier callback changed it.
+     */
+    private void forEach_inState(final Object forEach, final BleDeviceState state)
+    {
+        final long[] bits = m_stateIndex[state.ordinal()];
+
+        for (int word = 0; word < wordCount(); word++)
+        {
+            long remaining = bits[word];
+
+            while (remaining != 0x0)
+            {
+                final int slot = word * 64 + Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+
+                final BleDevice device = m_slots[slot];
+
+                if (device == null || !device.is(state))  continue;
+
+                if (!forEach_invoke(forEach, device))
+                {
+                    return;
+                }
+            }
+        }
+    }
+
     private boolean forEach_invoke(final Object forEach, final BleDevice device)
     {
         if (forEach instanceof ForEach_Breakable)
@@ -176,13 +237,13 @@ final class P_DeviceManager
 
     public BleDevice getDevice(final int mask_BleDeviceState)
     {
-        for (int i = 0; i < getCount(); i++)
+        for (int word = 0; word < wordCount(); word++)
         {
-            BleDevice device = get(i);
+            final long bits = anyOf(word, mask_BleDeviceState);
 
-            if (device.isAny(mask_BleDeviceState))
+            if (bits != 0x0)
             {
-                return device;
+                return m_slots[word * 64 + Long.numberOfTrailingZeros(bits)];
             }
         }
 
@@ -211,35 +272,21 @@ final class P_DeviceManager
 
     public List<BleDevice> getDevices_List(boolean sort, final BleDeviceState state)
     {
-        final ArrayList<BleDevice> toReturn = new ArrayList<BleDevice>();
-
-        for (int i = 0; i < this.getCount(); i++)
-        {
-            final BleDevice device_ith = this.get(i);
-
-            if (device_ith.is(state))
-            {
-                toReturn.add(device_ith);
-            }
-        }
-        if (sort && m_mngr.m_config.defaultListComparator != null)
-        {
-            Collections.sort(toReturn, m_mngr.m_config.defaultListComparator);
-        }
-        return toReturn;
+        return getDevices_List(sort, state.bit());
     }
 
     public List<BleDevice> getDevices_List(boolean sort, final int mask_BleDeviceState)
     {
         final ArrayList<BleDevice> toReturn = new ArrayList<BleDevice>();
 
-        for (int i = 0; i < this.getCount(); i++)
+        for (int word = 0; word < wordCount(); word++)
         {
-            final BleDevice device_ith = this.get(i);
+            long bits = anyOf(word, mask_BleDeviceState);
 
-            if (device_ith.isAny(mask_BleDeviceState))
+            while (bits != 0x0)
             {
-                toReturn.add(device_ith);
+                toReturn.add(m_slots[word * 64 + Long.numberOfTrailingZeros(bits)]);
+                bits &= bits - 1;
             }
         }
         if (sort && m_mngr.m_config.defaultListComparator != null)
@@ -251,14 +298,9 @@ final class P_DeviceManager
 
     public boolean has(BleDevice device)
     {
-        for (int i = 0; i < m_list.size(); i++)
-        {
-            BleDevice device_ith = m_list.get(i);
-
-            if (device_ith == device) return true;
-        }
+        final int slot = getSlot(device.getMacAddress());
 
-        return false;
+        return slot != P_MacAddressMap.NOT_FOUND && m_slots[slot] == device;
     }
 
     public BleDevice get(int i)
@@ -285,16 +327,12 @@ final class P_DeviceManager
 
     int getCount(BleDeviceState state)
     {
+        final long[] bits = m_stateIndex[state.ordinal()];
         int count = 0;
 
-        for (int i = 0; i < m_list.size(); i++)
+        for (int word = 0; word < wordCount(); word++)
         {
-            BleDevice device_ith = m_list.get(i);
-
-            if (device_ith.is(state))
-            {
-                count++;
-            }
+            count += Long.bitCount(bits[word]);
         }
 
         return count;
@@ -307,29 +345,96 @@ final class P_DeviceManager
 
     public BleDevice get(String uniqueId)
     {
-        return m_map.get(uniqueId);
+        final int slot = getSlot(uniqueId);
+
+        return slot != P_MacAddressMap.NOT_FOUND ? m_slots[slot] : null;
+    }
+
+    /**
+     * Returns whether the given address is in the form that can be looked up without normalizing it first.
+     */
+    static boolean isKeyable(String macAddress)
+    {
+        return P_MacAddressMap.toKey(macAddress) != P_MacAddressMap.EMPTY_KEY;
+    }
+
+    private int getSlot(final String macAddress)
+    {
+        final long key = P_MacAddressMap.toKey(macAddress);
+
+        if (key != P_MacAddressMap.EMPTY_KEY)
+        {
+            return m_slotsByMac.get(key);
+        }
+        else
+        {
+            final Integer slot = macAddress != null ? m_slotsByMac_malformed.get(macAddress) : null;
+
+            return slot != null ? slot : P_MacAddressMap.NOT_FOUND;
+        }
     }
 
     void add(BleDevice device)
     {
-        if (m_map.containsKey(device.getMacAddress()))
+        final String macAddress = device.getMacAddress();
+
+        if (getSlot(macAddress) != P_MacAddressMap.NOT_FOUND)
         {
-            m_logger.e("Already registered device " + device.getMacAddress());
+            m_logger.e("Already registered device " + macAddress);
 
             return;
         }
 
+        final int slot = newSlot();
+        final long key = P_MacAddressMap.toKey(macAddress);
+
+        if (key != P_MacAddressMap.EMPTY_KEY)
+        {
+            m_slotsByMac.put(key, slot);
+        }
+        else
+        {
+            m_slotsByMac_malformed.put(macAddress, slot);
+        }
+
+        m_slots[slot] = device;
+        m_slotMasks[slot] = 0x0;
+        m_heapIndices[slot] = -1;
+        m_parked[slot] = false;
+        setSlotMask(slot, device.getStateMask());
+
         m_list.add(device);
-        m_map.put(device.getMacAddress(), device);
+
+        scheduleUndiscovery(slot, device);
     }
 
     void remove(BleDevice device, P_DeviceManager cache)
     {
         m_mngr.ASSERT(!m_updating, "Removing device while updating!");
-        m_mngr.ASSERT(m_map.containsKey(device.getMacAddress()));
+
+        final String macAddress = device.getMacAddress();
+        final int slot = getSlot(macAddress);
+
+        m_mngr.ASSERT(slot != P_MacAddressMap.NOT_FOUND);
 
         m_list.remove(device);
-        m_map.remove(device.getMacAddress());
+
+        if (slot != P_MacAddressMap.NOT_FOUND)
+        {
+            if (P_MacAddressMap.toKey(macAddress) != P_MacAddressMap.EMPTY_KEY)
+            {
+                m_slotsByMac.remove(P_MacAddressMap.toKey(macAddress));
+            }
+            else
+            {
+                m_slotsByMac_malformed.remove(macAddress);
+            }
+
+            unscheduleUndiscovery(slot);
+            setSlotMask(slot, 0x0);
+            m_slots[slot] = null;
+            m_freeSlots[m_freeSlotCount++] = slot;
+        }
 
         final boolean cacheDevice = BleDeviceConfig.bool(device.conf_device().cacheDeviceOnUndiscovery, device.conf_mngr().cacheDeviceOnUndiscovery);
 
@@ -339,6 +444,123 @@ final class P_DeviceManager
         }
     }
 
+    /**
+     * Called by the device's main state tracker whenever its state mask changes, so the state index can be kept current.
+     * Does nothing if the device isn't registered with this manager.
+     */
+    void onDeviceStateChange(final BleDevice device, final int newStateBits)
+    {
+        final int slot = getSlot(device.getMacAddress());
+
+        if (slot == P_MacAddressMap.NOT_FOUND || m_slots[slot] != device)  return;
+
+        setSlotMask(slot, newStateBits);
+    }
+
+    /**
+     * Called whenever the device's time since last discovery is reset, so its undiscovery can be pushed back.
+     */
+    void onDiscoveryTimerReset(final BleDevice device)
+    {
+        final int slot = getSlot(device.getMacAddress());
+
+        if (slot == P_MacAddressMap.NOT_FOUND || m_slots[slot] != device)  return;
+
+        scheduleUndiscovery(slot, device);
+    }
+
+    private void setSlotMask(final int slot, final int newStateBits)
+    {
+        int changed = m_slotMasks[slot] ^ newStateBits;
+
+        m_slotMasks[slot] = newStateBits;
+
+        if (m_parked[slot] && (newStateBits & ~BleDeviceState.PURGEABLE_MASK) == 0x0)
+        {
+            //--- Came due earlier but couldn't be purged in the state it was in, so give the next purge pass another look.
+            m_parked[slot] = false;
+            heap_push(slot);
+        }
+
+        while (changed != 0x0)
+        {
+            final int ordinal = Integer.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+
+            if (ordinal < STATE_COUNT)
+            {
+                m_stateIndex[ordinal][slot >> 6] ^= 1L << slot;
+            }
+        }
+    }
+
+    private int newSlot()
+    {
+        if (m_freeSlotCount > 0)
+        {
+            return m_freeSlots[--m_freeSlotCount];
+        }
+
+        if (m_slotCount == m_slots.length)
+        {
+            final int capacity = m_slots.length * 2;
+
+            m_slots = Arrays.copyOf(m_slots, capacity);
+            m_slotMasks = Arrays.copyOf(m_slotMasks, capacity);
+            m_freeSlots = Arrays.copyOf(m_freeSlots, capacity);
+            m_dueTimes = Arrays.copyOf(m_dueTimes, capacity);
+            m_heapIndices = Arrays.copyOf(m_heapIndices, capacity);
+            m_parked = Arrays.copyOf(m_parked, capacity);
+            m_expiryHeap = Arrays.copyOf(m_expiryHeap, capacity);
+            m_deferred = Arrays.copyOf(m_deferred, capacity);
+
+            for (int i = 0; i < STATE_COUNT; i++)
+            {
+                m_stateIndex[i] = Arrays.copyOf(m_stateIndex[i], capacity / 64);
+            }
+        }
+
+        return m_slotCount++;
+    }
+
+    private int wordCount()
+    {
+        return (m_slotCount + 63) >> 6;
+    }
+
+    /**
+     * Returns the slots in the given word that are in any of the states in the mask.
+     */
+    private long anyOf(final int word, int mask_BleDeviceState)
+    {
+        long bits = 0x0;
+
+        while (mask_BleDeviceState != 0x0)
+        {
+            final int ordinal = Integer.numberOfTrailingZeros(mask_BleDeviceState);
+            mask_BleDeviceState &= mask_BleDeviceState - 1;
+
+            if (ordinal < STATE_COUNT)
+            {
+                bits |= m_stateIndex[ordinal][word];
+            }
+        }
+
+        return bits;
+    }
+
+    double getTimeUntilNextUpdate()
+    {
+        double untilNext = Double.MAX_VALUE;
+
+        for (int i = m_list.size() - 1; i >= 0; i--)
+        {
+            untilNext = Math.min(untilNext, m_list.get(i).getTimeUntilNextUpdate());
+        }
+
+        return untilNext;
+    }
+
     void update(double timeStep)
     {
         //--- DRK > The asserts here and keeping track of "is updating" is because
@@ -360,6 +582,8 @@ final class P_DeviceManager
 
         m_updating = true;
 
+        m_time += timeStep;
+
         for (int i = m_list.size() - 1; i >= 0; i--)
         {
             BleDevice ithDevice = m_list.get(i);
@@ -520,47 +744,198 @@ final class P_DeviceManager
             return;
         }
 
-        for (int i = m_list.size() - 1; i >= 0; i--)
+        //--- Only slots that have come due are looked at. Anything that can't be purged just yet is put back once the pass is done so it
+        //--- isn't popped again in the same pass.
+        int deferredCount = 0;
+
+        while (m_expiryHeapSize > 0 && m_dueTimes[m_expiryHeap[0]] <= m_time)
         {
-            BleDevice device = get(i);
+            final int slot = heap_removeAt(0);
+            final BleDevice device = m_slots[slot];
 
-            Interval minScanTimeToInvokeUndiscovery = BleDeviceConfig.interval(device.conf_device().minScanTimeNeededForUndiscovery, device.conf_mngr().minScanTimeNeededForUndiscovery);
-            if (Interval.isDisabled(minScanTimeToInvokeUndiscovery)) continue;
+            if (device == null)  continue;
 
-            Interval scanKeepAlive_interval = BleDeviceConfig.interval(device.conf_device().undiscoveryKeepAlive, device.conf_mngr().undiscoveryKeepAlive);
-            if (Interval.isDisabled(scanKeepAlive_interval)) continue;
+            final int result = purgeIfStale(device, scanTime, cache, listener);
 
-            if (scanTime < Interval.secs(minScanTimeToInvokeUndiscovery)) continue;
+            if (result == PURGE_NOT_YET)
+            {
+                m_deferred[deferredCount++] = slot;
+            }
+            else if (result == PURGE_NOT_PURGEABLE_STATE)
+            {
+                m_parked[slot] = true;
+            }
+            else if (result == PURGE_RESCHEDULE)
+            {
+                scheduleUndiscovery(slot, device);
+            }
+        }
 
-            final boolean purgeable = device.getOrigin() != BleDeviceOrigin.EXPLICIT && ((device.getStateMask() & ~BleDeviceState.PURGEABLE_MASK) == 0x0);
+        for (int i = 0; i < deferredCount; i++)
+        {
+            final int slot = m_deferred[i];
 
-            if (purgeable)
+            if (m_slots[slot] != null && m_heapIndices[slot] == -1)
             {
-                if (device.getTimeSinceLastDiscovery() > scanKeepAlive_interval.secs())
-                {
-                    undiscoverAndRemove(device, listener, cache, E_Intent.UNINTENTIONAL);
-                }
+                heap_push(slot);
             }
         }
     }
 
-    boolean hasDevice(BleDeviceState... filter)
+    private static final int PURGE_DONE = 0;
+    private static final int PURGE_NEVER = 1;
+    private static final int PURGE_NOT_YET = 2;
+    private static final int PURGE_NOT_PURGEABLE_STATE = 3;
+    private static final int PURGE_RESCHEDULE = 4;
+
+    private int purgeIfStale(final BleDevice device, final double scanTime, final P_DeviceManager cache, final BleManager.DiscoveryListener listener)
     {
-        if (filter == null || filter.length == 0)
+        Interval minScanTimeToInvokeUndiscovery = BleDeviceConfig.interval(device.conf_device().minScanTimeNeededForUndiscovery, device.conf_mngr().minScanTimeNeededForUndiscovery);
+        if (Interval.isDisabled(minScanTimeToInvokeUndiscovery)) return PURGE_NEVER;
+
+        Interval scanKeepAlive_interval = BleDeviceConfig.interval(device.conf_device().undiscoveryKeepAlive, device.conf_mngr().undiscoveryKeepAlive);
+        if (Interval.isDisabled(scanKeepAlive_interval)) return PURGE_NEVER;
+
+        if (scanTime < Interval.secs(minScanTimeToInvokeUndiscovery)) return PURGE_NOT_YET;
+
+        if (device.getOrigin() == BleDeviceOrigin.EXPLICIT) return PURGE_NEVER;
+
+        if ((device.getStateMask() & ~BleDeviceState.PURGEABLE_MASK) != 0x0) return PURGE_NOT_PURGEABLE_STATE;
+
+        //--- Equal to the keep-alive isn't stale yet, so wait for the next pass.
+        if (device.getTimeSinceLastDiscovery() == scanKeepAlive_interval.secs()) return PURGE_NOT_YET;
+
+        //--- Keep-alive config changed since this was scheduled.
+        if (device.getTimeSinceLastDiscovery() < scanKeepAlive_interval.secs()) return PURGE_RESCHEDULE;
+
+        undiscoverAndRemove(device, listener, cache, E_Intent.UNINTENTIONAL);
+
+        return PURGE_DONE;
+    }
+
+    private void scheduleUndiscovery(final int slot, final BleDevice device)
+    {
+        m_parked[slot] = false;
+
+        final Interval scanKeepAlive_interval = BleDeviceConfig.interval(device.conf_device().undiscoveryKeepAlive, device.conf_mngr().undiscoveryKeepAlive);
+
+        if (Interval.isDisabled(scanKeepAlive_interval) || device.getOrigin() == BleDeviceOrigin.EXPLICIT)
         {
-            return m_list.size() > 0;
+            unscheduleUndiscovery(slot);
+
+            return;
         }
 
-        for (int i = m_list.size() - 1; i >= 0; i--)
+        m_dueTimes[slot] = m_time - device.getTimeSinceLastDiscovery() + scanKeepAlive_interval.secs();
+
+        if (m_heapIndices[slot] == -1)
         {
-            BleDevice device = get(i);
+            heap_push(slot);
+        }
+        else
+        {
+            heap_siftDown(heap_siftUp(m_heapIndices[slot]));
+        }
+    }
+
+    private void unscheduleUndiscovery(final int slot)
+    {
+        m_parked[slot] = false;
+
+        if (m_heapIndices[slot] != -1)
+        {
+            heap_removeAt(m_heapIndices[slot]);
+        }
+    }
+
+    private void heap_push(final int slot)
+    {
+        m_expiryHeap[m_expiryHeapSize] = slot;
+        m_heapIndices[slot] = m_expiryHeapSize;
+        m_expiryHeapSize++;
+
+        heap_siftUp(m_expiryHeapSize - 1);
+    }
+
+    private int heap_removeAt(final int index)
+    {
+        final int slot = m_expiryHeap[index];
+        final int last = m_expiryHeap[--m_expiryHeapSize];
+
+        m_heapIndices[slot] = -1;
+
+        if (index < m_expiryHeapSize)
+        {
+            m_expiryHeap[index] = last;
+            m_heapIndices[last] = index;
+
+            heap_siftDown(heap_siftUp(index));
+        }
+
+        return slot;
+    }
+
+    private int heap_siftUp(int index)
+    {
+        final int slot = m_expiryHeap[index];
 
-            if (device.isAny(filter))
+        while (index > 0)
+        {
+            final int parent = (index - 1) >> 1;
+
+            if (m_dueTimes[m_expiryHeap[parent]] <= m_dueTimes[slot])  break;
+
+            m_expiryHeap[index] = m_expiryHeap[parent];
+            m_heapIndices[m_expiryHeap[index]] = index;
+            index = parent;
+        }
+
+        m_expiryHeap[index] = slot;
+        m_heapIndices[slot] = index;
+
+        return index;
+    }
+
+    private void heap_siftDown(int index)
+    {
+        final int slot = m_expiryHeap[index];
+
+        while (true)
+        {
+            int child = (index << 1) + 1;
+
+            if (child >= m_expiryHeapSize)  break;
+
+            if (child + 1 < m_expiryHeapSize && m_dueTimes[m_expiryHeap[child + 1]] < m_dueTimes[m_expiryHeap[child]])
             {
-                return true;
+                child++;
             }
+
+            if (m_dueTimes[slot] <= m_dueTimes[m_expiryHeap[child]])  break;
+
+            m_expiryHeap[index] = m_expiryHeap[child];
+            m_heapIndices[m_expiryHeap[index]] = index;
+            index = child;
         }
 
-        return false;
+        m_expiryHeap[index] = slot;
+        m_heapIndices[slot] = index;
+    }
+
+    boolean hasDevice(BleDeviceState... filter)
+    {
+        if (filter == null || filter.length == 0)
+        {
+            return m_list.size() > 0;
+        }
+
+        int mask = 0x0;
+
+        for (int i = 0; i < filter.length; i++)
+        {
+            mask |= filter[i].bit();
+        }
+
+        return !getDevice(mask).isNull();
     }
 }
@@ -144,6 +144,12 @@ final class P_DeviceServiceManager extends PA_ServiceManager
 		return 0x0;
 	}
 
+	//--- BleDevice clears the index on service discovery, gatt refresh and disconnect, which is whenever the native list can change.
+	@Override protected final boolean indexesCharacteristics()
+	{
+		return true;
+	}
+
 	@Override public final BluetoothGattService getServiceDirectlyFromNativeNode(UUID serviceUuid)
 	{
 		return m_device.layerManager().getService(serviceUuid);
@@ -43,6 +43,12 @@ final class P_DeviceStateTracker extends PA_StateTracker
 	@Override protected void onStateChange(final int oldStateBits, final int newStateBits, final int intentMask, final int gattStatus)
 	{
 		if( m_device.isNull() )		return;
+
+		if( !m_forShortTermReconnect )
+		{
+			m_device.getManager().onDeviceStateChange(m_device, newStateBits);
+		}
+
 		if( m_syncing )				return;
 
 		if( m_stateListener != null )
@@ -0,0 +1,235 @@
+package com.idevicesinc.sweetblue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free ring of preallocated {@link Record} instances. Any thread may {@link #offer(int, int, String, String, String, int, Object, Object, Object)},
+ * and a single background thread hands the records to a {@link Drain}. Offering never blocks and never allocates - if the ring is full the record
+ * is counted as dropped instead, and the drain is told how many were lost the next time it runs.
+ */
+final class P_LogBuffer
+{
+	interface Drain
+	{
+		void onRecord(Record record);
+
+		void onDropped(int count);
+	}
+
+	static final class Record
+	{
+		int m_level;
+		int m_threadId;
+		String m_tag;
+		//--- Only set for log calls that had to walk the stack to find their caller.
+		String m_methodName;
+		String m_format;
+		int m_argCount;
+		Object m_arg0;
+		Object m_arg1;
+		Object m_arg2;
+
+		private void clear()
+		{
+			m_tag = null;
+			m_methodName = null;
+			m_format = null;
+			m_arg0 = null;
+			m_arg1 = null;
+			m_arg2 = null;
+		}
+	}
+
+	private final Record[] m_records;
+	//--- Per-slot sequence numbers, see Dmitry Vyukov's bounded MPMC queue. A slot is free for position p when its sequence is p, and
+	//--- holds a published record for position p when its sequence is p+1.
+	private final AtomicLongArray m_sequences;
+	private final int m_mask;
+
+	private final AtomicLong m_tail = new AtomicLong();
+	private long m_head = 0;
+
+	private final AtomicInteger m_dropped = new AtomicInteger();
+	private final AtomicBoolean m_drainWaiting = new AtomicBoolean();
+
+	private final Drain m_drain;
+	private final Thread m_thread;
+	private volatile boolean m_running = true;
+
+	P_LogBuffer(final int capacity, final Drain drain)
+	{
+		int size = 1;
+
+		while( size < capacity )
+		{
+			size <<= 1;
+		}
+
+		m_records = new Record[size];
+		m_sequences = new AtomicLongArray(size);
+		m_mask = size - 1;
+
+		for( int i = 0; i < size; i++ )
+		{
+			m_records[i] = new Record();
+			m_sequences.set(i, i);
+		}
+
+		m_drain = drain;
+
+		m_thread = new Thread(new Runnable()
+		{
+			@Override public void run()
+			{
+				drainLoop();
+			}
+		}, "SweetBlue Logger");
+		m_thread.setDaemon(true);
+		m_thread.setPriority(Thread.MIN_PRIORITY);
+		m_thread.start();
+	}
+
+	/**
+	 * Returns <code>false</code> if the ring was full and the record was dropped.
+	 */
+	boolean offer(final int level, final int threadId, final String tag, final String methodName, final String format, final int argCount, final Object arg0, final Object arg1, final Object arg2)
+	{
+		long position = m_tail.get();
+		int index;
+
+		while( true )
+		{
+			index = (int) (position & m_mask);
+
+			final long difference = m_sequences.get(index) - position;
+
+			if( difference == 0 )
+			{
+				if( m_tail.compareAndSet(position, position + 1) )  break;
+
+				position = m_tail.get();
+			}
+			else if( difference < 0 )
+			{
+				m_dropped.incrementAndGet();
+
+				return false;
+			}
+			else
+			{
+				position = m_tail.get();
+			}
+		}
+
+		final Record record = m_records[index];
+		record.m_level = level;
+		record.m_threadId = threadId;
+		record.m_tag = tag;
+		record.m_methodName = methodName;
+		record.m_format = format;
+		record.m_argCount = argCount;
+		record.m_arg0 = arg0;
+		record.m_arg1 = arg1;
+		record.m_arg2 = arg2;
+
+		m_sequences.lazySet(index, position + 1);
+
+		if( m_drainWaiting.get() && m_drainWaiting.compareAndSet(true, false) )
+		{
+			LockSupport.unpark(m_thread);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Hands every published record to the drain. Only called from the drain thread, or from {@link #stop()} once that thread is gone.
+	 */
+	private boolean drainAvailable()
+	{
+		boolean drainedAny = false;
+
+		final int dropped = m_dropped.getAndSet(0);
+
+		if( dropped > 0 )
+		{
+			m_drain.onDropped(dropped);
+		}
+
+		while( true )
+		{
+			final int index = (int) (m_head & m_mask);
+
+			if( m_sequences.get(index) != m_head + 1 )  break;
+
+			final Record record = m_records[index];
+
+			try
+			{
+				m_drain.onRecord(record);
+			}
+			finally
+			{
+				record.clear();
+
+				m_sequences.lazySet(index, m_head + m_records.length);
+				m_head++;
+			}
+
+			drainedAny = true;
+		}
+
+		return drainedAny;
+	}
+
+	private void drainLoop()
+	{
+		while( m_running )
+		{
+			if( drainAvailable() )  continue;
+
+			m_drainWaiting.set(true);
+
+			//--- Check again in case a record was published between draining and raising the flag.
+			if( m_sequences.get((int) (m_head & m_mask)) == m_head + 1 )
+			{
+				m_drainWaiting.set(false);
+
+				continue;
+			}
+
+			LockSupport.park(this);
+
+			m_drainWaiting.set(false);
+		}
+	}
+
+	/**
+	 * Stops the drain thread after it has delivered everything offered so far.
+	 */
+	void stop()
+	{
+		if( !m_running )  return;
+
+		m_running = false;
+
+		LockSupport.unpark(m_thread);
+
+		try
+		{
+			m_thread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			return;
+		}
+
+		drainAvailable();
+	}
+}
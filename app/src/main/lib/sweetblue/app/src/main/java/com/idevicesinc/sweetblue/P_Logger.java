@@ -20,8 +20,10 @@ import com.idevicesinc.sweetblue.utils.Utils_Reflection;
 import com.idevicesinc.sweetblue.utils.UuidNameMap;
 import com.idevicesinc.sweetblue.utils.UuidNameMap_ListWrapper;
 
-final class P_Logger
+final class P_Logger implements P_LogBuffer.Drain
 {
+	private static final int BUFFER_CAPACITY = 1024;
+	private static final String PLACEHOLDER = "{}";
 
 	private String[] m_debugThreadNamePool;
 	private int m_poolIndex = 0;
@@ -31,19 +33,25 @@ final class P_Logger
 	private HashMap<Integer, String> m_gattBleStates = null;
 	private HashMap<Integer, String> m_gattBondStates = null;
 	private HashMap<Integer, String> m_unbondReasonCodes = null;
-	private boolean m_enabled;
+	private volatile boolean m_enabled;
+	private final int m_level;
+	private final P_LogBuffer m_buffer;
+	//--- Only touched from the buffer's drain thread.
+	private final StringBuilder m_builder = new StringBuilder();
 	private final UuidNameMap_ListWrapper m_nameMap;
 	private SweetLogger m_logger = null;
 	private final BleManager m_mgr;
 
 	
-	public P_Logger(final BleManager manager, String[] debugThreadNamePool, List<UuidNameMap> debugUuidNameDicts, boolean enabled, SweetLogger logger)
+	public P_Logger(final BleManager manager, String[] debugThreadNamePool, List<UuidNameMap> debugUuidNameDicts, boolean enabled, int level, SweetLogger logger)
 	{
 		m_mgr = manager;
 		m_logger = logger;
 		m_debugThreadNamePool = debugThreadNamePool;
 		m_nameMap = new UuidNameMap_ListWrapper(debugUuidNameDicts);
 		m_enabled = enabled;
+		m_level = level;
+		m_buffer = m_enabled ? new P_LogBuffer(BUFFER_CAPACITY, this) : null;
 
 		if( m_enabled )
 		{
@@ -93,6 +101,27 @@ final class P_Logger
 	{
 		return m_enabled;
 	}
+
+	/**
+	 * Whether a log statement at the given level would actually go anywhere. Check this before building an expensive message.
+	 */
+	public boolean isLoggable(int level)
+	{
+		return m_enabled && level >= m_level;
+	}
+
+	/**
+	 * Delivers anything still buffered, then stops the background thread. Called when this logger is replaced.
+	 */
+	void stop()
+	{
+		m_enabled = false;
+
+		if( m_buffer != null )
+		{
+			m_buffer.stop();
+		}
+	}
 	
 	public synchronized String getDebugAction(String action)
 	{
@@ -143,17 +172,9 @@ final class P_Logger
 		return null;
 	}
 	
-	private String prefixMessage(String methodName, String message)
-	{
-		String threadName = getThreadName(Process.myTid());
-		message = threadName + " " + methodName + "() - " + message;
-		
-		return message;
-	}
-	
 	public void log(int level, String message)
 	{
-		if( !m_enabled )  return;
+		if( !isLoggable(level) )  return;
 		
 		StackTraceElement trace = getSoonestTrace();
 		String className = trace.getClassName();
@@ -161,17 +182,70 @@ final class P_Logger
 		className = className_split[className_split.length-1];
 		log_private(level, className, message, trace);
 	}
+
+	/**
+	 * Logs with a tag given by the call site, so no stack walk is needed, and with a message that is only put together on the logging
+	 * thread, by replacing each <code>{}</code> in the format with the next argument. Arguments should be immutable, or at least safe
+	 * to read from another thread, like strings, boxed primitives, and UUIDs. UUIDs are printed with their debug name, if they have one.
+	 */
+	public void log(int level, String tag, String format, Object arg0)
+	{
+		if( !isLoggable(level) )  return;
+
+		m_buffer.offer(level, Process.myTid(), tag, null, format, 1, arg0, null, null);
+	}
+
+	/**
+	 * Same as {@link #log(int, String, String, Object)} but with two arguments.
+	 */
+	public void log(int level, String tag, String format, Object arg0, Object arg1)
+	{
+		if( !isLoggable(level) )  return;
+
+		m_buffer.offer(level, Process.myTid(), tag, null, format, 2, arg0, arg1, null);
+	}
+
+	/**
+	 * Same as {@link #log(int, String, String, Object)} but with three arguments.
+	 */
+	public void log(int level, String tag, String format, Object arg0, Object arg1, Object arg2)
+	{
+		if( !isLoggable(level) )  return;
+
+		m_buffer.offer(level, Process.myTid(), tag, null, format, 3, arg0, arg1, arg2);
+	}
 	
 	public void log_status(int gattStatus)
 	{
 		log_status(gattStatus, "");
 	}
 	
+	/**
+	 * Same as {@link #log_status(int, String)} but with the tag given by the call site, so no stack walk is needed.
+	 */
+	public void log_status(String tag, int gattStatus)
+	{
+		log_status(tag, gattStatus, "");
+	}
+
+	/**
+	 * Same as {@link #log_status(String, int)}, followed by <code>arg</code>, which is only turned into a string on the logging thread.
+	 */
+	public void log_status(String tag, int gattStatus, Object arg)
+	{
+		int level = Utils.isSuccess(gattStatus) ? Log.INFO : Log.WARN;
+
+		if( !isLoggable(level) )  return;
+
+		log(level, tag, "{} {}", gattStatus(gattStatus), arg);
+	}
+	
 	public void log_status(int gattStatus, String message)
 	{
-		if( !m_enabled )  return;
-		
 		int level = Utils.isSuccess(gattStatus) ? Log.INFO : Log.WARN;
+
+		if( !isLoggable(level) )  return;
+		
 		message = gattStatus(gattStatus) + " " + message;
 		
 		log(level, message);
@@ -179,7 +253,7 @@ final class P_Logger
 	
 	public void log(int level, String tag, String message)
 	{
-		if( !m_enabled )  return;
+		if( !isLoggable(level) )  return;
 		
 		StackTraceElement trace = getSoonestTrace();
 		log_private(level, tag, message, trace); 
@@ -187,14 +261,77 @@ final class P_Logger
 	
 	private void log_private(int level, String tag, String message, StackTraceElement trace)
 	{
-		message = prefixMessage(trace.getMethodName(), message);
-		if (m_logger != null)
+		m_buffer.offer(level, Process.myTid(), tag, trace.getMethodName(), message, 0, null, null, null);
+	}
+
+	@Override public void onRecord(P_LogBuffer.Record record)
+	{
+		final StringBuilder builder = m_builder;
+		builder.setLength(0);
+		builder.append(getThreadName(record.m_threadId)).append(' ');
+
+		if( record.m_methodName != null )
+		{
+			builder.append(record.m_methodName).append("() - ");
+		}
+
+		appendFormatted(builder, record);
+
+		deliver(record.m_level, record.m_tag, builder.toString());
+	}
+
+	@Override public void onDropped(int count)
+	{
+		deliver(Log.WARN, P_Logger.class.getSimpleName(), count + " log statements were dropped because the buffer was full.");
+	}
+
+	private void appendFormatted(StringBuilder builder, P_LogBuffer.Record record)
+	{
+		final String format = record.m_format != null ? record.m_format : "null";
+		int start = 0;
+
+		for( int i = 0; i < record.m_argCount; i++ )
 		{
-			m_logger.onLogEntry(level, tag, message);
+			final int placeholder = format.indexOf(PLACEHOLDER, start);
+
+			if( placeholder == -1 )  break;
+
+			final Object arg = i == 0 ? record.m_arg0 : i == 1 ? record.m_arg1 : record.m_arg2;
+
+			builder.append(format, start, placeholder);
+
+			if( arg instanceof UUID )
+			{
+				builder.append(uuidName((UUID) arg));
+			}
+			else
+			{
+				builder.append(arg);
+			}
+
+			start = placeholder + PLACEHOLDER.length();
+		}
+
+		builder.append(format, start, format.length());
+	}
+
+	private void deliver(int level, String tag, String message)
+	{
+		try
+		{
+			if (m_logger != null)
+			{
+				m_logger.onLogEntry(level, tag, message);
+			}
+			else
+			{
+				Log.println(level, tag, message);
+			}
 		}
-		else
+		catch(RuntimeException e)
 		{
-			Log.println(level, tag, message);
+			//--- Don't let a misbehaving SweetLogger take down the logging thread.
+			Log.e(P_Logger.class.getSimpleName(), "SweetLogger threw an exception.", e);
 		}
 	}
 	
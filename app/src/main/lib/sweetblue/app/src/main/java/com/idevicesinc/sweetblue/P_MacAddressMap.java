@@ -0,0 +1,166 @@
+package com.idevicesinc.sweetblue;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Open-addressed map from a MAC address packed into a <code>long</code> (see {@link #toKey(String)}) to a non-negative <code>int</code>,
+ * so lookups don't have to hash or compare strings. Not thread safe.
+ */
+final class P_MacAddressMap
+{
+    static final long EMPTY_KEY = -1L;
+    static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private long[] m_keys;
+    private int[] m_values;
+    private int m_size;
+
+
+    P_MacAddressMap()
+    {
+        m_keys = new long[INITIAL_CAPACITY];
+        m_values = new int[INITIAL_CAPACITY];
+        Arrays.fill(m_keys, EMPTY_KEY);
+    }
+
+    /**
+     * Packs a MAC address like <code>"AA:BB:CC:DD:EE:FF"</code> into the low 48 bits of a long, or returns {@link #EMPTY_KEY} if it's malformed.
+     * Hex digits can be either case, so no normalizing is needed beforehand.
+     */
+    static long toKey(final String macAddress)
+    {
+        if( macAddress == null || macAddress.length() != 17 )  return EMPTY_KEY;
+
+        long key = 0;
+
+        for( int i = 0; i < 17; i++ )
+        {
+            final char c = macAddress.charAt(i);
+
+            if( i % 3 == 2 )
+            {
+                if( c != ':' )  return EMPTY_KEY;
+
+                continue;
+            }
+
+            final int digit = Character.digit(c, 16);
+
+            if( digit < 0 )  return EMPTY_KEY;
+
+            key = (key << 4) | digit;
+        }
+
+        return key;
+    }
+
+    static int hash(final long key, final int mask)
+    {
+        final long mixed = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (mixed >>> 32) & mask;
+    }
+
+    private int findSlot(final long key)
+    {
+        final int mask = m_keys.length - 1;
+        int slot = hash(key, mask);
+
+        while( m_keys[slot] != EMPTY_KEY && m_keys[slot] != key )
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    int get(final long key)
+    {
+        if( key == EMPTY_KEY )  return NOT_FOUND;
+
+        final int slot = findSlot(key);
+
+        return m_keys[slot] == EMPTY_KEY ? NOT_FOUND : m_values[slot];
+    }
+
+    void put(final long key, final int value)
+    {
+        if( (m_size + 1) * 4 > m_keys.length * 3 )
+        {
+            rehash(m_keys.length * 2);
+        }
+
+        final int slot = findSlot(key);
+
+        if( m_keys[slot] == EMPTY_KEY )
+        {
+            m_keys[slot] = key;
+            m_size++;
+        }
+
+        m_values[slot] = value;
+    }
+
+    int remove(final long key)
+    {
+        if( key == EMPTY_KEY )  return NOT_FOUND;
+
+        int slot = findSlot(key);
+
+        if( m_keys[slot] == EMPTY_KEY )  return NOT_FOUND;
+
+        final int removed = m_values[slot];
+        final int mask = m_keys.length - 1;
+
+        //--- Backward-shift deletion so probe chains stay intact without tombstones.
+        int next = (slot + 1) & mask;
+
+        while( m_keys[next] != EMPTY_KEY )
+        {
+            final int home = hash(m_keys[next], mask);
+
+            //--- Only move the entry back if the hole is between its home slot and where it sits now.
+            if( ((next - home) & mask) >= ((next - slot) & mask) )
+            {
+                m_keys[slot] = m_keys[next];
+                m_values[slot] = m_values[next];
+                slot = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        m_keys[slot] = EMPTY_KEY;
+        m_size--;
+
+        return removed;
+    }
+
+    int size()
+    {
+        return m_size;
+    }
+
+    private void rehash(final int capacity)
+    {
+        final long[] keys = m_keys;
+        final int[] values = m_values;
+
+        m_keys = new long[capacity];
+        m_values = new int[capacity];
+        Arrays.fill(m_keys, EMPTY_KEY);
+        m_size = 0;
+
+        for( int i = 0; i < keys.length; i++ )
+        {
+            if( keys[i] != EMPTY_KEY )
+            {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.idevicesinc.sweetblue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.UUID;
 
 import android.bluetooth.BluetoothGatt;
@@ -39,6 +40,16 @@ final class P_PollManager
 		{
 			return listener == m_overrideListener;
 		}
+
+		BorrowingReadWriteListener getBorrowingListener_nullable()
+		{
+			return m_overrideListener instanceof BorrowingReadWriteListener ? (BorrowingReadWriteListener) m_overrideListener : null;
+		}
+
+		//--- Called instead of onEvent() for a notification lent to the listener, so whatever is remembered has to be copied.
+		void onBorrowedNotification(byte[] value)
+		{
+		}
 		
 		private void addListener(ReadWriteListener listener)
 		{
@@ -61,6 +72,9 @@ final class P_PollManager
 	private static class TrackingWrappingReadListener extends PollingReadListener
 	{
 		private byte[] m_lastValue = null;
+
+		//--- Whether m_lastValue is a copy only this listener has, so it can be written over, or came from an event someone else may hold.
+		private boolean m_lastValueOwned = false;
 		
 		TrackingWrappingReadListener(ReadWriteListener readWriteListener, P_SweetHandler handler, boolean postToMain)
 		{
@@ -81,18 +95,34 @@ final class P_PollManager
 				}
 				
 				m_lastValue = event.data();
+				m_lastValueOwned = false;
 			}
 			else
 			{
 				m_lastValue = null;
+				m_lastValueOwned = false;
 				
 				super.onEvent(event);
 			}
 		}
+
+		@Override void onBorrowedNotification(byte[] value)
+		{
+			if( m_lastValueOwned && m_lastValue.length == value.length )
+			{
+				System.arraycopy(value, 0, m_lastValue, 0, value.length);
+			}
+			else
+			{
+				m_lastValue = value.clone();
+				m_lastValueOwned = true;
+			}
+		}
 	}
 	
 	private static class CallbackEntry
 	{
+		private final P_PollManager m_pollMngr;
 		private final BleDevice m_device;
 		private final PollingReadListener m_pollingReadListener;
 		private double m_interval;
@@ -101,11 +131,20 @@ final class P_PollManager
 		private final boolean m_usingNotify;
 		private int/*_E_NotifyState*/ m_notifyState;
 		
-		private double m_timeTracker;
+		//--- Value of P_PollManager#m_time when the poll timer was last reset, so the next poll is due at this plus the interval.
+		private double m_lastResetTime;
 		private boolean m_waitingForResponse;
+
+		//--- Position in P_PollManager#m_pollHeap, or -1 if not in it.
+		private int m_heapIndex = -1;
+		private boolean m_removed;
+
+		//--- Event reused for every notification lent to a BorrowingReadWriteListener, created on the first one.
+		private ReadWriteEvent m_borrowedEvent = null;
 		
-		public CallbackEntry(BleDevice device, final UUID serviceUuid, UUID charUuid, double interval, ReadWriteListener readWriteListener, boolean trackChanges, boolean usingNotify)
+		public CallbackEntry(P_PollManager pollMngr, BleDevice device, final UUID serviceUuid, UUID charUuid, double interval, ReadWriteListener readWriteListener, boolean trackChanges, boolean usingNotify)
 		{
+			m_pollMngr = pollMngr;
 			m_serviceUuid = serviceUuid;
 			m_charUuid = charUuid;
 			m_interval = interval;
@@ -113,7 +152,7 @@ final class P_PollManager
 			m_usingNotify = usingNotify;
 			m_notifyState = E_NotifyState__NOT_ENABLED;
 
-			m_timeTracker = interval; // to get it to do a first read pretty much instantly.
+			m_lastResetTime = pollMngr.m_time - interval; // to get it to do a first read pretty much instantly.
 			
 			if( trackChanges || m_usingNotify)
 			{
@@ -136,6 +175,23 @@ final class P_PollManager
 		{
 			return m_usingNotify;
 		}
+
+		boolean isPolling()
+		{
+			return m_interval > 0.0 && m_interval != Interval.INFINITE.secs();
+		}
+
+		double getDueTime()
+		{
+			return m_lastResetTime + m_interval;
+		}
+
+		void resetTimer()
+		{
+			m_lastResetTime = m_pollMngr.m_time;
+
+			m_pollMngr.reschedule(this);
+		}
 		
 		boolean isFor(final UUID serviceUuid, final UUID charUuid, Double interval_nullable, ReadWriteListener readWriteListener_nullable, boolean usingNotify)
 		{
@@ -159,6 +215,45 @@ final class P_PollManager
 			}
 		}
 		
+		boolean canBorrow(final byte[] value)
+		{
+			return value != null && value.length > 0 && m_pollingReadListener.getBorrowingListener_nullable() != null;
+		}
+
+		/**
+		 * Same as {@link #onCharacteristicChangedFromNativeNotify(byte[])} but lends the value, and a reused event, straight to the
+		 * {@link BorrowingReadWriteListener}. Only called if {@link #canBorrow(byte[])} and {@link BleDevice#canLendNotifications()}.
+		 */
+		void onCharacteristicChangedFromNativeNotify_borrowed(byte[] value)
+		{
+			if( m_device.is(BleDeviceState.DISCONNECTED) )  return;
+
+			BluetoothGattCharacteristic characteristic = m_device.getNativeCharacteristic(m_serviceUuid, m_charUuid);
+
+			if( characteristic == null )  return;
+
+			Type type = P_DeviceServiceManager.modifyResultType(characteristic, Type.NOTIFICATION);
+
+			if( m_borrowedEvent == null )
+			{
+				m_borrowedEvent = new ReadWriteEvent(m_device, m_serviceUuid, m_charUuid, null, type, Target.CHARACTERISTIC, value, Status.SUCCESS, BleStatuses.GATT_STATUS_NOT_APPLICABLE, 0.0, 0.0, /*solicited=*/true);
+			}
+			else
+			{
+				m_borrowedEvent.borrow(m_serviceUuid, m_charUuid, type, value);
+			}
+
+			m_pollingReadListener.onBorrowedNotification(value);
+			m_waitingForResponse = false;
+
+			m_device.invokeBorrowedReadWriteCallback(m_pollingReadListener.getBorrowingListener_nullable(), m_borrowedEvent);
+
+			//--- Don't keep the caller's buffer around until the next one.
+			m_borrowedEvent.borrow(m_serviceUuid, m_charUuid, type, BleNode.EMPTY_BYTE_ARRAY);
+
+			resetTimer();
+		}
+
 		void onCharacteristicChangedFromNativeNotify(byte[] value)
 		{
 			//--- DRK > The early-outs in this method are for when, for example, a native onNotify comes in on a random thread,
@@ -194,41 +289,46 @@ final class P_PollManager
 				}
 			}
 			
-			m_timeTracker = 0.0;
+			resetTimer();
 		}
 		
 		void onSuccessOrFailure()
 		{
 			m_waitingForResponse = false;
-			m_timeTracker = 0.0;
+			resetTimer();
 		}
 		
-		void update(double timeStep)
+		/**
+		 * Called once the poll is due, after it's been taken off the heap.
+		 */
+		void poll()
 		{
-			if( m_interval <= 0.0 )  return;
-			if( m_interval == Interval.INFINITE.secs() )  return;
-			
-			m_timeTracker += timeStep;
-			
-			if( m_timeTracker >= m_interval )
+			m_lastResetTime = m_pollMngr.m_time;
+
+			if( m_device.is(BleDeviceState.INITIALIZED) && !m_device.is(BleDeviceState.RECONNECTING_SHORT_TERM) )
 			{
-				m_timeTracker = 0.0;
-				
-				if( m_device.is(BleDeviceState.INITIALIZED) && !m_device.is(BleDeviceState.RECONNECTING_SHORT_TERM) )
-				{					
-					if( !m_waitingForResponse )
-					{
-						m_waitingForResponse = true;
-						Type type = trackingChanges() ? Type.PSUEDO_NOTIFICATION : Type.POLL;
-						m_device.read_internal(m_serviceUuid, m_charUuid, Uuids.INVALID, type, null, m_pollingReadListener);
-					}
+				if( !m_waitingForResponse )
+				{
+					m_waitingForResponse = true;
+					Type type = trackingChanges() ? Type.PSUEDO_NOTIFICATION : Type.POLL;
+					m_device.read_internal(m_serviceUuid, m_charUuid, Uuids.INVALID, type, null, m_pollingReadListener);
 				}
 			}
 		}
 	}
 	
 	private final BleDevice m_device;
+	//--- All entries in the order they were added, and the same entries bucketed by characteristic. Service UUIDs are matched within
+	//--- a bucket because a null service UUID on either side matches any service.
 	private final ArrayList<CallbackEntry> m_entries = new ArrayList<CallbackEntry>();
+	private final HashMap<UUID, ArrayList<CallbackEntry>> m_entriesByChar = new HashMap<UUID, ArrayList<CallbackEntry>>();
+
+	//--- Entries with a polling interval, as a binary min-heap ordered by when their next poll is due.
+	private final ArrayList<CallbackEntry> m_pollHeap = new ArrayList<CallbackEntry>();
+	private CallbackEntry m_pollingEntry = null;
+
+	//--- Sum of all time steps passed to update(), in seconds.
+	private double m_time = 0.0;
 	
 
 	P_PollManager(BleDevice device)
@@ -238,7 +338,157 @@ final class P_PollManager
 
 	void clear()
 	{
+		for( int i = 0; i < m_entries.size(); i++ )
+		{
+			m_entries.get(i).m_removed = true;
+			m_entries.get(i).m_heapIndex = -1;
+		}
+
 		m_entries.clear();
+		m_entriesByChar.clear();
+		m_pollHeap.clear();
+	}
+
+	private ArrayList<CallbackEntry> getEntries_nullable(final UUID charUuid)
+	{
+		return m_entriesByChar.get(charUuid);
+	}
+
+	private void addEntry(final CallbackEntry entry)
+	{
+		m_entries.add(entry);
+
+		ArrayList<CallbackEntry> bucket = m_entriesByChar.get(entry.m_charUuid);
+
+		if( bucket == null )
+		{
+			bucket = new ArrayList<CallbackEntry>(2);
+			m_entriesByChar.put(entry.m_charUuid, bucket);
+		}
+
+		bucket.add(entry);
+
+		reschedule(entry);
+
+		//--- The update loop might be sleeping past this entry's first poll.
+		m_device.getManager().wakeUpdateLoop();
+	}
+
+	private void removeEntry(final CallbackEntry entry)
+	{
+		entry.m_removed = true;
+
+		m_entries.remove(entry);
+
+		final ArrayList<CallbackEntry> bucket = m_entriesByChar.get(entry.m_charUuid);
+
+		if( bucket != null )
+		{
+			bucket.remove(entry);
+
+			if( bucket.isEmpty() )
+			{
+				m_entriesByChar.remove(entry.m_charUuid);
+			}
+		}
+
+		reschedule(entry);
+	}
+
+	/**
+	 * Brings the entry's place in the poll heap up to date after its interval, its timer, or whether it's still registered changed.
+	 */
+	private void reschedule(final CallbackEntry entry)
+	{
+		if( entry.m_removed || !entry.isPolling() )
+		{
+			if( entry.m_heapIndex >= 0 )
+			{
+				heap_removeAt(entry.m_heapIndex);
+			}
+		}
+		else if( entry.m_heapIndex >= 0 )
+		{
+			heap_siftDown(heap_siftUp(entry.m_heapIndex));
+		}
+		else if( entry != m_pollingEntry )
+		{
+			//--- The entry being polled is put back once it's done, see update().
+			entry.m_heapIndex = m_pollHeap.size();
+			m_pollHeap.add(entry);
+			heap_siftUp(entry.m_heapIndex);
+		}
+	}
+
+	private void heap_set(final int index, final CallbackEntry entry)
+	{
+		m_pollHeap.set(index, entry);
+		entry.m_heapIndex = index;
+	}
+
+	private int heap_siftUp(int index)
+	{
+		final CallbackEntry entry = m_pollHeap.get(index);
+
+		while( index > 0 )
+		{
+			final int parentIndex = (index - 1) >>> 1;
+			final CallbackEntry parent = m_pollHeap.get(parentIndex);
+
+			if( parent.getDueTime() <= entry.getDueTime() )  break;
+
+			heap_set(index, parent);
+			index = parentIndex;
+		}
+
+		heap_set(index, entry);
+
+		return index;
+	}
+
+	private int heap_siftDown(int index)
+	{
+		final CallbackEntry entry = m_pollHeap.get(index);
+		final int size = m_pollHeap.size();
+
+		while( true )
+		{
+			int childIndex = index * 2 + 1;
+
+			if( childIndex >= size )  break;
+
+			if( childIndex + 1 < size && m_pollHeap.get(childIndex + 1).getDueTime() < m_pollHeap.get(childIndex).getDueTime() )
+			{
+				childIndex++;
+			}
+
+			final CallbackEntry child = m_pollHeap.get(childIndex);
+
+			if( entry.getDueTime() <= child.getDueTime() )  break;
+
+			heap_set(index, child);
+			index = childIndex;
+		}
+
+		heap_set(index, entry);
+
+		return index;
+	}
+
+	private CallbackEntry heap_removeAt(final int index)
+	{
+		final CallbackEntry removed = m_pollHeap.get(index);
+		final CallbackEntry last = m_pollHeap.remove(m_pollHeap.size() - 1);
+
+		removed.m_heapIndex = -1;
+
+		if( last != removed )
+		{
+			heap_set(index, last);
+			heap_siftDown(heap_siftUp(index));
+		}
+
+		return removed;
 	}
 	
 	void startPoll(final UUID serviceUuid, final UUID charUuid, double interval, ReadWriteListener listener, boolean trackChanges, boolean usingNotify)
@@ -249,14 +499,14 @@ final class P_PollManager
 		
 		if( !allowDuplicatePollEntries )
 		{
-			for( int i = m_entries.size()-1; i >= 0; i-- )
+			final ArrayList<CallbackEntry> entries = getEntries_nullable(charUuid);
+
+			for( int i = entries != null ? entries.size()-1 : -1; i >= 0; i-- )
 			{
-				CallbackEntry ithEntry = m_entries.get(i);
+				CallbackEntry ithEntry = entries.get(i);
 
-				if( ithEntry.m_charUuid.equals(charUuid) )
-				{
-					ithEntry.m_interval = interval;
-				}
+				ithEntry.m_interval = interval;
+				reschedule(ithEntry);
 				
 				if( ithEntry.isFor(serviceUuid, charUuid, interval, /*listener=*/null, usingNotify) )
 				{
@@ -270,7 +520,7 @@ final class P_PollManager
 			}
 		}
 		
-		CallbackEntry newEntry = new CallbackEntry(m_device, serviceUuid, charUuid, interval, listener, trackChanges, usingNotify);
+		CallbackEntry newEntry = new CallbackEntry(this, m_device, serviceUuid, charUuid, interval, listener, trackChanges, usingNotify);
 		
 		if( usingNotify )
 		{
@@ -278,43 +528,91 @@ final class P_PollManager
 			newEntry.m_notifyState = state;
 		}
 
-		m_entries.add(newEntry);
+		addEntry(newEntry);
 	}
 	
 	void stopPoll(final UUID serviceUuid, final UUID characteristicUuid, Double interval_nullable, ReadWriteListener listener, boolean usingNotify)
 	{
 		if( m_device.isNull() )  return;
 		
-		for( int i = m_entries.size()-1; i >= 0; i-- )
+		final ArrayList<CallbackEntry> entries = getEntries_nullable(characteristicUuid);
+
+		for( int i = entries != null ? entries.size()-1 : -1; i >= 0; i-- )
 		{
-			CallbackEntry ithEntry = m_entries.get(i);
+			CallbackEntry ithEntry = entries.get(i);
 			
 			if( ithEntry.isFor(serviceUuid, characteristicUuid, interval_nullable, listener, usingNotify) )
 			{
-				m_entries.remove(i);
+				removeEntry(ithEntry);
 			}
 		}
 	}
 	
+	/**
+	 * Returns how many seconds of update time steps are left until the next poll is due, or {@link Double#MAX_VALUE} if nothing's polling.
+	 */
+	double getTimeUntilNextPoll()
+	{
+		return m_pollHeap.isEmpty() ? Double.MAX_VALUE : Math.max(0.0, m_pollHeap.get(0).getDueTime() - m_time);
+	}
+
 	void update(double timeStep)
 	{
-		for( int i = 0; i < m_entries.size(); i++ )
+		m_time += timeStep;
+
+		//--- Only entries whose poll is due are touched. Each one goes back on the heap with a due time past m_time, so this ends.
+		while( !m_pollHeap.isEmpty() && m_pollHeap.get(0).getDueTime() <= m_time )
 		{
-			CallbackEntry ithEntry = m_entries.get(i);
+			final CallbackEntry dueEntry = heap_removeAt(0);
+
+			m_pollingEntry = dueEntry;
+
+			try
+			{
+				dueEntry.poll();
+			}
+			finally
+			{
+				m_pollingEntry = null;
+			}
 
-			ithEntry.update(timeStep);
+			reschedule(dueEntry);
 		}
 	}
 	
-	void onCharacteristicChangedFromNativeNotify(final UUID serviceUuid, final UUID charUuid, byte[] value)
+	/**
+	 * @param value_borrowed Only valid for the duration of this call. Entries with a {@link BorrowingReadWriteListener} may be lent it
+	 * 						 directly, the others share one copy.
+	 */
+	void onCharacteristicChangedFromNativeNotify(final UUID serviceUuid, final UUID charUuid, final byte[] value_borrowed)
 	{
-		for( int i = 0; i < m_entries.size(); i++ )
+		final ArrayList<CallbackEntry> entries = getEntries_nullable(charUuid);
+
+		if( entries == null )  return;
+
+		byte[] value_copy = null;
+		boolean copied = false;
+
+		for( int i = 0; i < entries.size(); i++ )
 		{
-			CallbackEntry ithEntry = m_entries.get(i);
+			CallbackEntry ithEntry = entries.get(i);
 
 			if( ithEntry.isFor(serviceUuid, charUuid) && ithEntry.usingNotify() )
 			{
-				ithEntry.onCharacteristicChangedFromNativeNotify(value);
+				if( ithEntry.canBorrow(value_borrowed) && m_device.canLendNotifications() )
+				{
+					ithEntry.onCharacteristicChangedFromNativeNotify_borrowed(value_borrowed);
+				}
+				else
+				{
+					if( !copied )
+					{
+						value_copy = value_borrowed == null ? null : value_borrowed.clone();
+						copied = true;
+					}
+
+					ithEntry.onCharacteristicChangedFromNativeNotify(value_copy);
+				}
 			}
 		}
 	}
@@ -322,10 +620,14 @@ final class P_PollManager
 	int/*__E_NotifyState*/ getNotifyState(final UUID serviceUuid, final UUID charUuid)
 	{
 		int/*__E_NotifyState*/ highestState = E_NotifyState__NOT_ENABLED;
+
+		final ArrayList<CallbackEntry> entries = getEntries_nullable(charUuid);
+
+		if( entries == null )  return highestState;
 		
-		for( int i = 0; i < m_entries.size(); i++ )
+		for( int i = 0; i < entries.size(); i++ )
 		{
-			CallbackEntry ithEntry = m_entries.get(i);
+			CallbackEntry ithEntry = entries.get(i);
 			
 			if( ithEntry.isFor(serviceUuid, charUuid) )
 			{
@@ -341,9 +643,13 @@ final class P_PollManager
 	
 	void onNotifyStateChange(final UUID serviceUuid, final UUID charUuid, int/*__E_NotifyState*/ state)
 	{
-		for( int i = 0; i < m_entries.size(); i++ )
+		final ArrayList<CallbackEntry> entries = getEntries_nullable(charUuid);
+
+		if( entries == null )  return;
+
+		for( int i = 0; i < entries.size(); i++ )
 		{
-			CallbackEntry ithEntry = m_entries.get(i);
+			CallbackEntry ithEntry = entries.get(i);
 			
 			if( ithEntry.usingNotify() && ithEntry.isFor(serviceUuid, charUuid) )
 			{
@@ -134,6 +134,21 @@ final class P_PostManager
         return Thread.currentThread() == m_updateHandler.getThread();
     }
 
+    /**
+     * Whether {@link #postCallback(Runnable)} would end up running the callback on the current thread.
+     */
+    final boolean isOnCallbackThread()
+    {
+        if (m_manager.m_config.postCallbacksToMainThread)
+        {
+            return Thread.currentThread() == m_uiHandler.getThread();
+        }
+        else
+        {
+            return isOnSweetBlueThread();
+        }
+    }
+
     final void quit()
     {
         if (m_updateHandler instanceof P_SweetBlueThread)
@@ -55,6 +55,8 @@ final class P_RssiPollManager
 			m_timeTracker = ENABLE_TIMER;
 			m_interval = interval;
 			m_listener = new CustomListener(this, listener_nullable, m_device.getManager().getPostManager().getUIHandler(), m_device.conf_mngr().postCallbacksToMainThread);
+
+			m_device.getManager().wakeUpdateLoop();
 		}
 	}
 	
@@ -71,6 +73,16 @@ final class P_RssiPollManager
 		m_waitingOnResponse = false;
 	}
 	
+	/**
+	 * Returns how many seconds are left until the next read, or {@link Double#MAX_VALUE} if not polling or still waiting on the last read.
+	 */
+	double getTimeUntilNextPoll()
+	{
+		if( m_timeTracker == DISABLE_TIMER || m_waitingOnResponse )  return Double.MAX_VALUE;
+
+		return Math.max(0.0, m_interval - m_timeTracker);
+	}
+
 	void update(double timestep)
 	{
 		if( m_timeTracker != DISABLE_TIMER )
@@ -0,0 +1,328 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothDevice;
+import java.util.Arrays;
+
+
+/**
+ * Sits between the native scan callbacks, which come in on binder threads, and the update thread. Results are merged per MAC address
+ * in an open-addressed table keyed by the address packed into a <code>long</code>, so only the latest record and RSSI for a device
+ * survive until the next flush, and a record identical to the one last delivered is dropped outright unless the device hasn't been
+ * delivered for {@link #REDELIVERY_INTERVAL} millis, which keeps rediscovery and undiscovery timing working. The RSSI isn't compared,
+ * as it changes with nearly every advertisement, so a device that keeps sending the same record gets a fresh RSSI once per interval.
+ * Flushes happen on the update thread at most once per {@link BleManagerConfig#scanResultBatchRate}.
+ */
+final class P_ScanIngest
+{
+    interface Sink
+    {
+        void onScanResult(BluetoothDevice device, int rssi, byte[] scanRecord);
+    }
+
+    //--- Even an unchanged device is delivered this often, so it keeps being rediscovered and doesn't go stale.
+    static final long REDELIVERY_INTERVAL = 1000;
+
+    private static final long EMPTY_KEY = P_MacAddressMap.EMPTY_KEY;
+    private static final int INITIAL_CAPACITY = 64;
+    //--- Once the table would grow past this, entries that aren't waiting to be flushed are thrown away instead.
+    private static final int MAX_CAPACITY = 4096;
+
+    private final BleManager m_manager;
+    private final Sink m_sink;
+
+    //--- Table slots, all guarded by this.
+    private long[] m_keys;
+    private BluetoothDevice[] m_devices;
+    private int[] m_rssis;
+    private byte[][] m_records;
+    private boolean[] m_pending;
+    private byte[][] m_deliveredRecords;
+    private long[] m_deliveredTimes;
+    private int m_size;
+
+    //--- Slots with m_pending set, in the order they became pending.
+    private int[] m_pendingSlots;
+    private int m_pendingCount;
+    private boolean m_flushPosted;
+
+    //--- Copies of the pending results, only touched on the update thread while flushing.
+    private BluetoothDevice[] m_flushDevices = new BluetoothDevice[INITIAL_CAPACITY];
+    private int[] m_flushRssis = new int[INITIAL_CAPACITY];
+    private byte[][] m_flushRecords = new byte[INITIAL_CAPACITY][];
+
+    private long m_receivedCount;
+    private long m_droppedCount;
+    private long m_mergedCount;
+    private long m_deliveredCount;
+
+    private final Runnable m_flushRunnable = new Runnable()
+    {
+        @Override public void run()
+        {
+            flush();
+        }
+    };
+
+
+    P_ScanIngest(BleManager manager, Sink sink)
+    {
+        m_manager = manager;
+        m_sink = sink;
+
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(final int capacity)
+    {
+        m_keys = new long[capacity];
+        Arrays.fill(m_keys, EMPTY_KEY);
+        m_devices = new BluetoothDevice[capacity];
+        m_rssis = new int[capacity];
+        m_records = new byte[capacity][];
+        m_pending = new boolean[capacity];
+        m_deliveredRecords = new byte[capacity][];
+        m_deliveredTimes = new long[capacity];
+        m_pendingSlots = new int[capacity];
+        m_size = 0;
+        m_pendingCount = 0;
+    }
+
+    private int findSlot(final long key)
+    {
+        final int mask = m_keys.length - 1;
+        int slot = P_MacAddressMap.hash(key, mask);
+
+        while( m_keys[slot] != EMPTY_KEY && m_keys[slot] != key )
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Makes room for one more entry, growing the table or, past {@link #MAX_CAPACITY}, dropping everything that isn't pending.
+     */
+    private void ensureCapacity()
+    {
+        if( (m_size + 1) * 4 <= m_keys.length * 3 )  return;
+
+        //--- Past the cap only grow if most of the table is results that still have to be flushed, so there's always room to insert.
+        final boolean grow = m_keys.length < MAX_CAPACITY || m_pendingCount * 2 >= m_keys.length;
+
+        final long[] keys = m_keys;
+        final BluetoothDevice[] devices = m_devices;
+        final int[] rssis = m_rssis;
+        final byte[][] records = m_records;
+        final boolean[] pending = m_pending;
+        final byte[][] deliveredRecords = m_deliveredRecords;
+        final long[] deliveredTimes = m_deliveredTimes;
+        final int[] pendingSlots = m_pendingSlots;
+        final int pendingCount = m_pendingCount;
+
+        allocate(grow ? keys.length * 2 : keys.length);
+
+        for( int i = 0; i < pendingCount; i++ )
+        {
+            final int oldSlot = pendingSlots[i];
+
+            insert(keys[oldSlot], devices[oldSlot], rssis[oldSlot], records[oldSlot], true, deliveredRecords[oldSlot], deliveredTimes[oldSlot]);
+        }
+
+        if( grow )
+        {
+            for( int oldSlot = 0; oldSlot < keys.length; oldSlot++ )
+            {
+                if( keys[oldSlot] == EMPTY_KEY || pending[oldSlot] )  continue;
+
+                insert(keys[oldSlot], devices[oldSlot], rssis[oldSlot], records[oldSlot], false, deliveredRecords[oldSlot], deliveredTimes[oldSlot]);
+            }
+        }
+    }
+
+    private void insert(final long key, final BluetoothDevice device, final int rssi, final byte[] record, final boolean pending, final byte[] deliveredRecord, final long deliveredTime)
+    {
+        final int slot = findSlot(key);
+
+        m_keys[slot] = key;
+        m_devices[slot] = device;
+        m_rssis[slot] = rssi;
+        m_records[slot] = record;
+        m_pending[slot] = pending;
+        m_deliveredRecords[slot] = deliveredRecord;
+        m_deliveredTimes[slot] = deliveredTime;
+        m_size++;
+
+        if( pending )
+        {
+            m_pendingSlots[m_pendingCount++] = slot;
+        }
+    }
+
+    /**
+     * Called from whichever thread the native stack calls back on. A batch rate of zero or less means every result is posted on its
+     * own, same as if this class didn't exist.
+     */
+    void onScanResult(final BluetoothDevice device, final int rssi, final byte[] scanRecord, final long batchRate_millis)
+    {
+        onScanResult(device != null ? P_MacAddressMap.toKey(device.getAddress()) : EMPTY_KEY, device, rssi, scanRecord, batchRate_millis);
+    }
+
+    /**
+     * Same as {@link #onScanResult(BluetoothDevice, int, byte[], long)}, with the device's address already packed by
+     * {@link P_MacAddressMap#toKey(String)}.
+     */
+    void onScanResult(final long key, final BluetoothDevice device, final int rssi, final byte[] scanRecord, final long batchRate_millis)
+    {
+        synchronized(this)
+        {
+            m_receivedCount++;
+
+            if( key == EMPTY_KEY || batchRate_millis <= 0 )
+            {
+                //--- No usable address to merge on, or batching is off, so pass it straight through.
+                m_deliveredCount++;
+
+                postSingle(device, rssi, scanRecord);
+
+                return;
+            }
+
+            int slot = findSlot(key);
+
+            if( m_keys[slot] == EMPTY_KEY )
+            {
+                ensureCapacity();
+
+                insert(key, device, rssi, scanRecord, true, null, 0);
+            }
+            else
+            {
+                if( m_pending[slot] )
+                {
+                    //--- Overwrites a result that hadn't been flushed yet.
+                    m_mergedCount++;
+                }
+                else if( Arrays.equals(scanRecord, m_deliveredRecords[slot]) && m_manager.currentTimeMillis() - m_deliveredTimes[slot] < REDELIVERY_INTERVAL )
+                {
+                    m_droppedCount++;
+
+                    return;
+                }
+                else
+                {
+                    m_pending[slot] = true;
+                    m_pendingSlots[m_pendingCount++] = slot;
+                }
+
+                m_devices[slot] = device;
+                m_rssis[slot] = rssi;
+                m_records[slot] = scanRecord;
+            }
+
+            if( !m_flushPosted )
+            {
+                m_flushPosted = true;
+
+                m_manager.getPostManager().postToUpdateThreadDelayed(m_flushRunnable, batchRate_millis);
+            }
+        }
+    }
+
+    private void postSingle(final BluetoothDevice device, final int rssi, final byte[] scanRecord)
+    {
+        m_manager.getPostManager().postToUpdateThread(new Runnable()
+        {
+            @Override public void run()
+            {
+                m_sink.onScanResult(device, rssi, scanRecord);
+            }
+        });
+    }
+
+    private void flush()
+    {
+        final int count;
+
+        synchronized(this)
+        {
+            m_flushPosted = false;
+            count = m_pendingCount;
+
+            if( m_flushDevices.length < count )
+            {
+                m_flushDevices = new BluetoothDevice[m_pendingSlots.length];
+                m_flushRssis = new int[m_pendingSlots.length];
+                m_flushRecords = new byte[m_pendingSlots.length][];
+            }
+
+            final long now = m_manager.currentTimeMillis();
+
+            for( int i = 0; i < count; i++ )
+            {
+                final int slot = m_pendingSlots[i];
+
+                m_flushDevices[i] = m_devices[slot];
+                m_flushRssis[i] = m_rssis[slot];
+                m_flushRecords[i] = m_records[slot];
+
+                m_pending[slot] = false;
+                m_deliveredRecords[slot] = m_records[slot];
+                m_deliveredTimes[slot] = now;
+            }
+
+            m_pendingCount = 0;
+            m_deliveredCount += count;
+        }
+
+        for( int i = 0; i < count; i++ )
+        {
+            m_sink.onScanResult(m_flushDevices[i], m_flushRssis[i], m_flushRecords[i]);
+
+            m_flushDevices[i] = null;
+            m_flushRecords[i] = null;
+        }
+    }
+
+    /**
+     * Forgets every device, for example when scanning stops. Anything not flushed yet still gets delivered.
+     */
+    synchronized void clear()
+    {
+        for( int slot = 0; slot < m_keys.length; slot++ )
+        {
+            if( m_keys[slot] != EMPTY_KEY && !m_pending[slot] )
+            {
+                m_deliveredRecords[slot] = null;
+                m_deliveredTimes[slot] = 0;
+            }
+        }
+    }
+
+    synchronized long getReceivedCount()
+    {
+        return m_receivedCount;
+    }
+
+    /**
+     * Returns how many results were dropped for repeating the record last delivered for their device.
+     */
+    synchronized long getDroppedCount()
+    {
+        return m_droppedCount;
+    }
+
+    /**
+     * Returns how many results replaced one for the same device that was still waiting to be flushed.
+     */
+    synchronized long getMergedCount()
+    {
+        return m_mergedCount;
+    }
+
+    synchronized long getDeliveredCount()
+    {
+        return m_deliveredCount;
+    }
+}
@@ -42,6 +42,8 @@ final class P_ScanManager
 
     private int m_mode;
 
+    private final P_ScanIngest m_ingest;
+
 
     public P_ScanManager(BleManager mgr)
     {
@@ -49,6 +51,18 @@ final class P_ScanManager
         mCurrentApi = new AtomicReference<>(mgr.m_config.scanApi);
         mCurrentPower = new AtomicReference<>(BleScanPower.AUTO);
         m_preLollipopScanCallback = new PreLollipopScanCallback();
+        m_ingest = new P_ScanIngest(mgr, new P_ScanIngest.Sink()
+        {
+            @Override public void onScanResult(BluetoothDevice device, int rssi, byte[] scanRecord)
+            {
+                final P_NativeDeviceLayer layer = m_manager.m_config.newDeviceLayer(BleDevice.NULL);
+                layer.setNativeDevice(device);
+
+                m_manager.getCrashResolver().notifyScannedDevice(layer, m_preLollipopScanCallback);
+
+                m_manager.onDiscoveredFromNativeStack(layer, rssi, scanRecord);
+            }
+        });
         if(Utils.isLollipop())
         {
             m_postLollipopScanCallback = new PostLollipopScanCallback();
@@ -178,39 +192,33 @@ final class P_ScanManager
         stopScan_private(false);
     }
 
-    final synchronized void postScanResult(final BluetoothDevice device, final int rssi, final byte[] scanRecord)
+    final void postScanResult(final BluetoothDevice device, final int rssi, final byte[] scanRecord)
     {
-        m_manager.getPostManager().postToUpdateThread(new Runnable()
-        {
-            @Override public void run()
-            {
+        m_ingest.onScanResult(device, rssi, scanRecord, getBatchRate_millis());
+    }
 
-                final P_NativeDeviceLayer layer = m_manager.m_config.newDeviceLayer(BleDevice.NULL);
-                layer.setNativeDevice(device);
+    final void postBatchScanResult(final List<L_Util.ScanResult> devices)
+    {
+        final long batchRate_millis = getBatchRate_millis();
 
-                m_manager.getCrashResolver().notifyScannedDevice(layer, m_preLollipopScanCallback);
+        for (int i = 0; i < devices.size(); i++)
+        {
+            final L_Util.ScanResult res = devices.get(i);
 
-                m_manager.onDiscoveredFromNativeStack(layer, rssi, scanRecord);
-            }
-        });
+            m_ingest.onScanResult(res.getDevice(), res.getRssi(), res.getRecord(), batchRate_millis);
+        }
     }
 
-    final synchronized void postBatchScanResult(final List<L_Util.ScanResult> devices)
+    private long getBatchRate_millis()
     {
-        m_manager.getPostManager().postToUpdateThread(new Runnable()
-        {
-            @Override public void run()
-            {
-                for (L_Util.ScanResult res : devices)
-                {
-                    P_NativeDeviceLayer layer = m_manager.m_config.newDeviceLayer(BleDevice.NULL);
-                    layer.setNativeDevice(res.getDevice());
-                    m_manager.getCrashResolver().notifyScannedDevice(layer, m_preLollipopScanCallback);
+        final Interval batchRate = m_manager.m_config.scanResultBatchRate;
 
-                    m_manager.onDiscoveredFromNativeStack(layer, res.getRssi(), res.getRecord());
-                }
-            }
-        });
+        return Interval.isDisabled(batchRate) ? 0 : batchRate.millis();
+    }
+
+    final P_ScanIngest getIngest()
+    {
+        return m_ingest;
     }
 
     final int getCurrentMode()
@@ -220,6 +228,8 @@ final class P_ScanManager
 
     private void stopScan_private(boolean stopping)
     {
+        m_ingest.clear();
+
         switch (mCurrentApi.get())
         {
             case CLASSIC:
@@ -427,6 +437,40 @@ final class P_ScanManager
         m_timeNotScanning = 0.0;
     }
 
+    /**
+     * Returns how many seconds can pass before {@link #update(double, long)} might want to start a periodic scan.
+     */
+    final double getTimeUntilNextUpdate()
+    {
+        final BleManagerConfig config = m_manager.m_config;
+
+        if( Interval.isDisabled(config.autoScanActiveTime) )  return Double.MAX_VALUE;
+
+        double untilNext = Double.MAX_VALUE;
+
+        if( m_manager.isForegrounded() )
+        {
+            if( Interval.isEnabled(config.autoScanDelayAfterBleTurnsOn) && m_triedToStartScanAfterTurnedOn )
+            {
+                untilNext = 0.0;
+            }
+
+            if( Interval.isEnabled(config.autoScanDelayAfterResume) && !m_triedToStartScanAfterResume )
+            {
+                untilNext = Math.min(untilNext, Math.max(0.0, Interval.secs(config.autoScanDelayAfterResume) - m_manager.timeForegrounded()));
+            }
+        }
+
+        final double scanInterval = Interval.secs(m_manager.isForegrounded() ? config.autoScanPauseInterval : config.autoScanPauseTimeWhileAppIsBackgrounded);
+
+        if( Interval.isEnabled(scanInterval) )
+        {
+            untilNext = Math.min(untilNext, Math.max(0.0, scanInterval - m_timeNotScanning));
+        }
+
+        return untilNext;
+    }
+
     // Returns if the startScan boolean is true or not.
     final boolean update(double timeStep, long currentTime)
     {
@@ -4,7 +4,6 @@ package com.idevicesinc.sweetblue;
 import android.bluetooth.BluetoothGattCharacteristic;
 
 import com.idevicesinc.sweetblue.utils.FutureData;
-import com.idevicesinc.sweetblue.utils.PresentData;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,32 +17,50 @@ final class P_StripedWriteTransaction extends BleTransaction
     private final BluetoothGattCharacteristic m_characteristic;
     private final boolean m_requiresBonding;
     private final BleDevice.ReadWriteListener m_listener;
-    private final List<P_Task_Write> m_writeList;
+    private final List<P_Task_Write> m_inFlightList;
     private final WriteListener m_internalListener;
     private final DescriptorFilter m_descriptorFilter;
+    private final int m_window;
+    private final boolean m_withoutResponse;
 
+    private byte[] m_allData;
+    private int m_chunkSize;
+    private int m_nextIndex;
 
-    P_StripedWriteTransaction(FutureData data, BluetoothGattCharacteristic characteristic, boolean requiresBonding, DescriptorFilter filter, BleDevice.ReadWriteListener listener)
+
+    P_StripedWriteTransaction(FutureData data, BluetoothGattCharacteristic characteristic, boolean requiresBonding, DescriptorFilter filter, int window, boolean withoutResponse, BleDevice.ReadWriteListener listener)
     {
         m_data = data;
         m_characteristic = characteristic;
         m_requiresBonding = requiresBonding;
         m_listener = listener;
         m_descriptorFilter = filter;
-        m_writeList = new ArrayList<>();
+        m_window = Math.max(1, window);
+        m_withoutResponse = withoutResponse && (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+        m_inFlightList = new ArrayList<>(m_window);
         m_internalListener = new WriteListener();
     }
 
 
     @Override protected final void start(BleDevice device)
     {
-        final byte[] allData = m_data.getData();
-        int curIndex = 0;
-        FutureData curData;
-        while (curIndex < allData.length)
+        m_allData = m_data.getData();
+        m_chunkSize = Math.max(1, device.getMtu() - BleNodeConfig.GATT_MTU_OVERHEAD);
+        m_nextIndex = 0;
+
+        queueChunks(device);
+    }
+
+    /**
+     * Keeps up to {@link #m_window} chunks queued up, so the next chunk is dequeued as soon as the previous one's write comes back,
+     * rather than after a round trip through {@link WriteListener}.
+     */
+    private void queueChunks(BleDevice device)
+    {
+        while (m_inFlightList.size() < m_window && m_nextIndex < m_allData.length)
         {
-            int end = Math.min(allData.length, curIndex + device.getMtu());
-            curData = new PresentData(Arrays.copyOfRange(allData, curIndex, Math.min(allData.length, curIndex + device.getMtu())));
+            final int end = Math.min(m_allData.length, m_nextIndex + m_chunkSize);
+            final FutureData curData = new ChunkData(m_allData, m_nextIndex, end);
             final P_Task_Write task;
             if (m_descriptorFilter == null)
             {
@@ -53,11 +70,38 @@ final class P_StripedWriteTransaction extends BleTransaction
             {
                 task = new P_Task_Write(device, m_characteristic.getService().getUuid(), m_characteristic.getUuid(), m_descriptorFilter, curData, m_requiresBonding, m_internalListener, device.m_txnMngr.getCurrent(), device.getOverrideReadWritePriority());
             }
-            m_writeList.add(task);
+            if (m_withoutResponse)
+            {
+                task.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            }
+            m_inFlightList.add(task);
+            device.queue().add(task);
 
-            curIndex = end;
+            m_nextIndex = end;
+        }
+    }
+
+    /**
+     * A chunk of the full payload. Only the indices are held until the write actually executes, so at most {@link #m_window} chunks
+     * are ever copied out at a time, as the native characteristic needs its own array.
+     */
+    private static final class ChunkData implements FutureData
+    {
+        private final byte[] m_source;
+        private final int m_start;
+        private final int m_end;
+
+        ChunkData(byte[] source, int start, int end)
+        {
+            m_source = source;
+            m_start = start;
+            m_end = end;
+        }
+
+        @Override public byte[] getData()
+        {
+            return Arrays.copyOfRange(m_source, m_start, m_end);
         }
-        device.queue().add(m_writeList.remove(0));
     }
 
     private final class WriteListener implements BleDevice.ReadWriteListener
@@ -65,13 +109,20 @@ final class P_StripedWriteTransaction extends BleTransaction
 
         @Override public final void onEvent(BleDevice.ReadWriteListener.ReadWriteEvent e)
         {
+            if (!isRunning())  return;
+
+            if (m_inFlightList.size() > 0)
+            {
+                m_inFlightList.remove(0);
+            }
+
             if (e.wasSuccess())
             {
-                if (m_writeList.size() > 0)
+                if (m_nextIndex < m_allData.length)
                 {
-                    getDevice().queue().add(m_writeList.remove(0));
+                    queueChunks(getDevice());
                 }
-                else
+                else if (m_inFlightList.size() == 0)
                 {
                     succeed();
                     if (m_listener != null)
@@ -82,6 +133,14 @@ final class P_StripedWriteTransaction extends BleTransaction
             }
             else
             {
+                //--- Don't let chunks that were queued ahead go out after one before them failed.
+                final List<P_Task_Write> queued = new ArrayList<>(m_inFlightList);
+                m_inFlightList.clear();
+                for (int i = 0; i < queued.size(); i++)
+                {
+                    getDevice().queue().removeFromQueue(queued.get(i));
+                }
+
                 fail();
                 if (m_listener != null)
                 {
@@ -1,29 +1,48 @@
 package com.idevicesinc.sweetblue;
 
 
-import java.util.Iterator;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RunnableFuture;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 
+/**
+ * Update thread used when SweetBlue isn't running on the main thread. Runnables are kept in a heap ordered
+ * by their deadline, and the thread blocks until the soonest one is due (or something new is posted),
+ * rather than waking up on a fixed interval to poll every pending runnable.
+ */
 final class P_SweetBlueThread implements P_SweetHandler
 {
 
-    private final LinkedBlockingQueue<SweetRunnable> m_runnables;
+    private final PriorityQueue<SweetRunnable> m_runnables;
+
+    //--- Keyed by identity, as {@link #removeCallbacks(Runnable)} has always matched using ==. Cancelling just bumps
+    //--- the generation of the slot, so any entries left in the heap from an older generation get dropped when they come due.
+    private final IdentityHashMap<Runnable, Slot> m_slots;
+
+    private final ReentrantLock m_lock;
+    private final Condition m_workAvailable;
 
     private Thread thread;
-    private boolean m_running;
+    private volatile boolean m_running;
+
+    private long m_sequence;
+    private int m_canceledInQueue;
+
+    private volatile int m_lastQueueDepth;
+    private volatile long m_lastLateBy;
+    private volatile long m_maxLateBy;
+    private volatile long m_dispatchCount;
 
 
     P_SweetBlueThread()
     {
-        m_runnables = new LinkedBlockingQueue<>();
+        m_runnables = new PriorityQueue<>();
+        m_slots = new IdentityHashMap<>();
+        m_lock = new ReentrantLock();
+        m_workAvailable = m_lock.newCondition();
         m_running = true;
         thread = new Thread(new HandlerRunner());
         thread.start();
@@ -32,26 +51,31 @@ final class P_SweetBlueThread implements P_SweetHandler
 
     @Override public void post(Runnable action)
     {
-        m_runnables.add(new SweetRunnable(action, System.currentTimeMillis(), 0));
+        enqueue(action, 0);
     }
 
     @Override public void postDelayed(Runnable action, long delay)
     {
-        m_runnables.add(new SweetRunnable(action, System.currentTimeMillis(), delay));
+        enqueue(action, delay);
     }
 
     @Override public void removeCallbacks(Runnable action)
     {
-        Iterator<SweetRunnable> it = m_runnables.iterator();
-        while (it.hasNext())
+        m_lock.lock();
+        try
         {
-            SweetRunnable run = it.next();
-            if (run.m_runnable == action)
+            final Slot slot = m_slots.get(action);
+            if (slot != null)
             {
-                run.cancel();
-                it.remove();
+                m_canceledInQueue += slot.m_live;
+                slot.m_live = 0;
+                slot.m_generation++;
             }
         }
+        finally
+        {
+            m_lock.unlock();
+        }
     }
 
     @Override public Thread getThread()
@@ -59,9 +83,66 @@ final class P_SweetBlueThread implements P_SweetHandler
         return thread;
     }
 
+    /**
+     * Returns the number of runnables still waiting to be dispatched, not counting ones removed through {@link #removeCallbacks(Runnable)}.
+     */
+    public int getQueueDepth()
+    {
+        m_lock.lock();
+        try
+        {
+            return m_runnables.size() - m_canceledInQueue;
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the queue depth as it was right before the last dispatch.
+     */
+    public int getLastDispatchQueueDepth()
+    {
+        return m_lastQueueDepth;
+    }
+
+    /**
+     * Returns how many milliseconds after its deadline the last runnable was actually dispatched.
+     */
+    public long getLastDispatchLateBy()
+    {
+        return m_lastLateBy;
+    }
+
+    /**
+     * Returns the worst late-by time in milliseconds seen since this thread was started.
+     */
+    public long getMaxDispatchLateBy()
+    {
+        return m_maxLateBy;
+    }
+
+    /**
+     * Returns the total number of runnables that have been dispatched.
+     */
+    public long getDispatchCount()
+    {
+        return m_dispatchCount;
+    }
+
     public void quit()
     {
-        m_running = false;
+        m_lock.lock();
+        try
+        {
+            m_running = false;
+            m_workAvailable.signal();
+        }
+        finally
+        {
+            m_lock.unlock();
+        }
         try
         {
             thread.join();
@@ -70,47 +151,137 @@ final class P_SweetBlueThread implements P_SweetHandler
         }
     }
 
-    private final static class SweetRunnable
+    private void enqueue(Runnable action, long delay)
     {
-        private final Runnable m_runnable;
-        private final long m_postedTime;
-        private final long m_delay;
-        private boolean m_canceled;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+
+        m_lock.lock();
+        try
+        {
+            Slot slot = m_slots.get(action);
+            if (slot == null)
+            {
+                slot = new Slot();
+                m_slots.put(action, slot);
+            }
+            slot.m_pending++;
+            slot.m_live++;
 
+            final SweetRunnable run = new SweetRunnable(action, slot.m_generation, deadline, m_sequence++);
+            m_runnables.add(run);
 
-        public SweetRunnable(Runnable action, long postedTime, long delay)
+            // Only need to wake the thread up if this is now the soonest runnable, otherwise it's already
+            // going to wake up in time for it.
+            if (m_runnables.peek() == run)
+            {
+                m_workAvailable.signal();
+            }
+        }
+        finally
         {
-            m_runnable = action;
-            m_postedTime = postedTime;
-            m_delay = delay;
+            m_lock.unlock();
         }
+    }
 
-        public void run()
+    /**
+     * Blocks until the soonest runnable is due, then pulls it from the queue. Returns <code>null</code> if
+     * the runnable was canceled, or if the thread is quitting.
+     */
+    private SweetRunnable takeNext() throws InterruptedException
+    {
+        m_lock.lock();
+        try
         {
-            if (!m_canceled)
+            while (m_running)
             {
-                m_runnable.run();
+                final SweetRunnable head = m_runnables.peek();
+                if (head == null)
+                {
+                    m_workAvailable.await();
+                    continue;
+                }
+
+                final long wait = head.m_deadline - System.nanoTime();
+                if (wait > 0)
+                {
+                    m_workAvailable.awaitNanos(wait);
+                    continue;
+                }
+
+                m_runnables.poll();
+                final boolean canceled = release(head);
+                if (canceled)
+                {
+                    continue;
+                }
+
+                m_lastQueueDepth = m_runnables.size() - m_canceledInQueue + 1;
+                m_lastLateBy = TimeUnit.NANOSECONDS.toMillis(-wait);
+                return head;
             }
+            return null;
         }
-
-        public void cancel()
+        finally
         {
-            m_canceled = true;
+            m_lock.unlock();
         }
+    }
 
-        public boolean canceled()
+    /**
+     * Updates the bookkeeping for a runnable that's just been pulled from the heap, and returns whether it had been canceled.
+     */
+    private boolean release(SweetRunnable run)
+    {
+        final Slot slot = m_slots.get(run.m_runnable);
+        final boolean canceled = slot.m_generation != run.m_generation;
+        if (canceled)
+        {
+            m_canceledInQueue--;
+        }
+        else
+        {
+            slot.m_live--;
+        }
+        slot.m_pending--;
+        if (slot.m_pending == 0)
         {
-            return m_canceled;
+            m_slots.remove(run.m_runnable);
         }
+        return canceled;
+    }
+
+    private final static class Slot
+    {
+        private int m_generation;
+        private int m_pending;
+        private int m_live;
+    }
+
+    private final static class SweetRunnable implements Comparable<SweetRunnable>
+    {
+        private final Runnable m_runnable;
+        private final int m_generation;
+        private final long m_deadline;
+        private final long m_sequence;
+
 
-        public boolean ready(long curTime)
+        public SweetRunnable(Runnable action, int generation, long deadline, long sequence)
         {
-            return m_canceled || (curTime - m_postedTime) > m_delay;
+            m_runnable = action;
+            m_generation = generation;
+            m_deadline = deadline;
+            m_sequence = sequence;
         }
 
-        public boolean ready()
+        @Override public int compareTo(SweetRunnable other)
         {
-            return m_canceled || ready(System.currentTimeMillis());
+            // Runnables with the same deadline are run in the order they were posted
+            final long diff = m_deadline - other.m_deadline;
+            if (diff != 0)
+            {
+                return diff < 0 ? -1 : 1;
+            }
+            return m_sequence < other.m_sequence ? -1 : (m_sequence == other.m_sequence ? 0 : 1);
         }
     }
 
@@ -120,26 +291,24 @@ final class P_SweetBlueThread implements P_SweetHandler
         {
             while (m_running)
             {
-                if (!m_runnables.isEmpty())
-                {
-                    long curTime = System.currentTimeMillis();
-                    Iterator<SweetRunnable> it = m_runnables.iterator();
-                    while (it.hasNext())
-                    {
-                        SweetRunnable run = it.next();
-                        if (run.ready(curTime))
-                        {
-                            it.remove();
-                            run.run();
-                        }
-                    }
-                }
-                // Sleep for a short period, so we don't hog the cpu
+                final SweetRunnable run;
                 try
                 {
-                    Thread.sleep(5);
-                } catch (Exception e)
+                    run = takeNext();
+                } catch (InterruptedException e)
                 {
+                    continue;
+                }
+
+                if (run != null)
+                {
+                    final long lateBy = m_lastLateBy;
+                    if (lateBy > m_maxLateBy)
+                    {
+                        m_maxLateBy = lateBy;
+                    }
+                    m_dispatchCount++;
+                    run.m_runnable.run();
                 }
             }
         }
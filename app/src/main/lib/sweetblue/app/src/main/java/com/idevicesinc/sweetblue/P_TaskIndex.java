@@ -0,0 +1,134 @@
+package com.idevicesinc.sweetblue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Bookkeeping kept alongside the list of a {@link P_TaskLane} so that common queries can be answered without walking the list.
+ * The list itself is still the source of truth for ordering, since {@link PA_Task#isMoreImportantThan(PA_Task)} isn't a strict
+ * priority comparison (see {@link P_Task_TxnLock}), so this only keeps counts per {@link PE_TaskPriority}, and per task class and node.
+ */
+final class P_TaskIndex
+{
+	private static final Object NO_NODE = new Object();
+
+	private final int[] m_priorityCounts = new int[PE_TaskPriority.values().length];
+	private int m_txnLockCount;
+
+	private final HashMap<Class<? extends PA_Task>, HashMap<Object, Integer>> m_byClass = new HashMap<>();
+
+
+	void add(final PA_Task task)
+	{
+		m_priorityCounts[task.getPriority().ordinal()]++;
+
+		if( task instanceof P_Task_TxnLock )
+		{
+			m_txnLockCount++;
+		}
+
+		HashMap<Object, Integer> byNode = m_byClass.get(task.getClass());
+
+		if( byNode == null )
+		{
+			byNode = new HashMap<>();
+			m_byClass.put(task.getClass(), byNode);
+		}
+
+		final Object node = getNodeKey(task.getDevice(), task.getServer());
+		final Integer count = byNode.get(node);
+
+		byNode.put(node, count == null ? 1 : count + 1);
+	}
+
+	void remove(final PA_Task task)
+	{
+		m_priorityCounts[task.getPriority().ordinal()]--;
+
+		if( task instanceof P_Task_TxnLock )
+		{
+			m_txnLockCount--;
+		}
+
+		final HashMap<Object, Integer> byNode = m_byClass.get(task.getClass());
+
+		if( byNode == null )  return;
+
+		final Object node = getNodeKey(task.getDevice(), task.getServer());
+		final Integer count = byNode.get(node);
+
+		if( count == null || count <= 1 )
+		{
+			byNode.remove(node);
+
+			if( byNode.isEmpty() )
+			{
+				m_byClass.remove(task.getClass());
+			}
+		}
+		else
+		{
+			byNode.put(node, count - 1);
+		}
+	}
+
+	/**
+	 * Returns <code>false</code> if {@link PA_Task#isMoreImportantThan(PA_Task)} can't possibly be true for the given task against anything
+	 * that's indexed. A task can only be more important than a task of lower priority, or a {@link P_Task_TxnLock}. Positions aren't
+	 * indexed, so once there's a single such task anywhere in the list, the caller still has to walk it to find the spot.
+	 */
+	boolean couldBeMoreImportantThanAny(final PA_Task task)
+	{
+		if( m_txnLockCount > 0 )  return true;
+
+		final int ordinal = task.getPriority().ordinal();
+
+		for( int i = 0; i < ordinal; i++ )
+		{
+			if( m_priorityCounts[i] > 0 )  return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Mirrors {@link PU_TaskQueue#isMatch(PA_Task, Class, BleManager, BleDevice, BleServer)} for every indexed task at once. Every task in a queue
+	 * belongs to the same {@link BleManager}, so a non-null manager just matches on class.
+	 */
+	boolean contains(final Class<? extends PA_Task> taskClass, final BleManager mngr_nullable, final BleDevice device_nullable, final BleServer server_nullable)
+	{
+		final boolean anyNode = mngr_nullable != null || (device_nullable == null && server_nullable == null);
+		final Object node = anyNode ? null : getNodeKey(device_nullable, server_nullable);
+
+		final HashMap<Object, Integer> exact = m_byClass.get(taskClass);
+
+		if( exact != null && (anyNode || exact.containsKey(node)) )  return true;
+
+		for( Map.Entry<Class<? extends PA_Task>, HashMap<Object, Integer>> entry : m_byClass.entrySet() )
+		{
+			if( entry.getKey() != taskClass && taskClass.isAssignableFrom(entry.getKey()) )
+			{
+				if( anyNode || entry.getValue().containsKey(node) )  return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static Object getNodeKey(final BleDevice device_nullable, final BleServer server_nullable)
+	{
+		if( device_nullable != null )
+		{
+			return device_nullable.getMacAddress();
+		}
+		else if( server_nullable != null )
+		{
+			return server_nullable;
+		}
+		else
+		{
+			return NO_NODE;
+		}
+	}
+}
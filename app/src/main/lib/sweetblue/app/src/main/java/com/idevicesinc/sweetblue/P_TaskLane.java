@@ -0,0 +1,340 @@
+package com.idevicesinc.sweetblue;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * A single run of queued tasks with its own current task. {@link P_TaskQueue} always has a main lane, and when
+ * {@link BleManagerConfig#perDeviceTaskLanes} is enabled, it also has one lane per {@link BleDevice}.
+ */
+final class P_TaskLane
+{
+	private final ArrayList<PA_Task> m_queue = new ArrayList<PA_Task>();
+	private final P_TaskIndex m_index = new P_TaskIndex();
+	private final AtomicReference<PA_Task> m_current = new AtomicReference<>(null);
+	private final P_TaskQueue m_owner;
+	private final BleManager m_mngr;
+	private final String m_name;
+
+
+	P_TaskLane(P_TaskQueue owner, BleManager mngr, String name)
+	{
+		m_owner = owner;
+		m_mngr = mngr;
+		m_name = name;
+	}
+
+	PA_Task getCurrent()
+	{
+		return m_current.get();
+	}
+
+	PA_Task peek()
+	{
+		return m_queue.size() > 0 ? m_queue.get(0) : null;
+	}
+
+	ArrayList<PA_Task> getRaw()
+	{
+		return m_queue;
+	}
+
+	int getSize()
+	{
+		return m_queue.size();
+	}
+
+	boolean isIdle()
+	{
+		return m_current.get() == null && m_queue.size() == 0;
+	}
+
+	/**
+	 * Tries to cancel this lane's current task in favor of <code>newTask</code>. If <code>andAdd</code> is <code>true</code>, the
+	 * new task is also put at the front of this lane.
+	 */
+	boolean tryCancellingCurrentTask(PA_Task newTask, boolean andAdd)
+	{
+		if( getCurrent() != null && getCurrent().isCancellableBy(newTask) )
+		{
+			endCurrentTask(PE_TaskState.CANCELLED);
+
+			if( andAdd )
+			{
+				addAtIndex(newTask, 0);
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Tries to interrupt this lane's current task in favor of <code>newTask</code>, putting the interrupted task back at the front
+	 * of this lane. If <code>andAdd</code> is <code>true</code>, the new task is put in front of it.
+	 */
+	boolean tryInterruptingCurrentTask(PA_Task newTask, boolean andAdd)
+	{
+		if( getCurrent() != null && getCurrent().isInterruptableBy(newTask) )
+		{
+			PA_Task current_saved = getCurrent();
+			endCurrentTask(PE_TaskState.INTERRUPTED);
+
+			if( andAdd )
+			{
+				addAtIndex(newTask, 0);
+				addAtIndex(current_saved, 1);
+			}
+			else
+			{
+				addAtIndex(current_saved, 0);
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	boolean tryInsertingIntoQueue(PA_Task newTask)
+	{
+		//--- Skip walking the queue when nothing in it could possibly be less important, like when a burst of writes is queued up.
+		if( !m_index.couldBeMoreImportantThanAny(newTask) )  return false;
+
+		int soonestSpot = PU_TaskQueue.findSoonestSpot(m_queue, newTask);
+
+		if( soonestSpot >= 0 )
+		{
+			addAtIndex(newTask, soonestSpot);
+
+			return true;
+		}
+
+		return false;
+	}
+
+	void addToBack(PA_Task task)
+	{
+		addAtIndex(task, -1);
+	}
+
+	void softlyCancelTasks(PA_Task task, boolean skipLast)
+	{
+		final int end = !task.canSoftlyCancel() ? 0 : (skipLast ? m_queue.size()-1 : m_queue.size());
+
+		for( int i = 0; i < end; i++ )
+		{
+			PA_Task ithTask = m_queue.get(i);
+			if( ithTask.isSoftlyCancellableBy(task) )
+			{
+				ithTask.attemptToSoftlyCancel(task);
+			}
+		}
+
+		if( getCurrent() != null )
+		{
+			if( getCurrent().isSoftlyCancellableBy(task) )
+			{
+				getCurrent().attemptToSoftlyCancel(task);
+			}
+		}
+	}
+
+	private void addAtIndex(PA_Task task, int index)
+	{
+		if( index >= 0 )
+		{
+			m_queue.add(index, task);
+		}
+		else
+		{
+			m_queue.add(task);
+		}
+
+		m_index.add(task);
+
+		task.assignDefaultOrdinal(m_owner);
+
+		m_owner.softlyCancelTasks(task);
+
+		task.onAddedToQueue(m_owner);
+
+		m_owner.print();
+	}
+
+	synchronized boolean dequeue()
+	{
+		if( !m_mngr.ASSERT(m_current.get() == null) )  return false;
+		if( m_queue.size() == 0 )  return false;
+		if( !m_owner.canDequeue(this) )  return false;
+
+		for( int i = 0; i < m_queue.size(); i++ )
+		{
+			PA_Task newPotentialCurrent = m_queue.get(i);
+
+			if( newPotentialCurrent.isArmable() )
+			{
+				m_queue.remove(i);
+				m_index.remove(newPotentialCurrent);
+				m_current.set(newPotentialCurrent);
+				m_current.get().arm();
+				if (!m_current.get().tryExecuting())
+				{
+					m_owner.print();
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Ticks this lane's current task, dequeueing a new one first if needed. Returns <code>true</code> if a task is executing.
+	 */
+	boolean update(double timeStep)
+	{
+		boolean executingTask = false;
+
+		if( m_current.get() == null )
+		{
+			executingTask = dequeue();
+		}
+
+		if( getCurrent() != null )
+		{
+			getCurrent().update_internal(timeStep);
+			executingTask = true;
+		}
+
+		return executingTask;
+	}
+
+	boolean endCurrentTask(PE_TaskState endingState)
+	{
+		if( !m_mngr.ASSERT(endingState.isEndingState()) )	return false;
+		if( getCurrent() == null ) 							return false;
+
+		PA_Task current_saved = m_current.get();
+		m_current.set(null);
+		current_saved.setEndingState(endingState);
+
+		boolean printed = false;
+
+		if( m_queue.size() > 0 && getCurrent() == null )
+		{
+			if( endingState.canGoToNextTaskImmediately() )
+			{
+				printed = dequeue();
+			}
+			else
+			{
+				//--- DRK > Posting to prevent potential stack overflow if queue is really big and all tasks are failing in a row.
+				m_mngr.getPostManager().forcePostToUpdate(new Runnable()
+				{
+					@Override public void run()
+					{
+						if( m_queue.size() > 0 && getCurrent() == null )
+						{
+							dequeue();
+						}
+					}
+				});
+			}
+		}
+
+		if (!printed)
+		{
+			m_owner.print();
+		}
+
+		return true;
+	}
+
+	boolean removeFromQueue(PA_Task task)
+	{
+		for( int i = 0; i < m_queue.size(); i++ )
+		{
+			if( m_queue.get(i) == task )
+			{
+				removeFromQueue(i);
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void removeFromQueue(int index)
+	{
+		PA_Task task = m_queue.remove(index);
+		m_index.remove(task);
+
+		if( task.wasSoftlyCancelled() )
+		{
+			task.setEndingState(PE_TaskState.SOFTLY_CANCELLED);
+		}
+		else
+		{
+			task.setEndingState(PE_TaskState.CLEARED_FROM_QUEUE);
+		}
+
+		m_owner.print();
+	}
+
+	void clearQueueOf(Class<? extends PA_Task> taskClass, BleManager mngr_nullable, BleDevice device_nullable, BleServer server_nullable, final int ordinal)
+	{
+		if( !m_index.contains(taskClass, mngr_nullable, device_nullable, server_nullable) )  return;
+
+		for( int i = m_queue.size()-1; i >= 0; i-- )
+		{
+			final PA_Task task_ith = m_queue.get(i);
+
+			if( ordinal <= -1 || ordinal >= 0 && task_ith.getOrdinal() <= ordinal )
+			{
+				if( PU_TaskQueue.isMatch(task_ith, taskClass, mngr_nullable, device_nullable, server_nullable) )
+				{
+					removeFromQueue(i);
+				}
+			}
+		}
+	}
+
+	void clearQueueOfAll()
+	{
+		for (int i = m_queue.size() - 1; i >= 0; i-- )
+		{
+			removeFromQueue(i);
+		}
+	}
+
+	boolean isInQueue(Class<? extends PA_Task> taskClass, BleManager mngr_nullable, BleDevice device_nullable, BleServer server_nullable)
+	{
+		return m_index.contains(taskClass, mngr_nullable, device_nullable, server_nullable);
+	}
+
+	PA_Task findInQueue(Class<? extends PA_Task> taskClass, BleManager mngr_nullable, BleDevice device_nullable, BleServer server_nullable)
+	{
+		if( !m_index.contains(taskClass, mngr_nullable, device_nullable, server_nullable) )  return null;
+
+		for( int i = 0; i < m_queue.size(); i++ )
+		{
+			if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, mngr_nullable, device_nullable, server_nullable) )
+			{
+				return m_queue.get(i);
+			}
+		}
+
+		return null;
+	}
+
+	@Override public String toString()
+	{
+		final String current = m_current.get() != null ? m_current.toString() : "no current task";
+		final String queue = m_queue.size() > 0 ? m_queue.toString() : "[queue empty]";
+
+		return m_name != null ? m_name + ": " + current + " " + queue : current + " " + queue;
+	}
+}
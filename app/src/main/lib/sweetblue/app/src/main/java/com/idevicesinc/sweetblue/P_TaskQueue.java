@@ -1,16 +1,20 @@
 package com.idevicesinc.sweetblue;
 
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Log;
 
 final class P_TaskQueue
 {
-	private final ArrayList<PA_Task> m_queue = new ArrayList<PA_Task>();
-	private AtomicReference<PA_Task> m_current;
+	private static final String TAG = P_TaskQueue.class.getSimpleName();
+
+	private final P_TaskLane m_mainLane;
+	private final HashMap<String, P_TaskLane> m_deviceLanes = new HashMap<String, P_TaskLane>();
+	private static final P_TaskLane[] EMPTY_LANES = new P_TaskLane[0];
 	private long m_updateCount;
 	private final P_Logger m_logger;
 	private final BleManager m_mngr;
@@ -25,7 +29,7 @@ final class P_TaskQueue
 		m_mngr = mngr;
 		m_logger = mngr.getLogger();
 
-		m_current = new AtomicReference<>(null);
+		m_mainLane = new P_TaskLane(this, mngr, null);
 		
 		initHandler(); 
 	}
@@ -49,9 +53,24 @@ final class P_TaskQueue
 		return m_currentOrdinal;
 	}
 
+	/**
+	 * Returns the most important task waiting across all lanes, or <code>null</code> if nothing is queued.
+	 */
 	public PA_Task peek()
 	{
-		return m_queue.size() > 0 ? m_queue.get(0) : null;
+		PA_Task next = m_mainLane.peek();
+
+		for( P_TaskLane lane : m_deviceLanes.values() )
+		{
+			final PA_Task laneNext = lane.peek();
+
+			if( laneNext != null && (next == null || laneNext.isMoreImportantThan(next)) )
+			{
+				next = laneNext;
+			}
+		}
+
+		return next;
 	}
 	
 	private void initHandler()
@@ -69,103 +88,108 @@ final class P_TaskQueue
 		thread.start();
 	}
 	
-	private boolean tryCancellingCurrentTask(PA_Task newTask)
+	private boolean usesDeviceLane(final PA_Task task)
 	{
-		if( getCurrent() != null && getCurrent().isCancellableBy(newTask) )
-		{
-//			int soonestSpot = U_BtTaskQueue.findSoonestSpot(m_queue, newTask);
-			
-//			if( soonestSpot == 0 )
-			{
-				endCurrentTask(PE_TaskState.CANCELLED);
-				addAtIndex(newTask, 0);
-				
-				return true;
-			}
-		}
-		
-		return false;
+		return task.getDevice() != null && m_mngr.m_config.perDeviceTaskLanes;
 	}
-	
-	private boolean tryInterruptingCurrentTask(PA_Task newTask)
+
+	private P_TaskLane getLane(final PA_Task task)
 	{
-		if( getCurrent() != null && getCurrent().isInterruptableBy(newTask) )
+		if( !usesDeviceLane(task) )
 		{
-//			int soonestSpot = U_BtTaskQueue.findSoonestSpot(m_queue, newTask);
-			
-//			if( soonestSpot == 0 )
-			{
-				PA_Task current_saved = getCurrent();
-				endCurrentTask(PE_TaskState.INTERRUPTED);
-				addAtIndex(newTask, 0);
-				addAtIndex(current_saved, 1);
-				
-				return true;
-			}
+			return m_mainLane;
 		}
-		
-		return false;
-	}
-	
-	private boolean tryInsertingIntoQueue(PA_Task newTask)
-	{
-		int soonestSpot = PU_TaskQueue.findSoonestSpot(m_queue, newTask);
-		
-		if( soonestSpot >= 0 )
+
+		final BleDevice device = task.getDevice();
+		final String key = device.getMacAddress();
+		P_TaskLane lane = m_deviceLanes.get(key);
+
+		if( lane == null )
 		{
-			addAtIndex(newTask, soonestSpot);
-			
-			return true;
+			lane = new P_TaskLane(this, m_mngr, device.getName_debug());
+			m_deviceLanes.put(key, lane);
 		}
-		
-		return false;
+
+		return lane;
 	}
-	
-	private void addToBack(PA_Task task)
+
+	private P_TaskLane getDeviceLane_nullable(final BleDevice device_nullable)
+	{
+		if( device_nullable == null || m_deviceLanes.isEmpty() )  return null;
+
+		return m_deviceLanes.get(device_nullable.getMacAddress());
+	}
+
+	/**
+	 * Returns a copy of the device lanes, for when iterating may end up calling back into app code, which could add tasks for a new device.
+	 */
+	private P_TaskLane[] getDeviceLanes()
 	{
-		addAtIndex(task, -1);
+		return m_deviceLanes.isEmpty() ? EMPTY_LANES : m_deviceLanes.values().toArray(EMPTY_LANES);
 	}
-	
-	public void softlyCancelTasks(PA_Task task)
+
+	private P_TaskLane getLaneOfCurrent(final PA_Task task)
 	{
-		for( int i = 0; i < m_queue.size()-1; i++ )
+		if( m_mainLane.getCurrent() == task )  return m_mainLane;
+
+		final P_TaskLane lane = task.getDevice() != null ? getDeviceLane_nullable(task.getDevice()) : null;
+
+		return lane != null && lane.getCurrent() == task ? lane : null;
+	}
+
+	/**
+	 * Whether the given lane is allowed to arm its next task. The main lane always acts as a barrier for device lanes; a device lane
+	 * only gets to start something when the main lane is idle, or when its own next task is more important than the main lane's next task.
+	 * Likewise the main lane waits for the device lanes to finish their current tasks.
+	 */
+	boolean canDequeue(final P_TaskLane lane)
+	{
+		if( m_deviceLanes.isEmpty() )  return true;
+
+		if( lane == m_mainLane )
 		{
-			PA_Task ithTask = m_queue.get(i);
-			if( ithTask.isSoftlyCancellableBy(task) )
+			final PA_Task next = m_mainLane.peek();
+
+			for( P_TaskLane deviceLane : m_deviceLanes.values() )
 			{
-				ithTask.attemptToSoftlyCancel(task);
+				if( deviceLane.getCurrent() != null )  return false;
+
+				final PA_Task deviceNext = deviceLane.peek();
+
+				if( next != null && deviceNext != null && deviceNext.isMoreImportantThan(next) )  return false;
 			}
+
+			return true;
 		}
-		
-		if( getCurrent() != null )
+		else
 		{
-			if( getCurrent().isSoftlyCancellableBy(task) )
-			{
-				getCurrent().attemptToSoftlyCancel(task);
-			}
+			if( m_mainLane.getCurrent() != null )  return false;
+
+			final PA_Task mainNext = m_mainLane.peek();
+			final PA_Task next = lane.peek();
+
+			return mainNext == null || next == null || next.isMoreImportantThan(mainNext);
 		}
 	}
-	
-	private void addAtIndex(PA_Task task, int index)
+
+	public void softlyCancelTasks(PA_Task task)
 	{
-		if( index >= 0 )
+		//--- Not using getLane() here so we don't create a lane just to find it empty.
+		final P_TaskLane lane = usesDeviceLane(task) ? getDeviceLane_nullable(task.getDevice()) : m_mainLane;
+
+		if( lane != null )
 		{
-			m_queue.add(index, task);
+			lane.softlyCancelTasks(task, /*skipLast=*/true);
 		}
-		else
+
+		//--- Tasks in the main lane (like turning BLE off) can affect tasks for any device.
+		if( lane == m_mainLane )
 		{
-			m_queue.add(task);
-			
-			index = m_queue.size()-1;
+			for( P_TaskLane deviceLane : getDeviceLanes() )
+			{
+				deviceLane.softlyCancelTasks(task, /*skipLast=*/false);
+			}
 		}
-
-		task.assignDefaultOrdinal(this);
-		
-		softlyCancelTasks(task);
-		
-		task.onAddedToQueue(this);
-		
-		print();
 	}
 	
 	public void add(final PA_Task newTask)
@@ -195,16 +219,36 @@ final class P_TaskQueue
 		// Check the idle status to ensure the new task gets executed as soon as possible (rather than
 		// waiting until the idle interval's next tick)
 		m_mngr.checkIdleStatus();
-		if( tryCancellingCurrentTask(newTask) )
+
+		final P_TaskLane lane = getLane(newTask);
+
+		if( lane != m_mainLane )
+		{
+			//--- A device task can still pre-empt whatever's running in the main lane, a scan for instance.
+			m_mainLane.tryInterruptingCurrentTask(newTask, /*andAdd=*/false);
+		}
+		else if( !m_deviceLanes.isEmpty() )
+		{
+			//--- Likewise, tasks in the main lane (turning BLE off, the crash resolver) act as a barrier for every device lane.
+			for( P_TaskLane deviceLane : getDeviceLanes() )
+			{
+				if( !deviceLane.tryCancellingCurrentTask(newTask, /*andAdd=*/false) )
+				{
+					deviceLane.tryInterruptingCurrentTask(newTask, /*andAdd=*/false);
+				}
+			}
+		}
+
+		if( lane.tryCancellingCurrentTask(newTask, /*andAdd=*/true) )
 		{
-			if( getCurrent() == null )
+			if( lane.getCurrent() == null )
 			{
-				dequeue();
+				lane.dequeue();
 			}
 		}
-		else if( tryInterruptingCurrentTask(newTask) ) {}
-		else if( tryInsertingIntoQueue(newTask) ) {}
-		else { addToBack(newTask); }
+		else if( lane.tryInterruptingCurrentTask(newTask, /*andAdd=*/true) ) {}
+		else if( lane.tryInsertingIntoQueue(newTask) ) {}
+		else { lane.addToBack(newTask); }
 
 		//--- DRK > Commenting out because of possible race condition when immediate native stack errors recurse
 		//---		back to front-end before front-end's state reflects the fact that the task (added to empty queue) is going on.
@@ -223,6 +267,21 @@ final class P_TaskQueue
 		return m_time;
 	}
 	
+	/**
+	 * Returns <code>true</code> if any lane has a task running or waiting.
+	 */
+	boolean isBusy()
+	{
+		if( !m_mainLane.isIdle() )  return true;
+
+		for( P_TaskLane deviceLane : m_deviceLanes.values() )
+		{
+			if( !deviceLane.isIdle() )  return true;
+		}
+
+		return false;
+	}
+
 	public boolean update(double timeStep)
 	{
 		boolean executingTask = false;
@@ -236,106 +295,106 @@ final class P_TaskQueue
 			return executingTask;
 		}
 
-		if( m_current.get() == null )
-		{
-			executingTask = dequeue();
-		}
-		
-		if( getCurrent() != null )
-		{			
-			getCurrent().update_internal(timeStep);
-			executingTask = true;
-		}
-		
-		m_updateCount++;
-
-		return executingTask;
-	}
+		executingTask = m_mainLane.update(timeStep);
 
-	private synchronized boolean dequeue()
-	{
-		if( !m_mngr.ASSERT(m_current.get() == null) )  return false;
-		if( m_queue.size() == 0 )  return false;
+		int queueDepth = m_mainLane.getSize();
 
-		for( int i = 0; i < m_queue.size(); i++ )
+		if( !m_deviceLanes.isEmpty() )
 		{
-			PA_Task newPotentialCurrent = m_queue.get(i);
-			
-			if( newPotentialCurrent.isArmable() )
+			for( P_TaskLane deviceLane : getDeviceLanes() )
 			{
-				m_queue.remove(i);
-				m_current.set(newPotentialCurrent);
-				m_current.get().arm();
-				if (!m_current.get().tryExecuting())
+				executingTask |= deviceLane.update(timeStep);
+				queueDepth += deviceLane.getSize();
+			}
+
+			final Iterator<P_TaskLane> it = m_deviceLanes.values().iterator();
+
+			while( it.hasNext() )
+			{
+				if( it.next().isIdle() )
 				{
-					print();
+					it.remove();
 				}
-				return true;
 			}
 		}
-		return false;
+		
+		m_mngr.getTaskMetrics().sampleQueueDepth(queueDepth);
+
+		m_updateCount++;
+
+		return executingTask;
 	}
 	
 	public long getUpdateCount()
 	{
 		return m_updateCount;
 	}
-	
+
+	/**
+	 * Returns the current task of the main lane, which is the only lane unless {@link BleManagerConfig#perDeviceTaskLanes} is enabled.
+	 */
 	public PA_Task getCurrent()
 	{
-//		return m_pendingEndingStateForCurrentTask != null ? null : m_current;
-		return m_current.get();
+		return m_mainLane.getCurrent();
 	}
-	
-	private boolean endCurrentTask(PE_TaskState endingState)
+
+	private PA_Task findCurrent(Class<? extends PA_Task> taskClass, BleManager mngr_nullable, BleDevice device_nullable, BleServer server_nullable)
 	{
-		if( !m_mngr.ASSERT(endingState.isEndingState()) )	return false;
-		if( getCurrent() == null ) 							return false;
-//		if( m_pendingEndingStateForCurrentTask != null )	return false;
-		
-		PA_Task current_saved = m_current.get();
-		m_current.set(null);
-		current_saved.setEndingState(endingState);
+		if( PU_TaskQueue.isMatch(m_mainLane.getCurrent(), taskClass, mngr_nullable, device_nullable, server_nullable) )
+		{
+			return m_mainLane.getCurrent();
+		}
 
-		boolean printed = false;
+		if( m_deviceLanes.isEmpty() || server_nullable != null )  return null;
 
-		if( m_queue.size() > 0 && getCurrent() == null )
+		if( device_nullable != null )
 		{
-			if( endingState.canGoToNextTaskImmediately() )
-			{
-				printed = dequeue();
-			}
-			else
+			final P_TaskLane lane = getDeviceLane_nullable(device_nullable);
+
+			return lane != null && PU_TaskQueue.isMatch(lane.getCurrent(), taskClass, mngr_nullable, device_nullable, null) ? lane.getCurrent() : null;
+		}
+
+		for( P_TaskLane lane : m_deviceLanes.values() )
+		{
+			if( PU_TaskQueue.isMatch(lane.getCurrent(), taskClass, mngr_nullable, null, null) )
 			{
-				//--- DRK > Posting to prevent potential stack overflow if queue is really big and all tasks are failing in a row.
-				m_mngr.getPostManager().forcePostToUpdate(new Runnable()
-				{
-					@Override public void run()
-					{
-						if( m_queue.size() > 0 && getCurrent() == null )
-						{
-							dequeue();
-						}
-					}
-				});
+				return lane.getCurrent();
 			}
 		}
 
-		if (!printed)
+		return null;
+	}
+
+	private PA_Task findInQueue(Class<? extends PA_Task> taskClass, BleManager mngr_nullable, BleDevice device_nullable, BleServer server_nullable)
+	{
+		final PA_Task inMain = m_mainLane.findInQueue(taskClass, mngr_nullable, device_nullable, server_nullable);
+
+		if( inMain != null )  return inMain;
+
+		if( m_deviceLanes.isEmpty() || server_nullable != null )  return null;
+
+		if( device_nullable != null )
 		{
-			print();
+			final P_TaskLane lane = getDeviceLane_nullable(device_nullable);
+
+			return lane != null ? lane.findInQueue(taskClass, mngr_nullable, device_nullable, null) : null;
 		}
-		
-//		m_pendingEndingStateForCurrentTask = endingState;
-		
-		return true;
+
+		for( P_TaskLane lane : m_deviceLanes.values() )
+		{
+			final PA_Task inLane = lane.findInQueue(taskClass, mngr_nullable, null, null);
+
+			if( inLane != null )  return inLane;
+		}
+
+		return null;
 	}
 	
 	public void interrupt(Class<? extends PA_Task> taskClass, BleManager manager)
 	{
 		PA_Task current = getCurrent(taskClass, manager);
 		
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, manager, null, null) )
+		if( current != null )
 		{
 			tryEndingTask(current, PE_TaskState.INTERRUPTED);
 			
@@ -377,9 +436,11 @@ final class P_TaskQueue
 	
 	private boolean tryEndingTask(final Class<? extends PA_Task> taskClass, final BleManager mngr_nullable, final BleDevice device_nullable, final BleServer server_nullable, final PE_TaskState endingState)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, mngr_nullable, device_nullable, server_nullable ) )
+		final PA_Task current = findCurrent(taskClass, mngr_nullable, device_nullable, server_nullable);
+
+		if( current != null )
 		{
-			return endCurrentTask(endingState);
+			return getLaneOfCurrent(current).endCurrentTask(endingState);
 		}
 		
 		return false;
@@ -398,50 +459,91 @@ final class P_TaskQueue
 
 	private void tryEndingTask_updateThread(final PA_Task task, final PE_TaskState endingState)
 	{
-		if( task != null && task == getCurrent() )
+		final P_TaskLane lane = task != null ? getLaneOfCurrent(task) : null;
+
+		if( lane != null )
 		{
-			if( !endCurrentTask(endingState) )
+			if( !lane.endCurrentTask(endingState) )
 			{
 				m_mngr.ASSERT(false);
 			}
 		}
 	}
+
+	/**
+	 * Takes a task that's still waiting in a lane out of it, ending it as {@link PE_TaskState#CLEARED_FROM_QUEUE}. Unlike
+	 * {@link PA_Task#clearFromQueue()}, which only ever ends the current task, this is meant for queued tasks, like the chunks of a
+	 * striped write queued behind one that failed. Does nothing if the task already made it out of the queue by the time this runs.
+	 */
+	void removeFromQueue(final PA_Task task)
+	{
+		m_mngr.getPostManager().runOrPostToUpdateThread(new Runnable()
+		{
+			@Override public void run()
+			{
+				final P_TaskLane deviceLane = getDeviceLane_nullable(task.getDevice());
+
+				if( !m_mainLane.removeFromQueue(task) && deviceLane != null )
+				{
+					deviceLane.removeFromQueue(task);
+				}
+			}
+		});
+	}
 	
 	public boolean isCurrent(Class<? extends PA_Task> taskClass, BleManager mngr)
 	{
-		return PU_TaskQueue.isMatch(getCurrent(), taskClass, mngr, null, null);
+		return findCurrent(taskClass, mngr, null, null) != null;
 	}
 	
 	public boolean isCurrent(Class<? extends PA_Task> taskClass, BleDevice device)
 	{
-		return PU_TaskQueue.isMatch(getCurrent(), taskClass, null, device, null);
+		return findCurrent(taskClass, null, device, null) != null;
 	}
 	public boolean isCurrent(Class<? extends PA_Task> taskClass, BleServer server)
 	{
-		return PU_TaskQueue.isMatch(getCurrent(), taskClass, null, null, server);
+		return findCurrent(taskClass, null, null, server) != null;
 	}
 	
 	private boolean isInQueue(Class<? extends PA_Task> taskClass, BleManager mngr_nullable, BleDevice device_nullable, BleServer server_nullable)
 	{
-		for( int i = 0; i < m_queue.size(); i++ )
+		if( m_mainLane.isInQueue(taskClass, mngr_nullable, device_nullable, server_nullable) )  return true;
+
+		if( m_deviceLanes.isEmpty() || server_nullable != null )  return false;
+
+		if( device_nullable != null )
 		{
-			if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, mngr_nullable, device_nullable, server_nullable) )
-			{
-				return true;
-			}
+			final P_TaskLane lane = getDeviceLane_nullable(device_nullable);
+
+			return lane != null && lane.isInQueue(taskClass, mngr_nullable, device_nullable, null);
 		}
-		
+
+		for( P_TaskLane lane : m_deviceLanes.values() )
+		{
+			if( lane.isInQueue(taskClass, mngr_nullable, null, null) )  return true;
+		}
+
 		return false;
 	}
 	
 	public int getSize()
 	{
-		return m_queue.size();
+		int size = m_mainLane.getSize();
+
+		for( P_TaskLane lane : m_deviceLanes.values() )
+		{
+			size += lane.getSize();
+		}
+
+		return size;
 	}
 
+	/**
+	 * Returns the backing list of the main lane. Server tasks always live in the main lane, even if {@link BleManagerConfig#perDeviceTaskLanes} is enabled.
+	 */
 	public List<PA_Task> getRaw()
 	{
-		return m_queue;
+		return m_mainLane.getRaw();
 	}
 	
 	public boolean isInQueue(Class<? extends PA_Task> taskClass, BleManager mngr)
@@ -466,134 +568,91 @@ final class P_TaskQueue
 	
 	public <T extends PA_Task> T get(Class<T> taskClass, BleManager mngr)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, mngr, null, null) )
-		{
-			return (T) getCurrent();
-		}
-		
-		for( int i = 0; i < m_queue.size(); i++ )
+		final PA_Task current = findCurrent(taskClass, mngr, null, null);
+
+		if( current != null )
 		{
-			if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, mngr, null, null) )
-			{
-				return (T) m_queue.get(i);
-			}
+			return (T) current;
 		}
 		
-		return null;
+		return (T) findInQueue(taskClass, mngr, null, null);
 	}
 	
 	public <T extends PA_Task> T getCurrent(Class<T> taskClass, BleDevice device)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, null, device, null) )
-		{
-			return (T) getCurrent();
-		}
-		
-		return null;
+		return (T) findCurrent(taskClass, null, device, null);
 	}
 	
 	public <T extends PA_Task> T getCurrent(Class<T> taskClass, BleManager mngr)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, mngr, null, null) )
-		{
-			return (T) getCurrent();
-		}
-		
-		return null;
+		return (T) findCurrent(taskClass, mngr, null, null);
 	}
 	
 	public <T extends PA_Task> T getCurrent(Class<T> taskClass, BleServer server)
 	{
-		if( PU_TaskQueue.isMatch(getCurrent(), taskClass, null, null, server) )
-		{
-			return (T) getCurrent();
-		}
-		
-		return null;
+		return (T) findCurrent(taskClass, null, null, server);
 	}
 	
 	void print()
 	{
-		if( m_logger.isEnabled() )
-		{
-			m_logger.i(this.toString());
-		}
-	}
-	
-	private void clearQueueOf$removeFromQueue(int index)
-	{
-		PA_Task task = m_queue.remove(index);
-
-		if( task.wasSoftlyCancelled() )
+		if( m_logger.isLoggable(Log.INFO) )
 		{
-			task.setEndingState(PE_TaskState.SOFTLY_CANCELLED);
+			//--- The queue can only be read from the update thread, so its string is built here, but at least without a stack walk.
+			m_logger.log(Log.INFO, TAG, "{}", this.toString());
 		}
-		else
-		{
-			task.setEndingState(PE_TaskState.CLEARED_FROM_QUEUE);
-		}
-		
-		print();
 	}
 	
 	public void clearQueueOf(Class<? extends PA_Task> taskClass, BleManager mngr)
 	{
-		for( int i = m_queue.size()-1; i >= 0; i-- )
+		m_mainLane.clearQueueOf(taskClass, mngr, null, null, -1);
+
+		for( P_TaskLane lane : getDeviceLanes() )
 		{
-			if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, mngr, null, null) )
-			{
-				clearQueueOf$removeFromQueue(i);
-			}
+			lane.clearQueueOf(taskClass, mngr, null, null, -1);
 		}
 	}
 	
 	public void clearQueueOf(Class<? extends PA_Task> taskClass, BleDevice device, final int ordinal)
 	{
-		for( int i = m_queue.size()-1; i >= 0; i-- )
-		{
-			final PA_Task task_ith = m_queue.get(i);
+		m_mainLane.clearQueueOf(taskClass, null, device, null, ordinal);
 
-			if( ordinal <= -1 || ordinal >= 0 && task_ith.getOrdinal() <= ordinal )
-			{
-				if( PU_TaskQueue.isMatch(task_ith, taskClass, null, device, null) )
-				{
-					clearQueueOf$removeFromQueue(i);
-				}
-			}
+		final P_TaskLane lane = getDeviceLane_nullable(device);
+
+		if( lane != null )
+		{
+			lane.clearQueueOf(taskClass, null, device, null, ordinal);
 		}
 	}
 	
 	public void clearQueueOf(Class<? extends PA_Task> taskClass, BleServer server)
 	{
-		for( int i = m_queue.size()-1; i >= 0; i-- )
-		{
-			if( PU_TaskQueue.isMatch(m_queue.get(i), taskClass, null, null, server) )
-			{
-				clearQueueOf$removeFromQueue(i);
-			}
-		}
+		m_mainLane.clearQueueOf(taskClass, null, null, server, -1);
 	}
 
 	public void clearQueueOfAll()
 	{
-		for (int i = m_queue.size() - 1; i >= 0; i-- )
+		m_mainLane.clearQueueOfAll();
+
+		for( P_TaskLane lane : getDeviceLanes() )
 		{
-			clearQueueOf$removeFromQueue(i);
+			lane.clearQueueOfAll();
 		}
 	}
 
 	@Override public String toString()
 	{
-		final String current = m_current.get() != null ? m_current.toString() : "no current task";
-//		if( m_pendingEndingStateForCurrentTask != null)
-//		{
-//			current += "(" + m_pendingEndingStateForCurrentTask.name() +")";
-//		}
-		
-		final String queue = m_queue.size() > 0 ? m_queue.toString() : "[queue empty]";
-		
-		final String toReturn = current + " " + queue;
-		
-		return toReturn;
+		if( m_deviceLanes.isEmpty() )
+		{
+			return m_mainLane.toString();
+		}
+
+		final StringBuilder builder = new StringBuilder(m_mainLane.toString());
+
+		for( P_TaskLane lane : m_deviceLanes.values() )
+		{
+			builder.append(" | ").append(lane.toString());
+		}
+
+		return builder.toString();
 	}
 }
@@ -144,6 +144,11 @@ final class P_Task_Connect extends PA_Task_RequiresBleOn
 		return super.isSoftlyCancellableBy(task);
 	}
 	
+	@Override protected boolean canSoftlyCancel()
+	{
+		return true;
+	}
+
 	@Override protected BleTask getTaskType()
 	{
 		return BleTask.CONNECT;
@@ -144,6 +144,11 @@ final class P_Task_ConnectServer extends PA_Task_ConnectOrDisconnectServer
 		fail();
 	}
 
+	@Override protected boolean canSoftlyCancel()
+	{
+		return true;
+	}
+
 	@Override protected BleTask getTaskType()
 	{
 		return BleTask.CONNECT_SERVER;
@@ -126,6 +126,11 @@ final class P_Task_Disconnect extends PA_Task_RequiresBleOn
 		return super.isSoftlyCancellableBy(task);
 	}
 	
+	@Override protected boolean canSoftlyCancel()
+	{
+		return true;
+	}
+
 	@Override protected BleTask getTaskType()
 	{
 		return BleTask.DISCONNECT;
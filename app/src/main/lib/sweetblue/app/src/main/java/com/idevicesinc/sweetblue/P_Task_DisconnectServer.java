@@ -59,6 +59,11 @@ final class P_Task_DisconnectServer extends PA_Task_ConnectOrDisconnectServer
 		succeed();
 	}
 
+	@Override protected boolean canSoftlyCancel()
+	{
+		return true;
+	}
+
 	@Override protected BleTask getTaskType()
 	{
 		return BleTask.DISCONNECT_SERVER;
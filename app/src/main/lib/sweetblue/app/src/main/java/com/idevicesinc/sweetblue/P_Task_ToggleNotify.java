@@ -19,16 +19,23 @@ final class P_Task_ToggleNotify extends PA_Task_ReadOrWrite implements PA_Task.I
 	private static int Type_INDICATE = 1;
 	
 	private final boolean m_enable;
+	private final boolean m_writeDescriptor;
 	private final UUID m_descUuid;
 	
 	private byte[] m_writeValue = null;
 
 	public P_Task_ToggleNotify(BleDevice device, BluetoothGattCharacteristic nativeChar, boolean enable, BleTransaction txn, final BleDevice.ReadWriteListener writeListener, PE_TaskPriority priority)
+	{
+		this(device, nativeChar, enable, /*writeDescriptor=*/true, txn, writeListener, priority);
+	}
+
+	public P_Task_ToggleNotify(BleDevice device, BluetoothGattCharacteristic nativeChar, boolean enable, boolean writeDescriptor, BleTransaction txn, final BleDevice.ReadWriteListener writeListener, PE_TaskPriority priority)
 	{
 		super(device, nativeChar, writeListener, false, txn, priority);
 		
 		m_descUuid = Uuids.CLIENT_CHARACTERISTIC_CONFIGURATION_DESCRIPTOR_UUID;
 		m_enable = enable;
+		m_writeDescriptor = writeDescriptor;
 	}
 
 	public P_Task_ToggleNotify(BleDevice device, UUID serviceUuid, UUID charUuid, DescriptorFilter filter, boolean enable, BleTransaction txn, final BleDevice.ReadWriteListener writeListener, PE_TaskPriority priority)
@@ -37,6 +44,7 @@ final class P_Task_ToggleNotify extends PA_Task_ReadOrWrite implements PA_Task.I
 
 		m_descUuid = Uuids.CLIENT_CHARACTERISTIC_CONFIGURATION_DESCRIPTOR_UUID;
 		m_enable = enable;
+		m_writeDescriptor = true;
 	}
 	
 	private byte[] getWriteValue()
@@ -91,6 +99,13 @@ final class P_Task_ToggleNotify extends PA_Task_ReadOrWrite implements PA_Task.I
 
 				// this.fail(Status.NO_MATCHING_TARGET, BleStatuses.GATT_STATUS_NOT_APPLICABLE, Target.DESCRIPTOR, m_uuid, m_descUuid);
 			}
+			else if( !m_writeDescriptor )
+			{
+				//--- Caller knows the remote side already has this value, e.g. a bonded peripheral keeps it across connections.
+				m_writeValue = getWriteValue(char_native, m_enable);
+
+				succeed();
+			}
 			else
 			{
 				m_writeValue = getWriteValue(char_native, m_enable);
@@ -83,6 +83,11 @@ final class P_Task_Unbond extends PA_Task_RequiresBleOn
 		return m_priority;
 	}
 	
+	@Override protected boolean canSoftlyCancel()
+	{
+		return true;
+	}
+
 	@Override protected BleTask getTaskType()
 	{
 		return BleTask.UNBOND;
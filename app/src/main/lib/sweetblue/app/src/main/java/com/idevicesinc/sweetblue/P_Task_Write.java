@@ -21,6 +21,10 @@ final class P_Task_Write extends PA_Task_ReadOrWrite
 
 	private final FutureData m_futureData;
 
+	private int m_writeType = WRITE_TYPE_UNSPECIFIED;
+
+	private static final int WRITE_TYPE_UNSPECIFIED = -1;
+
 
 	public P_Task_Write(BleDevice device, BluetoothGattCharacteristic characteristic, final FutureData futureData, boolean requiresBonding, BleDevice.ReadWriteListener writeListener, BleTransaction txn, PE_TaskPriority priority)
 	{
@@ -36,6 +40,14 @@ final class P_Task_Write extends PA_Task_ReadOrWrite
 		m_futureData = futureData;
 	}
 	
+	/**
+	 * Overrides the characteristic's write type, for example {@link BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE}, just for this write.
+	 */
+	void setWriteType(final int writeType)
+	{
+		m_writeType = writeType;
+	}
+
 	@Override protected ReadWriteEvent newReadWriteEvent(final Status status, final int gattStatus, final Target target, final UUID serviceUuid, final UUID charUuid, final UUID descUuid)
 	{
 		final BluetoothGattCharacteristic char_native = getDevice().getNativeCharacteristic(serviceUuid, charUuid);
@@ -65,7 +77,22 @@ final class P_Task_Write extends PA_Task_ReadOrWrite
 				}
 				else
 				{
-					if( false == getDevice().layerManager().writeCharacteristic(char_native) )
+					final int writeType_saved = char_native.getWriteType();
+
+					if( m_writeType != WRITE_TYPE_UNSPECIFIED )
+					{
+						char_native.setWriteType(m_writeType);
+					}
+
+					final boolean sent = getDevice().layerManager().writeCharacteristic(char_native);
+
+					//--- The write type is read when the write is sent out, so put it back for any other writes to this characteristic.
+					if( m_writeType != WRITE_TYPE_UNSPECIFIED )
+					{
+						char_native.setWriteType(writeType_saved);
+					}
+
+					if( false == sent )
 					{
 						fail(Status.FAILED_TO_SEND_OUT, BleStatuses.GATT_STATUS_NOT_APPLICABLE, getDefaultTarget(), getCharUuid(), ReadWriteEvent.NON_APPLICABLE_UUID);
 					}
@@ -229,6 +229,14 @@ final class P_TransactionManager
 		}
 	}
 	
+	boolean isAnyRunning()
+	{
+		return	(m_authTxn != null && m_authTxn.isRunning()) ||
+				(m_initTxn != null && m_initTxn.isRunning()) ||
+				(m_otaTxn != null && m_otaTxn.isRunning()) ||
+				(m_anonTxn != null && m_anonTxn.isRunning());
+	}
+
 	void update(double timeStep)
 	{
 		if( m_authTxn != null && m_authTxn.isRunning() )
@@ -0,0 +1,451 @@
+package com.idevicesinc.sweetblue.backend.historical;
+
+import com.idevicesinc.sweetblue.BleDeviceConfig;
+import com.idevicesinc.sweetblue.utils.EpochTimeRange;
+import com.idevicesinc.sweetblue.utils.ForEach_Breakable;
+import com.idevicesinc.sweetblue.utils.ForEach_Returning;
+import com.idevicesinc.sweetblue.utils.ForEach_Void;
+import com.idevicesinc.sweetblue.utils.HistoricalData;
+import com.idevicesinc.sweetblue.utils.HistoricalDataCursor;
+import com.idevicesinc.sweetblue.utils.UpdateLoop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Implementation of {@link Backend_HistoricalDataList} that keeps an in-memory list sorted by time, and passes anything that should be
+ * persisted on to a {@link Backend_HistoricalDatabase}. Until {@link #load(AsyncLoadCallback)} has brought the persisted data into memory,
+ * counts and cursors are answered by the database directly, which streams from disk, whenever it has data for this list.
+ */
+public class Backend_HistoricalDataList_Persistent implements Backend_HistoricalDataList
+{
+	private static final HistoricalDataCursor EMPTY_CURSOR = new P_HistoricalDataCursor_Empty();
+
+	private final ArrayList<HistoricalData> m_list = new ArrayList<HistoricalData>();
+
+	private Backend_HistoricalDatabase m_database;
+	private UpdateLoop m_updateLoop;
+	private String m_macAddress;
+	private UUID m_uuid;
+
+	private int m_loadState = LOAD_STATE__NOT_LOADED;
+
+	public Backend_HistoricalDataList_Persistent()
+	{
+	}
+
+	@Override public void init(final Backend_HistoricalDatabase database, final UpdateLoop updateLoop, final String macAddress, final UUID uuid, final String uuidName, final boolean hasExistingTable)
+	{
+		m_database = database;
+		m_updateLoop = updateLoop;
+		m_macAddress = macAddress;
+		m_uuid = uuid;
+	}
+
+	private static boolean isMemory(final int persistenceLevel)
+	{
+		return persistenceLevel == BleDeviceConfig.HistoricalDataLogFilter.PersistenceLevel_MEMORY || persistenceLevel == BleDeviceConfig.HistoricalDataLogFilter.PersistenceLevel_BOTH;
+	}
+
+	private static boolean isDisk(final int persistenceLevel)
+	{
+		return persistenceLevel == BleDeviceConfig.HistoricalDataLogFilter.PersistenceLevel_DISK || persistenceLevel == BleDeviceConfig.HistoricalDataLogFilter.PersistenceLevel_BOTH;
+	}
+
+	/**
+	 * Whether queries should go to the database because it has data that isn't in memory yet.
+	 */
+	private boolean shouldUseDatabase()
+	{
+		synchronized(m_list)
+		{
+			if( m_loadState == LOAD_STATE__LOADED )  return false;
+		}
+
+		return m_database.doesDataExist(m_macAddress, m_uuid);
+	}
+
+	//--- Index of the first element with a time >= the given time.
+	private int lowerBound(final long time)
+	{
+		int low = 0;
+		int high = m_list.size();
+
+		while( low < high )
+		{
+			final int mid = (low + high) >>> 1;
+
+			if( m_list.get(mid).getEpochTime_millis() < time )
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	//--- Index of the first element with a time > the given time.
+	private int upperBound(final long time)
+	{
+		return time == Long.MAX_VALUE ? m_list.size() : lowerBound(time + 1);
+	}
+
+	private void insert_noLock(final HistoricalData historicalData)
+	{
+		final long time = historicalData.getEpochTime_millis();
+
+		if( m_list.isEmpty() || m_list.get(m_list.size()-1).getEpochTime_millis() <= time )
+		{
+			m_list.add(historicalData);
+		}
+		else
+		{
+			m_list.add(upperBound(time), historicalData);
+		}
+	}
+
+	private void trim_noLock(final long limit)
+	{
+		final int overLimit = limit < Integer.MAX_VALUE ? m_list.size() - (int) Math.max(0, limit) : 0;
+
+		if( overLimit > 0 )
+		{
+			m_list.subList(0, overLimit).clear();
+		}
+	}
+
+	private long getDatabaseOverLimit(final long limit, final int adding)
+	{
+		if( limit == Long.MAX_VALUE )  return 0;
+
+		return Math.max(0, m_database.getCount(m_macAddress, m_uuid, EpochTimeRange.FROM_MIN_TO_MAX) + adding - limit);
+	}
+
+	@Override public void add_single(final HistoricalData historicalData, final int persistenceLevel, final long limit)
+	{
+		if( persistenceLevel == BleDeviceConfig.HistoricalDataLogFilter.PersistenceLevel_NONE )  return;
+
+		if( isMemory(persistenceLevel) )
+		{
+			synchronized(m_list)
+			{
+				insert_noLock(historicalData);
+				trim_noLock(limit);
+			}
+		}
+
+		if( isDisk(persistenceLevel) )
+		{
+			m_database.add_single(m_macAddress, m_uuid, historicalData, getDatabaseOverLimit(limit, 1));
+		}
+	}
+
+	@Override public void add_multiple(final Iterator<HistoricalData> historicalData, final int persistenceLevel, final long limit)
+	{
+		add_multiple(new ForEach_Returning<HistoricalData>()
+		{
+			@Override public HistoricalData next(final int index)
+			{
+				return historicalData.hasNext() ? historicalData.next() : null;
+			}
+		}, persistenceLevel, limit);
+	}
+
+	@Override public void add_multiple(final ForEach_Returning<HistoricalData> historicalData, final int persistenceLevel, final long limit)
+	{
+		if( persistenceLevel == BleDeviceConfig.HistoricalDataLogFilter.PersistenceLevel_NONE )  return;
+
+		final boolean memory = isMemory(persistenceLevel);
+		final boolean disk = isDisk(persistenceLevel);
+
+		if( disk )
+		{
+			m_database.add_multiple_start();
+		}
+
+		for( int i = 0; ; i++ )
+		{
+			final HistoricalData next = historicalData.next(i);
+
+			if( next == null )  break;
+
+			if( memory )
+			{
+				synchronized(m_list)
+				{
+					insert_noLock(next);
+				}
+			}
+
+			if( disk )
+			{
+				m_database.add_multiple_next(m_macAddress, m_uuid, next);
+			}
+		}
+
+		if( memory )
+		{
+			synchronized(m_list)
+			{
+				trim_noLock(limit);
+			}
+		}
+
+		if( disk )
+		{
+			m_database.add_multiple_end();
+
+			final long overLimit = getDatabaseOverLimit(limit, 0);
+
+			if( overLimit > 0 )
+			{
+				m_database.delete_singleUuid_inRange(m_macAddress, m_uuid, EpochTimeRange.FROM_MIN_TO_MAX, overLimit);
+			}
+		}
+	}
+
+	@Override public int getCount(final EpochTimeRange range)
+	{
+		if( shouldUseDatabase() )
+		{
+			return m_database.getCount(m_macAddress, m_uuid, range);
+		}
+
+		synchronized(m_list)
+		{
+			return Math.max(0, upperBound(range.to().toMilliseconds()) - lowerBound(range.from().toMilliseconds()));
+		}
+	}
+
+	@Override public HistoricalData get(final EpochTimeRange range, final int offset)
+	{
+		synchronized(m_list)
+		{
+			final int index = lowerBound(range.from().toMilliseconds()) + offset;
+
+			if( offset >= 0 && index < upperBound(range.to().toMilliseconds()) )
+			{
+				return m_list.get(index);
+			}
+			else
+			{
+				return HistoricalData.NULL;
+			}
+		}
+	}
+
+	@Override public Iterator<HistoricalData> getIterator(final EpochTimeRange range)
+	{
+		final HistoricalData[] snapshot = getSnapshot(range);
+
+		return new Iterator<HistoricalData>()
+		{
+			private int m_index = 0;
+
+			@Override public boolean hasNext()
+			{
+				return m_index < snapshot.length;
+			}
+
+			@Override public HistoricalData next()
+			{
+				if( !hasNext() )  throw new NoSuchElementException();
+
+				return snapshot[m_index++];
+			}
+
+			@Override public void remove()
+			{
+				if( m_index == 0 )  throw new IllegalStateException();
+
+				synchronized(m_list)
+				{
+					m_list.remove(snapshot[m_index-1]);
+				}
+			}
+		};
+	}
+
+	private HistoricalData[] getSnapshot(final EpochTimeRange range)
+	{
+		synchronized(m_list)
+		{
+			final int from = lowerBound(range.from().toMilliseconds());
+			final int to = upperBound(range.to().toMilliseconds());
+
+			if( from >= to )  return new HistoricalData[0];
+
+			return m_list.subList(from, to).toArray(new HistoricalData[to - from]);
+		}
+	}
+
+	@Override public boolean doForEach(final EpochTimeRange range, final Object forEach)
+	{
+		if( !(forEach instanceof ForEach_Void) && !(forEach instanceof ForEach_Breakable) )  return false;
+
+		final HistoricalData[] snapshot = getSnapshot(range);
+
+		for( int i = 0; i < snapshot.length; i++ )
+		{
+			if( forEach instanceof ForEach_Void )
+			{
+				((ForEach_Void<HistoricalData>)forEach).next(snapshot[i]);
+			}
+			else
+			{
+				final ForEach_Breakable.Please please = ((ForEach_Breakable<HistoricalData>)forEach).next(snapshot[i]);
+
+				if( please != null && please.shouldBreak() )  break;
+			}
+		}
+
+		return snapshot.length > 0;
+	}
+
+	@Override public void delete_fromMemoryOnly(final EpochTimeRange range, final long count)
+	{
+		if( count <= 0 )  return;
+
+		synchronized(m_list)
+		{
+			final int from = lowerBound(range.from().toMilliseconds());
+			final int to = upperBound(range.to().toMilliseconds());
+			final int end = (int) Math.min(to, from + Math.min(count, Integer.MAX_VALUE));
+
+			if( from < end )
+			{
+				m_list.subList(from, end).clear();
+			}
+		}
+	}
+
+	@Override public void delete_fromMemoryOnlyForNowButDatabaseSoon(final EpochTimeRange range, final long count)
+	{
+		//--- The caller deletes from the database itself, for all lists at once.
+		delete_fromMemoryOnly(range, count);
+	}
+
+	@Override public void delete_fromMemoryAndDatabase(final EpochTimeRange range, final long count)
+	{
+		delete_fromMemoryOnly(range, count);
+
+		m_database.delete_singleUuid_inRange(m_macAddress, m_uuid, range, count);
+	}
+
+	@Override public String getMacAddress()
+	{
+		return m_macAddress;
+	}
+
+	@Override public void load(final AsyncLoadCallback callback_nullable)
+	{
+		synchronized(m_list)
+		{
+			if( m_loadState == LOAD_STATE__LOADED )
+			{
+				if( callback_nullable != null )
+				{
+					callback_nullable.onDone();
+				}
+
+				return;
+			}
+
+			m_loadState = LOAD_STATE__LOADING;
+		}
+
+		m_updateLoop.forcePost(new Runnable()
+		{
+			@Override public void run()
+			{
+				final ArrayList<HistoricalData> loaded = new ArrayList<HistoricalData>();
+
+				m_database.load(m_macAddress, m_uuid, EpochTimeRange.FROM_MIN_TO_MAX, new ForEach_Void<HistoricalData>()
+				{
+					@Override public void next(final HistoricalData next)
+					{
+						loaded.add(next);
+					}
+				});
+
+				synchronized(m_list)
+				{
+					for( int i = 0; i < loaded.size(); i++ )
+					{
+						//--- Data logged to both memory and disk this session is already here.
+						if( !contains_noLock(loaded.get(i)) )
+						{
+							insert_noLock(loaded.get(i));
+						}
+					}
+
+					m_loadState = m_list.isEmpty() ? LOAD_STATE__NOT_LOADED : LOAD_STATE__LOADED;
+				}
+
+				if( callback_nullable != null )
+				{
+					callback_nullable.onDone();
+				}
+			}
+		});
+	}
+
+	private boolean contains_noLock(final HistoricalData historicalData)
+	{
+		final long time = historicalData.getEpochTime_millis();
+		final int end = upperBound(time);
+
+		for( int i = lowerBound(time); i < end; i++ )
+		{
+			if( Arrays.equals(m_list.get(i).getBlob(), historicalData.getBlob()) )  return true;
+		}
+
+		return false;
+	}
+
+	@Override public int getLoadState()
+	{
+		synchronized(m_list)
+		{
+			return m_loadState;
+		}
+	}
+
+	@Override public HistoricalDataCursor getCursor(final EpochTimeRange range)
+	{
+		if( shouldUseDatabase() )
+		{
+			return m_database.getCursor(m_macAddress, m_uuid, range);
+		}
+
+		final HistoricalData[] snapshot = getSnapshot(range);
+
+		if( snapshot.length == 0 )  return EMPTY_CURSOR;
+
+		final P_HistoricalDataIndexCache indexCache = new P_HistoricalDataIndexCache(snapshot[0].getEpochTime(), snapshot[snapshot.length-1].getEpochTime(), 0, snapshot.length-1);
+
+		return new P_HistoricalDataCursor_List(Arrays.asList(snapshot), indexCache);
+	}
+
+	@Override public EpochTimeRange getRange()
+	{
+		synchronized(m_list)
+		{
+			if( m_list.isEmpty() )
+			{
+				return EpochTimeRange.NULL;
+			}
+			else
+			{
+				return new EpochTimeRange(m_list.get(0).getEpochTime(), m_list.get(m_list.size()-1).getEpochTime());
+			}
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package com.idevicesinc.sweetblue.backend.historical;
+
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.idevicesinc.sweetblue.BleManager;
+import com.idevicesinc.sweetblue.utils.EmptyCursor;
+import com.idevicesinc.sweetblue.utils.EpochTime;
+import com.idevicesinc.sweetblue.utils.EpochTimeRange;
+import com.idevicesinc.sweetblue.utils.ForEach_Void;
+import com.idevicesinc.sweetblue.utils.HistoricalData;
+import com.idevicesinc.sweetblue.utils.HistoricalDataCursor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Implementation of {@link Backend_HistoricalDatabase} that keeps an append-only, block-compressed file per MAC address/UUID combination
+ * (see {@link P_HistoricalDataStore}) under the app's private files directory. There's no SQL behind this, so {@link #query(String)}
+ * always returns an empty cursor; use {@link #getCursor(String, UUID, EpochTimeRange)} instead, which streams from disk.
+ */
+public class Backend_HistoricalDatabase_Persistent implements Backend_HistoricalDatabase
+{
+	private static final String DIRECTORY_NAME = "sweetblue_historical_data";
+	private static final long RETENTION_CHECK_INTERVAL = 60 * 1000;
+	private static final HistoricalDataCursor EMPTY_CURSOR = new P_HistoricalDataCursor_Empty();
+
+	private final HashMap<String, P_HistoricalDataStore> m_stores = new HashMap<String, P_HistoricalDataStore>();
+	private final HashMap<String, Long> m_lastRetentionChecks = new HashMap<String, Long>();
+	private final ArrayList<P_HistoricalDataStore> m_batch = new ArrayList<P_HistoricalDataStore>();
+
+	private final long m_retentionMaxAge;
+
+	private File m_root;
+
+	public Backend_HistoricalDatabase_Persistent(final Context context)
+	{
+		this(context, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Data older than <code>retentionMaxAge</code> milliseconds is dropped as new data is added. {@link Long#MAX_VALUE} means no limit,
+	 * which is what the other constructors use.
+	 */
+	public Backend_HistoricalDatabase_Persistent(final Context context, final long retentionMaxAge)
+	{
+		m_root = context != null ? new File(context.getFilesDir(), DIRECTORY_NAME) : null;
+		m_retentionMaxAge = retentionMaxAge;
+	}
+
+	public Backend_HistoricalDatabase_Persistent(final File directory)
+	{
+		this(directory, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Same as {@link #Backend_HistoricalDatabase_Persistent(Context, long)}, but keeps its files under the given directory.
+	 */
+	public Backend_HistoricalDatabase_Persistent(final File directory, final long retentionMaxAge)
+	{
+		m_root = directory;
+		m_retentionMaxAge = retentionMaxAge;
+	}
+
+	public Backend_HistoricalDatabase_Persistent()
+	{
+		this((File) null, Long.MAX_VALUE);
+	}
+
+	@Override public void init(final BleManager manager)
+	{
+		if( m_root == null && manager != null )
+		{
+			m_root = new File(manager.getApplicationContext().getFilesDir(), DIRECTORY_NAME);
+		}
+	}
+
+	private P_HistoricalDataStore getStore(final String macAddress, final UUID uuid, final boolean create)
+	{
+		final String tableName = getTableName(macAddress, uuid);
+
+		synchronized(m_stores)
+		{
+			P_HistoricalDataStore store = m_stores.get(tableName);
+
+			if( store == null && m_root != null )
+			{
+				final File directory = new File(m_root, tableName);
+
+				if( create || directory.exists() )
+				{
+					store = new P_HistoricalDataStore(directory);
+					m_stores.put(tableName, store);
+				}
+			}
+
+			return store;
+		}
+	}
+
+	private void applyRetention(final P_HistoricalDataStore store)
+	{
+		if( m_retentionMaxAge == Long.MAX_VALUE )  return;
+
+		final long now = System.currentTimeMillis();
+		final String key = store.getDirectory().getName();
+
+		synchronized(m_stores)
+		{
+			final Long lastCheck = m_lastRetentionChecks.get(key);
+
+			if( lastCheck != null && now - lastCheck < RETENTION_CHECK_INTERVAL )  return;
+
+			m_lastRetentionChecks.put(key, now);
+		}
+
+		store.delete(EpochTimeRange.fromMin_toGiven(new EpochTime(now - m_retentionMaxAge)), Long.MAX_VALUE);
+	}
+
+	@Override public void add_single(final String macAddress, final UUID uuid, final HistoricalData data, final long maxCountToDelete)
+	{
+		final P_HistoricalDataStore store = getStore(macAddress, uuid, /*create=*/true);
+
+		if( store == null )  return;
+
+		store.append(data, /*journalNow=*/true);
+
+		if( maxCountToDelete > 0 )
+		{
+			store.delete(EpochTimeRange.FROM_MIN_TO_MAX, maxCountToDelete);
+		}
+
+		applyRetention(store);
+	}
+
+	@Override public void add_multiple_start()
+	{
+		synchronized(m_batch)
+		{
+			m_batch.clear();
+		}
+	}
+
+	@Override public void add_multiple_next(final String macAddress, final UUID uuid, final HistoricalData data)
+	{
+		final P_HistoricalDataStore store = getStore(macAddress, uuid, /*create=*/true);
+
+		if( store == null )  return;
+
+		store.append(data, /*journalNow=*/false);
+
+		synchronized(m_batch)
+		{
+			if( !m_batch.contains(store) )
+			{
+				m_batch.add(store);
+			}
+		}
+	}
+
+	@Override public void add_multiple_end()
+	{
+		synchronized(m_batch)
+		{
+			for( int i = 0; i < m_batch.size(); i++ )
+			{
+				m_batch.get(i).flushJournal();
+
+				applyRetention(m_batch.get(i));
+			}
+
+			m_batch.clear();
+		}
+	}
+
+	@Override public void delete_singleUuid_all(final String macAddress, final UUID uuid)
+	{
+		final P_HistoricalDataStore store = getStore(macAddress, uuid, /*create=*/false);
+
+		if( store == null )  return;
+
+		synchronized(m_stores)
+		{
+			m_stores.remove(getTableName(macAddress, uuid));
+		}
+
+		store.deleteAll();
+	}
+
+	@Override public void delete_singleUuid_inRange(final String macAddress, final UUID uuid, final EpochTimeRange range, final long maxCountToDelete)
+	{
+		final P_HistoricalDataStore store = getStore(macAddress, uuid, /*create=*/false);
+
+		if( store == null )  return;
+
+		store.delete(range, maxCountToDelete);
+	}
+
+	@Override public void delete_singleUuid_singleDate(final String macAddress, final UUID uuid, final long date)
+	{
+		delete_singleUuid_inRange(macAddress, uuid, new EpochTimeRange(date, date), Long.MAX_VALUE);
+	}
+
+	@Override public void delete_multipleUuids(final String[] macAddresses, final UUID[] uuids, final EpochTimeRange range, final long count)
+	{
+		for( int i = 0; i < uuids.length; i++ )
+		{
+			delete_singleUuid_inRange(macAddresses[i], uuids[i], range, count);
+		}
+	}
+
+	@Override public boolean doesDataExist(final String macAddress, final UUID uuid)
+	{
+		final P_HistoricalDataStore store = getStore(macAddress, uuid, /*create=*/false);
+
+		return store != null && store.getCount() > 0;
+	}
+
+	@Override public void load(final String macAddress, final UUID uuid, final EpochTimeRange range, final ForEach_Void<HistoricalData> forEach)
+	{
+		final HistoricalDataCursor cursor = getCursor(macAddress, uuid, range);
+
+		try
+		{
+			while( cursor.moveToNext() )
+			{
+				forEach.next(cursor.getHistoricalData());
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	@Override public int getCount(final String macAddress, final UUID uuid, final EpochTimeRange range)
+	{
+		final P_HistoricalDataStore store = getStore(macAddress, uuid, /*create=*/false);
+
+		if( store == null )  return 0;
+
+		if( range.from().toMilliseconds() == Long.MIN_VALUE && range.to().toMilliseconds() == Long.MAX_VALUE )
+		{
+			return store.getCount();
+		}
+
+		final HistoricalDataCursor cursor = new P_HistoricalDataCursor_Store(store.snapshot(), range);
+		final int count = cursor.getCount();
+		cursor.close();
+
+		return count;
+	}
+
+	@Override public HistoricalDataCursor getCursor(final String macAddress, final UUID uuid, final EpochTimeRange range)
+	{
+		final P_HistoricalDataStore store = getStore(macAddress, uuid, /*create=*/false);
+
+		if( store == null )  return EMPTY_CURSOR;
+
+		return new P_HistoricalDataCursor_Store(store.snapshot(), range);
+	}
+
+	@Override public Cursor query(final String query)
+	{
+		return EmptyCursor.SINGLETON;
+	}
+
+	@Override public String getTableName(final String macAddress, final UUID uuid)
+	{
+		return macAddress.replace(":", "") + "_" + uuid.toString().replace("-", "");
+	}
+}
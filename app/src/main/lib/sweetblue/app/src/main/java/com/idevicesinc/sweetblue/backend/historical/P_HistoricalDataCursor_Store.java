@@ -0,0 +1,285 @@
+package com.idevicesinc.sweetblue.backend.historical;
+
+import com.idevicesinc.sweetblue.utils.EpochTimeRange;
+import com.idevicesinc.sweetblue.utils.HistoricalData;
+import com.idevicesinc.sweetblue.utils.HistoricalDataCursor;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streams the records of a {@link P_HistoricalDataStore.Snapshot} that fall within a range. Only blocks that partially overlap the
+ * range are decompressed up front, to count their matches; everything else is decompressed one block at a time as the cursor moves.
+ * The snapshot comes with the segment file already open, and it stays open until {@link #close()}, so that a compaction in the meantime
+ * doesn't pull the data out from under the cursor.
+ */
+final class P_HistoricalDataCursor_Store implements HistoricalDataCursor
+{
+	private final P_HistoricalDataStore.Snapshot m_snapshot;
+	private final long m_from;
+	private final long m_to;
+
+	//--- Number of matches before each block, with the total for all blocks at the end.
+	private final int[] m_matchesBefore;
+	//--- Index of the first live record in each block, non-zero only for blocks behind the head.
+	private final int[] m_firstRecord;
+	private final boolean[] m_isWhole;
+	private final int[] m_pendingMatches;
+
+	private int m_cachedBlock = -1;
+	private HistoricalData[] m_cachedRecords;
+	private int[] m_cachedMatches;
+
+	private int m_position = -1;
+	private boolean m_isClosed = false;
+
+	P_HistoricalDataCursor_Store(final P_HistoricalDataStore.Snapshot snapshot, final EpochTimeRange range)
+	{
+		m_snapshot = snapshot;
+		m_from = range.from().toMilliseconds();
+		m_to = range.to().toMilliseconds();
+
+		final P_HistoricalDataStore.Block[] blocks = snapshot.m_blocks;
+
+		m_matchesBefore = new int[blocks.length + 1];
+		m_firstRecord = new int[blocks.length];
+		m_isWhole = new boolean[blocks.length];
+
+		int skip = snapshot.m_headSkip;
+		int total = 0;
+
+		for( int i = 0; i < blocks.length; i++ )
+		{
+			final P_HistoricalDataStore.Block block = blocks[i];
+
+			m_matchesBefore[i] = total;
+			m_firstRecord[i] = Math.min(skip, block.m_count);
+			skip -= m_firstRecord[i];
+
+			if( m_firstRecord[i] == block.m_count || !block.overlaps(m_from, m_to) )  continue;
+
+			if( block.isWithin(m_from, m_to) )
+			{
+				m_isWhole[i] = true;
+				total += block.m_count - m_firstRecord[i];
+			}
+			else if( loadBlock(i) )
+			{
+				total += m_cachedMatches.length;
+			}
+		}
+
+		m_matchesBefore[blocks.length] = total;
+
+		final int[] pendingMatches = new int[snapshot.m_pending.length];
+		int pendingCount = 0;
+
+		for( int i = 0; i < snapshot.m_pending.length; i++ )
+		{
+			if( P_HistoricalDataStore.isBetween(snapshot.m_pending[i], m_from, m_to) )
+			{
+				pendingMatches[pendingCount++] = i;
+			}
+		}
+
+		m_pendingMatches = Arrays.copyOf(pendingMatches, pendingCount);
+	}
+
+	private boolean loadBlock(final int blockIndex)
+	{
+		if( m_cachedBlock == blockIndex )  return true;
+
+		try
+		{
+			if( m_snapshot.m_file == null )  throw new IOException("Segment file isn't open");
+
+			final HistoricalData[] records = P_HistoricalDataStore.readBlock(m_snapshot.m_file, m_snapshot.m_blocks[blockIndex]);
+
+			int[] matches = null;
+
+			if( !m_isWhole[blockIndex] )
+			{
+				matches = new int[records.length];
+				int count = 0;
+
+				for( int i = m_firstRecord[blockIndex]; i < records.length; i++ )
+				{
+					if( P_HistoricalDataStore.isBetween(records[i], m_from, m_to) )
+					{
+						matches[count++] = i;
+					}
+				}
+
+				matches = Arrays.copyOf(matches, count);
+			}
+
+			m_cachedBlock = blockIndex;
+			m_cachedRecords = records;
+			m_cachedMatches = matches;
+
+			return true;
+		}
+		catch(IOException e)
+		{
+			m_cachedBlock = -1;
+			m_cachedRecords = null;
+			m_cachedMatches = null;
+
+			return false;
+		}
+	}
+
+	@Override public int getCount()
+	{
+		return m_matchesBefore[m_matchesBefore.length-1] + m_pendingMatches.length;
+	}
+
+	@Override public int getPosition()
+	{
+		return m_position;
+	}
+
+	@Override public boolean move(int offset)
+	{
+		return moveToPosition(getPosition() + offset);
+	}
+
+	@Override public boolean moveToPosition(int position)
+	{
+		if( position < 0 )
+		{
+			m_position = -1;
+
+			return false;
+		}
+		else if( position >= getCount() )
+		{
+			m_position = getCount();
+
+			return false;
+		}
+		else
+		{
+			m_position = position;
+
+			return true;
+		}
+	}
+
+	@Override public boolean moveToFirst()
+	{
+		return moveToPosition(0);
+	}
+
+	@Override public boolean moveToLast()
+	{
+		return moveToPosition(getCount()-1);
+	}
+
+	@Override public boolean moveToNext()
+	{
+		return moveToPosition(getPosition()+1);
+	}
+
+	@Override public boolean moveToPrevious()
+	{
+		return moveToPosition(getPosition()-1);
+	}
+
+	@Override public boolean isFirst()
+	{
+		return getCount() > 0 && getPosition() == 0;
+	}
+
+	@Override public boolean isLast()
+	{
+		return getCount() > 0 && getPosition() == getCount()-1;
+	}
+
+	@Override public boolean isBeforeFirst()
+	{
+		return getCount() == 0 || m_position == -1;
+	}
+
+	@Override public boolean isAfterLast()
+	{
+		return getCount() == 0 || m_position >= getCount();
+	}
+
+	@Override public void close()
+	{
+		if( m_isClosed )  return;
+
+		m_isClosed = true;
+
+		m_cachedBlock = -1;
+		m_cachedRecords = null;
+		m_cachedMatches = null;
+
+		if( m_snapshot.m_file != null )
+		{
+			try
+			{
+				m_snapshot.m_file.close();
+			}
+			catch(IOException e)
+			{
+			}
+		}
+	}
+
+	@Override public boolean isClosed()
+	{
+		return m_isClosed;
+	}
+
+	@Override public long getEpochTime()
+	{
+		return getHistoricalData().getEpochTime_millis();
+	}
+
+	@Override public byte[] getBlob()
+	{
+		return getHistoricalData().getBlob();
+	}
+
+	@Override public HistoricalData getHistoricalData()
+	{
+		if( m_isClosed || m_position < 0 || m_position >= getCount() )  return HistoricalData.NULL;
+
+		final int blockTotal = m_matchesBefore[m_matchesBefore.length-1];
+
+		if( m_position >= blockTotal )
+		{
+			return m_snapshot.m_pending[m_pendingMatches[m_position - blockTotal]];
+		}
+
+		int blockIndex = Arrays.binarySearch(m_matchesBefore, 0, m_matchesBefore.length-1, m_position);
+
+		if( blockIndex < 0 )
+		{
+			blockIndex = -blockIndex - 2;
+		}
+		else
+		{
+			//--- Blocks with no matches share their start with the next block, so move on to the one that actually has it.
+			while( m_matchesBefore[blockIndex+1] == m_position )
+			{
+				blockIndex++;
+			}
+		}
+
+		if( !loadBlock(blockIndex) )  return HistoricalData.NULL;
+
+		final int offset = m_position - m_matchesBefore[blockIndex];
+
+		if( m_isWhole[blockIndex] )
+		{
+			return m_cachedRecords[m_firstRecord[blockIndex] + offset];
+		}
+		else
+		{
+			return m_cachedRecords[m_cachedMatches[offset]];
+		}
+	}
+}
@@ -0,0 +1,1060 @@
+package com.idevicesinc.sweetblue.backend.historical;
+
+import android.util.Log;
+
+import com.idevicesinc.sweetblue.utils.EpochTimeRange;
+import com.idevicesinc.sweetblue.utils.HistoricalData;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only storage of historical data for a single MAC address/UUID combination, kept in its own directory.
+ * <br><br>
+ * New records are appended to an uncompressed journal file so they survive a crash right away, and are also kept in memory.
+ * Once enough have piled up they're deflated together into a block at the end of the segment file, and the journal is emptied.
+ * Each block's header has its record count and time span, and those headers are read into memory when the store is opened, giving
+ * a sparse index that lets range queries skip any block that can't contain a match without decompressing it.
+ * <br><br>
+ * Records are kept in the order they were added, which for data logged as it comes in is also time order. Deleting the oldest
+ * records, which is what count and age limits do, only moves a persisted head offset; the space is reclaimed once enough of
+ * the segment file is dead. Any other delete rewrites the affected blocks.
+ * <br><br>
+ * Before a block is appended, the head file notes how much of the journal it holds and where the segment file will end with it.
+ * If the app dies before the journal is emptied, the next open sees the block made it and skips that part of the journal instead
+ * of storing its records twice.
+ */
+final class P_HistoricalDataStore
+{
+	static final int BLOCK_RECORD_COUNT		= 128;
+	static final int BLOCK_RAW_SIZE			= 16 * 1024;
+
+	private static final int BLOCK_HEADER_SIZE	= 4 + 8 + 8 + 4 + 4;
+	private static final int RECORD_HEADER_SIZE	= 8 + 4;
+
+	private static final String SEGMENT_FILE	= "segment";
+	private static final String JOURNAL_FILE	= "journal";
+	private static final String HEAD_FILE		= "head";
+	private static final String TEMP_SUFFIX		= ".tmp";
+
+	/**
+	 * Sparse index entry for one compressed block of the segment file.
+	 */
+	static final class Block
+	{
+		final long m_offset;
+		final int m_count;
+		final long m_minTime;
+		final long m_maxTime;
+		final int m_rawLength;
+		final int m_compressedLength;
+
+		Block(final long offset, final int count, final long minTime, final long maxTime, final int rawLength, final int compressedLength)
+		{
+			m_offset = offset;
+			m_count = count;
+			m_minTime = minTime;
+			m_maxTime = maxTime;
+			m_rawLength = rawLength;
+			m_compressedLength = compressedLength;
+		}
+
+		boolean overlaps(final long from, final long to)
+		{
+			return m_maxTime >= from && m_minTime <= to;
+		}
+
+		boolean isWithin(final long from, final long to)
+		{
+			return m_minTime >= from && m_maxTime <= to;
+		}
+	}
+
+	/**
+	 * An immutable view of the store at one point in time, which is what cursors read from.
+	 */
+	static final class Snapshot
+	{
+		final RandomAccessFile m_file;
+		final Block[] m_blocks;
+		final int m_headSkip;
+		final HistoricalData[] m_pending;
+
+		Snapshot(final RandomAccessFile file, final Block[] blocks, final int headSkip, final HistoricalData[] pending)
+		{
+			m_file = file;
+			m_blocks = blocks;
+			m_headSkip = headSkip;
+			m_pending = pending;
+		}
+	}
+
+	private final File m_directory;
+	private final File m_segmentFile;
+	private final File m_journalFile;
+	private final File m_headFile;
+
+	private final ArrayList<Block> m_blocks = new ArrayList<Block>();
+	private final ArrayList<HistoricalData> m_pending = new ArrayList<HistoricalData>();
+
+	private int m_pendingRawSize = 0;
+	private int m_unjournaledCount = 0;
+	private int m_headSkip = 0;
+	private long m_segmentLength = 0;
+	private int m_blockRecordCount = 0;
+
+	//--- Set in the head file while a block is being sealed, see sealPendingIntoBlock().
+	private long m_sealedJournalLength = 0;
+	private long m_sealedSegmentEnd = 0;
+
+	//--- Lets tests look at the files at the points where the app could die while sealing a block.
+	Runnable m_onSealStep = null;
+
+	P_HistoricalDataStore(final File directory)
+	{
+		m_directory = directory;
+		m_segmentFile = new File(directory, SEGMENT_FILE);
+		m_journalFile = new File(directory, JOURNAL_FILE);
+		m_headFile = new File(directory, HEAD_FILE);
+
+		open();
+	}
+
+	File getDirectory()
+	{
+		return m_directory;
+	}
+
+	synchronized int getCount()
+	{
+		return m_blockRecordCount - m_headSkip + m_pending.size();
+	}
+
+	/**
+	 * Adds a record. If <code>journalNow</code> is <code>false</code>, the record is only journaled on the next call to {@link #flushJournal()},
+	 * which is how batches of records get written in one go.
+	 */
+	synchronized void append(final HistoricalData data, final boolean journalNow)
+	{
+		m_directory.mkdirs();
+
+		m_pending.add(data);
+		m_pendingRawSize += RECORD_HEADER_SIZE + data.getBlob().length;
+		m_unjournaledCount++;
+
+		if( journalNow )
+		{
+			flushJournal();
+		}
+	}
+
+	synchronized void flushJournal()
+	{
+		if( m_unjournaledCount == 0 )  return;
+
+		try
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(bytes);
+
+			for( int i = m_pending.size() - m_unjournaledCount; i < m_pending.size(); i++ )
+			{
+				writeRecord(out, m_pending.get(i));
+			}
+
+			appendToFile(m_journalFile, bytes.toByteArray());
+
+			m_unjournaledCount = 0;
+
+			if( m_pending.size() >= BLOCK_RECORD_COUNT || m_pendingRawSize >= BLOCK_RAW_SIZE )
+			{
+				sealPendingIntoBlock();
+			}
+		}
+		catch(IOException e)
+		{
+			//--- Records stay in memory, and get another chance to hit the disk with the next flush.
+			logFailure("Couldn't journal to " + m_journalFile, e);
+		}
+	}
+
+	/**
+	 * The segment file is opened here, under the store's lock, so that the offsets in the snapshot are always those of the file it
+	 * reads from, even if a compaction replaces the segment file before the first read. Whoever reads the snapshot has to close
+	 * {@link Snapshot#m_file}, which is <code>null</code> if there are no blocks.
+	 */
+	synchronized Snapshot snapshot()
+	{
+		RandomAccessFile file = null;
+
+		if( !m_blocks.isEmpty() )
+		{
+			try
+			{
+				file = new RandomAccessFile(m_segmentFile, "r");
+			}
+			catch(IOException e)
+			{
+				logFailure("Couldn't open " + m_segmentFile, e);
+			}
+		}
+
+		return new Snapshot(file, m_blocks.toArray(new Block[m_blocks.size()]), m_headSkip, m_pending.toArray(new HistoricalData[m_pending.size()]));
+	}
+
+	/**
+	 * Deletes up to <code>maxCount</code> records within the given range, oldest first.
+	 */
+	synchronized void delete(final EpochTimeRange range, final long maxCount)
+	{
+		if( maxCount <= 0 || getCount() == 0 )  return;
+
+		final long from = range.from().toMilliseconds();
+		final long to = range.to().toMilliseconds();
+
+		try
+		{
+			final long prefix = getDeletablePrefix(from, to, maxCount);
+
+			if( prefix >= 0 )
+			{
+				deletePrefix(prefix);
+			}
+			else
+			{
+				rewrite(from, to, maxCount);
+			}
+		}
+		catch(IOException e)
+		{
+			logFailure("Couldn't delete from " + m_directory, e);
+		}
+	}
+
+	synchronized void deleteAll()
+	{
+		m_blocks.clear();
+		m_pending.clear();
+		m_pendingRawSize = 0;
+		m_unjournaledCount = 0;
+		m_headSkip = 0;
+		m_segmentLength = 0;
+		m_blockRecordCount = 0;
+		m_sealedJournalLength = 0;
+		m_sealedSegmentEnd = 0;
+
+		deleteFile(m_segmentFile);
+		deleteFile(m_journalFile);
+		deleteFile(m_headFile);
+		deleteFile(m_directory);
+	}
+
+	/**
+	 * Decodes the records of a block, in order, for readers holding a {@link Snapshot}.
+	 */
+	static HistoricalData[] readBlock(final RandomAccessFile file, final Block block) throws IOException
+	{
+		final byte[] compressed = new byte[block.m_compressedLength];
+		file.seek(block.m_offset + BLOCK_HEADER_SIZE);
+		file.readFully(compressed);
+
+		final byte[] raw = new byte[block.m_rawLength];
+		final Inflater inflater = new Inflater();
+
+		try
+		{
+			inflater.setInput(compressed);
+
+			int inflated = 0;
+
+			while( inflated < raw.length && !inflater.finished() )
+			{
+				final int count = inflater.inflate(raw, inflated, raw.length - inflated);
+
+				if( count == 0 && (inflater.needsInput() || inflater.needsDictionary()) )  break;
+
+				inflated += count;
+			}
+
+			if( inflated != raw.length )
+			{
+				throw new IOException("Truncated block at " + block.m_offset);
+			}
+		}
+		catch(DataFormatException e)
+		{
+			throw new IOException(e.getMessage());
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+		final HistoricalData[] records = new HistoricalData[block.m_count];
+
+		for( int i = 0; i < records.length; i++ )
+		{
+			records[i] = readRecord(in);
+		}
+
+		return records;
+	}
+
+	private void open()
+	{
+		final long[] head = readLongs(m_headFile, 3);
+
+		m_headSkip = (int) head[0];
+		m_sealedJournalLength = head[1];
+		m_sealedSegmentEnd = head[2];
+
+		if( m_segmentFile.exists() )
+		{
+			try
+			{
+				indexSegmentFile();
+			}
+			catch(IOException e)
+			{
+				logFailure("Couldn't index " + m_segmentFile, e);
+			}
+		}
+
+		//--- If the app died while sealing a block, the start of the journal is only already in the segment if the block made it there in full.
+		final boolean blockMadeIt = m_sealedSegmentEnd > 0 && m_segmentLength >= m_sealedSegmentEnd;
+
+		if( m_journalFile.exists() )
+		{
+			replayJournal(blockMadeIt ? m_sealedJournalLength : 0);
+		}
+
+		m_headSkip = Math.min(m_headSkip, m_blockRecordCount);
+
+		if( m_sealedSegmentEnd > 0 )
+		{
+			m_sealedJournalLength = 0;
+			m_sealedSegmentEnd = 0;
+
+			try
+			{
+				//--- Journal has to lose the sealed records before the marker goes, same as when sealing.
+				rewriteJournal();
+				writeHead(m_headSkip);
+			}
+			catch(IOException e)
+			{
+				logFailure("Couldn't finish sealing a block in " + m_directory, e);
+			}
+		}
+	}
+
+	/**
+	 * Reads just the block headers, seeking past the compressed data, to rebuild the sparse index. A block that was only partially
+	 * written when the app died is cut off.
+	 */
+	private void indexSegmentFile() throws IOException
+	{
+		final RandomAccessFile file = new RandomAccessFile(m_segmentFile, "rw");
+
+		try
+		{
+			final long length = file.length();
+			long offset = 0;
+
+			while( offset + BLOCK_HEADER_SIZE <= length )
+			{
+				file.seek(offset);
+
+				final int count = file.readInt();
+				final long minTime = file.readLong();
+				final long maxTime = file.readLong();
+				final int rawLength = file.readInt();
+				final int compressedLength = file.readInt();
+
+				if( count <= 0 || compressedLength < 0 || offset + BLOCK_HEADER_SIZE + compressedLength > length )  break;
+
+				m_blocks.add(new Block(offset, count, minTime, maxTime, rawLength, compressedLength));
+				m_blockRecordCount += count;
+
+				offset += BLOCK_HEADER_SIZE + compressedLength;
+			}
+
+			if( offset != length )
+			{
+				file.setLength(offset);
+			}
+
+			m_segmentLength = offset;
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the journal back into memory, skipping the first <code>sealedLength</code> bytes, which are already in the segment file.
+	 */
+	private void replayJournal(final long sealedLength)
+	{
+		final long length = m_journalFile.length();
+		long validLength = Math.min(sealedLength, length);
+
+		try
+		{
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_journalFile)));
+
+			try
+			{
+				in.skipBytes((int) validLength);
+
+				while( validLength < length )
+				{
+					final HistoricalData data = readRecord(in);
+
+					m_pending.add(data);
+					m_pendingRawSize += RECORD_HEADER_SIZE + data.getBlob().length;
+					validLength += RECORD_HEADER_SIZE + data.getBlob().length;
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			//--- Partially written last record, everything before it is still good.
+		}
+
+		if( validLength != length )
+		{
+			try
+			{
+				final RandomAccessFile file = new RandomAccessFile(m_journalFile, "rw");
+				file.setLength(validLength);
+				file.close();
+			}
+			catch(IOException e)
+			{
+				logFailure("Couldn't truncate " + m_journalFile, e);
+			}
+		}
+	}
+
+	private void sealPendingIntoBlock() throws IOException
+	{
+		if( m_pending.isEmpty() )  return;
+
+		final HistoricalData[] records = m_pending.toArray(new HistoricalData[m_pending.size()]);
+		final byte[] block = encodeBlock(records);
+
+		//--- Marks which part of the journal the block holds before it's appended, so a crash before the journal is emptied doesn't replay it.
+		m_sealedJournalLength = m_journalFile.length();
+		m_sealedSegmentEnd = m_segmentLength + block.length;
+		writeHead(m_headSkip);
+
+		appendToFile(m_segmentFile, block);
+
+		m_blocks.add(newBlock(m_segmentLength, records, block));
+		m_blockRecordCount += records.length;
+		m_segmentLength += block.length;
+
+		m_pending.clear();
+		m_pendingRawSize = 0;
+
+		onSealStep();
+
+		if( !emptyJournal() )  return;
+
+		onSealStep();
+
+		m_sealedJournalLength = 0;
+		m_sealedSegmentEnd = 0;
+		writeHead(m_headSkip);
+	}
+
+	/**
+	 * Deletes the journal, or failing that cuts it to nothing. Returns <code>false</code> if neither worked, in which case the head
+	 * keeps saying which part of the journal is sealed.
+	 */
+	private boolean emptyJournal()
+	{
+		if( m_journalFile.delete() || !m_journalFile.exists() )  return true;
+
+		try
+		{
+			final RandomAccessFile file = new RandomAccessFile(m_journalFile, "rw");
+			file.setLength(0);
+			file.close();
+
+			return true;
+		}
+		catch(IOException e)
+		{
+			logFailure("Couldn't empty " + m_journalFile, e);
+
+			return false;
+		}
+	}
+
+	private void onSealStep()
+	{
+		if( m_onSealStep != null )
+		{
+			m_onSealStep.run();
+		}
+	}
+
+	/**
+	 * Returns how many records from the head of the store make up the records that should be deleted, or -1 if they aren't a prefix.
+	 */
+	private long getDeletablePrefix(final long from, final long to, final long maxCount) throws IOException
+	{
+		long leading = 0;
+		boolean stillLeading = true;
+
+		RandomAccessFile file = null;
+
+		try
+		{
+			int skip = m_headSkip;
+
+			for( int i = 0; i < m_blocks.size(); i++ )
+			{
+				final Block block = m_blocks.get(i);
+				final int start = Math.min(skip, block.m_count);
+				skip -= start;
+
+				if( start >= block.m_count )  continue;
+
+				if( stillLeading && block.isWithin(from, to) )
+				{
+					leading += block.m_count - start;
+
+					if( leading >= maxCount )  return maxCount;
+				}
+				else if( block.overlaps(from, to) )
+				{
+					if( file == null )
+					{
+						file = new RandomAccessFile(m_segmentFile, "r");
+					}
+
+					final HistoricalData[] records = readBlock(file, block);
+
+					for( int j = start; j < records.length; j++ )
+					{
+						final boolean matches = isBetween(records[j], from, to);
+
+						if( stillLeading && matches )
+						{
+							leading++;
+
+							if( leading >= maxCount )  return maxCount;
+						}
+						else if( matches )
+						{
+							return -1;
+						}
+						else
+						{
+							stillLeading = false;
+						}
+					}
+				}
+				else
+				{
+					stillLeading = false;
+				}
+			}
+		}
+		finally
+		{
+			if( file != null )
+			{
+				file.close();
+			}
+		}
+
+		for( int i = 0; i < m_pending.size(); i++ )
+		{
+			final boolean matches = isBetween(m_pending.get(i), from, to);
+
+			if( stillLeading && matches )
+			{
+				leading++;
+
+				if( leading >= maxCount )  return maxCount;
+			}
+			else if( matches )
+			{
+				return -1;
+			}
+			else
+			{
+				stillLeading = false;
+			}
+		}
+
+		return leading;
+	}
+
+	private void deletePrefix(final long count) throws IOException
+	{
+		final long fromBlocks = Math.min(count, m_blockRecordCount - m_headSkip);
+		final long fromPending = count - fromBlocks;
+
+		m_headSkip += (int) fromBlocks;
+
+		if( fromPending > 0 )
+		{
+			for( int i = 0; i < fromPending; i++ )
+			{
+				m_pendingRawSize -= RECORD_HEADER_SIZE + m_pending.get(0).getBlob().length;
+				m_pending.remove(0);
+			}
+
+			m_unjournaledCount = Math.min(m_unjournaledCount, m_pending.size());
+
+			rewriteJournal();
+		}
+
+		if( m_headSkip > 0 && m_headSkip * 2 >= m_blockRecordCount )
+		{
+			dropDeadBlocks();
+		}
+		else
+		{
+			writeHead(m_headSkip);
+		}
+	}
+
+	/**
+	 * Reclaims the space of blocks that are wholly behind the head by copying the rest of the segment file as-is.
+	 */
+	private void dropDeadBlocks() throws IOException
+	{
+		int deadBlocks = 0;
+		int deadRecords = 0;
+
+		while( deadBlocks < m_blocks.size() && deadRecords + m_blocks.get(deadBlocks).m_count <= m_headSkip )
+		{
+			deadRecords += m_blocks.get(deadBlocks).m_count;
+			deadBlocks++;
+		}
+
+		if( deadBlocks == 0 )
+		{
+			writeHead(m_headSkip);
+
+			return;
+		}
+
+		final long cutOffset = deadBlocks < m_blocks.size() ? m_blocks.get(deadBlocks).m_offset : m_segmentLength;
+		final File temp = new File(m_directory, SEGMENT_FILE + TEMP_SUFFIX);
+
+		final RandomAccessFile in = new RandomAccessFile(m_segmentFile, "r");
+		final FileOutputStream out = new FileOutputStream(temp);
+
+		try
+		{
+			in.seek(cutOffset);
+
+			final byte[] buffer = new byte[8 * 1024];
+			int read;
+
+			while( (read = in.read(buffer)) > 0 )
+			{
+				out.write(buffer, 0, read);
+			}
+
+			out.getFD().sync();
+		}
+		finally
+		{
+			in.close();
+			out.close();
+		}
+
+		//--- Head has to be persisted before the rename, the order matters if the app dies in between.
+		writeHead(0);
+
+		if( !temp.renameTo(m_segmentFile) )
+		{
+			writeHead(m_headSkip);
+
+			throw new IOException("Couldn't replace " + m_segmentFile);
+		}
+
+		final ArrayList<Block> survivors = new ArrayList<Block>(m_blocks.size() - deadBlocks);
+
+		for( int i = deadBlocks; i < m_blocks.size(); i++ )
+		{
+			final Block block = m_blocks.get(i);
+
+			survivors.add(new Block(block.m_offset - cutOffset, block.m_count, block.m_minTime, block.m_maxTime, block.m_rawLength, block.m_compressedLength));
+		}
+
+		m_blocks.clear();
+		m_blocks.addAll(survivors);
+		m_blockRecordCount -= deadRecords;
+		m_segmentLength -= cutOffset;
+		m_headSkip -= deadRecords;
+
+		if( m_sealedSegmentEnd > 0 )
+		{
+			m_sealedSegmentEnd -= cutOffset;
+		}
+
+		writeHead(m_headSkip);
+	}
+
+	/**
+	 * General case of a delete, for when the records to delete aren't all at the head. Blocks that don't overlap the range are copied
+	 * over without being decompressed.
+	 */
+	private void rewrite(final long from, final long to, long maxCount) throws IOException
+	{
+		final File temp = new File(m_directory, SEGMENT_FILE + TEMP_SUFFIX);
+		final ArrayList<Block> newBlocks = new ArrayList<Block>();
+		final RandomAccessFile in = new RandomAccessFile(m_segmentFile, "r");
+		final FileOutputStream out = new FileOutputStream(temp);
+		long newLength = 0;
+		int newCount = 0;
+
+		try
+		{
+			int skip = m_headSkip;
+
+			for( int i = 0; i < m_blocks.size(); i++ )
+			{
+				final Block block = m_blocks.get(i);
+				final int start = Math.min(skip, block.m_count);
+				skip -= start;
+
+				if( start >= block.m_count )  continue;
+
+				final byte[] bytes;
+				final Block newBlock;
+
+				if( start == 0 && (maxCount == 0 || !block.overlaps(from, to)) )
+				{
+					bytes = new byte[BLOCK_HEADER_SIZE + block.m_compressedLength];
+					in.seek(block.m_offset);
+					in.readFully(bytes);
+
+					newBlock = new Block(newLength, block.m_count, block.m_minTime, block.m_maxTime, block.m_rawLength, block.m_compressedLength);
+				}
+				else
+				{
+					final HistoricalData[] records = readBlock(in, block);
+					final ArrayList<HistoricalData> kept = new ArrayList<HistoricalData>(records.length);
+
+					for( int j = start; j < records.length; j++ )
+					{
+						if( maxCount > 0 && isBetween(records[j], from, to) )
+						{
+							maxCount--;
+						}
+						else
+						{
+							kept.add(records[j]);
+						}
+					}
+
+					if( kept.isEmpty() )  continue;
+
+					final HistoricalData[] keptArray = kept.toArray(new HistoricalData[kept.size()]);
+
+					bytes = encodeBlock(keptArray);
+					newBlock = newBlock(newLength, keptArray, bytes);
+				}
+
+				out.write(bytes);
+				newBlocks.add(newBlock);
+				newLength += bytes.length;
+				newCount += newBlock.m_count;
+			}
+
+			out.getFD().sync();
+		}
+		finally
+		{
+			in.close();
+			out.close();
+		}
+
+		writeHead(0);
+
+		if( !temp.renameTo(m_segmentFile) )
+		{
+			writeHead(m_headSkip);
+
+			throw new IOException("Couldn't replace " + m_segmentFile);
+		}
+
+		m_blocks.clear();
+		m_blocks.addAll(newBlocks);
+		m_blockRecordCount = newCount;
+		m_segmentLength = newLength;
+		m_headSkip = 0;
+
+		if( m_sealedSegmentEnd > 0 )
+		{
+			//--- Whatever is left of the sealed records is in the new segment file.
+			m_sealedSegmentEnd = newLength;
+		}
+
+		boolean pendingChanged = false;
+
+		for( int i = 0; i < m_pending.size() && maxCount > 0; )
+		{
+			if( isBetween(m_pending.get(i), from, to) )
+			{
+				m_pendingRawSize -= RECORD_HEADER_SIZE + m_pending.get(i).getBlob().length;
+				m_pending.remove(i);
+				maxCount--;
+				pendingChanged = true;
+			}
+			else
+			{
+				i++;
+			}
+		}
+
+		if( pendingChanged )
+		{
+			m_unjournaledCount = Math.min(m_unjournaledCount, m_pending.size());
+
+			rewriteJournal();
+		}
+	}
+
+	private void rewriteJournal() throws IOException
+	{
+		final int journaled = m_pending.size() - m_unjournaledCount;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+
+		for( int i = 0; i < journaled; i++ )
+		{
+			writeRecord(out, m_pending.get(i));
+		}
+
+		final File temp = new File(m_directory, JOURNAL_FILE + TEMP_SUFFIX);
+		final FileOutputStream file = new FileOutputStream(temp);
+
+		try
+		{
+			file.write(bytes.toByteArray());
+			file.getFD().sync();
+		}
+		finally
+		{
+			file.close();
+		}
+
+		if( !temp.renameTo(m_journalFile) )
+		{
+			throw new IOException("Couldn't replace " + m_journalFile);
+		}
+	}
+
+	static boolean isBetween(final HistoricalData data, final long from, final long to)
+	{
+		final long time = data.getEpochTime_millis();
+
+		return time >= from && time <= to;
+	}
+
+	private static Block newBlock(final long offset, final HistoricalData[] records, final byte[] encoded)
+	{
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+		int rawLength = 0;
+
+		for( int i = 0; i < records.length; i++ )
+		{
+			final long time = records[i].getEpochTime_millis();
+
+			minTime = Math.min(minTime, time);
+			maxTime = Math.max(maxTime, time);
+			rawLength += RECORD_HEADER_SIZE + records[i].getBlob().length;
+		}
+
+		return new Block(offset, records.length, minTime, maxTime, rawLength, encoded.length - BLOCK_HEADER_SIZE);
+	}
+
+	private static byte[] encodeBlock(final HistoricalData[] records) throws IOException
+	{
+		final ByteArrayOutputStream rawBytes = new ByteArrayOutputStream();
+		final DataOutputStream raw = new DataOutputStream(rawBytes);
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+
+		for( int i = 0; i < records.length; i++ )
+		{
+			writeRecord(raw, records[i]);
+
+			minTime = Math.min(minTime, records[i].getEpochTime_millis());
+			maxTime = Math.max(maxTime, records[i].getEpochTime_millis());
+		}
+
+		final byte[] rawArray = rawBytes.toByteArray();
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawArray.length / 2 + 64);
+
+		try
+		{
+			deflater.setInput(rawArray);
+			deflater.finish();
+
+			final byte[] buffer = new byte[4 * 1024];
+
+			while( !deflater.finished() )
+			{
+				final int count = deflater.deflate(buffer);
+				compressed.write(buffer, 0, count);
+			}
+		}
+		finally
+		{
+			deflater.end();
+		}
+
+		final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(BLOCK_HEADER_SIZE + compressed.size());
+		final DataOutputStream block = new DataOutputStream(blockBytes);
+
+		block.writeInt(records.length);
+		block.writeLong(minTime);
+		block.writeLong(maxTime);
+		block.writeInt(rawArray.length);
+		block.writeInt(compressed.size());
+		compressed.writeTo(block);
+
+		return blockBytes.toByteArray();
+	}
+
+	private static void writeRecord(final DataOutputStream out, final HistoricalData data) throws IOException
+	{
+		out.writeLong(data.getEpochTime_millis());
+		out.writeInt(data.getBlob().length);
+		out.write(data.getBlob());
+	}
+
+	private static HistoricalData readRecord(final DataInputStream in) throws IOException
+	{
+		final long time = in.readLong();
+		final int length = in.readInt();
+
+		if( length < 0 )  throw new EOFException();
+
+		final byte[] blob = new byte[length];
+		in.readFully(blob);
+
+		return new HistoricalData(blob, time);
+	}
+
+	private static void appendToFile(final File file, final byte[] bytes) throws IOException
+	{
+		final FileOutputStream out = new FileOutputStream(file, /*append=*/true);
+
+		try
+		{
+			out.write(bytes);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads up to <code>count</code> longs, leaving any the file doesn't have, like in head files written before the seal marker, at 0.
+	 */
+	private static long[] readLongs(final File file, final int count)
+	{
+		final long[] values = new long[count];
+
+		if( !file.exists() )  return values;
+
+		try
+		{
+			final DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+			try
+			{
+				for( int i = 0; i < count; i++ )
+				{
+					values[i] = in.readLong();
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			//--- Shorter file, the rest stay at 0.
+		}
+
+		return values;
+	}
+
+	private void writeHead(final long headSkip) throws IOException
+	{
+		writeLongs(m_headFile, headSkip, m_sealedJournalLength, m_sealedSegmentEnd);
+	}
+
+	private void writeLongs(final File file, final long... values) throws IOException
+	{
+		final File temp = new File(m_directory, file.getName() + TEMP_SUFFIX);
+		final DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+
+		try
+		{
+			for( int i = 0; i < values.length; i++ )
+			{
+				out.writeLong(values[i]);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		if( !temp.renameTo(file) )
+		{
+			throw new IOException("Couldn't replace " + file);
+		}
+	}
+
+	private static void deleteFile(final File file)
+	{
+		if( !file.delete() && file.exists() )
+		{
+			logFailure("Couldn't delete " + file, null);
+		}
+	}
+
+	private static void logFailure(final String message, final IOException e)
+	{
+		Log.w("SweetBlue", e != null ? message + ": " + e.getMessage() : message);
+	}
+}
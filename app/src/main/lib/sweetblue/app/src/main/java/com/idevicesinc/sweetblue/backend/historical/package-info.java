@@ -3,6 +3,9 @@
  * that stores and manages historical data. The default implementation released with the open source GPLv3 code can only
  * track one piece of historical data per UUID at a time, and only to memory.
  * <br><br>
- * Please contact sweetblue@idevicesinc.com to discuss upgrade options.
+ * To keep historical data on disk instead, set {@link com.idevicesinc.sweetblue.backend.Backend_Modules#HISTORICAL_DATA_LIST} to
+ * {@link com.idevicesinc.sweetblue.backend.historical.Backend_HistoricalDataList_Persistent} and {@link com.idevicesinc.sweetblue.backend.Backend_Modules#HISTORICAL_DATABASE}
+ * to {@link com.idevicesinc.sweetblue.backend.historical.Backend_HistoricalDatabase_Persistent} before the {@link com.idevicesinc.sweetblue.BleManager} is created.
+ * The latter keeps an append-only, block-compressed file per MAC address/UUID combination.
  */
 package com.idevicesinc.sweetblue.backend.historical;
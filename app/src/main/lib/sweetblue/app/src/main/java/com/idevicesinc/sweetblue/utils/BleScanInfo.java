@@ -7,8 +7,53 @@ import java.util.Map;
 import java.util.UUID;
 
 
+/**
+ * View over a raw scan record. {@link #reset(byte[])} walks the record once to note where each AD structure starts, and fields are only
+ * decoded, and cached, the first time they're asked for. One instance can be reused across discoveries of the same device by calling
+ * {@link #reset(byte[])} again. Instances created with the field-by-field constructor, or changed through one of the setters, just
+ * hold whatever they were given.
+ */
 public final class BleScanInfo
 {
+    private static final int DATA_TYPE_FLAGS = 0x01;
+    private static final int DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL = 0x02;
+    private static final int DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE = 0x03;
+    private static final int DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL = 0x04;
+    private static final int DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE = 0x05;
+    private static final int DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL = 0x06;
+    private static final int DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE = 0x07;
+    private static final int DATA_TYPE_LOCAL_NAME_SHORT = 0x08;
+    private static final int DATA_TYPE_LOCAL_NAME_COMPLETE = 0x09;
+    private static final int DATA_TYPE_TX_POWER_LEVEL = 0x0A;
+    private static final int DATA_TYPE_SERVICE_DATA = 0x16;
+    private static final int DATA_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    private static final int UUID_BYTES_16_BIT = 2;
+    private static final int UUID_BYTES_32_BIT = 4;
+    private static final int UUID_BYTES_128_BIT = 16;
+
+    //--- Most and least significant bits of 00000000-0000-1000-8000-00805F9B34FB, which 16 and 32 bit UUIDs are offsets into.
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    //--- Same as BleNodeConfig.INVALID_TX_POWER, which can't be referenced from here without pulling in Android classes.
+    private static final int INVALID_TX_POWER = Integer.MIN_VALUE;
+
+    //--- Data offsets are packed into 12 bits below, far more than any scan record needs.
+    private static final int MAX_DATA_OFFSET = 0xFFF;
+
+    //--- Each AD structure found by reset(), as (type | dataOffset << 8 | dataLength << 20).
+    private int[] m_structures = new int[0];
+    private int m_structureCount = 0;
+    private byte[] m_scanRecord = null;
+
+    //--- Decoded fields, filled in on first access. The booleans say whether the matching field is up to date.
+    private boolean m_hasScalars;
+    private boolean m_hasServiceUuids;
+    private boolean m_hasServiceData;
+    private boolean m_hasManufacturerData;
+    private boolean m_hasLocalName;
+
     private int m_manufactuerId;
     private byte[] m_manufacturerData;
     private final Pointer<Integer> m_advFlags;
@@ -20,12 +65,27 @@ public final class BleScanInfo
     public BleScanInfo()
     {
         m_manufactuerId = -1;
-        m_manufacturerData = new byte[32];
+        m_manufacturerData = new byte[0];
         m_advFlags = new Pointer<>(0);
         m_txPower = new Pointer<>(0);
         m_serviceUuids = new ArrayList<>();
         m_serviceData = new HashMap<>();
         m_localName = "";
+
+        markAllDecoded();
+    }
+
+    /**
+     * Creates a view over the given scan record, see {@link #reset(byte[])}.
+     */
+    public BleScanInfo(final byte[] scanRecord)
+    {
+        m_advFlags = new Pointer<>(-1);
+        m_txPower = new Pointer<>(INVALID_TX_POWER);
+        m_serviceUuids = new ArrayList<>();
+        m_serviceData = new HashMap<>();
+
+        reset(scanRecord);
     }
 
     public BleScanInfo(Pointer<Integer> advFlags, Pointer<Integer> txPower, List<UUID> serviceUuids, int mfgId, byte[] mfgData, Map<UUID, byte[]> serviceData, String localName)
@@ -37,70 +97,397 @@ public final class BleScanInfo
         m_manufacturerData = mfgData;
         m_serviceData = serviceData;
         m_localName = localName;
+
+        markAllDecoded();
+    }
+
+    private void markAllDecoded()
+    {
+        m_hasScalars = true;
+        m_hasServiceUuids = true;
+        m_hasServiceData = true;
+        m_hasManufacturerData = true;
+        m_hasLocalName = true;
+    }
+
+    /**
+     * Points this view at a new scan record, dropping anything decoded from the previous one. Nothing is copied, so the array
+     * must not be changed afterwards. Structures that run past the end of the record are ignored. Returns this instance.
+     */
+    public BleScanInfo reset(final byte[] scanRecord)
+    {
+        m_scanRecord = scanRecord;
+        m_structureCount = 0;
+
+        m_hasScalars = false;
+        m_hasServiceUuids = false;
+        m_hasServiceData = false;
+        m_hasManufacturerData = false;
+        m_hasLocalName = false;
+
+        if( scanRecord == null )  return this;
+
+        int position = 0;
+
+        while( position < scanRecord.length )
+        {
+            // Note the length includes the length of the field type itself.
+            final int length = scanRecord[position] & 0xFF;
+
+            if( length == 0 || position + 1 + length > scanRecord.length || position + 2 > MAX_DATA_OFFSET )  break;
+
+            if( m_structureCount == m_structures.length )
+            {
+                final int[] structures = new int[Math.max(8, m_structures.length * 2)];
+                System.arraycopy(m_structures, 0, structures, 0, m_structureCount);
+                m_structures = structures;
+            }
+
+            final int type = scanRecord[position + 1] & 0xFF;
+            final int dataOffset = position + 2;
+            final int dataLength = length - 1;
+
+            m_structures[m_structureCount++] = type | (dataOffset << 8) | (dataLength << 20);
+
+            position += 1 + length;
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns the raw scan record this view was last {@link #reset(byte[])} to, or <code>null</code>.
+     */
+    public byte[] getScanRecord()
+    {
+        return m_scanRecord;
+    }
+
+    private static int type(final int structure)
+    {
+        return structure & 0xFF;
+    }
+
+    private static int dataOffset(final int structure)
+    {
+        return (structure >>> 8) & 0xFFF;
+    }
+
+    private static int dataLength(final int structure)
+    {
+        return structure >>> 20;
+    }
+
+    private void decodeScalars()
+    {
+        if( m_hasScalars )  return;
+
+        int advFlags = -1;
+        int txPower = INVALID_TX_POWER;
+
+        for( int i = 0; i < m_structureCount; i++ )
+        {
+            final int structure = m_structures[i];
+
+            if( dataLength(structure) < 1 )  continue;
+
+            if( type(structure) == DATA_TYPE_FLAGS )
+            {
+                advFlags = m_scanRecord[dataOffset(structure)] & 0xFF;
+            }
+            else if( type(structure) == DATA_TYPE_TX_POWER_LEVEL )
+            {
+                txPower = m_scanRecord[dataOffset(structure)];
+            }
+        }
+
+        m_advFlags.value = advFlags;
+        m_txPower.value = txPower;
+        m_hasScalars = true;
+    }
+
+    private void decodeServiceUuids()
+    {
+        if( m_hasServiceUuids )  return;
+
+        m_serviceUuids.clear();
+
+        for( int i = 0; i < m_structureCount; i++ )
+        {
+            final int structure = m_structures[i];
+            final int uuidLength;
+
+            switch( type(structure) )
+            {
+                case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                    uuidLength = UUID_BYTES_16_BIT;
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                    uuidLength = UUID_BYTES_32_BIT;
+                    break;
+                case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                    uuidLength = UUID_BYTES_128_BIT;
+                    break;
+                default:
+                    continue;
+            }
+
+            final int end = dataOffset(structure) + dataLength(structure);
+
+            for( int offset = dataOffset(structure); offset + uuidLength <= end; offset += uuidLength )
+            {
+                m_serviceUuids.add(parseUuid(m_scanRecord, offset, uuidLength));
+            }
+        }
+
+        m_hasServiceUuids = true;
+    }
+
+    private void decodeServiceData()
+    {
+        if( m_hasServiceData )  return;
+
+        m_serviceData.clear();
+
+        for( int i = 0; i < m_structureCount; i++ )
+        {
+            final int structure = m_structures[i];
+
+            // The first two bytes of the service data are service data UUID in little endian. The rest bytes are service data.
+            if( type(structure) != DATA_TYPE_SERVICE_DATA || dataLength(structure) < UUID_BYTES_16_BIT )  continue;
+
+            final int offset = dataOffset(structure);
+            final UUID uuid = parseUuid(m_scanRecord, offset, UUID_BYTES_16_BIT);
+
+            m_serviceData.put(uuid, copy(m_scanRecord, offset + UUID_BYTES_16_BIT, dataLength(structure) - UUID_BYTES_16_BIT));
+        }
+
+        m_hasServiceData = true;
+    }
+
+    private void decodeManufacturerData()
+    {
+        if( m_hasManufacturerData )  return;
+
+        int manufacturerId = -1;
+        int structureWithData = -1;
+
+        for( int i = 0; i < m_structureCount; i++ )
+        {
+            final int structure = m_structures[i];
+
+            // The first two bytes of the manufacturer specific data are manufacturer ids in little endian.
+            if( !isManufacturerData(structure) )  continue;
+
+            final int offset = dataOffset(structure);
+
+            manufacturerId = ((m_scanRecord[offset + 1] & 0xFF) << 8) + (m_scanRecord[offset] & 0xFF);
+            structureWithData = structure;
+        }
+
+        m_manufactuerId = manufacturerId;
+        m_manufacturerData = structureWithData != -1 ? copy(m_scanRecord, dataOffset(structureWithData) + 2, dataLength(structureWithData) - 2) : new byte[0];
+        m_hasManufacturerData = true;
+    }
+
+    private void decodeLocalName()
+    {
+        if( m_hasLocalName )  return;
+
+        String localName = null;
+
+        for( int i = 0; i < m_structureCount; i++ )
+        {
+            final int structure = m_structures[i];
+
+            if( type(structure) == DATA_TYPE_LOCAL_NAME_SHORT || type(structure) == DATA_TYPE_LOCAL_NAME_COMPLETE )
+            {
+                localName = new String(m_scanRecord, dataOffset(structure), dataLength(structure));
+            }
+        }
+
+        m_localName = localName;
+        m_hasLocalName = true;
+    }
+
+    private static byte[] copy(final byte[] scanRecord, final int start, final int length)
+    {
+        final byte[] bytes = new byte[length];
+        System.arraycopy(scanRecord, start, bytes, 0, length);
+
+        return bytes;
+    }
+
+    /**
+     * Parses a 16, 32, or 128 bit UUID stored little endian at the given offset, and always returns the 128 bit form.
+     */
+    private static UUID parseUuid(final byte[] bytes, final int offset, final int length)
+    {
+        if( length == UUID_BYTES_128_BIT )
+        {
+            return new UUID(readLong_littleEndian(bytes, offset + 8), readLong_littleEndian(bytes, offset));
+        }
+
+        // 128_bit_value = uuid * 2^96 + BASE_UUID
+        long shortUuid = 0;
+
+        for( int i = length - 1; i >= 0; i-- )
+        {
+            shortUuid = (shortUuid << 8) | (bytes[offset + i] & 0xFF);
+        }
+
+        return new UUID(BASE_UUID_MSB + (shortUuid << 32), BASE_UUID_LSB);
+    }
+
+    private static long readLong_littleEndian(final byte[] bytes, final int offset)
+    {
+        long value = 0;
+
+        for( int i = 7; i >= 0; i-- )
+        {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+
+        return value;
     }
 
     public void clearServiceData()
     {
         m_serviceData.clear();
+        m_hasServiceData = true;
     }
 
     public void populateServiceData(Map<UUID, byte[]> data)
     {
+        decodeServiceData();
+
         m_serviceData.putAll(data);
     }
 
     public void clearServiceUUIDs()
     {
         m_serviceUuids.clear();
+        m_hasServiceUuids = true;
     }
 
     public void populateServiceUUIDs(List<UUID> uuids)
     {
+        decodeServiceUuids();
+
         m_serviceUuids.addAll(uuids);
     }
 
     public void setManufacturerId(int id)
     {
+        decodeManufacturerData();
+
         m_manufactuerId = id;
     }
 
     public void setManufacturerData(byte[] data)
     {
+        decodeManufacturerData();
+
         m_manufacturerData = data;
     }
 
     public int getManufacturerId()
     {
+        decodeManufacturerData();
+
         return m_manufactuerId;
     }
 
     public byte[] getManufacturerData()
     {
+        decodeManufacturerData();
+
         return m_manufacturerData;
     }
 
+    /**
+     * Returns how many manufacturer specific data structures the record this view was last {@link #reset(byte[])} to holds.
+     * {@link #getManufacturerData()} only keeps the last one, these are read one by one with {@link #getManufacturerId(int)}
+     * and {@link #getManufacturerData(int)}, and aren't cached.
+     */
+    public int getManufacturerDataCount()
+    {
+        int count = 0;
+
+        for( int i = 0; i < m_structureCount; i++ )
+        {
+            if( isManufacturerData(m_structures[i]) )  count++;
+        }
+
+        return count;
+    }
+
+    public int getManufacturerId(final int index)
+    {
+        final int offset = dataOffset(manufacturerStructure(index));
+
+        return ((m_scanRecord[offset + 1] & 0xFF) << 8) + (m_scanRecord[offset] & 0xFF);
+    }
+
+    public byte[] getManufacturerData(final int index)
+    {
+        final int structure = manufacturerStructure(index);
+
+        return copy(m_scanRecord, dataOffset(structure) + 2, dataLength(structure) - 2);
+    }
+
+    private static boolean isManufacturerData(final int structure)
+    {
+        return type(structure) == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA && dataLength(structure) >= 2;
+    }
+
+    private int manufacturerStructure(final int index)
+    {
+        int count = 0;
+
+        for( int i = 0; i < m_structureCount; i++ )
+        {
+            if( isManufacturerData(m_structures[i]) && count++ == index )  return m_structures[i];
+        }
+
+        throw new IndexOutOfBoundsException("No manufacturer data at " + index);
+    }
+
     public Pointer<Integer> getAdvFlags()
     {
+        decodeScalars();
+
         return m_advFlags;
     }
 
     public Pointer<Integer> getTxPower()
     {
+        decodeScalars();
+
         return m_txPower;
     }
 
     public List<UUID> getServiceUUIDS()
     {
+        decodeServiceUuids();
+
         return m_serviceUuids;
     }
 
     public Map<UUID, byte[]> getServiceData()
     {
+        decodeServiceData();
+
         return m_serviceData;
     }
 
     public String getName()
     {
+        decodeLocalName();
+
         return m_localName;
     }
 }
@@ -0,0 +1,162 @@
+package com.idevicesinc.sweetblue.utils;
+
+import com.idevicesinc.sweetblue.annotations.Immutable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of millisecond latencies in the style of HdrHistogram. Values below 32ms get a bucket each, above that every
+ * power of two is split into 16 buckets, so any percentile read back is within about 6% of the real value, up to {@link #MAX_TRACKABLE_MILLIS}.
+ * Recording and taking a {@link #snapshot()} never lock and can be done from any thread.
+ */
+public final class LatencyHistogram
+{
+	/**
+	 * Values larger than this are counted as this.
+	 */
+	public static final long MAX_TRACKABLE_MILLIS = 60 * 60 * 1000;
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+	private static final int BUCKET_COUNT = indexOf(MAX_TRACKABLE_MILLIS) + 1;
+
+	private final AtomicLongArray m_counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong m_total = new AtomicLong();
+	private final AtomicLong m_max = new AtomicLong();
+
+	/**
+	 * Adds one value to the histogram. Negative values are counted as zero.
+	 */
+	public void record(final long millis)
+	{
+		final long value = Math.max(0, Math.min(millis, MAX_TRACKABLE_MILLIS));
+
+		m_counts.incrementAndGet(indexOf(value));
+		m_total.addAndGet(value);
+
+		long max = m_max.get();
+
+		while( value > max && !m_max.compareAndSet(max, value) )
+		{
+			max = m_max.get();
+		}
+	}
+
+	/**
+	 * Returns a copy of the histogram as it is now. Values being recorded at the same time may or may not make it in.
+	 */
+	public Snapshot snapshot()
+	{
+		final long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+
+		for( int i = 0; i < counts.length; i++ )
+		{
+			counts[i] = m_counts.get(i);
+			count += counts[i];
+		}
+
+		return new Snapshot(counts, count, m_total.get(), m_max.get());
+	}
+
+	private static int indexOf(final long value)
+	{
+		if( value < LINEAR_LIMIT )  return (int) value;
+
+		final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >> shift) - SUB_BUCKET_COUNT);
+	}
+
+	private static long highestValueOf(final int index)
+	{
+		if( index < LINEAR_LIMIT )  return index;
+
+		final int shift = index / SUB_BUCKET_COUNT - 1;
+		final long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * An unchanging copy of a {@link LatencyHistogram}, see {@link LatencyHistogram#snapshot()}.
+	 */
+	@Immutable
+	public static final class Snapshot
+	{
+		/**
+		 * A snapshot with nothing recorded.
+		 */
+		public static final Snapshot EMPTY = new Snapshot(new long[BUCKET_COUNT], 0, 0, 0);
+
+		private final long[] m_counts;
+		private final long m_count;
+		private final long m_total;
+		private final long m_max;
+
+		private Snapshot(final long[] counts, final long count, final long total, final long max)
+		{
+			m_counts = counts;
+			m_count = count;
+			m_total = total;
+			m_max = max;
+		}
+
+		/**
+		 * Returns how many values were recorded.
+		 */
+		public long getCount()
+		{
+			return m_count;
+		}
+
+		/**
+		 * Returns the largest value recorded, or {@link Interval#ZERO} if none were.
+		 */
+		public Interval getMax()
+		{
+			return Interval.millis(m_max);
+		}
+
+		/**
+		 * Returns the average of the values recorded, or {@link Interval#ZERO} if none were.
+		 */
+		public Interval getMean()
+		{
+			return m_count == 0 ? Interval.ZERO : Interval.secs(m_total / 1000.0 / m_count);
+		}
+
+		/**
+		 * Returns the value that <code>percentile</code> percent of the recorded values are at or below, for example 99.0 for the p99.
+		 * Returns {@link Interval#ZERO} if nothing was recorded.
+		 */
+		public Interval getPercentile(final double percentile)
+		{
+			if( m_count == 0 )  return Interval.ZERO;
+
+			final double clamped = Math.max(0.0, Math.min(percentile, 100.0));
+			final long rank = Math.max(1, (long) Math.ceil(clamped / 100.0 * m_count));
+			long seen = 0;
+
+			for( int i = 0; i < m_counts.length; i++ )
+			{
+				seen += m_counts[i];
+
+				if( seen >= rank )
+				{
+					return Interval.millis(Math.min(highestValueOf(i), m_max));
+				}
+			}
+
+			return Interval.millis(m_max);
+		}
+
+		@Override public String toString()
+		{
+			return "count=" + m_count + " mean=" + getMean().millis() + "ms p50=" + getPercentile(50).millis() + "ms p90=" + getPercentile(90).millis() +
+					"ms p99=" + getPercentile(99).millis() + "ms max=" + m_max + "ms";
+		}
+	}
+}
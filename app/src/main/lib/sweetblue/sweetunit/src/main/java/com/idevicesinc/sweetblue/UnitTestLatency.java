@@ -0,0 +1,78 @@
+package com.idevicesinc.sweetblue;
+
+
+import java.util.Random;
+
+
+/**
+ * How long a {@link UnitTestPeer} takes to answer an operation, in milliseconds of virtual time. Samples come from the {@link Random}
+ * handed in, so a seeded one gives the same latencies every run.
+ */
+public abstract class UnitTestLatency
+{
+
+    public abstract long sample(Random random);
+
+
+    /**
+     * Always takes <code>millis</code>.
+     */
+    public static UnitTestLatency fixed(final long millis)
+    {
+        return new UnitTestLatency()
+        {
+            @Override public long sample(Random random)
+            {
+                return millis;
+            }
+
+            @Override public String toString()
+            {
+                return millis + "ms";
+            }
+        };
+    }
+
+    /**
+     * Takes anywhere from <code>minMillis</code> to <code>maxMillis</code>, all equally likely.
+     */
+    public static UnitTestLatency uniform(final long minMillis, final long maxMillis)
+    {
+        return new UnitTestLatency()
+        {
+            @Override public long sample(Random random)
+            {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+            }
+
+            @Override public String toString()
+            {
+                return minMillis + "-" + maxMillis + "ms";
+            }
+        };
+    }
+
+    /**
+     * Log-normally distributed with the given median and 99th percentile, which is about the shape radio latencies have: mostly close
+     * to the median with a long tail of retransmissions.
+     */
+    public static UnitTestLatency logNormal(final long p50Millis, final long p99Millis)
+    {
+        final double mu = Math.log(Math.max(1, p50Millis));
+        // 2.326 is the z-score of the 99th percentile.
+        final double sigma = Math.max(0.0, Math.log(Math.max(1, p99Millis)) - mu) / 2.326;
+
+        return new UnitTestLatency()
+        {
+            @Override public long sample(Random random)
+            {
+                return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+            }
+
+            @Override public String toString()
+            {
+                return "p50=" + p50Millis + "ms p99=" + p99Millis + "ms";
+            }
+        };
+    }
+}
@@ -0,0 +1,176 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * Describes a simulated remote device for a {@link UnitTestSimulation}: its GATT table, how long it takes to answer each kind of
+ * operation, the largest MTU it accepts, and how unreliable the link to it is. Every setter returns the peer so they can be chained.
+ * The behaviour itself lives in {@link UnitTestSimulatedGatt}.
+ */
+public class UnitTestPeer
+{
+
+    public static final int DEFAULT_MAX_MTU = 247;
+
+
+    private final String m_name;
+    private final List<UUID[]> m_services = new ArrayList<>();
+    private final UnitTestLatency[] m_latencies = new UnitTestLatency[BleTask.values().length];
+
+    private UnitTestLatency m_defaultLatency = UnitTestLatency.fixed(30);
+    private UnitTestLatency m_writeWithoutResponseLatency = UnitTestLatency.fixed(8);
+    private int m_maxMtu = DEFAULT_MAX_MTU;
+    private double m_packetLoss = 0.0;
+    private double m_disconnectChance = 0.0;
+
+
+    public UnitTestPeer(String name)
+    {
+        m_name = name;
+        m_latencies[BleTask.CONNECT.ordinal()] = UnitTestLatency.fixed(150);
+        m_latencies[BleTask.DISCOVER_SERVICES.ordinal()] = UnitTestLatency.fixed(250);
+    }
+
+
+    /**
+     * Adds a primary service whose characteristics can all be read, written with or without response, and notified.
+     */
+    public UnitTestPeer addService(UUID serviceUuid, UUID... charUuids)
+    {
+        final UUID[] uuids = new UUID[charUuids.length + 1];
+        uuids[0] = serviceUuid;
+        System.arraycopy(charUuids, 0, uuids, 1, charUuids.length);
+        m_services.add(uuids);
+
+        return this;
+    }
+
+    /**
+     * Sets how long the peer takes to answer the given kind of operation. Connecting takes 150ms, discovering services 250ms, and
+     * everything else 30ms unless set otherwise.
+     */
+    public UnitTestPeer setLatency(BleTask task, UnitTestLatency latency)
+    {
+        m_latencies[task.ordinal()] = latency;
+
+        return this;
+    }
+
+    /**
+     * Sets how long operations without a latency of their own take.
+     */
+    public UnitTestPeer setDefaultLatency(UnitTestLatency latency)
+    {
+        m_defaultLatency = latency;
+
+        return this;
+    }
+
+    /**
+     * Sets how long the stack takes to accept a write without response, 8ms by default.
+     */
+    public UnitTestPeer setWriteWithoutResponseLatency(UnitTestLatency latency)
+    {
+        m_writeWithoutResponseLatency = latency;
+
+        return this;
+    }
+
+    /**
+     * Sets the largest MTU the peer agrees to, {@link #DEFAULT_MAX_MTU} by default.
+     */
+    public UnitTestPeer setMaxMtu(int maxMtu)
+    {
+        m_maxMtu = maxMtu;
+
+        return this;
+    }
+
+    /**
+     * Sets the chance, from 0 to 1, that an operation is never answered, so it can only time out.
+     */
+    public UnitTestPeer setPacketLoss(double packetLoss)
+    {
+        m_packetLoss = packetLoss;
+
+        return this;
+    }
+
+    /**
+     * Sets the chance, from 0 to 1, that the link drops instead of an operation being answered.
+     */
+    public UnitTestPeer setDisconnectChance(double disconnectChance)
+    {
+        m_disconnectChance = disconnectChance;
+
+        return this;
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    /**
+     * Builds the peer's GATT table. Every simulated device gets its own, so values written to one don't show up on another.
+     */
+    public List<BluetoothGattService> newServices()
+    {
+        final List<BluetoothGattService> services = new ArrayList<>();
+
+        for (UUID[] uuids : m_services)
+        {
+            final BluetoothGattService service = new BluetoothGattService(uuids[0], BluetoothGattService.SERVICE_TYPE_PRIMARY);
+
+            for (int i = 1; i < uuids.length; i++)
+            {
+                final int properties = BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE |
+                        BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE | BluetoothGattCharacteristic.PROPERTY_NOTIFY;
+                final BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(uuids[i], properties,
+                        BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE);
+                characteristic.addDescriptor(new BluetoothGattDescriptor(Uuids.CLIENT_CHARACTERISTIC_CONFIGURATION_DESCRIPTOR_UUID,
+                        BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+                service.addCharacteristic(characteristic);
+            }
+
+            services.add(service);
+        }
+
+        return services;
+    }
+
+    public UnitTestLatency getLatency(BleTask task)
+    {
+        final UnitTestLatency latency = m_latencies[task.ordinal()];
+
+        return latency != null ? latency : m_defaultLatency;
+    }
+
+    public UnitTestLatency getWriteWithoutResponseLatency()
+    {
+        return m_writeWithoutResponseLatency;
+    }
+
+    public int getMaxMtu()
+    {
+        return m_maxMtu;
+    }
+
+    public double getPacketLoss()
+    {
+        return m_packetLoss;
+    }
+
+    public double getDisconnectChance()
+    {
+        return m_disconnectChance;
+    }
+}
@@ -0,0 +1,162 @@
+package com.idevicesinc.sweetblue;
+
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+
+/**
+ * Runs SweetBlue on virtual time. It stands in for both the main and the update thread handler, and for the clock the update loop and
+ * the task queue read, see {@link BleManagerConfig#updateHandler} and {@link BleManagerConfig#clock}. Nothing runs on its own: the thread
+ * that created the scheduler runs whatever is due when it calls {@link #runFor(long)} or {@link #runUntil(Condition, long)}, and the
+ * clock jumps straight to the next deadline instead of waiting for it. Given the same inputs, a run always ends up the same way.
+ */
+public final class UnitTestScheduler implements P_SweetHandler, P_Clock
+{
+
+    /**
+     * Checked after every runnable by {@link #runUntil(Condition, long)}.
+     */
+    public interface Condition
+    {
+        boolean isMet();
+    }
+
+
+    private final PriorityQueue<Entry> m_queue = new PriorityQueue<>();
+    private final Thread m_thread;
+
+    private long m_now;
+    private long m_sequence;
+    private long m_dispatchCount;
+
+
+    public UnitTestScheduler(long startTime)
+    {
+        m_now = startTime;
+        m_thread = Thread.currentThread();
+    }
+
+
+    @Override public void post(Runnable action)
+    {
+        postDelayed(action, 0);
+    }
+
+    @Override public synchronized void postDelayed(Runnable action, long delay)
+    {
+        m_queue.add(new Entry(action, m_now + Math.max(0, delay), m_sequence++));
+    }
+
+    @Override public synchronized void removeCallbacks(Runnable action)
+    {
+        final Iterator<Entry> it = m_queue.iterator();
+
+        while (it.hasNext())
+        {
+            if (it.next().m_action == action)
+            {
+                it.remove();
+            }
+        }
+    }
+
+    @Override public Thread getThread()
+    {
+        return m_thread;
+    }
+
+    @Override public synchronized long currentTimeMillis()
+    {
+        return m_now;
+    }
+
+    /**
+     * Runs everything due in the next <code>millis</code> of virtual time, then leaves the clock at the end of it.
+     */
+    public void runFor(long millis)
+    {
+        runUntil(null, millis);
+    }
+
+    /**
+     * Runs everything due in the next <code>maxMillis</code> of virtual time, stopping early once <code>condition</code> is met.
+     * Returns whether it was, the clock is left wherever it got to.
+     */
+    public boolean runUntil(Condition condition, long maxMillis)
+    {
+        if (Thread.currentThread() != m_thread)
+        {
+            throw new IllegalStateException("Only the thread that created the scheduler can run it.");
+        }
+
+        final long end = currentTimeMillis() + maxMillis;
+
+        if (condition != null && condition.isMet())  return true;
+
+        while (true)
+        {
+            final Entry next;
+
+            synchronized (this)
+            {
+                next = m_queue.peek();
+
+                if (next == null || next.m_deadline > end)
+                {
+                    m_now = end;
+
+                    return false;
+                }
+
+                m_queue.poll();
+                m_now = Math.max(m_now, next.m_deadline);
+                m_dispatchCount++;
+            }
+
+            next.m_action.run();
+
+            if (condition != null && condition.isMet())  return true;
+        }
+    }
+
+    /**
+     * Returns how many runnables have been run so far.
+     */
+    public synchronized long getDispatchCount()
+    {
+        return m_dispatchCount;
+    }
+
+    /**
+     * Returns how many runnables are waiting to be run.
+     */
+    public synchronized int getPendingCount()
+    {
+        return m_queue.size();
+    }
+
+
+    private static final class Entry implements Comparable<Entry>
+    {
+        private final Runnable m_action;
+        private final long m_deadline;
+        private final long m_sequence;
+
+        Entry(Runnable action, long deadline, long sequence)
+        {
+            m_action = action;
+            m_deadline = deadline;
+            m_sequence = sequence;
+        }
+
+        @Override public int compareTo(Entry other)
+        {
+            if (m_deadline != other.m_deadline)
+            {
+                return m_deadline < other.m_deadline ? -1 : 1;
+            }
+            return m_sequence < other.m_sequence ? -1 : (m_sequence == other.m_sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+
+/**
+ * A {@link UnitTestGatt} that behaves like the {@link UnitTestPeer} it's given: every operation is answered after a latency drawn from
+ * the peer's distribution for it, unless the peer's packet loss drops the answer (so the task can only time out) or the link drops
+ * instead. Answers still on their way when the link goes down are never delivered. All randomness comes from the {@link Random} handed
+ * in, so a seeded one gives the same run every time.
+ */
+public class UnitTestSimulatedGatt extends UnitTestGatt
+{
+
+    /**
+     * The status the link drops with, HCI_ERR_CONNECTION_TOUT in the native stack.
+     */
+    public static final int LINK_LOSS_STATUS = 0x08;
+
+
+    private final BleDevice m_device;
+    private final UnitTestPeer m_peer;
+    private final Random m_random;
+    private final List<BluetoothGattService> m_services;
+
+    private int m_generation;
+    private int m_mtu = BleNodeConfig.DEFAULT_MTU_SIZE;
+
+    private long m_operationCount;
+    private long m_droppedCount;
+    private long m_disconnectCount;
+    private long m_notificationCount;
+    private long m_bytesWritten;
+
+
+    public UnitTestSimulatedGatt(BleDevice device, UnitTestPeer peer, Random random)
+    {
+        super(device);
+
+        m_device = device;
+        m_peer = peer;
+        m_random = random;
+        m_services = peer.newServices();
+    }
+
+
+    @Override public BluetoothGatt connect(P_NativeDeviceLayer device, Context context, boolean useAutoConnect, BluetoothGattCallback callback)
+    {
+        m_generation++;
+        m_mtu = BleNodeConfig.DEFAULT_MTU_SIZE;
+        setGattNull(false);
+        getManagerLayer().updateDeviceState(m_device, BluetoothGatt.STATE_CONNECTING);
+        setToConnecting();
+        respond(BleTask.CONNECT, m_peer.getLatency(BleTask.CONNECT), new Runnable()
+        {
+            @Override public void run()
+            {
+                setToConnected();
+            }
+        });
+        return device.connect(context, useAutoConnect, callback);
+    }
+
+    @Override public void disconnect()
+    {
+        m_generation++;
+        super.disconnect();
+    }
+
+    @Override public List<BluetoothGattService> getNativeServiceList(P_Logger logger)
+    {
+        return m_services;
+    }
+
+    @Override public BluetoothGattService getService(UUID serviceUuid, P_Logger logger)
+    {
+        for (BluetoothGattService service : m_services)
+        {
+            if (service.getUuid().equals(serviceUuid))
+            {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    @Override public boolean discoverServices()
+    {
+        respond(BleTask.DISCOVER_SERVICES, m_peer.getLatency(BleTask.DISCOVER_SERVICES), new Runnable()
+        {
+            @Override public void run()
+            {
+                setServicesDiscovered();
+            }
+        });
+        return true;
+    }
+
+    @Override public boolean requestMtu(final int mtu)
+    {
+        respond(BleTask.SET_MTU, m_peer.getLatency(BleTask.SET_MTU), new Runnable()
+        {
+            @Override public void run()
+            {
+                m_mtu = Math.min(mtu, m_peer.getMaxMtu());
+                m_device.m_listeners.onMtuChanged(null, m_mtu, BleStatuses.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic)
+    {
+        respond(BleTask.READ, m_peer.getLatency(BleTask.READ), new Runnable()
+        {
+            @Override public void run()
+            {
+                m_device.m_listeners.onCharacteristicRead(null, characteristic, BleStatuses.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override public boolean setCharValue(BluetoothGattCharacteristic characteristic, byte[] data)
+    {
+        return characteristic.setValue(data);
+    }
+
+    @Override public boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic)
+    {
+        final byte[] value = characteristic.getValue();
+
+        m_bytesWritten += value != null ? value.length : 0;
+
+        final boolean withoutResponse = characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        final UnitTestLatency latency = withoutResponse ? m_peer.getWriteWithoutResponseLatency() : m_peer.getLatency(BleTask.WRITE);
+
+        respond(BleTask.WRITE, latency, new Runnable()
+        {
+            @Override public void run()
+            {
+                m_device.m_listeners.onCharacteristicWrite(null, characteristic, BleStatuses.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override public boolean readDescriptor(final BluetoothGattDescriptor descriptor)
+    {
+        respond(BleTask.READ_DESCRIPTOR, m_peer.getLatency(BleTask.READ_DESCRIPTOR), new Runnable()
+        {
+            @Override public void run()
+            {
+                m_device.m_listeners.onDescriptorRead(null, descriptor, BleStatuses.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override public boolean setDescValue(BluetoothGattDescriptor descriptor, byte[] data)
+    {
+        return descriptor.setValue(data);
+    }
+
+    @Override public boolean writeDescriptor(final BluetoothGattDescriptor descriptor)
+    {
+        //--- Writing the client configuration descriptor is how notifications get toggled.
+        final BleTask task = Uuids.CLIENT_CHARACTERISTIC_CONFIGURATION_DESCRIPTOR_UUID.equals(descriptor.getUuid()) ? BleTask.TOGGLE_NOTIFY : BleTask.WRITE_DESCRIPTOR;
+
+        respond(task, m_peer.getLatency(task), new Runnable()
+        {
+            @Override public void run()
+            {
+                m_device.m_listeners.onDescriptorWrite(null, descriptor, BleStatuses.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override public boolean readRemoteRssi()
+    {
+        respond(BleTask.READ_RSSI, m_peer.getLatency(BleTask.READ_RSSI), new Runnable()
+        {
+            @Override public void run()
+            {
+                m_device.m_listeners.onReadRemoteRssi(null, -50 - m_random.nextInt(40), BleStatuses.GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Has the peer send <code>count</code> notifications of <code>length</code> random bytes on the given characteristic, each
+     * <code>interval</code> after the last. Notifications the peer's packet loss drops are skipped, and the rest stop if the link goes down.
+     */
+    public void startNotifications(UUID charUuid, final int length, final UnitTestLatency interval, final int count)
+    {
+        final BluetoothGattCharacteristic characteristic = findCharacteristic(charUuid);
+
+        if (characteristic == null)
+        {
+            throw new IllegalArgumentException("The peer has no characteristic " + charUuid);
+        }
+
+        final int generation = m_generation;
+
+        m_device.getManager().getPostManager().postToUpdateThreadDelayed(new Runnable()
+        {
+            private int m_remaining = count;
+
+            @Override public void run()
+            {
+                if (generation != m_generation || m_remaining <= 0)  return;
+
+                m_remaining--;
+
+                if (m_random.nextDouble() < m_peer.getPacketLoss())
+                {
+                    m_droppedCount++;
+                }
+                else
+                {
+                    final byte[] data = new byte[length];
+                    m_random.nextBytes(data);
+                    characteristic.setValue(data);
+                    m_notificationCount++;
+                    m_device.m_listeners.onCharacteristicChanged(null, characteristic);
+                }
+
+                if (m_remaining > 0)
+                {
+                    m_device.getManager().getPostManager().postToUpdateThreadDelayed(this, interval.sample(m_random));
+                }
+            }
+        }, interval.sample(m_random));
+    }
+
+    /**
+     * Drops the link right away, the way the native stack reports a connection timeout.
+     */
+    public void dropLink()
+    {
+        m_generation++;
+        m_disconnectCount++;
+        setGattNull(true);
+        getManagerLayer().updateDeviceState(m_device, BluetoothGatt.STATE_DISCONNECTED);
+        m_device.m_listeners.onConnectionStateChange(null, LINK_LOSS_STATUS, BluetoothGatt.STATE_DISCONNECTED);
+    }
+
+    public UnitTestPeer getPeer()
+    {
+        return m_peer;
+    }
+
+    /**
+     * Returns the MTU the peer agreed to on the current connection.
+     */
+    public int getMtu()
+    {
+        return m_mtu;
+    }
+
+    /**
+     * Returns how many operations the peer was asked to answer, connects included.
+     */
+    public long getOperationCount()
+    {
+        return m_operationCount;
+    }
+
+    /**
+     * Returns how many answers and notifications were lost to the peer's packet loss.
+     */
+    public long getDroppedCount()
+    {
+        return m_droppedCount;
+    }
+
+    /**
+     * Returns how many times the link dropped, either from the peer's disconnect chance or from {@link #dropLink()}.
+     */
+    public long getDisconnectCount()
+    {
+        return m_disconnectCount;
+    }
+
+    public long getNotificationCount()
+    {
+        return m_notificationCount;
+    }
+
+    public long getBytesWritten()
+    {
+        return m_bytesWritten;
+    }
+
+    private void respond(BleTask task, UnitTestLatency latency, final Runnable answer)
+    {
+        m_operationCount++;
+
+        final int generation = m_generation;
+        final long delay = latency.sample(m_random);
+        final double roll = m_random.nextDouble();
+
+        final Runnable runnable;
+
+        if (roll < m_peer.getDisconnectChance())
+        {
+            runnable = new Runnable()
+            {
+                @Override public void run()
+                {
+                    if (generation == m_generation)
+                    {
+                        dropLink();
+                    }
+                }
+            };
+        }
+        else if (roll < m_peer.getDisconnectChance() + m_peer.getPacketLoss())
+        {
+            m_droppedCount++;
+
+            return;
+        }
+        else
+        {
+            runnable = new Runnable()
+            {
+                @Override public void run()
+                {
+                    if (generation == m_generation)
+                    {
+                        answer.run();
+                    }
+                }
+            };
+        }
+
+        m_device.getManager().getPostManager().postToUpdateThreadDelayed(runnable, delay);
+    }
+
+    private BluetoothGattCharacteristic findCharacteristic(UUID charUuid)
+    {
+        for (BluetoothGattService service : m_services)
+        {
+            final BluetoothGattCharacteristic characteristic = service.getCharacteristic(charUuid);
+
+            if (characteristic != null)
+            {
+                return characteristic;
+            }
+        }
+        return null;
+    }
+
+    private UnitTestManagerLayer getManagerLayer()
+    {
+        return (UnitTestManagerLayer) m_device.layerManager().getManagerLayer();
+    }
+}
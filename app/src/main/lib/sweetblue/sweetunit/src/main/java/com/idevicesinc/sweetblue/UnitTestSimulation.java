@@ -0,0 +1,359 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.content.Context;
+import com.idevicesinc.sweetblue.utils.Utils_String;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * Runs a {@link BleManager} against {@link UnitTestPeer}s on virtual time, so benchmarks and stress tests take as long as SweetBlue's
+ * own code does rather than as long as the radio would, and come out the same every run for the same seed. The manager's update loop,
+ * everything it posts, and every answer from the simulated peers go through one {@link UnitTestScheduler}, run on the thread that
+ * created the simulation. Only one simulation can run at a time, as {@link BleManager} is a singleton.
+ */
+public class UnitTestSimulation
+{
+
+    private static final long START_TIME = 1500000000000L;
+
+
+    private final UnitTestScheduler m_scheduler;
+    private final Random m_random;
+    private final BleManager m_manager;
+    private final UnitTestPeer m_defaultPeer = new UnitTestPeer("Advertiser");
+    private final List<UnitTestSimulatedGatt> m_gatts = new ArrayList<>();
+
+    private String m_nextAddress;
+    private UnitTestPeer m_nextPeer;
+
+
+    /**
+     * Creates the manager from <code>config</code>, replacing its native layers with simulated ones, and turns it on.
+     */
+    public UnitTestSimulation(Context context, BleManagerConfig config, long seed)
+    {
+        m_scheduler = new UnitTestScheduler(START_TIME);
+        m_random = new Random(seed);
+
+        config.updateHandler = m_scheduler;
+        config.clock = m_scheduler;
+        config.runOnMainThread = false;
+        config.postCallbacksToMainThread = false;
+        config.nativeManagerLayer = new UnitTestManagerLayer();
+        config.nativeDeviceFactory = new P_NativeDeviceLayerFactory()
+        {
+            @Override public P_NativeDeviceLayer newInstance(BleDevice device)
+            {
+                final String address = m_nextAddress != null ? m_nextAddress : randomAddress();
+                m_nextAddress = null;
+                return new SimulatedDevice(device, address);
+            }
+        };
+        config.gattLayerFactory = new P_GattLayerFactory()
+        {
+            @Override public P_GattLayer newInstance(BleDevice device)
+            {
+                final UnitTestPeer peer = m_nextPeer != null ? m_nextPeer : m_defaultPeer;
+                m_nextPeer = null;
+                final UnitTestSimulatedGatt gatt = new UnitTestSimulatedGatt(device, peer, new Random(m_random.nextLong()));
+                m_gatts.add(gatt);
+                return gatt;
+            }
+        };
+
+        m_manager = BleManager.get(context, config);
+        m_manager.forceOn();
+        m_manager.onResume();
+    }
+
+
+    public BleManager getManager()
+    {
+        return m_manager;
+    }
+
+    public UnitTestScheduler getScheduler()
+    {
+        return m_scheduler;
+    }
+
+    /**
+     * Creates a device that behaves like <code>peer</code>, with an address drawn from the simulation's seed.
+     */
+    public BleDevice addDevice(UnitTestPeer peer)
+    {
+        m_nextAddress = randomAddress();
+        m_nextPeer = peer;
+
+        try
+        {
+            return m_manager.newDevice(m_nextAddress, peer.getName());
+        }
+        finally
+        {
+            m_nextAddress = null;
+            m_nextPeer = null;
+        }
+    }
+
+    /**
+     * Returns the simulated GATT layer of a device created by this simulation.
+     */
+    public UnitTestSimulatedGatt gattOf(BleDevice device)
+    {
+        return (UnitTestSimulatedGatt) device.layerManager().getGattLayer();
+    }
+
+    /**
+     * Returns the simulated GATT layers of every device created so far, in the order they were created.
+     */
+    public List<UnitTestSimulatedGatt> getGatts()
+    {
+        return m_gatts;
+    }
+
+    /**
+     * Connects the device and runs until it's {@link BleDeviceState#INITIALIZED}, or until <code>maxMillis</code> of virtual time
+     * went by. Returns whether it got there.
+     */
+    public boolean connect(final BleDevice device, long maxMillis)
+    {
+        device.connect();
+
+        return runUntil(new UnitTestScheduler.Condition()
+        {
+            @Override public boolean isMet()
+            {
+                return device.is(BleDeviceState.INITIALIZED);
+            }
+        }, maxMillis);
+    }
+
+    /**
+     * Delivers a scan result from <code>macAddress</code> the next time the update loop runs, as if the native stack had reported it.
+     * The same address always maps to the same {@link BleDevice}.
+     */
+    public void advertise(final String macAddress, final int rssi, final byte[] scanRecord)
+    {
+        m_manager.getPostManager().postToUpdateThread(new Runnable()
+        {
+            @Override public void run()
+            {
+                m_manager.onDiscoveredFromNativeStack(new SimulatedDevice(BleDevice.NULL, macAddress), rssi, scanRecord);
+            }
+        });
+    }
+
+    /**
+     * Returns a new address drawn from the simulation's seed.
+     */
+    public String randomAddress()
+    {
+        final byte[] address = new byte[6];
+        m_random.nextBytes(address);
+        return Utils_String.bytesToMacAddress(address);
+    }
+
+    public Random getRandom()
+    {
+        return m_random;
+    }
+
+    public void runFor(long millis)
+    {
+        m_scheduler.runFor(millis);
+    }
+
+    public boolean runUntil(UnitTestScheduler.Condition condition, long maxMillis)
+    {
+        return m_scheduler.runUntil(condition, maxMillis);
+    }
+
+    /**
+     * Resets {@link BleManager#getTaskMetrics()}, runs <code>start</code>, then runs until <code>done</code> is met or
+     * <code>maxMillis</code> of virtual time went by, and reports how long that took in virtual and wall time, what got allocated on
+     * the way, and what the task metrics recorded.
+     */
+    public Result measure(String name, Runnable start, UnitTestScheduler.Condition done, long maxMillis)
+    {
+        m_manager.getTaskMetrics().reset();
+
+        final long virtualStart = m_scheduler.currentTimeMillis();
+        final long dispatchStart = m_scheduler.getDispatchCount();
+        final long allocatedStart = allocatedBytes();
+        final long wallStart = System.nanoTime();
+
+        start.run();
+
+        final boolean completed = m_scheduler.runUntil(done, maxMillis);
+
+        final long wallTime = System.nanoTime() - wallStart;
+        final long allocatedEnd = allocatedBytes();
+
+        return new Result(name, completed, m_scheduler.currentTimeMillis() - virtualStart, wallTime,
+                allocatedStart < 0 || allocatedEnd < 0 ? -1 : allocatedEnd - allocatedStart,
+                m_scheduler.getDispatchCount() - dispatchStart, m_manager.getTaskMetrics().snapshot());
+    }
+
+    public void shutdown()
+    {
+        m_manager.shutdown();
+    }
+
+    /**
+     * Returns how many bytes the current thread allocated so far, or -1 if the JVM can't tell. Looked up reflectively, as
+     * <code>java.lang.management</code> isn't part of Android.
+     */
+    private static long allocatedBytes()
+    {
+        try
+        {
+            final Object bean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            final Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+
+            return (Long) method.invoke(bean, Thread.currentThread().getId());
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+
+    /**
+     * What {@link #measure(String, Runnable, UnitTestScheduler.Condition, long)} found.
+     */
+    public static final class Result
+    {
+        private final String m_name;
+        private final boolean m_completed;
+        private final long m_virtualMillis;
+        private final long m_wallNanos;
+        private final long m_allocatedBytes;
+        private final long m_dispatchCount;
+        private final BleTaskMetrics.Snapshot m_metrics;
+
+        Result(String name, boolean completed, long virtualMillis, long wallNanos, long allocatedBytes, long dispatchCount, BleTaskMetrics.Snapshot metrics)
+        {
+            m_name = name;
+            m_completed = completed;
+            m_virtualMillis = virtualMillis;
+            m_wallNanos = wallNanos;
+            m_allocatedBytes = allocatedBytes;
+            m_dispatchCount = dispatchCount;
+            m_metrics = metrics;
+        }
+
+        public String name()
+        {
+            return m_name;
+        }
+
+        /**
+         * Whether the condition was met before time ran out.
+         */
+        public boolean completed()
+        {
+            return m_completed;
+        }
+
+        public long virtualMillis()
+        {
+            return m_virtualMillis;
+        }
+
+        public long wallNanos()
+        {
+            return m_wallNanos;
+        }
+
+        /**
+         * Returns the bytes allocated on the simulation's thread, or -1 if the JVM can't tell.
+         */
+        public long allocatedBytes()
+        {
+            return m_allocatedBytes;
+        }
+
+        /**
+         * Returns how many runnables the scheduler ran, update loop ticks included.
+         */
+        public long dispatchCount()
+        {
+            return m_dispatchCount;
+        }
+
+        public BleTaskMetrics.Snapshot metrics()
+        {
+            return m_metrics;
+        }
+
+        /**
+         * Returns how many tasks of the given kind succeeded per second of virtual time.
+         */
+        public double opsPerSecond(BleTask task)
+        {
+            final BleTaskMetrics.TaskStats stats = m_metrics.byTask().get(task);
+
+            return stats == null || m_virtualMillis == 0 ? 0.0 : stats.succeeded() * 1000.0 / m_virtualMillis;
+        }
+
+        @Override public String toString()
+        {
+            final StringBuilder builder = new StringBuilder();
+
+            builder.append(m_name).append(m_completed ? "" : " (INCOMPLETE)")
+                    .append(": virtual=").append(m_virtualMillis).append("ms")
+                    .append(" wall=").append(m_wallNanos / 1000000).append("ms")
+                    .append(" allocated=").append(m_allocatedBytes < 0 ? "n/a" : m_allocatedBytes / 1024 + "KB")
+                    .append(" dispatched=").append(m_dispatchCount)
+                    .append(" maxQueueDepth=").append(m_metrics.maxQueueDepth());
+
+            for (Map.Entry<BleTask, BleTaskMetrics.TaskStats> entry : m_metrics.byTask().entrySet())
+            {
+                final BleTaskMetrics.TaskStats stats = entry.getValue();
+
+                builder.append("\n    ").append(entry.getKey())
+                        .append(String.format(" ops/s=%.1f", opsPerSecond(entry.getKey())))
+                        .append(" p50=").append(stats.execution().getPercentile(50).millis()).append("ms")
+                        .append(" p99=").append(stats.execution().getPercentile(99).millis()).append("ms")
+                        .append(" succeeded=").append(stats.succeeded())
+                        .append(" failed=").append(stats.failed())
+                        .append(" timedOut=").append(stats.timedOut());
+            }
+
+            return builder.toString();
+        }
+    }
+
+
+    /**
+     * A {@link UnitTestDevice} with a fixed address, so the same address always maps to the same {@link BleDevice}.
+     */
+    private static final class SimulatedDevice extends UnitTestDevice
+    {
+        private final String m_address;
+
+        SimulatedDevice(BleDevice device, String address)
+        {
+            super(device);
+
+            m_address = address;
+        }
+
+        @Override public String getAddress()
+        {
+            return m_address;
+        }
+
+        @Override public boolean equals(P_NativeDeviceLayer device)
+        {
+            return device != null && m_address.equals(device.getAddress());
+        }
+    }
+}
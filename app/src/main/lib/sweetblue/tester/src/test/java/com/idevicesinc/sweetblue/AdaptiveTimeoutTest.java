@@ -0,0 +1,159 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.BleNodeConfig.AdaptiveTaskTimeoutRequestFilter;
+import com.idevicesinc.sweetblue.BleNodeConfig.DefaultTaskTimeoutRequestFilter;
+import com.idevicesinc.sweetblue.BleNodeConfig.TaskTimeoutRequestFilter.TaskTimeoutRequestEvent;
+import com.idevicesinc.sweetblue.utils.Interval;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.concurrent.Semaphore;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Feeds task times to an {@link AdaptiveTaskTimeoutRequestFilter} and checks the timeouts it gives out follow them, stay within their
+ * bounds, back off on timeouts, and that the filter gets fed when it's set on the {@link BleManagerConfig}.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class AdaptiveTimeoutTest extends BaseBleUnitTest
+{
+
+    private static final double DELTA = 0.0001;
+
+
+    private BleDevice m_device;
+
+
+    @Test
+    public void learnsTimeoutTest() throws Exception
+    {
+        final AdaptiveTaskTimeoutRequestFilter filter = useFilter(new AdaptiveTaskTimeoutRequestFilter(Interval.secs(0.5), Interval.secs(5.0), 4.0, new DefaultTaskTimeoutRequestFilter()));
+        final BleDevice device = m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device");
+
+        for (int i = 0; i < AdaptiveTaskTimeoutRequestFilter.MIN_SAMPLES - 1; i++)
+        {
+            filter.onTaskEnded(device.getMacAddress(), BleTask.WRITE, false, 0.2);
+        }
+
+        // Not enough samples yet.
+        assertEquals(DefaultTaskTimeoutRequestFilter.DEFAULT_TASK_TIMEOUT, timeoutOf(device, BleTask.WRITE), DELTA);
+
+        filter.onTaskEnded(device.getMacAddress(), BleTask.WRITE, false, 0.2);
+
+        // A steady 200ms on a good link times out way before the default, but not before the minimum.
+        assertEquals(0.5, timeoutOf(device, BleTask.WRITE), DELTA);
+
+        for (int i = 0; i < 50; i++)
+        {
+            filter.onTaskEnded(device.getMacAddress(), BleTask.WRITE, false, i % 2 == 0 ? 0.4 : 1.2);
+        }
+
+        final AdaptiveTaskTimeoutRequestFilter.Estimate estimate = filter.getEstimates().get(0);
+        final double expected = estimate.average().secs() + 4.0 * estimate.deviation().secs();
+        assertEquals(58, estimate.sampleCount());
+        assertTrue(expected > 0.5 && expected < 5.0);
+        assertEquals(expected, timeoutOf(device, BleTask.WRITE), DELTA);
+        assertEquals(expected, estimate.timeout().secs(), DELTA);
+
+        // Timeouts in a row back off, up to the maximum, until a task goes through again.
+        filter.onTaskEnded(device.getMacAddress(), BleTask.WRITE, true, 0.0);
+        assertEquals(Math.min(expected * 2, 5.0), timeoutOf(device, BleTask.WRITE), DELTA);
+        for (int i = 0; i < 10; i++)
+        {
+            filter.onTaskEnded(device.getMacAddress(), BleTask.WRITE, true, 0.0);
+        }
+        assertEquals(5.0, timeoutOf(device, BleTask.WRITE), DELTA);
+        filter.onTaskEnded(device.getMacAddress(), BleTask.WRITE, false, 0.8);
+        assertEquals(1, filter.getEstimates().get(0).backoff());
+        assertTrue(timeoutOf(device, BleTask.WRITE) < 5.0);
+
+        // Other tasks and devices learn on their own.
+        assertEquals(DefaultTaskTimeoutRequestFilter.DEFAULT_TASK_TIMEOUT, timeoutOf(device, BleTask.READ), DELTA);
+        final BleDevice other = m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Other Device");
+        assertEquals(DefaultTaskTimeoutRequestFilter.DEFAULT_TASK_TIMEOUT, timeoutOf(other, BleTask.WRITE), DELTA);
+
+        filter.clear();
+
+        assertTrue(filter.getEstimates().isEmpty());
+    }
+
+    @Test
+    public void connectNotLearnedTest() throws Exception
+    {
+        final AdaptiveTaskTimeoutRequestFilter filter = useFilter(new AdaptiveTaskTimeoutRequestFilter());
+        final BleDevice device = m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device");
+
+        for (int i = 0; i < AdaptiveTaskTimeoutRequestFilter.MIN_SAMPLES * 2; i++)
+        {
+            filter.onTaskEnded(device.getMacAddress(), BleTask.CONNECT, false, 0.1);
+        }
+
+        assertTrue(filter.getEstimates().isEmpty());
+        assertEquals(DefaultTaskTimeoutRequestFilter.DEFAULT_TASK_TIMEOUT, timeoutOf(device, BleTask.CONNECT), DELTA);
+    }
+
+    @Test(timeout = 12000)
+    public void fedByTasksTest() throws Exception
+    {
+        m_device = null;
+
+        final AdaptiveTaskTimeoutRequestFilter filter = useFilter(new AdaptiveTaskTimeoutRequestFilter());
+
+        final Semaphore s = new Semaphore(0);
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.connect(new BleDevice.StateListener()
+                    {
+                        @Override public void onEvent(StateEvent e)
+                        {
+                            if (e.didEnter(BleDeviceState.INITIALIZED))
+                            {
+                                s.release();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device");
+
+        s.acquire();
+
+        boolean discoveryLearned = false;
+
+        for (AdaptiveTaskTimeoutRequestFilter.Estimate estimate : filter.getEstimates())
+        {
+            assertEquals(m_device.getMacAddress(), estimate.macAddress());
+            discoveryLearned |= estimate.task() == BleTask.DISCOVER_SERVICES && estimate.sampleCount() == 1;
+        }
+
+        assertTrue(discoveryLearned);
+    }
+
+    private AdaptiveTaskTimeoutRequestFilter useFilter(AdaptiveTaskTimeoutRequestFilter filter)
+    {
+        m_config.taskTimeoutRequestFilter = filter;
+        m_mgr.setConfig(m_config);
+        return filter;
+    }
+
+    private double timeoutOf(BleDevice device, BleTask task)
+    {
+        final TaskTimeoutRequestEvent event = new TaskTimeoutRequestEvent();
+        event.init(m_mgr, device, BleServer.NULL, task, Uuids.INVALID, Uuids.INVALID);
+        return BleNodeConfig.getTimeout(event);
+    }
+}
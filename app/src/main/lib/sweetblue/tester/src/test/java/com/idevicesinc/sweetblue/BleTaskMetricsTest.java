@@ -0,0 +1,136 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.LatencyHistogram;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.concurrent.Semaphore;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Checks the percentiles {@link LatencyHistogram} reports stay within its precision, and that {@link BleTaskMetrics} picks up the tasks of
+ * a connect, both per {@link BleTask} and per device.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class BleTaskMetricsTest extends BaseBleUnitTest
+{
+
+    private BleDevice m_device;
+
+
+    @Test
+    public void histogramPrecisionTest() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.snapshot().getPercentile(99).millis());
+
+        for (int i = 1; i <= 10000; i++)
+        {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        histogram.record(LatencyHistogram.MAX_TRACKABLE_MILLIS * 2);
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(10002, snapshot.getCount());
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_MILLIS, snapshot.getMax().millis());
+        assertEquals(0, snapshot.getPercentile(0).millis());
+        assertWithinPrecision(5000, snapshot.getPercentile(50).millis());
+        assertWithinPrecision(9000, snapshot.getPercentile(90).millis());
+        assertWithinPrecision(9900, snapshot.getPercentile(99).millis());
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_MILLIS, snapshot.getPercentile(100).millis());
+
+        // Small values are exact.
+        final LatencyHistogram small = new LatencyHistogram();
+        for (int i = 0; i < 32; i++)
+        {
+            small.record(i);
+        }
+        assertEquals(15, small.snapshot().getPercentile(50).millis());
+        assertEquals(31, small.snapshot().getPercentile(100).millis());
+    }
+
+    @Test(timeout = 12000)
+    public void connectRecordedTest() throws Exception
+    {
+        m_device = null;
+
+        final Semaphore s = new Semaphore(0);
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.connect(new BleDevice.StateListener()
+                    {
+                        @Override public void onEvent(StateEvent e)
+                        {
+                            if (e.didEnter(BleDeviceState.INITIALIZED))
+                            {
+                                s.release();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        m_mgr.getTaskMetrics().reset();
+        m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device");
+
+        s.acquire();
+
+        final BleTaskMetrics.Snapshot snapshot = m_mgr.getTaskMetrics().snapshot();
+
+        final BleTaskMetrics.TaskStats connect = snapshot.byTask().get(BleTask.CONNECT);
+        assertNotNull(connect);
+        assertEquals(1, connect.succeeded());
+        assertEquals(1, connect.execution().getCount());
+
+        final BleTaskMetrics.TaskStats discover = snapshot.byTask().get(BleTask.DISCOVER_SERVICES);
+        assertNotNull(discover);
+        assertEquals(1, discover.succeeded());
+
+        final BleTaskMetrics.TaskStats device = snapshot.byDevice().get(m_device.getMacAddress());
+        assertNotNull(device);
+        assertTrue(device.succeeded() >= 2);
+        assertTrue(device.execution().getCount() >= 2);
+        assertEquals(device.execution().getCount(), device.queueWait().getCount());
+    }
+
+    @Test
+    public void queueDepthAndResetTest() throws Exception
+    {
+        final BleTaskMetrics metrics = new BleTaskMetrics(m_mgr);
+
+        metrics.sampleQueueDepth(0);
+        metrics.sampleQueueDepth(6);
+        metrics.sampleQueueDepth(3);
+
+        final BleTaskMetrics.Snapshot snapshot = metrics.snapshot();
+
+        assertEquals(3, snapshot.queueDepth());
+        assertEquals(6, snapshot.maxQueueDepth());
+        assertEquals(3.0, snapshot.meanQueueDepth(), 0.0);
+
+        metrics.reset();
+
+        assertEquals(0, metrics.snapshot().maxQueueDepth());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual)
+    {
+        assertTrue("Expected about " + expected + " but got " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
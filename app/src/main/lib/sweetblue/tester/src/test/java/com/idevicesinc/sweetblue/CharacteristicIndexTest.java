@@ -0,0 +1,385 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+/**
+ * Checks that characteristic lookups served from the index in {@link PA_ServiceManager} resolve to the same native objects as walking
+ * the service list, that clearing the index picks up a changed service list, even in the middle of building it, and that looking up
+ * every characteristic of a watch-sized GATT table only goes to the native services once. Also times both ways of looking up every
+ * characteristic of a watch's table and of a larger one, printed when run with <code>-D{@value SimulationBenchmarkTest#REPORT_PROPERTY}=true</code>.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class CharacteristicIndexTest
+{
+
+    private final static UUID mDupService1 = Uuids.fromShort("ABC1");
+    private final static UUID mDupService2 = Uuids.fromShort("ABC2");
+    private final static UUID mDupChar = Uuids.fromShort("1234");
+    private final static UUID mTestDesc = Uuids.CHARACTERISTIC_PRESENTATION_FORMAT_DESCRIPTOR_UUID;
+
+    private final static int LOOKUP_ROUNDS = 100;
+    private final static int BENCHMARK_ROUNDS = 20000;
+
+
+    @Test
+    public void indexMatchesWalkTest() throws Exception
+    {
+        final List<BluetoothGattService> services = newWatchTable();
+        final TestServiceManager walked = new TestServiceManager(services, false);
+        final TestServiceManager indexed = new TestServiceManager(services, true);
+
+        for (BluetoothGattService service : services)
+        {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics())
+            {
+                assertSame(walked.getCharacteristic(null, characteristic.getUuid()), indexed.getCharacteristic(null, characteristic.getUuid()));
+                assertSame(characteristic, indexed.getCharacteristic(service.getUuid(), characteristic.getUuid()));
+            }
+        }
+
+        assertNull(indexed.getCharacteristic(null, Uuids.fromShort("FFFF")));
+        assertNull(indexed.getCharacteristic(Uuids.fromShort("FFFF"), Uuids.BATTERY_LEVEL));
+        assertNull(indexed.getCharacteristic(Uuids.GENERIC_ACCESS_SERVICE_UUID, Uuids.BATTERY_LEVEL));
+    }
+
+    @Test
+    public void duplicateCharacteristicsTest() throws Exception
+    {
+        final List<BluetoothGattService> services = new ArrayList<>();
+        final BluetoothGattService service1 = new BluetoothGattService(mDupService1, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        final BluetoothGattService service2 = new BluetoothGattService(mDupService2, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        final BluetoothGattCharacteristic char1 = newChar(mDupChar, (byte) 0x1);
+        final BluetoothGattCharacteristic char2 = newChar(mDupChar, (byte) 0x2);
+        final BluetoothGattCharacteristic char3 = newChar(mDupChar, (byte) 0x3);
+        service1.addCharacteristic(char1);
+        service1.addCharacteristic(char2);
+        service2.addCharacteristic(char3);
+        services.add(service1);
+        services.add(service2);
+
+        final TestServiceManager walked = new TestServiceManager(services, false);
+        final TestServiceManager indexed = new TestServiceManager(services, true);
+
+        assertSame(char1, indexed.getCharacteristic(null, mDupChar));
+        assertSame(char3, indexed.getCharacteristic(mDupService2, mDupChar));
+
+        for (byte value = 0x1; value <= 0x4; value++)
+        {
+            assertSame(walked.getCharacteristic(null, mDupChar, valueFilter(value)), indexed.getCharacteristic(null, mDupChar, valueFilter(value)));
+            assertSame(walked.getCharacteristic(mDupService1, mDupChar, valueFilter(value)), indexed.getCharacteristic(mDupService1, mDupChar, valueFilter(value)));
+        }
+        assertSame(char3, indexed.getCharacteristic(null, mDupChar, valueFilter((byte) 0x3)));
+
+        // Descriptor values aren't indexed, a changed one has to be seen right away.
+        char2.getDescriptor(mTestDesc).setValue(new byte[] { 0x4 });
+        assertSame(char2, indexed.getCharacteristic(null, mDupChar, valueFilter((byte) 0x4)));
+    }
+
+    @Test
+    public void clearIndexTest() throws Exception
+    {
+        final List<BluetoothGattService> services = newWatchTable();
+        final TestServiceManager indexed = new TestServiceManager(services, true);
+        final UUID newService = Uuids.fromShort("ABC3");
+        final UUID newChar = Uuids.fromShort("4321");
+
+        assertNull(indexed.getCharacteristic(null, newChar));
+
+        final BluetoothGattService service = new BluetoothGattService(newService, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        service.addCharacteristic(newChar(newChar, (byte) 0x1));
+        services.add(service);
+
+        assertNull(indexed.getCharacteristic(null, newChar));
+
+        indexed.clearCharacteristicIndex();
+
+        assertNotNull(indexed.getCharacteristic(null, newChar));
+        assertNotNull(indexed.getCharacteristic(newService, newChar));
+    }
+
+    @Test
+    public void emptyServiceListNotIndexedTest() throws Exception
+    {
+        final List<BluetoothGattService> services = new ArrayList<>();
+        final TestServiceManager indexed = new TestServiceManager(services, true);
+
+        assertNull(indexed.getCharacteristic(null, Uuids.BATTERY_LEVEL));
+
+        services.addAll(newWatchTable());
+
+        assertNotNull(indexed.getCharacteristic(null, Uuids.BATTERY_LEVEL));
+    }
+
+    @Test
+    public void lookupCostTest() throws Exception
+    {
+        final List<BluetoothGattService> services = newWatchTable();
+        final TestServiceManager walked = new TestServiceManager(services, false);
+        final TestServiceManager indexed = new TestServiceManager(services, true);
+
+        int lookups = 0;
+
+        for (int i = 0; i < LOOKUP_ROUNDS; i++)
+        {
+            for (BluetoothGattService service : services)
+            {
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics())
+                {
+                    assertSame(walked.getCharacteristic(null, characteristic.getUuid()), indexed.getCharacteristic(null, characteristic.getUuid()));
+                    assertSame(walked.getCharacteristic(service.getUuid(), characteristic.getUuid()), indexed.getCharacteristic(service.getUuid(), characteristic.getUuid()));
+                    lookups += 2;
+                }
+            }
+        }
+
+        // Walking goes to the native services on every lookup, the index only once to build itself.
+        assertEquals(lookups, walked.m_nativeLookups);
+        assertEquals(1, indexed.m_nativeLookups);
+    }
+
+    @Test
+    public void lookupBenchmarkTest() throws Exception
+    {
+        benchmark("watch", newWatchTable());
+        benchmark("vendor", newVendorTable());
+    }
+
+    private static void benchmark(final String name, final List<BluetoothGattService> services)
+    {
+        final List<UUID[]> targets = new ArrayList<>();
+
+        for (BluetoothGattService service : services)
+        {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics())
+            {
+                targets.add(new UUID[] { service.getUuid(), characteristic.getUuid() });
+            }
+        }
+
+        final long walkNanos = timeLookups(new TestServiceManager(services, false), targets);
+        final long indexNanos = timeLookups(new TestServiceManager(services, true), targets);
+
+        final long lookups = (long) BENCHMARK_ROUNDS * targets.size() * 2;
+        report(String.format("Resolved %d lookups on the %s table of %d services and %d characteristics: walking %dms (%dns each), indexed %dms (%dns each)",
+                lookups, name, services.size(), targets.size(), walkNanos / 1000000, walkNanos / lookups, indexNanos / 1000000, indexNanos / lookups));
+    }
+
+    private static long timeLookups(final TestServiceManager manager, final List<UUID[]> targets)
+    {
+        // Warm up, and build the index if there is one.
+        for (UUID[] target : targets)
+        {
+            assertNotNull(manager.getCharacteristic(null, target[1]));
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++)
+        {
+            for (int j = 0; j < targets.size(); j++)
+            {
+                final UUID[] target = targets.get(j);
+                manager.getCharacteristic(null, target[1]);
+                manager.getCharacteristic(target[0], target[1]);
+            }
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static void report(Object measured)
+    {
+        if (Boolean.getBoolean(SimulationBenchmarkTest.REPORT_PROPERTY))
+        {
+            System.out.println(measured);
+        }
+    }
+
+    @Test
+    public void clearWhileBuildingTest() throws Exception
+    {
+        final List<BluetoothGattService> services = newWatchTable();
+        final TestServiceManager indexed = new TestServiceManager(services, true);
+        final UUID newService = Uuids.fromShort("ABC3");
+        final UUID newChar = Uuids.fromShort("4321");
+
+        // The service list changes, and the index gets cleared, while the first lookup is still building it from the old list.
+        indexed.m_onNativeLookup = new Runnable()
+        {
+            @Override public void run()
+            {
+                indexed.m_onNativeLookup = null;
+
+                final BluetoothGattService service = new BluetoothGattService(newService, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+                service.addCharacteristic(newChar(newChar, (byte) 0x1));
+                services.add(service);
+
+                indexed.clearCharacteristicIndex();
+            }
+        };
+
+        assertNotNull(indexed.getCharacteristic(null, Uuids.BATTERY_LEVEL));
+
+        // The index built from the old list must not have been kept.
+        assertNotNull(indexed.getCharacteristic(null, newChar));
+        assertEquals(2, indexed.m_nativeLookups);
+    }
+
+    /**
+     * The standard services a watch exposes plus AsteroidOS' own, with its characteristics laid out the way the watch does.
+     */
+    private static List<BluetoothGattService> newWatchTable()
+    {
+        final List<BluetoothGattService> services = new ArrayList<>();
+
+        services.add(newService(Uuids.GENERIC_ACCESS_SERVICE_UUID, Uuids.fromShort("2A00"), Uuids.fromShort("2A01"), Uuids.fromShort("2A04")));
+        services.add(newService(Uuids.GENERIC_ATTRIBUTES_SERVICE_UUID, Uuids.fromShort("2A05")));
+        services.add(newService(Uuids.DEVICE_INFORMATION_SERVICE_UUID, Uuids.fromShort("2A24"), Uuids.fromShort("2A25"), Uuids.fromShort("2A26"),
+                Uuids.fromShort("2A27"), Uuids.fromShort("2A28"), Uuids.fromShort("2A29")));
+        services.add(newService(Uuids.BATTERY_SERVICE_UUID, Uuids.BATTERY_LEVEL));
+        services.add(newService(asteroidUuid("00005071"), asteroidUuid("00005001")));
+        services.add(newService(asteroidUuid("00006071"), asteroidUuid("00006001"), asteroidUuid("00006002")));
+        services.add(newService(asteroidUuid("00007071"), asteroidUuid("00007001"), asteroidUuid("00007002"), asteroidUuid("00007003"),
+                asteroidUuid("00007004"), asteroidUuid("00007005")));
+        services.add(newService(asteroidUuid("00008071"), asteroidUuid("00008001"), asteroidUuid("00008002"), asteroidUuid("00008003"),
+                asteroidUuid("00008004")));
+        services.add(newService(asteroidUuid("00009071"), asteroidUuid("00009001"), asteroidUuid("00009002"), asteroidUuid("00009003")));
+
+        return services;
+    }
+
+    /**
+     * The watch's table followed by the kind of vendor services a larger peripheral piles on, a dozen of them with eight characteristics each,
+     * so the characteristics looked up last sit deepest in the walk.
+     */
+    private static List<BluetoothGattService> newVendorTable()
+    {
+        final List<BluetoothGattService> services = newWatchTable();
+
+        for (int i = 0; i < 12; i++)
+        {
+            final UUID[] charUuids = new UUID[8];
+
+            for (int j = 0; j < charUuids.length; j++)
+            {
+                charUuids[j] = UUID.fromString(String.format("%08x-1000-2000-8000-001199334455", 0x12340000 + i * 0x100 + j + 1));
+            }
+
+            services.add(newService(UUID.fromString(String.format("%08x-1000-2000-8000-001199334455", 0x12340000 + i * 0x100)), charUuids));
+        }
+
+        return services;
+    }
+
+    private static UUID asteroidUuid(String prefix)
+    {
+        return UUID.fromString(prefix + "-0000-0000-0000-00a57e401d05");
+    }
+
+    private static BluetoothGattService newService(UUID serviceUuid, UUID... charUuids)
+    {
+        final BluetoothGattService service = new BluetoothGattService(serviceUuid, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+
+        for (UUID charUuid : charUuids)
+        {
+            final BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(charUuid, BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE);
+            characteristic.addDescriptor(new BluetoothGattDescriptor(Uuids.CLIENT_CHARACTERISTIC_CONFIGURATION_DESCRIPTOR_UUID, BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+            service.addCharacteristic(characteristic);
+        }
+
+        return service;
+    }
+
+    private static BluetoothGattCharacteristic newChar(UUID charUuid, byte descValue)
+    {
+        final BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(charUuid, BluetoothGattCharacteristic.PROPERTY_READ, BluetoothGattCharacteristic.PERMISSION_READ);
+        final BluetoothGattDescriptor desc = new BluetoothGattDescriptor(mTestDesc, BluetoothGattDescriptor.PERMISSION_READ);
+        desc.setValue(new byte[] { descValue });
+        characteristic.addDescriptor(desc);
+        return characteristic;
+    }
+
+    private static DescriptorFilter valueFilter(final byte value)
+    {
+        return new DescriptorFilter()
+        {
+            @Override public Please onEvent(DescriptorEvent event)
+            {
+                return Please.acceptIf(event.value()[0] == value);
+            }
+
+            @Override public UUID descriptorUuid()
+            {
+                return mTestDesc;
+            }
+        };
+    }
+
+    private static class TestServiceManager extends PA_ServiceManager
+    {
+
+        private final List<BluetoothGattService> m_services;
+        private final boolean m_indexed;
+
+        private int m_nativeLookups;
+        private Runnable m_onNativeLookup;
+
+        TestServiceManager(List<BluetoothGattService> services, boolean indexed)
+        {
+            m_services = services;
+            m_indexed = indexed;
+        }
+
+        @Override protected boolean indexesCharacteristics()
+        {
+            return m_indexed;
+        }
+
+        @Override public BluetoothGattService getServiceDirectlyFromNativeNode(UUID uuid)
+        {
+            m_nativeLookups++;
+
+            for (BluetoothGattService service : m_services)
+            {
+                if (service.getUuid().equals(uuid))
+                {
+                    return service;
+                }
+            }
+            return null;
+        }
+
+        @Override protected List<BluetoothGattService> getNativeServiceList_original()
+        {
+            m_nativeLookups++;
+
+            if (m_onNativeLookup != null)
+            {
+                // Hand out the list as it was before whatever the hook changes, like a native list fetched just before that.
+                final List<BluetoothGattService> services = new ArrayList<>(m_services);
+                m_onNativeLookup.run();
+                return services;
+            }
+
+            return m_services;
+        }
+    }
+}
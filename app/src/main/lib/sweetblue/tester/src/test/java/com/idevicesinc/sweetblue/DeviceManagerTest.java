@@ -0,0 +1,200 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.app.Activity;
+import com.idevicesinc.sweetblue.utils.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Drives devices through discovery, connection and undiscovery on the virtual time of a {@link UnitTestSimulation}, and checks that
+ * {@link P_DeviceManager}'s slots and state index, and those of the undiscovery cache, follow along, and that its expiry heap undiscovers
+ * stale devices on time.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class DeviceManagerTest
+{
+
+    private static final String MAC_A = "AA:BB:CC:DD:EE:01";
+    private static final String MAC_B = "AA:BB:CC:DD:EE:02";
+    private static final String MAC_C = "AA:BB:CC:DD:EE:03";
+    private static final String MAC_D = "AA:BB:CC:DD:EE:04";
+
+    //--- Long enough that nothing goes stale in the tests that don't wait for it.
+    private static final long KEEP_ALIVE = 20000;
+    //--- Covers the ticks between an advertisement and discover() returning, and between a due time and the purge that acts on it.
+    private static final long SLACK = 200;
+
+
+    private Activity m_activity;
+    private UnitTestSimulation m_sim;
+    private BleManager m_mgr;
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        m_activity = Robolectric.setupActivity(Activity.class);
+        final BleManagerConfig config = new BleManagerConfig();
+        config.undiscoveryKeepAlive = Interval.millis(KEEP_ALIVE);
+        m_sim = new UnitTestSimulation(m_activity, config, 0);
+        m_mgr = m_sim.getManager();
+
+        m_mgr.startScan();
+        assertTrue(m_sim.runUntil(new UnitTestScheduler.Condition()
+        {
+            @Override public boolean isMet()
+            {
+                return m_mgr.is(BleManagerState.SCANNING);
+            }
+        }, 5000));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        m_sim.shutdown();
+        m_sim = null;
+        m_activity.finish();
+        m_activity = null;
+    }
+
+    @Test
+    public void stateIndexTest() throws Exception
+    {
+        final BleDevice a = discover(MAC_A);
+        final BleDevice b = discover(MAC_B);
+        final BleDevice c = discover(MAC_C);
+
+        // State queries come back in slot order, which is discovery order so far.
+        assertEquals(Arrays.asList(a, b, c), m_mgr.getDevices_List(BleDeviceState.DISCOVERED));
+        assertEquals(Arrays.asList(a, b, c), m_mgr.getDevices_List(BleDeviceState.DISCONNECTED));
+
+        assertTrue(m_sim.connect(b, 10000));
+
+        assertEquals(Collections.singletonList(b), m_mgr.getDevices_List(BleDeviceState.CONNECTED));
+        assertEquals(Collections.singletonList(b), m_mgr.getDevices_List(BleDeviceState.INITIALIZED));
+        assertEquals(Arrays.asList(a, c), m_mgr.getDevices_List(BleDeviceState.DISCONNECTED));
+        assertEquals(b, m_mgr.getDevice(BleDeviceState.CONNECTED.bit()));
+
+        // A mask matching more than one state still lists each device once, in slot order.
+        assertEquals(Arrays.asList(a, b, c), m_mgr.getDevices_List(BleDeviceState.CONNECTED.bit() | BleDeviceState.DISCONNECTED.bit()));
+
+        // States b went through and left again toggled their bit twice, so it's back off.
+        assertTrue(m_mgr.getDevices_List(BleDeviceState.CONNECTING).isEmpty());
+        assertTrue(m_mgr.getDevices_List(BleDeviceState.DISCOVERING_SERVICES).isEmpty());
+
+        b.disconnect();
+        assertTrue(m_sim.runUntil(new UnitTestScheduler.Condition()
+        {
+            @Override public boolean isMet()
+            {
+                return b.is(BleDeviceState.DISCONNECTED);
+            }
+        }, 10000));
+
+        assertTrue(m_mgr.getDevices_List(BleDeviceState.CONNECTED).isEmpty());
+        assertTrue(m_mgr.getDevices_List(BleDeviceState.INITIALIZED).isEmpty());
+        assertEquals(Arrays.asList(a, b, c), m_mgr.getDevices_List(BleDeviceState.DISCONNECTED));
+        assertTrue(m_mgr.getDevice(BleDeviceState.CONNECTED.bit()).isNull());
+    }
+
+    @Test
+    public void slotReuseAndCacheTest() throws Exception
+    {
+        final BleDevice a = discover(MAC_A);
+        final BleDevice b = discover(MAC_B);
+        final BleDevice c = discover(MAC_C);
+
+        // Undiscovering a frees its slot, and moves it to the cache, whose index follows its states from there on.
+        assertTrue(m_mgr.undiscover(a));
+
+        assertFalse(m_mgr.m_deviceMngr.has(a));
+        assertTrue(m_mgr.m_deviceMngr_cache.has(a));
+        assertEquals(Arrays.asList(b, c), m_mgr.getDevices_List(BleDeviceState.DISCOVERED));
+        assertEquals(Collections.singletonList(a), m_mgr.m_deviceMngr_cache.getDevices_List(false, BleDeviceState.UNDISCOVERED));
+        assertTrue(m_mgr.m_deviceMngr_cache.getDevices_List(false, BleDeviceState.DISCOVERED).isEmpty());
+
+        // A new device takes the freed slot, so it comes first.
+        final BleDevice d = discover(MAC_D);
+
+        assertEquals(Arrays.asList(d, b, c), m_mgr.getDevices_List(BleDeviceState.DISCOVERED));
+
+        // Seen again, a comes back out of the cache as the same instance, into a slot of its own.
+        assertTrue(a == discover(MAC_A));
+
+        assertTrue(m_mgr.m_deviceMngr.has(a));
+        assertFalse(m_mgr.m_deviceMngr_cache.has(a));
+        assertEquals(Arrays.asList(d, b, c, a), m_mgr.getDevices_List(BleDeviceState.DISCOVERED));
+        assertTrue(m_mgr.getDevices_List(BleDeviceState.UNDISCOVERED).isEmpty());
+        assertTrue(m_mgr.m_deviceMngr_cache.getDevices_List(false, BleDeviceState.UNDISCOVERED).isEmpty());
+        assertEquals(4, m_mgr.getDeviceCount());
+    }
+
+    @Test
+    public void undiscoveryTimingTest() throws Exception
+    {
+        final BleDevice a = discover(MAC_A);
+        final BleDevice b = discover(MAC_B);
+        final long bSeen = now();
+
+        // Seen again halfway, a's due time moves back behind b's, which stays where it was.
+        m_sim.runFor(KEEP_ALIVE / 2);
+        assertTrue(a == discover(MAC_A));
+        final long aSeenAgain = now();
+
+        runTo(bSeen + KEEP_ALIVE - SLACK);
+        assertTrue(b.is(BleDeviceState.DISCOVERED));
+
+        // By now a is past where it was first due too.
+        runTo(bSeen + KEEP_ALIVE + SLACK);
+        assertTrue(b.is(BleDeviceState.UNDISCOVERED));
+        assertTrue(a.is(BleDeviceState.DISCOVERED));
+
+        runTo(aSeenAgain + KEEP_ALIVE - SLACK);
+        assertTrue(a.is(BleDeviceState.DISCOVERED));
+
+        runTo(aSeenAgain + KEEP_ALIVE + SLACK);
+        assertTrue(a.is(BleDeviceState.UNDISCOVERED));
+
+        assertEquals(0, m_mgr.getDeviceCount());
+        assertTrue(m_mgr.m_deviceMngr_cache.has(a));
+        assertTrue(m_mgr.m_deviceMngr_cache.has(b));
+    }
+
+    private long now()
+    {
+        return m_sim.getScheduler().currentTimeMillis();
+    }
+
+    private void runTo(long time)
+    {
+        m_sim.runFor(time - now());
+    }
+
+    private BleDevice discover(String macAddress)
+    {
+        m_sim.advertise(macAddress, -50, UnitTestUtils.newScanRecord("Device " + macAddress));
+        m_sim.runFor(100);
+
+        final BleDevice device = m_mgr.getDevice(macAddress);
+
+        assertFalse(device.isNull());
+        assertTrue(device.is(BleDeviceState.DISCOVERED));
+
+        return device;
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.backend.historical.Backend_HistoricalDatabase_Persistent;
+import com.idevicesinc.sweetblue.utils.EpochTimeRange;
+import com.idevicesinc.sweetblue.utils.HistoricalData;
+import com.idevicesinc.sweetblue.utils.HistoricalDataCursor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.util.UUID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class HistoricalDatabaseTest
+{
+
+    private final static String MAC = "DD:33:44:55:66:77";
+    private final static UUID UUID_ = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+
+    // Enough to seal a few compressed blocks, with some left over in the journal.
+    private final static int COUNT = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private static HistoricalData record(int i)
+    {
+        return new HistoricalData(1000L * i, new byte[] { (byte) i, (byte) (i >> 8) });
+    }
+
+    private Backend_HistoricalDatabase_Persistent populate(File directory)
+    {
+        return populate(new Backend_HistoricalDatabase_Persistent(directory));
+    }
+
+    private static Backend_HistoricalDatabase_Persistent populate(Backend_HistoricalDatabase_Persistent db)
+    {
+        db.add_multiple_start();
+
+        for (int i = 0; i < COUNT; i++)
+        {
+            db.add_multiple_next(MAC, UUID_, record(i));
+        }
+
+        db.add_multiple_end();
+
+        return db;
+    }
+
+    private static void assertRange(Backend_HistoricalDatabase_Persistent db, int from, int to)
+    {
+        HistoricalDataCursor cursor = db.getCursor(MAC, UUID_, EpochTimeRange.FROM_MIN_TO_MAX);
+
+        assertEquals(to - from + 1, cursor.getCount());
+
+        for (int i = from; i <= to; i++)
+        {
+            assertTrue(cursor.moveToNext());
+            assertEquals(1000L * i, cursor.getEpochTime());
+            assertArrayEquals(record(i).getBlob(), cursor.getBlob());
+        }
+
+        assertFalse(cursor.moveToNext());
+
+        cursor.close();
+    }
+
+    @Test
+    public void appendAndReadTest() throws Exception
+    {
+        Backend_HistoricalDatabase_Persistent db = populate(folder.newFolder());
+
+        assertTrue(db.doesDataExist(MAC, UUID_));
+        assertEquals(COUNT, db.getCount(MAC, UUID_, EpochTimeRange.FROM_MIN_TO_MAX));
+
+        assertRange(db, 0, COUNT - 1);
+    }
+
+    @Test
+    public void rangeCursorTest() throws Exception
+    {
+        Backend_HistoricalDatabase_Persistent db = populate(folder.newFolder());
+
+        HistoricalDataCursor cursor = db.getCursor(MAC, UUID_, new EpochTimeRange(100500L, 700000L));
+
+        assertEquals(600, cursor.getCount());
+
+        assertTrue(cursor.moveToLast());
+        assertEquals(700000L, cursor.getEpochTime());
+
+        assertTrue(cursor.moveToPosition(299));
+        assertEquals(400000L, cursor.getEpochTime());
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals(101000L, cursor.getEpochTime());
+
+        cursor.close();
+    }
+
+    @Test
+    public void deleteOldestTest() throws Exception
+    {
+        Backend_HistoricalDatabase_Persistent db = populate(folder.newFolder());
+
+        db.add_single(MAC, UUID_, record(COUNT), 300);
+
+        assertEquals(COUNT - 299, db.getCount(MAC, UUID_, EpochTimeRange.FROM_MIN_TO_MAX));
+        assertRange(db, 300, COUNT);
+    }
+
+    @Test
+    public void deleteRangeTest() throws Exception
+    {
+        Backend_HistoricalDatabase_Persistent db = populate(folder.newFolder());
+
+        db.delete_singleUuid_inRange(MAC, UUID_, new EpochTimeRange(500000L, Long.MAX_VALUE), Long.MAX_VALUE);
+
+        assertEquals(500, db.getCount(MAC, UUID_, EpochTimeRange.FROM_MIN_TO_MAX));
+        assertRange(db, 0, 499);
+
+        db.delete_singleUuid_all(MAC, UUID_);
+
+        assertFalse(db.doesDataExist(MAC, UUID_));
+    }
+
+    @Test
+    public void retentionMaxAgeTest() throws Exception
+    {
+        // Everything up to and including the record at 500 seconds is older than this, give or take half a second.
+        long maxAge = System.currentTimeMillis() - 500500L;
+
+        Backend_HistoricalDatabase_Persistent db = populate(new Backend_HistoricalDatabase_Persistent(folder.newFolder(), maxAge));
+
+        assertEquals(COUNT - 501, db.getCount(MAC, UUID_, EpochTimeRange.FROM_MIN_TO_MAX));
+        assertRange(db, 501, COUNT - 1);
+    }
+
+    @Test
+    public void cursorOutlivesCompactionTest() throws Exception
+    {
+        Backend_HistoricalDatabase_Persistent db = new Backend_HistoricalDatabase_Persistent(folder.newFolder());
+
+        // One at a time, so they're sealed into several blocks rather than one big one.
+        for (int i = 0; i < COUNT; i++)
+        {
+            db.add_single(MAC, UUID_, record(i), 0);
+        }
+
+        HistoricalDataCursor cursor = db.getCursor(MAC, UUID_, EpochTimeRange.FROM_MIN_TO_MAX);
+
+        // Drops most of the head, which replaces the segment file before the cursor has read anything from it.
+        db.add_single(MAC, UUID_, record(COUNT), 600);
+
+        assertEquals(COUNT, cursor.getCount());
+
+        for (int i = 0; i < COUNT; i++)
+        {
+            assertTrue(cursor.moveToNext());
+            assertEquals(1000L * i, cursor.getEpochTime());
+            assertArrayEquals(record(i).getBlob(), cursor.getBlob());
+        }
+
+        cursor.close();
+
+        assertRange(db, 600, COUNT);
+    }
+
+    @Test
+    public void reopenTest() throws Exception
+    {
+        File directory = folder.newFolder();
+
+        Backend_HistoricalDatabase_Persistent db = populate(directory);
+
+        db.add_single(MAC, UUID_, record(COUNT), 10);
+
+        db = new Backend_HistoricalDatabase_Persistent(directory);
+
+        assertEquals(COUNT - 9, db.getCount(MAC, UUID_, EpochTimeRange.FROM_MIN_TO_MAX));
+        assertRange(db, 10, COUNT);
+    }
+
+}
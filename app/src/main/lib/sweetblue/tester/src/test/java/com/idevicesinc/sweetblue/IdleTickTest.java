@@ -0,0 +1,120 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.app.Activity;
+import com.idevicesinc.sweetblue.utils.Interval;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.UUID;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Counts how many times the update loop ticks over an hour of {@link BleManagerState#IDLE} on the virtual time of a
+ * {@link UnitTestSimulation}, with nothing to wait on, and with a poll that's due more often than {@link BleManagerConfig#maxIdleUpdateRate}.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class IdleTickTest
+{
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long POLL_RATE = 2000;
+
+    private static final UUID POLL_UUID = UUID.fromString("1234666b-1000-2000-8000-001199334455");
+
+
+    private Activity m_activity;
+    private UnitTestSimulation m_sim;
+    private BleManager m_mgr;
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        m_sim.shutdown();
+        m_sim = null;
+        m_activity.finish();
+        m_activity = null;
+    }
+
+    @Test
+    public void fixedIdleRateTest() throws Exception
+    {
+        final BleManagerConfig config = new BleManagerConfig();
+        config.maxIdleUpdateRate = Interval.DISABLED;
+        start(config);
+
+        assertTicks(HOUR / config.idleUpdateRate.millis(), idleHourTicks());
+    }
+
+    @Test
+    public void noDeadlineTest() throws Exception
+    {
+        final BleManagerConfig config = new BleManagerConfig();
+        start(config);
+
+        assertTicks(HOUR / config.maxIdleUpdateRate.millis(), idleHourTicks());
+    }
+
+    @Test
+    public void pollDeadlineTest() throws Exception
+    {
+        final BleManagerConfig config = new BleManagerConfig();
+        start(config);
+
+        // The device never connects, so its poll doesn't queue a read, and the loop stays idle, waking up only for the poll.
+        final BleDevice device = m_mgr.newDevice(m_sim.randomAddress());
+        device.startPoll(POLL_UUID, Interval.millis(POLL_RATE));
+
+        assertTicks(HOUR / POLL_RATE, idleHourTicks());
+
+        // Once it stops, the loop goes back to sleeping for as long as it can.
+        device.stopPoll(POLL_UUID, Interval.millis(POLL_RATE));
+        m_sim.runFor(POLL_RATE);
+
+        assertTicks(HOUR / config.maxIdleUpdateRate.millis(), idleHourTicks());
+    }
+
+    private void start(BleManagerConfig config)
+    {
+        m_activity = Robolectric.setupActivity(Activity.class);
+        m_sim = new UnitTestSimulation(m_activity, config, 0);
+        m_mgr = m_sim.getManager();
+
+        assertTrue(m_sim.runUntil(new UnitTestScheduler.Condition()
+        {
+            @Override public boolean isMet()
+            {
+                return m_mgr.is(BleManagerState.IDLE);
+            }
+        }, config.minTimeToIdle.millis() + 5000));
+
+        // Let the loop settle into its idle rate before counting.
+        m_sim.runFor(Interval.isEnabled(config.maxIdleUpdateRate) ? config.maxIdleUpdateRate.millis() : config.idleUpdateRate.millis());
+    }
+
+    private long idleHourTicks()
+    {
+        final long ticksBefore = m_mgr.getUpdateTickCount();
+
+        m_sim.runFor(HOUR);
+
+        assertTrue(m_mgr.is(BleManagerState.IDLE));
+
+        return m_mgr.getUpdateTickCount() - ticksBefore;
+    }
+
+    // Off by a tick or two at either end of the hour, and a deadline that rounds up to a millisecond short can cost one more.
+    private static void assertTicks(long expected, long actual)
+    {
+        final long slack = 2 + expected / 100;
+
+        assertTrue("Expected about " + expected + " ticks, got " + actual, Math.abs(expected - actual) <= slack);
+    }
+
+}
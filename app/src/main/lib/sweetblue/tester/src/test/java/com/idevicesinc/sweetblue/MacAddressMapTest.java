@@ -0,0 +1,56 @@
+package com.idevicesinc.sweetblue;
+
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+
+public class MacAddressMapTest
+{
+
+    @Test
+    public void toKeyTest() throws Exception
+    {
+        assertEquals(0xAABBCCDDEEFFL, P_MacAddressMap.toKey("AA:BB:CC:DD:EE:FF"));
+        assertEquals(0xAABBCCDDEEFFL, P_MacAddressMap.toKey("aa:bb:cc:dd:ee:ff"));
+        assertEquals(0L, P_MacAddressMap.toKey("00:00:00:00:00:00"));
+        assertNotEquals(P_MacAddressMap.toKey("00:00:00:00:00:01"), P_MacAddressMap.toKey("01:00:00:00:00:00"));
+    }
+
+    @Test
+    public void toKeyMalformedTest() throws Exception
+    {
+        assertEquals(-1L, P_MacAddressMap.toKey(null));
+        assertEquals(-1L, P_MacAddressMap.toKey(""));
+        assertEquals(-1L, P_MacAddressMap.toKey("AA-BB-CC-DD-EE-FF"));
+        assertEquals(-1L, P_MacAddressMap.toKey("AA:BB:CC:DD:EE:FG"));
+        assertEquals(-1L, P_MacAddressMap.toKey("AA:BB:CC:DD:EE:FF:00"));
+    }
+
+    @Test
+    public void putGetRemoveTest() throws Exception
+    {
+        P_MacAddressMap map = new P_MacAddressMap();
+
+        for (int i = 0; i < 500; i++)
+        {
+            map.put(i * 7919L, i);
+        }
+
+        assertEquals(500, map.size());
+        assertEquals(123, map.get(123 * 7919L));
+        assertEquals(P_MacAddressMap.NOT_FOUND, map.get(1L));
+
+        for (int i = 0; i < 500; i += 2)
+        {
+            assertEquals(i, map.remove(i * 7919L));
+        }
+
+        assertEquals(250, map.size());
+        assertEquals(P_MacAddressMap.NOT_FOUND, map.get(122 * 7919L));
+        assertEquals(123, map.get(123 * 7919L));
+        assertEquals(P_MacAddressMap.NOT_FOUND, map.remove(122 * 7919L));
+    }
+
+}
@@ -0,0 +1,292 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import com.idevicesinc.sweetblue.utils.Uuids;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Streams notifications through {@link P_BleDevice_Listeners} to a plain listener and to a {@link BorrowingReadWriteListener}, checks
+ * both see the right values, that nothing is lent while a transaction is running, and that the borrowing path allocates less.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class NotificationAllocationTest extends BaseBleUnitTest
+{
+
+    private static final UUID mTestService = Uuids.fromShort("12BA");
+    private static final UUID mPlainChar = Uuids.fromShort("12BC");
+    private static final UUID mBorrowingChar = Uuids.fromShort("12BD");
+    private static final UUID mTestDesc = Uuids.CLIENT_CHARACTERISTIC_CONFIGURATION_DESCRIPTOR_UUID;
+
+    private static final int NOTIFICATION_COUNT = 20000;
+    private static final int INIT_NOTIFICATION_COUNT = 2;
+    private static final int VALUE_LENGTH = 20;
+
+
+    private BleDevice m_device;
+    private BleTransaction.Init m_init;
+
+
+    @Test(timeout = 60000)
+    public void notificationAllocationTest() throws Exception
+    {
+        m_device = null;
+        m_init = null;
+
+        final Semaphore s = new Semaphore(0);
+        final AtomicInteger enabled = new AtomicInteger(0);
+
+        final List<BleDevice.ReadWriteListener.ReadWriteEvent> plainEvents = new ArrayList<>();
+        final List<BleDevice.ReadWriteListener.ReadWriteEvent> borrowedEvents = new ArrayList<>();
+        final List<byte[]> borrowedValues = new ArrayList<>();
+
+        final BleDevice.ReadWriteListener plainListener = new BleDevice.ReadWriteListener()
+        {
+            @Override public void onEvent(ReadWriteEvent e)
+            {
+                if (e.type() == Type.ENABLING_NOTIFICATION)
+                {
+                    onEnabled(e, enabled);
+                }
+                else if (e.type() == Type.NOTIFICATION)
+                {
+                    plainEvents.add(e);
+                }
+            }
+        };
+
+        final BorrowingReadWriteListener borrowingListener = new BorrowingReadWriteListener()
+        {
+            @Override public void onEvent(ReadWriteEvent e)
+            {
+                if (e.type() == Type.ENABLING_NOTIFICATION)
+                {
+                    onEnabled(e, enabled);
+                }
+                else if (e.type() == Type.NOTIFICATION)
+                {
+                    // Keeping the event is against the contract, it's only done here to check it gets reused.
+                    borrowedEvents.add(e);
+
+                    if (borrowedValues.size() < 4)
+                    {
+                        borrowedValues.add(e.data().clone());
+                    }
+                }
+            }
+        };
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.setListener_State(new BleDevice.StateListener()
+                    {
+                        @Override public void onEvent(StateEvent e)
+                        {
+                            if (e.didEnter(BleDeviceState.INITIALIZED))
+                            {
+                                s.release();
+                            }
+                        }
+                    });
+                    m_init = new BleTransaction.Init()
+                    {
+                        @Override protected void start(BleDevice device)
+                        {
+                            m_device.enableNotify(mPlainChar, plainListener);
+                            m_device.enableNotify(mBorrowingChar, borrowingListener);
+                        }
+                    };
+                    m_device.connect(m_init);
+                }
+            }
+        });
+
+        m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device");
+
+        s.acquire();
+
+        final long[] allocated = new long[2];
+
+        m_mgr.getPostManager().postToUpdateThread(new Runnable()
+        {
+            @Override public void run()
+            {
+                try
+                {
+                    allocated[0] = streamNotifications(m_device.getNativeCharacteristic(mPlainChar));
+                    allocated[1] = streamNotifications(m_device.getNativeCharacteristic(mBorrowingChar));
+                }
+                finally
+                {
+                    s.release();
+                }
+            }
+        });
+
+        s.acquire();
+
+        assertEquals(NOTIFICATION_COUNT, plainEvents.size());
+        assertEquals(INIT_NOTIFICATION_COUNT + NOTIFICATION_COUNT, borrowedEvents.size());
+
+        // The ones sent during the init transaction weren't lent, so each got its own event and kept its value.
+        assertNotSame(borrowedEvents.get(0), borrowedEvents.get(1));
+        assertArrayEquals(valueFor(1), borrowedEvents.get(1).data());
+
+        // Plain events each keep their own value, borrowed ones share one event and only held the value during the callback.
+        assertArrayEquals(valueFor(0), plainEvents.get(0).data());
+        assertArrayEquals(valueFor(NOTIFICATION_COUNT - 1), plainEvents.get(NOTIFICATION_COUNT - 1).data());
+        assertSame(borrowedEvents.get(INIT_NOTIFICATION_COUNT), borrowedEvents.get(INIT_NOTIFICATION_COUNT + NOTIFICATION_COUNT - 1));
+        assertArrayEquals(valueFor(0), borrowedValues.get(0));
+        assertArrayEquals(valueFor(1), borrowedValues.get(1));
+        assertArrayEquals(valueFor(0), borrowedValues.get(2));
+        assertArrayEquals(valueFor(1), borrowedValues.get(3));
+
+        assertTrue(allocated[1] < allocated[0]);
+    }
+
+    private void onEnabled(BleDevice.ReadWriteListener.ReadWriteEvent e, AtomicInteger enabled)
+    {
+        assertTrue(e.wasSuccess());
+
+        if (enabled.incrementAndGet() == 2)
+        {
+            // The transaction gets to see every result while it's running, so these must not be lent.
+            final BluetoothGattCharacteristic characteristic = m_device.getNativeCharacteristic(mBorrowingChar);
+
+            for (int i = 0; i < INIT_NOTIFICATION_COUNT; i++)
+            {
+                characteristic.setValue(valueFor(i));
+                m_device.m_listeners.onCharacteristicChanged(null, characteristic);
+            }
+
+            m_init.succeed();
+        }
+    }
+
+    private long streamNotifications(final BluetoothGattCharacteristic characteristic)
+    {
+        final long start = allocatedBytes();
+
+        for (int i = 0; i < NOTIFICATION_COUNT; i++)
+        {
+            characteristic.setValue(valueFor(i));
+            m_device.m_listeners.onCharacteristicChanged(null, characteristic);
+        }
+
+        // Values are made up front by the "native" side in reality, so they're not counted.
+        return allocatedBytes() - start - (long) NOTIFICATION_COUNT * valueSize();
+    }
+
+    private static byte[] valueFor(int i)
+    {
+        final byte[] value = new byte[VALUE_LENGTH];
+        value[0] = (byte) i;
+        value[1] = (byte) (i >> 8);
+        return value;
+    }
+
+    private static long valueSize()
+    {
+        // Array header plus the data, rounded up to the usual 8 byte alignment.
+        return (16 + VALUE_LENGTH + 7) & ~7;
+    }
+
+    private static long allocatedBytes()
+    {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Override public BleManagerConfig getConfig()
+    {
+        final BleManagerConfig config = super.getConfig();
+        config.runOnMainThread = false;
+        config.postCallbacksToMainThread = false;
+        config.loggingEnabled = false;
+        config.historicalDataLogFilter = null;
+        config.gattLayerFactory = new P_GattLayerFactory()
+        {
+            @Override public P_GattLayer newInstance(BleDevice device)
+            {
+                return new StreamingGattLayer(device);
+            }
+        };
+        return config;
+    }
+
+    private class StreamingGattLayer extends UnitTestGatt
+    {
+
+        private final List<BluetoothGattService> mServices;
+
+
+        public StreamingGattLayer(BleDevice device)
+        {
+            super(device);
+            mServices = new ArrayList<>();
+            BluetoothGattService service = new BluetoothGattService(mTestService, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+            service.addCharacteristic(newNotifyChar(mPlainChar));
+            service.addCharacteristic(newNotifyChar(mBorrowingChar));
+            mServices.add(service);
+        }
+
+        private BluetoothGattCharacteristic newNotifyChar(UUID charUuid)
+        {
+            BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(charUuid, BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ);
+            characteristic.addDescriptor(new BluetoothGattDescriptor(mTestDesc, BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+            return characteristic;
+        }
+
+        @Override public List<BluetoothGattService> getNativeServiceList(P_Logger logger)
+        {
+            return mServices;
+        }
+
+        @Override public BluetoothGattService getService(UUID serviceUuid, P_Logger logger)
+        {
+            if (serviceUuid.equals(mTestService))
+            {
+                return mServices.get(0);
+            }
+            else
+            {
+                return null;
+            }
+        }
+
+        @Override public boolean writeDescriptor(final BluetoothGattDescriptor descriptor)
+        {
+            m_mgr.getPostManager().postToUpdateThreadDelayed(new Runnable()
+            {
+                @Override public void run()
+                {
+                    getBleDevice().m_listeners.onDescriptorWrite(null, descriptor, BluetoothGatt.GATT_SUCCESS);
+                }
+            }, 50);
+            return true;
+        }
+    }
+}
@@ -15,7 +15,9 @@ import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -139,6 +141,67 @@ public class NotifyTest extends BaseBleUnitTest
         s.acquire();
     }
 
+    @Test
+    public void enableNotifyLocalOnlyTest() throws Exception
+    {
+        m_device = null;
+
+        final AtomicInteger descriptorWrites = new AtomicInteger();
+
+        m_config.gattLayerFactory = new P_GattLayerFactory()
+        {
+            @Override public P_GattLayer newInstance(BleDevice device)
+            {
+                return new NotifyGattWithDescLayer(device)
+                {
+                    @Override public boolean writeDescriptor(BluetoothGattDescriptor descriptor)
+                    {
+                        descriptorWrites.incrementAndGet();
+                        return super.writeDescriptor(descriptor);
+                    }
+                };
+            }
+        };
+
+        m_mgr.setConfig(m_config);
+
+        final Semaphore s = new Semaphore(0);
+
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.connect(new BleTransaction.Init()
+                    {
+                        @Override protected void start(BleDevice device)
+                        {
+                            m_device.enableNotify_localOnly(mTestChar, new BleDevice.ReadWriteListener()
+                            {
+                                @Override public void onEvent(ReadWriteEvent e)
+                                {
+                                    if (e.type() == Type.ENABLING_NOTIFICATION)
+                                    {
+                                        assertTrue(e.wasSuccess());
+                                        assertTrue(m_device.isNotifyEnabled(mTestChar));
+                                        assertEquals(0, descriptorWrites.get());
+                                        s.release();
+                                    }
+                                }
+                            });
+                        }
+                    });
+                }
+            }
+        });
+
+        m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device");
+
+        s.acquire();
+    }
+
     @Test
     public void disableNotifyTest() throws Exception
     {
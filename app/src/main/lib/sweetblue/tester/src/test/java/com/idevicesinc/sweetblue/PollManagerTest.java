@@ -0,0 +1,111 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.app.Activity;
+import com.idevicesinc.sweetblue.utils.Interval;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Polls characteristics of a connected device on the virtual time of a {@link UnitTestSimulation}, and checks that
+ * {@link P_PollManager}'s heap reads them in due order, also once an interval changes under a poll that's already scheduled.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class PollManagerTest
+{
+
+    private static final UUID SERVICE_UUID = UUID.fromString("1234666a-1000-2000-8000-001199334455");
+    private static final UUID CHAR_A = UUID.fromString("1234666b-1000-2000-8000-001199334455");
+    private static final UUID CHAR_B = UUID.fromString("1234666c-1000-2000-8000-001199334455");
+
+
+    private Activity m_activity;
+    private UnitTestSimulation m_sim;
+    private BleDevice m_device;
+
+    private final List<UUID> m_polled = new ArrayList<>();
+
+    private final BleDevice.ReadWriteListener m_listener = new BleDevice.ReadWriteListener()
+    {
+        @Override public void onEvent(ReadWriteEvent e)
+        {
+            assertTrue(e.wasSuccess());
+            m_polled.add(e.charUuid());
+        }
+    };
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        m_activity = Robolectric.setupActivity(Activity.class);
+        m_sim = new UnitTestSimulation(m_activity, new BleManagerConfig(), 0);
+        m_device = m_sim.addDevice(new UnitTestPeer("Poller").addService(SERVICE_UUID, CHAR_A, CHAR_B));
+
+        assertTrue(m_sim.connect(m_device, 10000));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        m_sim.shutdown();
+        m_sim = null;
+        m_activity.finish();
+        m_activity = null;
+    }
+
+    @Test
+    public void pollOrderTest() throws Exception
+    {
+        startPolls();
+
+        // A is due at 3, 6 and 9 seconds, B at 5.5, on top of the first poll each does right away.
+        m_sim.runFor(9700);
+
+        assertEquals(Arrays.asList(CHAR_A, CHAR_B, CHAR_A, CHAR_B, CHAR_A, CHAR_A), m_polled);
+    }
+
+    @Test
+    public void intervalChangeTest() throws Exception
+    {
+        startPolls();
+
+        m_sim.runFor(6500);
+
+        assertEquals(Arrays.asList(CHAR_A, CHAR_B, CHAR_A, CHAR_B, CHAR_A), m_polled);
+
+        // B last polled at 5.5 seconds, so at its new interval it's overdue and goes right away, at 7, then at 8.2 and 9.4, around A at 9.
+        m_device.startPoll(CHAR_B, Interval.secs(1.2), m_listener);
+        m_sim.runFor(2700);
+
+        assertEquals(Arrays.asList(CHAR_A, CHAR_B, CHAR_A, CHAR_B, CHAR_A, CHAR_B, CHAR_B, CHAR_A, CHAR_B), m_polled);
+
+        // Slowed down past A, B isn't due again until 18.4 seconds, while A keeps going at 12 and 15.
+        m_device.startPoll(CHAR_B, Interval.secs(9.0), m_listener);
+        m_sim.runFor(8000);
+
+        assertEquals(Arrays.asList(CHAR_A, CHAR_B, CHAR_A, CHAR_B, CHAR_A, CHAR_B, CHAR_B, CHAR_A, CHAR_B, CHAR_A, CHAR_A), m_polled);
+    }
+
+    // A new poll reads right away, so B starts half a second after A, to keep the two from ever being due at the same time.
+    private void startPolls()
+    {
+        m_device.startPoll(CHAR_A, Interval.secs(3.0), m_listener);
+        m_sim.runFor(500);
+        m_device.startPoll(CHAR_B, Interval.secs(5.0), m_listener);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.BleScanInfo;
+import org.junit.Test;
+import java.util.UUID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ScanInfoTest
+{
+
+    private final static byte[] RECORD = new byte[]
+    {
+        2, 0x01, 0x06,                                          // flags
+        2, 0x0A, (byte) 0xF4,                                   // tx power, -12
+        3, 0x03, 0x0D, 0x18,                                    // 16 bit service uuid 0x180D
+        5, 0x16, 0x0F, 0x18, 0x55, 0x66,                        // service data for 0x180F
+        5, (byte) 0xFF, 0x34, 0x12, 0x01, 0x02,                 // manufacturer 0x1234
+        4, 0x09, 'a', 'b', 'c',                                 // complete local name
+        0
+    };
+
+
+    @Test
+    public void parseTest() throws Exception
+    {
+        BleScanInfo info = new BleScanInfo(RECORD);
+
+        assertEquals(6, (int) info.getAdvFlags().value);
+        assertEquals(-12, (int) info.getTxPower().value);
+        assertEquals(1, info.getServiceUUIDS().size());
+        assertEquals(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb"), info.getServiceUUIDS().get(0));
+        assertArrayEquals(new byte[] { 0x55, 0x66 }, info.getServiceData().get(UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb")));
+        assertEquals(0x1234, info.getManufacturerId());
+        assertArrayEquals(new byte[] { 0x01, 0x02 }, info.getManufacturerData());
+        assertEquals("abc", info.getName());
+    }
+
+    @Test
+    public void resetTest() throws Exception
+    {
+        BleScanInfo info = new BleScanInfo(RECORD);
+
+        assertEquals(1, info.getServiceUUIDS().size());
+
+        // Second structure claims more bytes than there are, so it's ignored.
+        info.reset(new byte[] { 2, 0x01, 0x02, 9, 0x09, 'x' });
+
+        assertEquals(2, (int) info.getAdvFlags().value);
+        assertEquals(BleNodeConfig.INVALID_TX_POWER, (int) info.getTxPower().value);
+        assertTrue(info.getServiceUUIDS().isEmpty());
+        assertEquals(-1, info.getManufacturerId());
+        assertNull(info.getName());
+    }
+
+    @Test
+    public void everyManufacturerTest() throws Exception
+    {
+        BleScanInfo info = new BleScanInfo(new byte[]
+        {
+            5, (byte) 0xFF, 0x34, 0x12, 0x01, 0x02,             // manufacturer 0x1234
+            2, 0x01, 0x06,                                      // flags
+            4, (byte) 0xFF, 0x78, 0x56, 0x03,                   // manufacturer 0x5678
+        });
+
+        assertEquals(2, info.getManufacturerDataCount());
+        assertEquals(0x1234, info.getManufacturerId(0));
+        assertArrayEquals(new byte[] { 0x01, 0x02 }, info.getManufacturerData(0));
+        assertEquals(0x5678, info.getManufacturerId(1));
+        assertArrayEquals(new byte[] { 0x03 }, info.getManufacturerData(1));
+
+        // The single getters keep the last one.
+        assertEquals(0x5678, info.getManufacturerId());
+    }
+
+}
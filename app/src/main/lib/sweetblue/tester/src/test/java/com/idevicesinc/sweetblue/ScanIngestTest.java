@@ -0,0 +1,141 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.app.Activity;
+import android.bluetooth.BluetoothDevice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Feeds {@link P_ScanIngest} results directly, on the virtual time of a {@link UnitTestSimulation}, and checks what gets flushed
+ * and what the counters say.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class ScanIngestTest
+{
+
+    private static final long BATCH_RATE = 100;
+
+    private static final long KEY_1 = P_MacAddressMap.toKey("AA:BB:CC:DD:EE:01");
+    private static final long KEY_2 = P_MacAddressMap.toKey("AA:BB:CC:DD:EE:02");
+
+    private static final byte[] RECORD_1 = UnitTestUtils.newScanRecord("Device 1");
+    private static final byte[] RECORD_2 = UnitTestUtils.newScanRecord("Device 2");
+
+
+    private Activity m_activity;
+    private UnitTestSimulation m_sim;
+    private P_ScanIngest m_ingest;
+
+    private final List<Integer> m_rssis = new ArrayList<>();
+    private final List<byte[]> m_records = new ArrayList<>();
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        m_activity = Robolectric.setupActivity(Activity.class);
+        m_sim = new UnitTestSimulation(m_activity, new BleManagerConfig(), 0);
+        m_ingest = new P_ScanIngest(m_sim.getManager(), new P_ScanIngest.Sink()
+        {
+            @Override public void onScanResult(BluetoothDevice device, int rssi, byte[] scanRecord)
+            {
+                m_rssis.add(rssi);
+                m_records.add(scanRecord);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        m_sim.shutdown();
+        m_sim = null;
+        m_activity.finish();
+        m_activity = null;
+    }
+
+    @Test
+    public void mergeTest() throws Exception
+    {
+        scan(KEY_1, -60, RECORD_1);
+        scan(KEY_2, -70, RECORD_2);
+        scan(KEY_1, -55, RECORD_1);
+
+        // Nothing goes out before the batch rate is up, then one result per device with the latest RSSI.
+        m_sim.runFor(BATCH_RATE - 1);
+        assertEquals(0, m_rssis.size());
+
+        m_sim.runFor(1);
+        assertEquals(2, m_rssis.size());
+        assertEquals(-55, (int) m_rssis.get(0));
+        assertEquals(-70, (int) m_rssis.get(1));
+
+        assertCounts(3, 1, 0, 2);
+    }
+
+    @Test
+    public void dedupTest() throws Exception
+    {
+        scan(KEY_1, -60, RECORD_1);
+        m_sim.runFor(BATCH_RATE);
+
+        // The same record with a different RSSI is dropped, a different record isn't.
+        scan(KEY_1, -50, RECORD_1);
+        scan(KEY_1, -40, RECORD_1);
+        m_sim.runFor(BATCH_RATE);
+        assertEquals(1, m_rssis.size());
+
+        scan(KEY_1, -40, RECORD_2);
+        m_sim.runFor(BATCH_RATE);
+        assertEquals(2, m_rssis.size());
+        assertArrayEquals(RECORD_2, m_records.get(1));
+
+        assertCounts(4, 0, 2, 2);
+    }
+
+    @Test
+    public void redeliveryIntervalTest() throws Exception
+    {
+        scan(KEY_1, -60, RECORD_1);
+        m_sim.runFor(BATCH_RATE);
+
+        // Delivered at the end of the first batch, so the same record is dropped until an interval after that.
+        m_sim.runFor(P_ScanIngest.REDELIVERY_INTERVAL - 1);
+        scan(KEY_1, -50, RECORD_1);
+        m_sim.runFor(BATCH_RATE);
+        assertEquals(1, m_rssis.size());
+
+        scan(KEY_1, -45, RECORD_1);
+        m_sim.runFor(BATCH_RATE);
+        assertEquals(2, m_rssis.size());
+        assertEquals(-45, (int) m_rssis.get(1));
+
+        assertCounts(3, 0, 1, 2);
+    }
+
+    private void scan(long key, int rssi, byte[] record)
+    {
+        m_ingest.onScanResult(key, null, rssi, record, BATCH_RATE);
+    }
+
+    private void assertCounts(long received, long merged, long dropped, long delivered)
+    {
+        assertEquals(received, m_ingest.getReceivedCount());
+        assertEquals(merged, m_ingest.getMergedCount());
+        assertEquals(dropped, m_ingest.getDroppedCount());
+        assertEquals(delivered, m_ingest.getDeliveredCount());
+    }
+
+}
@@ -0,0 +1,354 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.app.Activity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Benchmarks SweetBlue against simulated peers on virtual time through {@link UnitTestSimulation}: striped writes, a notification flood,
+ * a scan storm, several devices contending for the queue, and a lossy link. The same seed has to give the same run. Run with
+ * <code>-D{@value #REPORT_PROPERTY}=true</code> to have each print what it measured, so runs can be compared across changes.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class SimulationBenchmarkTest
+{
+
+    private static final long SEED = 0x5eed;
+
+    static final String REPORT_PROPERTY = "sweetblue.simulation.report";
+
+    private static final UUID SERVICE_UUID = UUID.fromString("1234666a-1000-2000-8000-001199334455");
+    private static final UUID CHAR_UUID = UUID.fromString("1234666b-1000-2000-8000-001199334455");
+
+
+    private Activity m_activity;
+    private UnitTestSimulation m_sim;
+
+    private int m_callbacks;
+    private int m_failures;
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        m_activity = Robolectric.setupActivity(Activity.class);
+        m_callbacks = 0;
+        m_failures = 0;
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (m_sim != null)
+        {
+            m_sim.shutdown();
+            m_sim = null;
+        }
+        m_activity.finish();
+        m_activity = null;
+    }
+
+    @Test
+    public void stripedWritesTest() throws Exception
+    {
+        final BleManagerConfig config = new BleManagerConfig();
+        config.stripedWriteWindow = 4;
+        config.stripedWritesWithoutResponse = true;
+        m_sim = new UnitTestSimulation(m_activity, config, SEED);
+
+        final BleDevice device = m_sim.addDevice(newPeer("Writer"));
+        assertTrue(m_sim.connect(device, 10000));
+
+        final byte[] data = new byte[8192];
+        m_sim.getRandom().nextBytes(data);
+
+        final UnitTestSimulation.Result result = m_sim.measure("striped writes", new Runnable()
+        {
+            @Override public void run()
+            {
+                device.write(CHAR_UUID, data, new BleDevice.ReadWriteListener()
+                {
+                    @Override public void onEvent(ReadWriteEvent e)
+                    {
+                        m_callbacks++;
+                        m_failures += e.wasSuccess() ? 0 : 1;
+                    }
+                });
+            }
+        }, callbacks(1), 60000);
+
+        report(result);
+
+        assertTrue(result.completed());
+        assertEquals(0, m_failures);
+        assertEquals(data.length, m_sim.gattOf(device).getBytesWritten());
+    }
+
+    @Test
+    public void notifyFloodTest() throws Exception
+    {
+        m_sim = new UnitTestSimulation(m_activity, new BleManagerConfig(), SEED);
+
+        final BleDevice device = m_sim.addDevice(newPeer("Notifier"));
+        assertTrue(m_sim.connect(device, 10000));
+
+        final int count = 2000;
+
+        device.enableNotify(CHAR_UUID, new BleDevice.ReadWriteListener()
+        {
+            @Override public void onEvent(ReadWriteEvent e)
+            {
+                if (e.type() == Type.NOTIFICATION)
+                {
+                    m_callbacks++;
+                }
+            }
+        });
+        m_sim.runFor(1000);
+
+        final UnitTestSimulation.Result result = m_sim.measure("notify flood", new Runnable()
+        {
+            @Override public void run()
+            {
+                m_sim.gattOf(device).startNotifications(CHAR_UUID, 20, UnitTestLatency.uniform(5, 15), count);
+            }
+        }, callbacks(count), 60000);
+
+        report(result);
+        report(String.format("    notifications/s=%.1f", count * 1000.0 / result.virtualMillis()));
+
+        assertTrue(result.completed());
+        assertEquals(count, m_sim.gattOf(device).getNotificationCount());
+    }
+
+    @Test
+    public void scanStormTest() throws Exception
+    {
+        m_sim = new UnitTestSimulation(m_activity, new BleManagerConfig(), SEED);
+
+        final int advertisers = 500;
+        final int rounds = 4;
+
+        m_sim.getManager().setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_callbacks++;
+                }
+            }
+        });
+        m_sim.getManager().startScan();
+        assertTrue(m_sim.runUntil(new UnitTestScheduler.Condition()
+        {
+            @Override public boolean isMet()
+            {
+                return m_sim.getManager().is(BleManagerState.SCANNING);
+            }
+        }, 5000));
+
+        final List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < advertisers; i++)
+        {
+            addresses.add(m_sim.randomAddress());
+        }
+
+        final UnitTestSimulation.Result result = m_sim.measure("scan storm", new Runnable()
+        {
+            @Override public void run()
+            {
+                for (int round = 0; round < rounds; round++)
+                {
+                    for (int i = 0; i < advertisers; i++)
+                    {
+                        m_sim.advertise(addresses.get(i), -40 - m_sim.getRandom().nextInt(50), UnitTestUtils.newScanRecord("Advertiser " + i));
+                    }
+                }
+            }
+        }, callbacks(advertisers), 60000);
+
+        // Let the later rounds through too, they must not discover anything new.
+        m_sim.runFor(1000);
+
+        report(result);
+
+        assertTrue(result.completed());
+        assertEquals(advertisers, m_callbacks);
+        assertEquals(advertisers, m_sim.getManager().getDeviceCount());
+    }
+
+    @Test
+    public void multiDeviceContentionTest() throws Exception
+    {
+        final UnitTestSimulation.Result first = runContention(SEED, 0.0, 0.0);
+
+        report(first);
+
+        assertTrue(first.completed());
+        assertEquals(0, m_failures);
+        assertEquals(4 * 25, first.metrics().byTask().get(BleTask.READ).succeeded());
+    }
+
+    @Test
+    public void lossyLinkTest() throws Exception
+    {
+        m_sim = new UnitTestSimulation(m_activity, new BleManagerConfig(), SEED);
+
+        final UnitTestPeer peer = newPeer("Lossy");
+        final BleDevice device = m_sim.addDevice(peer);
+        assertTrue(m_sim.connect(device, 10000));
+
+        // Only lose packets once connected, so the connect itself goes through.
+        peer.setPacketLoss(0.2);
+
+        final int writes = 30;
+
+        final UnitTestSimulation.Result result = m_sim.measure("lossy link", new Runnable()
+        {
+            @Override public void run()
+            {
+                for (int i = 0; i < writes; i++)
+                {
+                    device.write(CHAR_UUID, new byte[] { (byte) i }, new BleDevice.ReadWriteListener()
+                    {
+                        @Override public void onEvent(ReadWriteEvent e)
+                        {
+                            m_callbacks++;
+                            m_failures += e.wasSuccess() ? 0 : 1;
+                        }
+                    });
+                }
+            }
+        }, callbacks(writes), 10 * 60 * 1000);
+
+        report(result);
+
+        final BleTaskMetrics.TaskStats stats = result.metrics().byTask().get(BleTask.WRITE);
+
+        assertTrue(result.completed());
+        assertTrue(stats.timedOut() > 0);
+        assertEquals(writes, stats.succeeded() + stats.timedOut());
+
+        // The metrics run on the manager's clock, so they cover exactly the virtual time measured, not the wall time it took.
+        assertEquals(result.virtualMillis(), result.metrics().timeCovered());
+    }
+
+    @Test
+    public void deterministicTest() throws Exception
+    {
+        final UnitTestSimulation.Result first = runContention(SEED, 0.02, 0.005);
+        m_sim.shutdown();
+        m_sim = null;
+        m_callbacks = 0;
+        m_failures = 0;
+        final UnitTestSimulation.Result second = runContention(SEED, 0.02, 0.005);
+
+        report(first);
+
+        assertEquals(first.completed(), second.completed());
+        assertEquals(first.virtualMillis(), second.virtualMillis());
+        assertEquals(first.dispatchCount(), second.dispatchCount());
+        for (BleTask task : BleTask.values())
+        {
+            final BleTaskMetrics.TaskStats a = first.metrics().byTask().get(task);
+            final BleTaskMetrics.TaskStats b = second.metrics().byTask().get(task);
+
+            assertEquals(a == null, b == null);
+
+            if (a != null)
+            {
+                assertEquals(a.succeeded(), b.succeeded());
+                assertEquals(a.timedOut(), b.timedOut());
+                assertEquals(a.execution().getPercentile(99).millis(), b.execution().getPercentile(99).millis());
+            }
+        }
+    }
+
+    private UnitTestSimulation.Result runContention(long seed, double packetLoss, double disconnectChance)
+    {
+        m_sim = new UnitTestSimulation(m_activity, new BleManagerConfig(), seed);
+
+        final List<BleDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            final UnitTestPeer peer = newPeer("Contender " + i).setDefaultLatency(UnitTestLatency.logNormal(30, 200));
+            final BleDevice device = m_sim.addDevice(peer);
+            device.connect();
+            devices.add(device);
+            peer.setPacketLoss(packetLoss).setDisconnectChance(disconnectChance);
+        }
+
+        m_sim.runUntil(new UnitTestScheduler.Condition()
+        {
+            @Override public boolean isMet()
+            {
+                for (BleDevice device : devices)
+                {
+                    if (!device.is(BleDeviceState.INITIALIZED))  return false;
+                }
+                return true;
+            }
+        }, 60000);
+
+        final int reads = 25;
+
+        return m_sim.measure("multi-device contention", new Runnable()
+        {
+            @Override public void run()
+            {
+                for (int i = 0; i < reads; i++)
+                {
+                    for (BleDevice device : devices)
+                    {
+                        device.read(CHAR_UUID, new BleDevice.ReadWriteListener()
+                        {
+                            @Override public void onEvent(ReadWriteEvent e)
+                            {
+                                m_callbacks++;
+                                m_failures += e.wasSuccess() ? 0 : 1;
+                            }
+                        });
+                    }
+                }
+            }
+        }, callbacks(reads * devices.size()), 10 * 60 * 1000);
+    }
+
+    private UnitTestScheduler.Condition callbacks(final int count)
+    {
+        return new UnitTestScheduler.Condition()
+        {
+            @Override public boolean isMet()
+            {
+                return m_callbacks >= count;
+            }
+        };
+    }
+
+    private static void report(Object measured)
+    {
+        if (Boolean.getBoolean(REPORT_PROPERTY))
+        {
+            System.out.println(measured);
+        }
+    }
+
+    private static UnitTestPeer newPeer(String name)
+    {
+        return new UnitTestPeer(name).addService(SERVICE_UUID, CHAR_UUID);
+    }
+}
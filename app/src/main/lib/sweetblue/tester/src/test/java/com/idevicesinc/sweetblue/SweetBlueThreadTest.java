@@ -0,0 +1,110 @@
+package com.idevicesinc.sweetblue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class SweetBlueThreadTest
+{
+
+    private P_SweetBlueThread m_thread;
+
+
+    @Before
+    public void setup()
+    {
+        m_thread = new P_SweetBlueThread();
+    }
+
+    @After
+    public void tearDown()
+    {
+        m_thread.quit();
+    }
+
+    @Test
+    public void deadlineOrderTest() throws Exception
+    {
+        final List<Integer> order = new ArrayList<>();
+        final Semaphore s = new Semaphore(0);
+
+        m_thread.postDelayed(new Recorder(order, 3, s), 60);
+        m_thread.postDelayed(new Recorder(order, 2, s), 30);
+        m_thread.post(new Recorder(order, 0, s));
+        m_thread.post(new Recorder(order, 1, s));
+
+        assertTrue(s.tryAcquire(4, 1, TimeUnit.SECONDS));
+        assertEquals(4, order.size());
+        for (int i = 0; i < order.size(); i++)
+        {
+            assertEquals(i, (int) order.get(i));
+        }
+        assertEquals(4, m_thread.getDispatchCount());
+    }
+
+    @Test
+    public void removeCallbacksTest() throws Exception
+    {
+        final List<Integer> order = new ArrayList<>();
+        final Semaphore s = new Semaphore(0);
+
+        final Runnable removed = new Recorder(order, -1, s);
+        m_thread.postDelayed(removed, 50);
+        m_thread.postDelayed(removed, 60);
+        m_thread.postDelayed(new Recorder(order, 0, s), 100);
+        assertEquals(3, m_thread.getQueueDepth());
+
+        m_thread.removeCallbacks(removed);
+        assertEquals(1, m_thread.getQueueDepth());
+
+        assertTrue(s.tryAcquire(1, 1, TimeUnit.SECONDS));
+        assertEquals(1, order.size());
+        assertEquals(0, (int) order.get(0));
+        assertEquals(0, m_thread.getQueueDepth());
+    }
+
+    @Test
+    public void repostAfterRemoveTest() throws Exception
+    {
+        final List<Integer> order = new ArrayList<>();
+        final Semaphore s = new Semaphore(0);
+
+        final Runnable run = new Recorder(order, 7, s);
+        m_thread.postDelayed(run, 50);
+        m_thread.removeCallbacks(run);
+        m_thread.postDelayed(run, 10);
+
+        assertTrue(s.tryAcquire(1, 1, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, order.size());
+    }
+
+
+    private static final class Recorder implements Runnable
+    {
+        private final List<Integer> m_order;
+        private final int m_id;
+        private final Semaphore m_semaphore;
+
+        Recorder(List<Integer> order, int id, Semaphore semaphore)
+        {
+            m_order = order;
+            m_id = id;
+            m_semaphore = semaphore;
+        }
+
+        @Override public void run()
+        {
+            m_order.add(m_id);
+            m_semaphore.release();
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.idevicesinc.sweetblue;
+
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import static org.junit.Assert.assertEquals;
+
+
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class TaskLaneTest extends BaseBleUnitTest
+{
+
+    private final static UUID tempServiceUuid = UUID.fromString("1234666a-1000-2000-8000-001199334455");
+    private final static UUID tempUuid = UUID.fromString("1234666b-1000-2000-8000-001199334455");
+
+    private final String m_slowMac = UnitTestUtils.randomMacAddress();
+
+    private BleDevice m_slowDevice;
+    private BleDevice m_fastDevice;
+
+
+    @Test
+    public void writesToDifferentDevicesOverlapTest() throws Exception
+    {
+        m_config.perDeviceTaskLanes = true;
+        m_mgr.setConfig(m_config);
+
+        final Semaphore connected = new Semaphore(0);
+
+        final BleDevice.StateListener listener = new BleDevice.StateListener()
+        {
+            @Override public void onEvent(StateEvent e)
+            {
+                if (e.didEnter(BleDeviceState.INITIALIZED))
+                {
+                    connected.release();
+                }
+            }
+        };
+
+        m_slowDevice = m_mgr.newDevice(m_slowMac, "Slow Device");
+        m_fastDevice = m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Fast Device");
+        m_slowDevice.connect(listener);
+        m_fastDevice.connect(listener);
+
+        connected.acquire(2);
+
+        final List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+        final Semaphore s = new Semaphore(0);
+
+        m_slowDevice.write(tempUuid, new byte[] { 0x1 }, new BleDevice.ReadWriteListener()
+        {
+            @Override public void onEvent(ReadWriteEvent e)
+            {
+                finished.add(e.wasSuccess() ? "slow" : "slow failed");
+                s.release();
+            }
+        });
+
+        m_fastDevice.write(tempUuid, new byte[] { 0x2 }, new BleDevice.ReadWriteListener()
+        {
+            @Override public void onEvent(ReadWriteEvent e)
+            {
+                finished.add(e.wasSuccess() ? "fast" : "fast failed");
+                s.release();
+            }
+        });
+
+        s.acquire(2);
+
+        // The slow device's write is still in flight in its own lane, so it shouldn't have held the fast one up.
+        assertEquals(Arrays.asList("fast", "slow"), finished);
+    }
+
+
+    @Override public P_GattLayer getGattLayer(BleDevice device)
+    {
+        return new DelayedWriteGattLayer(device, m_slowMac.equals(device.getMacAddress()) ? 1000 : 50);
+    }
+
+    private class DelayedWriteGattLayer extends UnitTestGatt
+    {
+
+        private final BluetoothGattService mService;
+        private final long mDelay;
+
+
+        public DelayedWriteGattLayer(BleDevice device, long delay)
+        {
+            super(device);
+            mDelay = delay;
+            mService = new BluetoothGattService(tempServiceUuid, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+            mService.addCharacteristic(new BluetoothGattCharacteristic(tempUuid, BluetoothGattCharacteristic.PROPERTY_WRITE, BluetoothGattCharacteristic.PERMISSION_WRITE));
+        }
+
+        @Override public boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic)
+        {
+            m_mgr.getPostManager().postToUpdateThreadDelayed(new Runnable()
+            {
+                @Override public void run()
+                {
+                    getBleDevice().m_listeners.onCharacteristicWrite(null, characteristic, BluetoothGatt.GATT_SUCCESS);
+                }
+            }, mDelay);
+            return super.writeCharacteristic(characteristic);
+        }
+
+        @Override public BluetoothGattService getService(UUID serviceUuid, P_Logger logger)
+        {
+            return mService;
+        }
+
+        @Override public List<BluetoothGattService> getNativeServiceList(P_Logger logger)
+        {
+            List<BluetoothGattService> services = new ArrayList<>();
+            services.add(mService);
+            return services;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.idevicesinc.sweetblue;
+
+
+import com.idevicesinc.sweetblue.utils.PresentData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Enqueues a large burst of mixed-priority reads and writes for two devices, then a disconnect, and checks that what the indexed
+ * {@link P_TaskQueue} answers is what walking the queue would have: where each task was inserted, which tasks are in the queue,
+ * which ones got softly cancelled, and what's left after clearing. Also times a burst of writes against the walks the index
+ * replaces, printed when run with <code>-D{@value SimulationBenchmarkTest#REPORT_PROPERTY}=true</code>.
+ */
+@Config(manifest = Config.NONE, sdk = 24)
+@RunWith(RobolectricTestRunner.class)
+public class TaskQueueLoadTest extends BaseBleUnitTest
+{
+
+    private final static UUID tempServiceUuid = UUID.fromString("1234666a-1000-2000-8000-001199334455");
+    private final static UUID tempUuid = UUID.fromString("1234666b-1000-2000-8000-001199334455");
+
+    private final static int TASK_COUNT = 2000;
+    private final static int WRITE_COUNT = 10000;
+
+    private final static Class[] TASK_CLASSES = { P_Task_Write.class, P_Task_Read.class, P_Task_Disconnect.class, P_Task_Connect.class, PA_Task_ReadOrWrite.class };
+
+
+    @Test
+    public void indexMatchesScanTest() throws Exception
+    {
+        final BleDevice device1 = m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device 1");
+        final BleDevice device2 = m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device 2");
+        final BleDevice[] devices = { device1, device2 };
+        final P_TaskQueue queue = m_mgr.getTaskQueue();
+        final Semaphore s = new Semaphore(0);
+        final List<String> mismatches = new ArrayList<>();
+        final boolean[] done = new boolean[1];
+
+        m_mgr.getPostManager().postToUpdateThread(new Runnable()
+        {
+            @Override public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < TASK_COUNT; i++)
+                    {
+                        final BleDevice device = devices[i % 2];
+                        final PA_Task task;
+
+                        // Mostly plain writes, with the odd more important read cutting in, at two different levels.
+                        if (i % 7 == 3)
+                        {
+                            task = new P_Task_Read(device, tempServiceUuid, tempUuid, BleDevice.ReadWriteListener.Type.READ, false, null, null, null, i % 2 == 0 ? PE_TaskPriority.MEDIUM : PE_TaskPriority.HIGH);
+                        }
+                        else
+                        {
+                            task = new P_Task_Write(device, tempServiceUuid, tempUuid, null, new PresentData(new byte[] { (byte) i }), false, null, null, null);
+                        }
+
+                        add(queue, task, mismatches);
+                    }
+
+                    checkMembership(queue, devices, mismatches);
+
+                    add(queue, new P_Task_Disconnect(device1, null, /*explicit=*/true, PE_TaskPriority.LOW, /*cancellableByConnect=*/true), mismatches);
+
+                    checkMembership(queue, devices, mismatches);
+
+                    // Only the first device's tasks queued before its disconnect are cancelled, same as when every add walked the queue.
+                    for (PA_Task task : queue.getRaw())
+                    {
+                        if (task.getClass() != P_Task_Disconnect.class && task.wasSoftlyCancelled() != (task.getDevice() == device1))
+                        {
+                            mismatches.add("Soft cancel of " + task);
+                        }
+                    }
+
+                    queue.clearQueueOf(P_Task_Write.class, device1, -1);
+
+                    for (PA_Task task : queue.getRaw())
+                    {
+                        if (task.getClass() == P_Task_Write.class && task.getDevice() == device1)
+                        {
+                            mismatches.add("Not cleared " + task);
+                        }
+                    }
+
+                    checkMembership(queue, devices, mismatches);
+
+                    done[0] = true;
+                }
+                finally
+                {
+                    s.release();
+                }
+            }
+        });
+
+        s.acquire();
+
+        assertTrue(done[0]);
+        assertEquals(new ArrayList<String>(), mismatches);
+        assertFalse(queue.isInQueue(P_Task_Write.class, device1));
+        assertTrue(queue.isInQueue(P_Task_Write.class, device2));
+    }
+
+    @Test
+    public void enqueueWritesBenchmarkTest() throws Exception
+    {
+        final BleDevice device = m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device");
+        final P_TaskQueue queue = m_mgr.getTaskQueue();
+        final Semaphore s = new Semaphore(0);
+        final long[] nanos = new long[4];
+        final int[] sizes = new int[2];
+
+        m_mgr.getPostManager().postToUpdateThread(new Runnable()
+        {
+            @Override public void run()
+            {
+                try
+                {
+                    // Before the index, every add also walked the queue looking for a spot, and every membership query walked it too.
+                    for (int i = 0; i < WRITE_COUNT; i++)
+                    {
+                        final PA_Task task = new P_Task_Write(device, tempServiceUuid, tempUuid, null, new PresentData(new byte[] { (byte) i }), false, null, null, null);
+
+                        long start = System.nanoTime();
+                        PU_TaskQueue.findSoonestSpot(queue.getRaw(), task);
+                        nanos[0] += System.nanoTime() - start;
+
+                        start = System.nanoTime();
+                        queue.addNow(task);
+                        nanos[1] += System.nanoTime() - start;
+                    }
+
+                    long start = System.nanoTime();
+                    for (int i = 0; i < WRITE_COUNT; i++)
+                    {
+                        boolean found = false;
+                        for (PA_Task task : queue.getRaw())
+                        {
+                            if (PU_TaskQueue.isMatch(task, P_Task_Disconnect.class, null, device, null))
+                            {
+                                found = true;
+                                break;
+                            }
+                        }
+                        sizes[0] += found ? 1 : 0;
+                    }
+                    nanos[2] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    for (int i = 0; i < WRITE_COUNT; i++)
+                    {
+                        sizes[1] += queue.isInQueue(P_Task_Disconnect.class, device) ? 1 : 0;
+                    }
+                    nanos[3] = System.nanoTime() - start;
+                }
+                finally
+                {
+                    s.release();
+                }
+            }
+        });
+
+        s.acquire();
+
+        report(String.format("Enqueued %d writes: %dms indexed, %dms more walking for a spot as before", WRITE_COUNT, nanos[1] / 1000000, nanos[0] / 1000000));
+        report(String.format("Ran %d misses of isInQueue(): %dms indexed, %dms walking as before", WRITE_COUNT, nanos[3] / 1000000, nanos[2] / 1000000));
+
+        assertEquals(0, sizes[0]);
+        assertEquals(0, sizes[1]);
+        assertEquals(WRITE_COUNT, queue.getSize() + (queue.getCurrent() != null ? 1 : 0));
+    }
+
+    private static void report(Object measured)
+    {
+        if (Boolean.getBoolean(SimulationBenchmarkTest.REPORT_PROPERTY))
+        {
+            System.out.println(measured);
+        }
+    }
+
+    /**
+     * Adds the task, and checks it landed where the soonest spot in the queue before it was, and that adding a task that can't softly
+     * cancel anything really had nothing to cancel.
+     */
+    private static void add(P_TaskQueue queue, PA_Task task, List<String> mismatches)
+    {
+        final List<PA_Task> expected = new ArrayList<>(queue.getRaw());
+        final int spot = PU_TaskQueue.findSoonestSpot(expected, task);
+
+        if (spot >= 0)
+        {
+            expected.add(spot, task);
+        }
+        else
+        {
+            expected.add(task);
+        }
+
+        final PA_Task current = queue.getCurrent();
+
+        queue.addNow(task);
+
+        if (queue.getCurrent() != current)
+        {
+            expected.remove(queue.getCurrent());
+        }
+
+        if (!expected.equals(queue.getRaw()))
+        {
+            mismatches.add("Order after adding " + task);
+        }
+
+        if (!task.canSoftlyCancel())
+        {
+            for (PA_Task queued : queue.getRaw())
+            {
+                if (queued.isSoftlyCancellableBy(task))
+                {
+                    mismatches.add(task + " could have softly cancelled " + queued);
+                }
+            }
+        }
+    }
+
+    private static void checkMembership(P_TaskQueue queue, BleDevice[] devices, List<String> mismatches)
+    {
+        for (Class taskClass : TASK_CLASSES)
+        {
+            for (BleDevice device : devices)
+            {
+                boolean scanned = false;
+
+                for (PA_Task task : queue.getRaw())
+                {
+                    scanned |= PU_TaskQueue.isMatch(task, taskClass, null, device, null);
+                }
+
+                if (scanned != queue.isInQueue(taskClass, device))
+                {
+                    mismatches.add("isInQueue(" + taskClass.getSimpleName() + ", " + device.getName_debug() + ")");
+                }
+            }
+        }
+    }
+
+    @Override public BleManagerConfig getConfig()
+    {
+        final BleManagerConfig config = super.getConfig();
+        config.runOnMainThread = false;
+        return config;
+    }
+}
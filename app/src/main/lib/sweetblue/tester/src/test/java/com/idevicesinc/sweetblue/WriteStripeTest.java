@@ -9,11 +9,15 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.Semaphore;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -24,6 +28,11 @@ public class WriteStripeTest extends BaseBleUnitTest
 
     private BleDevice m_device;
 
+    private final ByteArrayOutputStream m_written = new ByteArrayOutputStream();
+    private final List<Integer> m_writeTypes = new ArrayList<>();
+    private int m_maxChunksInFlight;
+    private int m_failWriteAt = -1;
+
     private final static UUID tempServiceUuid = UUID.fromString("1234666a-1000-2000-8000-001199334455");
     private final static UUID tempUuid = UUID.fromString("1234666b-1000-2000-8000-001199334455");
     private final static UUID tempDescUuid = UUID.fromString("1234666d-1000-2000-8000-001199334455");
@@ -72,6 +81,55 @@ public class WriteStripeTest extends BaseBleUnitTest
         s.acquire();
     }
 
+    @Test
+    public void stripedWriteWindowedWithoutResponseTest() throws Exception
+    {
+        m_config.stripedWriteWindow = 4;
+        m_config.stripedWritesWithoutResponse = true;
+        m_mgr.setConfig(m_config);
+
+        final Semaphore s = new Semaphore(0);
+        final byte[] data = new byte[1000];
+        new Random().nextBytes(data);
+        final boolean[] success = new boolean[1];
+
+        connectAndWrite(data, success, s);
+
+        s.acquire();
+
+        assertTrue(success[0]);
+        assertArrayEquals(data, m_written.toByteArray());
+        assertEquals(50, m_writeTypes.size());
+        for (Integer type : m_writeTypes)
+        {
+            assertEquals(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, (int) type);
+        }
+        assertTrue(m_maxChunksInFlight > 1);
+    }
+
+    @Test
+    public void stripedWriteFailureClearsQueuedChunksTest() throws Exception
+    {
+        m_config.stripedWriteWindow = 4;
+        m_mgr.setConfig(m_config);
+
+        m_failWriteAt = 2;
+
+        final Semaphore s = new Semaphore(0);
+        final byte[] data = new byte[1000];
+        new Random().nextBytes(data);
+        final boolean[] success = { true };
+
+        connectAndWrite(data, success, s);
+
+        s.acquire();
+
+        // The chunks queued behind the failed one never went out, and aren't left in the queue.
+        assertFalse(success[0]);
+        assertEquals(m_failWriteAt + 1, m_writeTypes.size());
+        assertFalse(m_mgr.getTaskQueue().isInQueue(P_Task_Write.class, m_device));
+    }
+
     @Test
     public void stripedWriteDescriptorTest() throws Exception
     {
@@ -117,6 +175,39 @@ public class WriteStripeTest extends BaseBleUnitTest
 
 
 
+    private void connectAndWrite(final byte[] data, final boolean[] success, final Semaphore s)
+    {
+        m_mgr.setListener_Discovery(new BleManager.DiscoveryListener()
+        {
+            @Override public void onEvent(DiscoveryEvent e)
+            {
+                if (e.was(LifeCycle.DISCOVERED))
+                {
+                    m_device = e.device();
+                    m_device.connect(new BleDevice.StateListener()
+                    {
+                        @Override public void onEvent(StateEvent e)
+                        {
+                            if (e.didEnter(BleDeviceState.INITIALIZED))
+                            {
+                                m_device.write(tempUuid, data, new BleDevice.ReadWriteListener()
+                                {
+                                    @Override public void onEvent(ReadWriteEvent e)
+                                    {
+                                        success[0] = e.wasSuccess();
+                                        s.release();
+                                    }
+                                });
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        m_mgr.newDevice(UnitTestUtils.randomMacAddress(), "Test Device");
+    }
+
     @Override public P_GattLayer getGattLayer(BleDevice device)
     {
         return new StripedWriteGattLayer(device);
@@ -134,7 +225,7 @@ public class WriteStripeTest extends BaseBleUnitTest
         {
             super(device);
             mService = new BluetoothGattService(tempServiceUuid, BluetoothGattService.SERVICE_TYPE_PRIMARY);
-            mChar = new BluetoothGattCharacteristic(tempUuid, BluetoothGattCharacteristic.PROPERTY_WRITE, BluetoothGattCharacteristic.PERMISSION_WRITE);
+            mChar = new BluetoothGattCharacteristic(tempUuid, BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE, BluetoothGattCharacteristic.PERMISSION_WRITE);
             mDesc = new BluetoothGattDescriptor(tempDescUuid, BluetoothGattDescriptor.PERMISSION_WRITE);
             mChar.addDescriptor(mDesc);
             mService.addCharacteristic(mChar);
@@ -142,11 +233,17 @@ public class WriteStripeTest extends BaseBleUnitTest
 
         @Override public boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic)
         {
+            final byte[] value = characteristic.getValue();
+            final int status = m_writeTypes.size() == m_failWriteAt ? BluetoothGatt.GATT_FAILURE : BluetoothGatt.GATT_SUCCESS;
+            m_written.write(value, 0, value.length);
+            m_writeTypes.add(characteristic.getWriteType());
+            // The one going out now, plus the chunks already queued up behind it.
+            m_maxChunksInFlight = Math.max(m_maxChunksInFlight, 1 + m_mgr.getTaskQueue().getSize());
             m_mgr.getPostManager().postToUpdateThreadDelayed(new Runnable()
             {
                 @Override public void run()
                 {
-                    getBleDevice().m_listeners.onCharacteristicWrite(null, characteristic, BluetoothGatt.GATT_SUCCESS);
+                    getBleDevice().m_listeners.onCharacteristicWrite(null, characteristic, status);
                 }
             }, 150);
             return super.writeCharacteristic(characteristic);
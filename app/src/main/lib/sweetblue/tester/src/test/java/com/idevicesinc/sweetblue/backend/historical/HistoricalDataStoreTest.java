@@ -0,0 +1,124 @@
+package com.idevicesinc.sweetblue.backend.historical;
+
+
+import com.idevicesinc.sweetblue.utils.EpochTimeRange;
+import com.idevicesinc.sweetblue.utils.HistoricalData;
+import com.idevicesinc.sweetblue.utils.HistoricalDataCursor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Opens copies of a store's files taken at each point where the app could die while a block is being sealed, and checks none of
+ * the records go missing or come back twice.
+ */
+public class HistoricalDataStoreTest
+{
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private static HistoricalData record(int i)
+    {
+        return new HistoricalData(1000L * i, new byte[] { (byte) i, (byte) (i >> 8) });
+    }
+
+    @Test
+    public void crashWhileSealingTest() throws Exception
+    {
+        final File directory = folder.newFolder();
+        final List<File> crashCopies = new ArrayList<>();
+
+        final P_HistoricalDataStore store = new P_HistoricalDataStore(directory);
+
+        store.m_onSealStep = new Runnable()
+        {
+            @Override public void run()
+            {
+                crashCopies.add(copy(directory));
+            }
+        };
+
+        for (int i = 0; i < P_HistoricalDataStore.BLOCK_RECORD_COUNT; i++)
+        {
+            store.append(record(i), /*journalNow=*/true);
+        }
+
+        // Once after the block is appended, once after the journal is gone.
+        assertEquals(2, crashCopies.size());
+
+        for (File crashCopy : crashCopies)
+        {
+            P_HistoricalDataStore reopened = new P_HistoricalDataStore(crashCopy);
+
+            assertRecords(reopened, P_HistoricalDataStore.BLOCK_RECORD_COUNT);
+
+            // The seal is finished on open, so later records don't get skipped on the next one either.
+            reopened.append(record(P_HistoricalDataStore.BLOCK_RECORD_COUNT), /*journalNow=*/true);
+
+            assertRecords(new P_HistoricalDataStore(crashCopy), P_HistoricalDataStore.BLOCK_RECORD_COUNT + 1);
+        }
+    }
+
+    @Test
+    public void sealedStoreReopensTest() throws Exception
+    {
+        final File directory = folder.newFolder();
+        final int count = 3 * P_HistoricalDataStore.BLOCK_RECORD_COUNT + 10;
+
+        final P_HistoricalDataStore store = new P_HistoricalDataStore(directory);
+
+        for (int i = 0; i < count; i++)
+        {
+            store.append(record(i), /*journalNow=*/true);
+        }
+
+        assertRecords(new P_HistoricalDataStore(directory), count);
+    }
+
+    private static void assertRecords(P_HistoricalDataStore store, int count)
+    {
+        assertEquals(count, store.getCount());
+
+        HistoricalDataCursor cursor = new P_HistoricalDataCursor_Store(store.snapshot(), EpochTimeRange.FROM_MIN_TO_MAX);
+
+        for (int i = 0; i < count; i++)
+        {
+            assertTrue(cursor.moveToNext());
+            assertEquals(1000L * i, cursor.getEpochTime());
+        }
+
+        assertFalse(cursor.moveToNext());
+
+        cursor.close();
+    }
+
+    private File copy(File directory)
+    {
+        try
+        {
+            File copy = folder.newFolder();
+
+            for (File file : directory.listFiles())
+            {
+                Files.copy(file.toPath(), new File(copy, file.getName()).toPath());
+            }
+
+            return copy;
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
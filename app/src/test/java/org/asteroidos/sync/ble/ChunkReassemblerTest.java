@@ -0,0 +1,137 @@
+package org.asteroidos.sync.ble;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkReassemblerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Keeps every callback, progress as the byte count it reported. */
+    private static class RecordingListener implements ChunkReassembler.Listener {
+        final List<Integer> progress = new ArrayList<>();
+        final List<File> completed = new ArrayList<>();
+        final List<IOException> failures = new ArrayList<>();
+
+        @Override
+        public void onProgress(int received, int size) {
+            progress.add(received);
+        }
+
+        @Override
+        public void onComplete(File file, int size) {
+            completed.add(file);
+        }
+
+        @Override
+        public void onFailure(File file, IOException e) {
+            failures.add(e);
+        }
+    }
+
+    private final RecordingListener listener = new RecordingListener();
+    // A zero interval reports progress on every chunk but the last.
+    private final ChunkReassembler reassembler = new ChunkReassembler(0, listener);
+
+    @Test
+    public void shortFinalChunkCompletes() throws IOException {
+        byte[] payload = payload(100, 1);
+        File file = new File(folder.getRoot(), "short.jpg");
+
+        reassembler.begin(file, payload.length);
+        reassembler.onChunk(Arrays.copyOfRange(payload, 0, 40));
+        reassembler.onChunk(Arrays.copyOfRange(payload, 40, 80));
+        reassembler.onChunk(Arrays.copyOfRange(payload, 80, 100));
+
+        assertEquals(Arrays.asList(40, 80), listener.progress);
+        assertEquals(Arrays.asList(file), listener.completed);
+        assertArrayEquals(payload, Files.readAllBytes(file.toPath()));
+        assertFalse(reassembler.isActive());
+        assertFalse(new File(file.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void finalChunkPastTheSizeIsCut() throws IOException {
+        byte[] payload = payload(100, 2);
+        File file = new File(folder.getRoot(), "long.jpg");
+
+        reassembler.begin(file, 90);
+        reassembler.onChunk(Arrays.copyOfRange(payload, 0, 60));
+        reassembler.onChunk(Arrays.copyOfRange(payload, 60, 100));
+
+        assertEquals(Arrays.asList(file), listener.completed);
+        assertArrayEquals(Arrays.copyOf(payload, 90), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void reusedAcrossTwoTransfers() throws IOException {
+        // Bigger than the buffer, so the first one flushes part way and the second starts on a buffer that was full.
+        byte[] first = payload(40000, 3);
+        byte[] second = payload(1000, 4);
+        File firstFile = new File(folder.getRoot(), "first.jpg");
+        File secondFile = new File(folder.getRoot(), "second.jpg");
+
+        transfer(firstFile, first, 180);
+        transfer(secondFile, second, 180);
+
+        assertEquals(Arrays.asList(firstFile, secondFile), listener.completed);
+        assertTrue(listener.failures.isEmpty());
+        assertArrayEquals(first, Files.readAllBytes(firstFile.toPath()));
+        assertArrayEquals(second, Files.readAllBytes(secondFile.toPath()));
+    }
+
+    @Test
+    public void chunksOutsideATransferAreDropped() throws IOException {
+        byte[] payload = payload(100, 5);
+        File stale = new File(folder.getRoot(), "stale.jpg");
+        File file = new File(folder.getRoot(), "file.jpg");
+
+        // A chunk that shows up before its size header goes nowhere.
+        reassembler.onChunk(payload);
+        assertTrue(listener.progress.isEmpty());
+        assertEquals(0, folder.getRoot().list().length);
+
+        // A new size header part way through drops what came before it and starts over.
+        reassembler.begin(stale, payload.length);
+        reassembler.onChunk(Arrays.copyOfRange(payload, 0, 50));
+        reassembler.begin(file, payload.length);
+        assertFalse(new File(stale.getPath() + ".part").exists());
+
+        reassembler.onChunk(Arrays.copyOfRange(payload, 0, 50));
+        reassembler.onChunk(Arrays.copyOfRange(payload, 50, 100));
+
+        // And one that shows up after the transfer is done doesn't touch the file.
+        reassembler.onChunk(payload(20, 6));
+
+        assertEquals(Arrays.asList(file), listener.completed);
+        assertArrayEquals(payload, Files.readAllBytes(file.toPath()));
+        assertFalse(stale.exists());
+        assertEquals(Arrays.asList(50, 50), listener.progress);
+    }
+
+    private void transfer(File file, byte[] payload, int chunkSize) {
+        reassembler.begin(file, payload.length);
+        for (int offset = 0; offset < payload.length; offset += chunkSize)
+            reassembler.onChunk(Arrays.copyOfRange(payload, offset, Math.min(payload.length, offset + chunkSize)));
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 31 + seed);
+        return data;
+    }
+}
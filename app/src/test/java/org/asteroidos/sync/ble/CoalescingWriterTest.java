@@ -0,0 +1,103 @@
+package org.asteroidos.sync.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CoalescingWriterTest {
+    private static final UUID TITLE = UUID.fromString("00007001-0000-0000-0000-00A57E401D05");
+    private static final UUID ARTIST = UUID.fromString("00007003-0000-0000-0000-00A57E401D05");
+
+    @Test
+    public void clearDropsEveryMessage() {
+        RecordingScheduler scheduler = RecordingScheduler.queued();
+        final List<UUID> dropped = new ArrayList<>();
+        OutboundScheduler.DropListener dropListener = new OutboundScheduler.DropListener() {
+            @Override
+            public void onDropped(UUID charUuid, byte[] data) {
+                dropped.add(charUuid);
+            }
+        };
+
+        scheduler.write(OutboundScheduler.TrafficClass.INTERACTIVE, TITLE, new byte[] {1}, OutboundScheduler.NO_DEADLINE, null, dropListener);
+        scheduler.write(OutboundScheduler.TrafficClass.BACKGROUND, ARTIST, new byte[] {2}, OutboundScheduler.NO_DEADLINE, null, dropListener);
+        assertEquals(1, scheduler.sentUuids.size());
+
+        scheduler.clear();
+
+        // The write in flight and the queued one.
+        assertEquals(2, dropped.size());
+        assertEquals(1, scheduler.getStats(OutboundScheduler.TrafficClass.BACKGROUND).getDroppedCount());
+
+        // Nothing is in flight any more, so the next write goes straight out.
+        scheduler.write(OutboundScheduler.TrafficClass.BACKGROUND, ARTIST, new byte[] {3}, OutboundScheduler.NO_DEADLINE, null, dropListener);
+        assertEquals(2, scheduler.sentUuids.size());
+    }
+
+    @Test
+    public void disconnectWithQueuedWriteThenReconnect() {
+        RecordingScheduler scheduler = RecordingScheduler.queued();
+        CoalescingWriter writer = new CoalescingWriter(scheduler, OutboundScheduler.TrafficClass.INTERACTIVE, null);
+
+        // Title goes out, artist queues behind it, and a newer title waits in the writer.
+        writer.write(TITLE, new byte[] {1});
+        writer.write(ARTIST, new byte[] {2});
+        writer.write(TITLE, new byte[] {3});
+        assertEquals(1, scheduler.sentUuids.size());
+
+        // The watch disconnects before any of it is acknowledged.
+        scheduler.clear();
+
+        // It reconnects, with the same writer.
+        writer.reset();
+        writer.write(TITLE, new byte[] {4});
+        writer.write(ARTIST, new byte[] {5});
+
+        assertEquals(2, scheduler.sentUuids.size());
+        assertEquals(TITLE, scheduler.sentUuids.get(1));
+        assertArrayEquals(new byte[] {4}, scheduler.sentData.get(1));
+
+        // Another disconnect drops the queued artist too, and its next value still goes out.
+        scheduler.clear();
+        writer.write(ARTIST, new byte[] {6});
+        assertEquals(ARTIST, scheduler.sentUuids.get(2));
+        assertArrayEquals(new byte[] {6}, scheduler.sentData.get(2));
+    }
+
+    @Test
+    public void sameValueWrittenWhileInFlightThenWriteFails() {
+        // Results are reported to the writer by hand, so the scheduler mustn't hold anything back.
+        RecordingScheduler scheduler = RecordingScheduler.unqueued();
+        List<byte[]> sent = scheduler.sentData;
+        CoalescingWriter writer = new CoalescingWriter(scheduler, OutboundScheduler.TrafficClass.INTERACTIVE, null);
+
+        // The second write is dropped, as it's already on its way.
+        writer.write(TITLE, new byte[] {1});
+        writer.write(TITLE, new byte[] {1});
+        assertEquals(1, sent.size());
+
+        // It didn't make it, so it goes out again.
+        writer.onWriteFailed(TITLE);
+        assertEquals(2, sent.size());
+        assertArrayEquals(new byte[] {1}, sent.get(1));
+
+        // Only once though, the next value written gets its own retry.
+        writer.onWriteFailed(TITLE);
+        assertEquals(2, sent.size());
+        writer.write(TITLE, new byte[] {1});
+        assertEquals(3, sent.size());
+
+        // Something newer pending goes out instead of the failed value.
+        writer.write(TITLE, new byte[] {2});
+        writer.onWriteFailed(TITLE);
+        assertEquals(4, sent.size());
+        assertArrayEquals(new byte[] {2}, sent.get(3));
+        writer.onWritten(TITLE);
+        assertEquals(4, sent.size());
+    }
+}
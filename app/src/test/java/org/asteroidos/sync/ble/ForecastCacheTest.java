@@ -0,0 +1,147 @@
+package org.asteroidos.sync.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ForecastCacheTest {
+    private static final long MINUTE = 60 * 1000;
+
+    /* Answers only when told to, so requests can pile up while a fetch is in flight. */
+    static class StubProvider implements ForecastCache.Provider {
+        final List<String> requested = new ArrayList<>();
+        final List<Callback> callbacks = new ArrayList<>();
+
+        @Override
+        public void getForecast(String cityName, Callback callback) {
+            requested.add(cityName);
+            callbacks.add(callback);
+        }
+
+        WeatherCodec.Forecast answer(int request) {
+            WeatherCodec.Forecast forecast = forecast(requested.get(request));
+            callbacks.get(request).success(forecast);
+            return forecast;
+        }
+    }
+
+    static class ManualClockCache extends ForecastCache {
+        long time;
+
+        ManualClockCache(Provider provider) {
+            super(provider);
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+
+    static class RecordingListener implements ForecastCache.Listener {
+        final List<WeatherCodec.Forecast> received = new ArrayList<>();
+
+        @Override
+        public void onForecast(WeatherCodec.Forecast forecast) {
+            received.add(forecast);
+        }
+    }
+
+    @Test
+    public void freshForecastIsReused() {
+        StubProvider provider = new StubProvider();
+        ManualClockCache cache = new ManualClockCache(provider);
+        RecordingListener listener = new RecordingListener();
+
+        cache.get("Paris", listener);
+        WeatherCodec.Forecast forecast = provider.answer(0);
+
+        cache.time += 29 * MINUTE;
+        cache.get("Paris", listener);
+
+        assertEquals(1, provider.requested.size());
+        assertEquals(2, listener.received.size());
+        assertSame(forecast, listener.received.get(1));
+    }
+
+    @Test
+    public void staleForecastIsFetchedAgain() {
+        StubProvider provider = new StubProvider();
+        ManualClockCache cache = new ManualClockCache(provider);
+        RecordingListener listener = new RecordingListener();
+
+        cache.get("Paris", listener);
+        provider.answer(0);
+
+        cache.time += 30 * MINUTE;
+        cache.get("Paris", listener);
+
+        // The stale one isn't handed out while the new one is on its way.
+        assertEquals(2, provider.requested.size());
+        assertEquals(1, listener.received.size());
+
+        WeatherCodec.Forecast forecast = provider.answer(1);
+        assertEquals(2, listener.received.size());
+        assertSame(forecast, listener.received.get(1));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneFetch() {
+        StubProvider provider = new StubProvider();
+        ManualClockCache cache = new ManualClockCache(provider);
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+
+        cache.get("Paris", first);
+        cache.get("Paris", second);
+        cache.get("Paris", second);
+        assertEquals(1, provider.requested.size());
+
+        WeatherCodec.Forecast forecast = provider.answer(0);
+
+        assertEquals(1, first.received.size());
+        assertEquals(1, second.received.size());
+        assertSame(forecast, first.received.get(0));
+        assertSame(forecast, second.received.get(0));
+    }
+
+    @Test
+    public void otherCitySupersedesFetch() {
+        StubProvider provider = new StubProvider();
+        ManualClockCache cache = new ManualClockCache(provider);
+        RecordingListener listener = new RecordingListener();
+
+        cache.get("Paris", listener);
+        cache.get("Berlin", listener);
+        assertEquals(2, provider.requested.size());
+
+        // Paris comes back late and is ignored, the listener waits for Berlin.
+        provider.answer(0);
+        assertEquals(0, listener.received.size());
+
+        WeatherCodec.Forecast berlin = provider.answer(1);
+        assertEquals(1, listener.received.size());
+        assertSame(berlin, listener.received.get(0));
+    }
+
+    @Test
+    public void cancelledListenerGetsNothing() {
+        StubProvider provider = new StubProvider();
+        ManualClockCache cache = new ManualClockCache(provider);
+        RecordingListener listener = new RecordingListener();
+
+        cache.get("Paris", listener);
+        cache.cancel(listener);
+        provider.answer(0);
+
+        assertEquals(0, listener.received.size());
+    }
+
+    static WeatherCodec.Forecast forecast(String city) {
+        return new WeatherCodec.Forecast(city.getBytes(), new byte[2 * WeatherCodec.DAYS], new byte[2 * WeatherCodec.DAYS], new byte[2 * WeatherCodec.DAYS]);
+    }
+}
@@ -0,0 +1,106 @@
+package org.asteroidos.sync.ble;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NotificationCodecTest {
+    private static final int ID = 0x01020304;
+
+    private static final NotificationCodec.Fields HELD = new NotificationCodec.Fields(
+            "org.example.chat", "Chat", "ios-chatbubbles", "Alice", "See you at 8?");
+
+    @Test
+    public void insertCarriesEveryTag() {
+        byte[] data = NotificationCodec.insertTlv(ID, HELD, null);
+
+        assertEquals(NotificationCodec.MSG_INSERT, data[0]);
+        assertArrayEquals(new byte[] {0x04, 0x03, 0x02, 0x01}, Arrays.copyOfRange(data, 1, 5));
+        assertArrayEquals(new byte[] {NotificationCodec.TAG_PACKAGE_NAME, NotificationCodec.TAG_APP_NAME,
+                NotificationCodec.TAG_APP_ICON, NotificationCodec.TAG_SUMMARY, NotificationCodec.TAG_BODY}, tags(data));
+    }
+
+    @Test
+    public void updateCarriesOnlyChangedTags() {
+        NotificationCodec.Fields newer = new NotificationCodec.Fields(
+                "org.example.chat", "Chat", "ios-chatbubbles", "Alice", "Make it 9");
+
+        byte[] data = NotificationCodec.insertTlv(ID, newer, HELD);
+
+        assertEquals(NotificationCodec.MSG_UPDATE, data[0]);
+        assertArrayEquals(new byte[] {NotificationCodec.TAG_BODY}, tags(data));
+        assertEquals("Make it 9", new String(data, 8, data.length - 8, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unchangedUpdateIsDropped() {
+        NotificationCodec.Fields same = new NotificationCodec.Fields(
+                "org.example.chat", "Chat", "ios-chatbubbles", "Alice", "See you at 8?");
+
+        assertNull(NotificationCodec.insertTlv(ID, same, HELD));
+    }
+
+    @Test
+    public void truncationDoesNotSplitSurrogatePair() {
+        String emoji = "\uD83D\uDE00";
+        String head = repeat('a', NotificationCodec.MAX_FIELD_LENGTH - 1);
+
+        // The pair straddles the bound, so it's dropped whole.
+        NotificationCodec.Fields straddling = new NotificationCodec.Fields(null, null, null, null, head + emoji + "tail");
+        assertEquals(head, straddling.body);
+
+        // The pair ends right on the bound, so it's kept.
+        String fits = repeat('a', NotificationCodec.MAX_FIELD_LENGTH - 2) + emoji;
+        NotificationCodec.Fields ending = new NotificationCodec.Fields(null, null, null, null, fits + "tail");
+        assertEquals(fits, ending.body);
+
+        // A lone surrogate would have come back as a replacement character.
+        assertEquals(fits, new String(ending.body.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void xmlEscapingRoundTrips() throws Exception {
+        String summary = "Tom & \"Jerry\"";
+        String body = "<b>it's</b> 1 < 2 && 3 > 2";
+        NotificationCodec.Fields fields = new NotificationCodec.Fields("org.example.chat", "Chat", "", summary, body);
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(NotificationCodec.insertXml(42, fields)));
+
+        assertEquals("42", text(document, "id"));
+        assertEquals(summary, text(document, "su"));
+        assertEquals(body, text(document, "bo"));
+    }
+
+    /* The tag of every field, in order, skipping over their values. */
+    private static byte[] tags(byte[] data) {
+        byte[] tags = new byte[data.length];
+        int count = 0;
+        int offset = 5;
+        while (offset < data.length) {
+            tags[count++] = data[offset];
+            offset += 3 + ((data[offset + 1] & 0xff) | (data[offset + 2] & 0xff) << 8);
+        }
+        assertEquals(data.length, offset);
+        return Arrays.copyOf(tags, count);
+    }
+
+    private static String text(Document document, String tag) {
+        return document.getElementsByTagName(tag).item(0).getTextContent();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,54 @@
+package org.asteroidos.sync.ble;
+
+import com.idevicesinc.sweetblue.BleDevice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Records what would have gone to the watch instead of writing it. A queued one keeps the
+ * scheduler's own queueing, so only the write in flight has been sent, at a clock that stands
+ * still. An unqueued one records every write the moment it's made, for tests that acknowledge
+ * the writes by hand.
+ */
+class RecordingScheduler extends OutboundScheduler {
+    final List<UUID> sentUuids = new ArrayList<>();
+    final List<byte[]> sentData = new ArrayList<>();
+
+    private final boolean mQueued;
+
+    private RecordingScheduler(boolean queued) {
+        super(null);
+        mQueued = queued;
+    }
+
+    static RecordingScheduler queued() {
+        return new RecordingScheduler(true);
+    }
+
+    static RecordingScheduler unqueued() {
+        return new RecordingScheduler(false);
+    }
+
+    @Override
+    public void write(TrafficClass trafficClass, UUID charUuid, byte[] data, long deadlineMs, BleDevice.ReadWriteListener listener, DropListener dropListener) {
+        if (mQueued) {
+            super.write(trafficClass, charUuid, data, deadlineMs, listener, dropListener);
+        } else {
+            sentUuids.add(charUuid);
+            sentData.add(data);
+        }
+    }
+
+    @Override
+    protected void send(UUID charUuid, byte[] data, BleDevice.ReadWriteListener listener) {
+        sentUuids.add(charUuid);
+        sentData.add(data);
+    }
+
+    @Override
+    protected long now() {
+        return 0;
+    }
+}
@@ -0,0 +1,82 @@
+package org.asteroidos.sync.ble;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class WeatherCodecTest {
+    /* 2017-07-14 00:00 UTC. */
+    private static final long MIDNIGHT_UTC = 1499990400L;
+    private static final long THREE_HOURS = 3 * 60 * 60;
+
+    /* Two UTC days of data points every three hours, the k-th one at k degrees with condition 800 + k. */
+    private static final int COUNT = 16;
+    private static final long[] TIMESTAMPS = new long[COUNT];
+    private static final float[] TEMPS = new float[COUNT];
+    private static final int[] IDS = new int[COUNT];
+
+    static {
+        for (int k = 0; k < COUNT; k++) {
+            TIMESTAMPS[k] = MIDNIGHT_UTC + k * THREE_HOURS;
+            TEMPS[k] = k;
+            IDS[k] = 800 + k;
+        }
+    }
+
+    @Test
+    public void daysSplitInUtc() {
+        WeatherCodec.Forecast forecast = WeatherCodec.encode("City", TIMESTAMPS, TEMPS, IDS, COUNT, TimeZone.getTimeZone("UTC"));
+
+        // 00:00 to 21:00 of each day, the first afternoon point is at 12:00.
+        assertArrayEquals(shorts(804, 812, 0, 0, 0), forecast.ids);
+        assertArrayEquals(shorts(0, 8, 0, 0, 0), forecast.minTemps);
+        assertArrayEquals(shorts(7, 15, 0, 0, 0), forecast.maxTemps);
+    }
+
+    @Test
+    public void daysSplitInAnotherZone() {
+        WeatherCodec.Forecast forecast = WeatherCodec.encode("City", TIMESTAMPS, TEMPS, IDS, COUNT, TimeZone.getTimeZone("GMT+10:00"));
+
+        // Local 10:00 to 22:00, then 01:00 to 22:00, then a morning with no afternoon point.
+        assertArrayEquals(shorts(801, 809, 0, 0, 0), forecast.ids);
+        assertArrayEquals(shorts(0, 5, 13, 0, 0), forecast.minTemps);
+        assertArrayEquals(shorts(4, 12, 15, 0, 0), forecast.maxTemps);
+    }
+
+    @Test
+    public void fewerPointsThanDays() {
+        long[] timestamps = {MIDNIGHT_UTC + 13 * 60 * 60, MIDNIGHT_UTC + 16 * 60 * 60, 0};
+        float[] temps = {-2.6f, 1.4f, 100};
+        int[] ids = {500, 501, 999};
+
+        // The last point is past count, so it's ignored.
+        WeatherCodec.Forecast forecast = WeatherCodec.encode("Z\u00fcrich", timestamps, temps, ids, 2, TimeZone.getTimeZone("UTC"));
+
+        assertArrayEquals("Z\u00fcrich".getBytes(StandardCharsets.UTF_8), forecast.city);
+        assertArrayEquals(shorts(500, 0, 0, 0, 0), forecast.ids);
+        assertArrayEquals(shorts(-3, 0, 0, 0, 0), forecast.minTemps);
+        assertArrayEquals(shorts(1, 0, 0, 0, 0), forecast.maxTemps);
+    }
+
+    @Test
+    public void noPoints() {
+        WeatherCodec.Forecast forecast = WeatherCodec.encode("City", new long[0], new float[0], new int[0], 0, TimeZone.getTimeZone("UTC"));
+
+        assertArrayEquals(new byte[2 * WeatherCodec.DAYS], forecast.ids);
+        assertArrayEquals(new byte[2 * WeatherCodec.DAYS], forecast.minTemps);
+        assertArrayEquals(new byte[2 * WeatherCodec.DAYS], forecast.maxTemps);
+    }
+
+    /* Big endian int16s, the way the watch reads them. */
+    static byte[] shorts(int... values) {
+        byte[] data = new byte[2 * values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[2 * i] = (byte) (values[i] >> 8);
+            data[2 * i + 1] = (byte) values[i];
+        }
+        return data;
+    }
+}
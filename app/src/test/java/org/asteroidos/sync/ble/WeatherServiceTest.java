@@ -0,0 +1,98 @@
+package org.asteroidos.sync.ble;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WeatherServiceTest {
+    private static final long TTL_MS = 30 * 60 * 1000;
+
+    /* Only ever holds the default city. */
+    private static class FakePreferences implements SharedPreferences {
+        @Override public Map<String, ?> getAll() { return Collections.emptyMap(); }
+        @Override public String getString(String key, String defValue) { return defValue; }
+        @Override public Set<String> getStringSet(String key, Set<String> defValues) { return defValues; }
+        @Override public int getInt(String key, int defValue) { return defValue; }
+        @Override public long getLong(String key, long defValue) { return defValue; }
+        @Override public float getFloat(String key, float defValue) { return defValue; }
+        @Override public boolean getBoolean(String key, boolean defValue) { return defValue; }
+        @Override public boolean contains(String key) { return false; }
+        @Override public Editor edit() { throw new UnsupportedOperationException(); }
+        @Override public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+        @Override public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {}
+    }
+
+    private final ForecastCacheTest.StubProvider mProvider = new ForecastCacheTest.StubProvider();
+    private final ForecastCacheTest.ManualClockCache mCache = new ForecastCacheTest.ManualClockCache(mProvider);
+    // The writes are acknowledged by hand, so none of them wait in the queue.
+    private final RecordingScheduler mScheduler = RecordingScheduler.unqueued();
+    private final WeatherService mService = new WeatherService(new FakePreferences(), null, mScheduler, mCache);
+
+    @Test
+    public void onlyChangedFieldsAreWritten() {
+        mService.sync();
+        mProvider.callbacks.get(0).success(forecast(20));
+        assertEquals(4, mScheduler.sentUuids.size());
+        acknowledgeAll();
+
+        // A newer forecast where only the max temperatures moved.
+        mCache.time += TTL_MS;
+        mService.updateWeather();
+        mProvider.callbacks.get(1).success(forecast(21));
+
+        assertEquals(5, mScheduler.sentUuids.size());
+        assertEquals(WeatherService.weatherMaxTempsCharac, mScheduler.sentUuids.get(4));
+        assertArrayEquals(WeatherCodecTest.shorts(21, 21, 21, 21, 21), mScheduler.sentData.get(4));
+    }
+
+    @Test
+    public void failedWriteIsRetried() {
+        mService.sync();
+        mProvider.callbacks.get(0).success(forecast(20));
+        assertEquals(4, mScheduler.sentUuids.size());
+
+        for (int i = 0; i < 4; i++) {
+            UUID charUuid = mScheduler.sentUuids.get(i);
+            if (charUuid.equals(WeatherService.weatherIdsCharac))
+                mService.onWriteFailed(charUuid);
+            else
+                mService.onWritten(charUuid, mScheduler.sentData.get(i));
+        }
+
+        // The same forecast again, only what didn't make it goes out.
+        mCache.time += TTL_MS;
+        mService.updateWeather();
+        mProvider.callbacks.get(1).success(forecast(20));
+
+        assertEquals(5, mScheduler.sentUuids.size());
+        assertEquals(WeatherService.weatherIdsCharac, mScheduler.sentUuids.get(4));
+    }
+
+    @Test
+    public void nothingWrittenOnceUnsynced() {
+        mService.sync();
+        mService.unsync();
+        mProvider.callbacks.get(0).success(forecast(20));
+
+        assertEquals(0, mScheduler.sentUuids.size());
+    }
+
+    private void acknowledgeAll() {
+        for (int i = 0; i < mScheduler.sentUuids.size(); i++)
+            mService.onWritten(mScheduler.sentUuids.get(i), mScheduler.sentData.get(i));
+    }
+
+    /* Fresh arrays every time, so unchanged fields are only equal by content. */
+    private static WeatherCodec.Forecast forecast(int maxTemp) {
+        return new WeatherCodec.Forecast("Paris".getBytes(), WeatherCodecTest.shorts(800, 801, 802, 803, 804),
+                WeatherCodecTest.shorts(10, 10, 10, 10, 10), WeatherCodecTest.shorts(maxTemp, maxTemp, maxTemp, maxTemp, maxTemp));
+    }
+}